@@ -0,0 +1,40 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.fs.gcs;
+
+import org.apache.hadoop.fs.ByteBufferReadable;
+import org.apache.hadoop.fs.FileSystem;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * A GoogleHadoopFSInputStream which advertises ByteBufferReadable, so that
+ * FSDataInputStream.read(ByteBuffer) is served by {@link GoogleHadoopFSInputStream#read(
+ * java.nio.ByteBuffer)} instead of throwing UnsupportedOperationException.
+ *
+ * ByteBufferReadable only exists in Hadoop 2, so this class is excluded from Hadoop 1 builds and
+ * only instantiated through {@link GoogleHadoopFSInputStream#create}.
+ */
+class ByteBufferReadableGoogleHadoopFSInputStream
+    extends GoogleHadoopFSInputStream implements ByteBufferReadable {
+
+  ByteBufferReadableGoogleHadoopFSInputStream(
+      GoogleHadoopFileSystemBase ghfs, URI gcsPath, int bufferSize,
+      FileSystem.Statistics statistics, FileTailCache tailCache, int tailSize)
+      throws IOException {
+    super(ghfs, gcsPath, bufferSize, statistics, tailCache, tailSize);
+  }
+}
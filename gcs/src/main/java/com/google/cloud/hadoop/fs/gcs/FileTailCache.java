@@ -0,0 +1,136 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.fs.gcs;
+
+import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * A size-bounded LRU cache of the last bytes of recently read objects, keyed by bucket, object
+ * name and content generation so that an overwritten object never hits a stale entry. Columnar
+ * formats (ORC, Parquet, Avro) read their footer from the tail of the file in every task touching
+ * the file; serving those reads from memory saves a ranged media request per task.
+ *
+ * A single instance is shared by all GoogleHadoopFileSystemBase instances in the JVM, see
+ * {@link #getInstance(long)}.
+ */
+class FileTailCache {
+
+  // Logging helper.
+  private static final LogUtil log = new LogUtil(FileTailCache.class);
+
+  // The per-JVM instance, created by the first file system which enables the cache.
+  private static FileTailCache instance;
+
+  /**
+   * Identifies a single generation of an object.
+   */
+  static class Key {
+    private final String bucketName;
+    private final String objectName;
+    private final long generation;
+
+    Key(String bucketName, String objectName, long generation) {
+      this.bucketName = bucketName;
+      this.objectName = objectName;
+      this.generation = generation;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return generation == other.generation
+          && Objects.equal(bucketName, other.bucketName)
+          && Objects.equal(objectName, other.objectName);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(bucketName, objectName, generation);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("gs://%s/%s#%d", bucketName, objectName, generation);
+    }
+  }
+
+  // Tail bytes by object generation; weighed by byte length, evicted in LRU order.
+  private final Cache<Key, byte[]> cache;
+
+  // Maximum total number of tail bytes held by this cache.
+  private final long maxSizeBytes;
+
+  /**
+   * Returns the per-JVM FileTailCache, creating it with the given capacity if it does not exist
+   * yet. The capacity of an existing instance is not changed.
+   */
+  static synchronized FileTailCache getInstance(long maxSizeBytes) {
+    if (instance == null) {
+      log.debug("Creating FileTailCache with capacity %d bytes", maxSizeBytes);
+      instance = new FileTailCache(maxSizeBytes);
+    } else if (instance.maxSizeBytes != maxSizeBytes) {
+      log.debug("FileTailCache already exists with capacity %d bytes; ignoring requested %d",
+          instance.maxSizeBytes, maxSizeBytes);
+    }
+    return instance;
+  }
+
+  @VisibleForTesting
+  FileTailCache(long maxSizeBytes) {
+    Preconditions.checkArgument(maxSizeBytes > 0,
+        "maxSizeBytes must be a positive integer: %s", maxSizeBytes);
+    this.maxSizeBytes = maxSizeBytes;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxSizeBytes)
+        .weigher(new Weigher<Key, byte[]>() {
+          @Override
+          public int weigh(Key key, byte[] tail) {
+            return tail.length;
+          }
+        })
+        .build();
+  }
+
+  /**
+   * Returns the cached tail of the given object generation, or null if it is not cached.
+   */
+  byte[] get(Key key) {
+    return cache.getIfPresent(key);
+  }
+
+  /**
+   * Caches the tail of the given object generation.
+   */
+  void put(Key key, byte[] tail) {
+    cache.put(key, tail);
+  }
+
+  /**
+   * Returns the number of entries currently cached.
+   */
+  @VisibleForTesting
+  long size() {
+    return cache.size();
+  }
+}
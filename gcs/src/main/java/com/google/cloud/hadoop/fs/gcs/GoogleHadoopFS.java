@@ -27,8 +27,10 @@ import org.apache.hadoop.fs.FileChecksum;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FsServerDefaults;
 import org.apache.hadoop.fs.FsStatus;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Options.ChecksumOpt;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.util.Progressable;
 
@@ -225,6 +227,41 @@ public class GoogleHadoopFS extends AbstractFileSystem {
     return ghfs.listStatus(f);
   }
 
+  /**
+   * Lists the directory from GCS one page at a time as the returned iterator advances, rather
+   * than all at once like listStatus(). AbstractFileSystem's listLocatedStatus(), and hence
+   * FileContext's listFiles(), build on this.
+   */
+  @Override
+  public RemoteIterator<FileStatus> listStatusIterator(final Path f) throws IOException {
+    log.debug("listStatusIterator");
+    final GoogleHadoopFileSystemBase.FileStatusIterator statuses =
+        ghfs.listStatusIncrementally(f);
+    return new RemoteIterator<FileStatus>() {
+      @Override
+      public boolean hasNext() throws IOException {
+        return statuses.hasNext();
+      }
+
+      @Override
+      public FileStatus next() throws IOException {
+        return statuses.next();
+      }
+    };
+  }
+
+  /**
+   * Lists the children of the given directory page by page like listStatusIterator, attaching
+   * block locations which are synthesized from each status instead of looking up its path again.
+   * AbstractFileSystem's listLocatedStatus() is not recursive; FileContext's recursive listFiles()
+   * calls it once per directory, unlike FileSystem.listFiles() on GoogleHadoopFileSystem.
+   */
+  @Override
+  public RemoteIterator<LocatedFileStatus> listLocatedStatus(final Path f) throws IOException {
+    log.debug("listLocatedStatus");
+    return ghfs.listLocatedStatus(f);
+  }
+
   @Override
   public void setVerifyChecksum(final boolean verifyChecksum) {
     log.debug("setVerifyChecksum");
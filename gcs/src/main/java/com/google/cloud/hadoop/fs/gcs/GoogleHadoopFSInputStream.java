@@ -16,7 +16,14 @@
 
 package com.google.cloud.hadoop.fs.gcs;
 
+import com.google.cloud.hadoop.gcsio.FileInfo;
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageItemInfo;
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageReadChannel;
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageReadOptions;
+import com.google.cloud.hadoop.gcsio.ItemInfoProvider;
+import com.google.cloud.hadoop.gcsio.ReadRange;
 import com.google.cloud.hadoop.gcsio.SeekableReadableByteChannel;
+import com.google.cloud.hadoop.util.BufferPool;
 import com.google.cloud.hadoop.util.LogUtil;
 import com.google.common.base.Preconditions;
 
@@ -24,8 +31,19 @@ import org.apache.hadoop.fs.FSInputStream;
 import org.apache.hadoop.fs.FileSystem;
 
 import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A seekable and positionable FSInputStream that provides read access to a file.
@@ -45,6 +63,9 @@ class GoogleHadoopFSInputStream
   // Internal buffer.
   private ByteBuffer buffer;
 
+  // Pool the internal buffer was taken from and is returned to on close(), or null.
+  private final BufferPool bufferPool;
+
   // Path of the file to read.
   private URI gcsPath;
 
@@ -58,6 +79,150 @@ class GoogleHadoopFSInputStream
   // Time of initialization
   private long initTime;
 
+  // Constructor of ByteBufferReadableGoogleHadoopFSInputStream, or null if it is not available
+  // because we were built against Hadoop 1.
+  private static final Constructor<? extends GoogleHadoopFSInputStream>
+      BYTE_BUFFER_READABLE_CONSTRUCTOR = findByteBufferReadableConstructor();
+
+  // Returned by readFromTail() when a positional read does not fall within the tail of the file.
+  private static final int NOT_IN_TAIL = -2;
+
+  // Per-JVM cache of file tails used to serve positional reads near the end of the file, or null
+  // if tail caching is disabled.
+  private final FileTailCache tailCache;
+
+  // Number of bytes at the end of the file which are cached in tailCache.
+  private final int tailSize;
+
+  // Metadata of the file being read, used to learn the size and generation of the file when tail
+  // caching is enabled. Taken from the sequential channel if it fetched it when opened, and
+  // otherwise fetched lazily on the first positional read.
+  private GoogleCloudStorageItemInfo itemInfo;
+
+  // Tail of the file once it has been looked up or fetched.
+  private byte[] tail;
+
+  // Guards itemInfo and tail, which are used by positional reads independently of the
+  // sequential state guarded by this stream's monitor.
+  private final Object tailLock = new Object();
+
+  // Read options for the channels serving positional reads: each read is fetched with a single
+  // bounded range request covering exactly the requested bytes.
+  private static final GoogleCloudStorageReadOptions POSITIONAL_READ_OPTIONS =
+      GoogleCloudStorageReadOptions.newBuilder()
+          .setFadvise(GoogleCloudStorageReadOptions.Fadvise.RANDOM)
+          .setMinRangeRequestSize(1)
+          .build();
+
+  // Idle channels used for positional reads. Each positional read takes a channel (opening a new
+  // one if none is idle) so that concurrent positional reads never share a channel, and never
+  // touch the sequential channel.
+  private final Deque<SeekableReadableByteChannel> positionalChannels = new ArrayDeque<>();
+
+  // Set once close() has been called; positional channels released afterwards are closed.
+  private volatile boolean closed;
+
+  /**
+   * Wraps the future of a vectored read range so that the bytes of the range are added to the
+   * statistics once, when the range is first successfully retrieved, rather than when the reads
+   * are started; ranges which fail or are never retrieved are not counted.
+   */
+  private static class CountingRangeFuture
+      implements Future<ByteBuffer> {
+    private final Future<ByteBuffer> delegate;
+    private final FileSystem.Statistics statistics;
+    private final AtomicBoolean counted = new AtomicBoolean();
+
+    CountingRangeFuture(Future<ByteBuffer> delegate, FileSystem.Statistics statistics) {
+      this.delegate = delegate;
+      this.statistics = statistics;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return delegate.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return delegate.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+      return delegate.isDone();
+    }
+
+    @Override
+    public ByteBuffer get()
+        throws InterruptedException, ExecutionException {
+      return count(delegate.get());
+    }
+
+    @Override
+    public ByteBuffer get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      return count(delegate.get(timeout, unit));
+    }
+
+    private ByteBuffer count(ByteBuffer contents) {
+      if (contents.remaining() > 0 && counted.compareAndSet(false, true)) {
+        statistics.incrementBytesRead(contents.remaining());
+      }
+      return contents;
+    }
+  }
+
+  /**
+   * Looks up the constructor of the Hadoop 2 only ByteBufferReadable subclass.
+   */
+  private static Constructor<? extends GoogleHadoopFSInputStream>
+      findByteBufferReadableConstructor() {
+    try {
+      return Class.forName(
+          "com.google.cloud.hadoop.fs.gcs.ByteBufferReadableGoogleHadoopFSInputStream")
+          .asSubclass(GoogleHadoopFSInputStream.class)
+          .getDeclaredConstructor(GoogleHadoopFileSystemBase.class, URI.class, int.class,
+              FileSystem.Statistics.class, FileTailCache.class, int.class);
+    } catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+      log.debug("ByteBufferReadable input streams are not available: %s", e);
+      return null;
+    }
+  }
+
+  /**
+   * Creates a GoogleHadoopFSInputStream which also implements ByteBufferReadable when running
+   * against Hadoop 2.
+   *
+   * @param ghfs Instance of GoogleHadoopFileSystemBase.
+   * @param gcsPath Path of the file to read from.
+   * @param bufferSize Size of the buffer to use.
+   * @param statistics File system statistics object.
+   * @param tailCache Cache used to serve positional reads in the tail of the file, or null.
+   * @param tailSize Number of bytes at the end of the file served from tailCache.
+   * @throws IOException if an IO error occurs.
+   */
+  static GoogleHadoopFSInputStream create(
+      GoogleHadoopFileSystemBase ghfs, URI gcsPath, int bufferSize,
+      FileSystem.Statistics statistics, FileTailCache tailCache, int tailSize)
+      throws IOException {
+    if (BYTE_BUFFER_READABLE_CONSTRUCTOR == null) {
+      return new GoogleHadoopFSInputStream(
+          ghfs, gcsPath, bufferSize, statistics, tailCache, tailSize);
+    }
+    try {
+      return BYTE_BUFFER_READABLE_CONSTRUCTOR.newInstance(
+          ghfs, gcsPath, bufferSize, statistics, tailCache, tailSize);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } catch (InstantiationException | IllegalAccessException e) {
+      throw new IOException(e);
+    }
+  }
+
   /**
    * Constructs an instance of GoogleHadoopFSInputStream object.
    *
@@ -71,14 +236,40 @@ class GoogleHadoopFSInputStream
       GoogleHadoopFileSystemBase ghfs, URI gcsPath, int bufferSize,
       FileSystem.Statistics statistics)
       throws IOException {
+    this(ghfs, gcsPath, bufferSize, statistics, null, 0);
+  }
+
+  /**
+   * Constructs an instance of GoogleHadoopFSInputStream object.
+   *
+   * @param ghfs Instance of GoogleHadoopFileSystemBase.
+   * @param gcsPath Path of the file to read from.
+   * @param bufferSize Size of the buffer to use.
+   * @param statistics File system statistics object.
+   * @param tailCache Cache used to serve positional reads in the tail of the file, or null.
+   * @param tailSize Number of bytes at the end of the file served from tailCache.
+   * @throws IOException if an IO error occurs.
+   */
+  GoogleHadoopFSInputStream(
+      GoogleHadoopFileSystemBase ghfs, URI gcsPath, int bufferSize,
+      FileSystem.Statistics statistics, FileTailCache tailCache, int tailSize)
+      throws IOException {
     log.debug("GoogleHadoopFSInputStream(%s, %d)", gcsPath, bufferSize);
+    Preconditions.checkArgument(tailCache == null || tailSize > 0,
+        "tailSize must be a positive integer when tailCache is set: %s", tailSize);
     this.ghfs = ghfs;
     this.gcsPath = gcsPath;
     this.statistics = statistics;
+    this.tailCache = tailCache;
+    this.tailSize = tailSize;
     initTime = System.nanoTime();
     totalBytesRead = 0;
     channel = ghfs.getGcsFs().open(gcsPath);
-    buffer = ByteBuffer.allocate(bufferSize);
+    if (channel instanceof ItemInfoProvider) {
+      itemInfo = ((ItemInfoProvider) channel).getItemInfo();
+    }
+    bufferPool = ghfs.getReadBufferPool();
+    buffer = bufferPool != null ? bufferPool.acquire(bufferSize) : ByteBuffer.allocate(bufferSize);
     buffer.limit(0);
     buffer.rewind();
   }
@@ -189,11 +380,83 @@ class GoogleHadoopFSInputStream
     return numRead;
   }
 
+  /**
+   * Reads up to buf.remaining() bytes from the underlying store into the given buffer, starting
+   * at the current position. Less than buf.remaining() bytes may be returned. Reads at least as
+   * large as the internal buffer bypass it and are read directly into buf.
+   *
+   * @param buf The buffer into which data is returned.
+   *
+   * @return Number of bytes read or -1 on EOF.
+   * @throws IOException if an IO error occurs.
+   */
+  public synchronized int read(ByteBuffer buf)
+      throws IOException {
+    long startTime = System.nanoTime();
+    Preconditions.checkNotNull(buf, "buf must not be null");
+    if (!buf.hasRemaining()) {
+      return 0;
+    }
+
+    int numRead;
+    if (!buffer.hasRemaining() && buf.remaining() >= buffer.capacity()) {
+      // Drop the stale contents of the internal buffer so that a later backward seek doesn't
+      // reposition into it.
+      buffer.limit(0);
+      buffer.rewind();
+      long channelTime = System.nanoTime();
+      numRead = channel.read(buf);
+      long channelDuration = System.nanoTime() - channelTime;
+      ghfs.increment(GoogleHadoopFileSystemBase.Counter.READ_FROM_CHANNEL);
+      ghfs.increment(
+          GoogleHadoopFileSystemBase.Counter.READ_FROM_CHANNEL_TIME, channelDuration);
+    } else {
+      if (!buffer.hasRemaining()) {
+        long channelTime = System.nanoTime();
+        buffer.clear();
+        int numNewBytes = channel.read(buffer);
+        long channelDuration = System.nanoTime() - channelTime;
+        ghfs.increment(GoogleHadoopFileSystemBase.Counter.READ_FROM_CHANNEL);
+        ghfs.increment(
+            GoogleHadoopFileSystemBase.Counter.READ_FROM_CHANNEL_TIME, channelDuration);
+        if (numNewBytes <= 0) {
+          buffer.limit(0);
+          buffer.rewind();
+        } else {
+          buffer.flip();
+        }
+      }
+      numRead = Math.min(buffer.remaining(), buf.remaining());
+      if (numRead > 0) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(slice.position() + numRead);
+        buf.put(slice);
+        buffer.position(buffer.position() + numRead);
+      } else {
+        numRead = -1;
+      }
+    }
+
+    if (numRead > 0) {
+      statistics.incrementBytesRead(numRead);
+      totalBytesRead += numRead;
+    } else {
+      numRead = -1;
+    }
+
+    long duration = System.nanoTime() - startTime;
+    ghfs.increment(GoogleHadoopFileSystemBase.Counter.READ);
+    ghfs.increment(GoogleHadoopFileSystemBase.Counter.READ_TIME, duration);
+    return numRead;
+  }
+
   /**
    * Reads up to length bytes from the underlying store and stores
    * them starting at the specified offset in the given buffer.
    * Less than length bytes may be returned. Reading starts at the
-   * given position.
+   * given position. Positional reads are served by their own bounded
+   * range requests and neither move nor disturb the sequential stream,
+   * so several of them may run concurrently.
    *
    * @param position Data is read from the stream starting at this position.
    * @param buf The buffer into which data is returned.
@@ -207,13 +470,233 @@ class GoogleHadoopFSInputStream
   public int read(long position, byte[] buf, int offset, int length)
     throws IOException {
     long startTime = System.nanoTime();
-    int result = super.read(position, buf, offset, length);
+    Preconditions.checkNotNull(buf, "buf must not be null");
+    if (offset < 0 || length < 0 || length > buf.length - offset) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (position < 0) {
+      throw new IOException(String.format("Invalid position (%d), must be >= 0", position));
+    }
+    if (length == 0) {
+      return 0;
+    }
+
+    int result = NOT_IN_TAIL;
+    if (tailCache != null) {
+      result = readFromTail(position, buf, offset, length);
+    }
+    if (result == NOT_IN_TAIL) {
+      result = readFromPositionalChannel(position, buf, offset, length);
+    }
+    if (result > 0) {
+      statistics.incrementBytesRead(result);
+    }
     long duration = System.nanoTime() - startTime;
     ghfs.increment(GoogleHadoopFileSystemBase.Counter.READ_POS);
     ghfs.increment(GoogleHadoopFileSystemBase.Counter.READ_POS_TIME, duration);
     return result;
   }
 
+  /**
+   * Starts reading the given ranges of the file concurrently and returns immediately. Ranges
+   * lying close to each other are fetched with a single request. Like positional reads, vectored
+   * reads neither move nor disturb the sequential stream.
+   *
+   * @param ranges Ranges of the file to read; may overlap and need not be sorted.
+   * @return Futures completing with the contents of each range, in the order of ranges. A future
+   *     fails with an EOFException if its range extends past the end of the file. The bytes of a
+   *     range are counted as read when its future is first successfully retrieved.
+   * @throws IOException if the reads cannot be started.
+   */
+  public List<Future<ByteBuffer>> readVectored(List<ReadRange> ranges)
+      throws IOException {
+    long startTime = System.nanoTime();
+    Preconditions.checkNotNull(ranges, "ranges must not be null");
+    if (closed) {
+      throw new IOException("Stream is closed: " + gcsPath);
+    }
+
+    List<Future<ByteBuffer>> result = new ArrayList<>(ranges.size());
+    for (Future<ByteBuffer> rangeFuture : ghfs.getGcsFs().readVectored(gcsPath, ranges)) {
+      result.add(new CountingRangeFuture(rangeFuture, statistics));
+    }
+    long duration = System.nanoTime() - startTime;
+    ghfs.increment(GoogleHadoopFileSystemBase.Counter.READ_VECTORED);
+    ghfs.increment(GoogleHadoopFileSystemBase.Counter.READ_VECTORED_TIME, duration);
+    return result;
+  }
+
+  /**
+   * Serves a positional read starting within the last tailSize bytes of the file from the tail
+   * cache, fetching the tail into the cache first if needed.
+   *
+   * @return Number of bytes read, or NOT_IN_TAIL if the read must be served from the object.
+   * @throws IOException if an IO error occurs.
+   */
+  private int readFromTail(long position, byte[] buf, int offset, int length)
+      throws IOException {
+    synchronized (tailLock) {
+      return readFromTailLocked(position, buf, offset, length);
+    }
+  }
+
+  private int readFromTailLocked(long position, byte[] buf, int offset, int length)
+      throws IOException {
+    long startTime = System.nanoTime();
+    if (itemInfo == null) {
+      FileInfo fileInfo = ghfs.getGcsFs().getFileInfo(gcsPath);
+      if (!fileInfo.exists() || fileInfo.isDirectory()) {
+        return NOT_IN_TAIL;
+      }
+      itemInfo = fileInfo.getItemInfo();
+    }
+
+    long size = itemInfo.getSize();
+    long tailStart = Math.max(0, size - tailSize);
+    if (position < tailStart || position >= size) {
+      return NOT_IN_TAIL;
+    }
+
+    boolean hit = true;
+    if (tail == null) {
+      FileTailCache.Key key = new FileTailCache.Key(
+          itemInfo.getBucketName(), itemInfo.getObjectName(), itemInfo.getContentGeneration());
+      tail = tailCache.get(key);
+      if (tail == null) {
+        hit = false;
+        tail = fetchTail(tailStart, size);
+        if (tail == null) {
+          return NOT_IN_TAIL;
+        }
+        tailCache.put(key, tail);
+      }
+    }
+
+    int numRead = (int) Math.min(length, size - position);
+    System.arraycopy(tail, (int) (position - tailStart), buf, offset, numRead);
+
+    long duration = System.nanoTime() - startTime;
+    if (hit) {
+      ghfs.increment(GoogleHadoopFileSystemBase.Counter.TAIL_CACHE_HIT);
+      ghfs.increment(GoogleHadoopFileSystemBase.Counter.TAIL_CACHE_HIT_TIME, duration);
+    } else {
+      ghfs.increment(GoogleHadoopFileSystemBase.Counter.TAIL_CACHE_MISS);
+      ghfs.increment(GoogleHadoopFileSystemBase.Counter.TAIL_CACHE_MISS_TIME, duration);
+    }
+    return numRead;
+  }
+
+  /**
+   * Serves a positional read with a bounded range request on a channel independent of the
+   * sequential channel of this stream.
+   *
+   * @return Number of bytes read or -1 on EOF.
+   * @throws IOException if an IO error occurs.
+   */
+  private int readFromPositionalChannel(long position, byte[] buf, int offset, int length)
+      throws IOException {
+    SeekableReadableByteChannel positionalChannel = acquirePositionalChannel();
+    boolean reusable = false;
+    try {
+      if (position >= positionalChannel.size()) {
+        reusable = true;
+        return -1;
+      }
+      positionalChannel.position(position);
+      ByteBuffer target = ByteBuffer.wrap(buf, offset, length);
+      int numRead = 0;
+      while (target.hasRemaining()) {
+        int singleRead = positionalChannel.read(target);
+        if (singleRead < 0) {
+          break;
+        }
+        numRead += singleRead;
+      }
+      reusable = true;
+      return numRead == 0 ? -1 : numRead;
+    } catch (IllegalArgumentException e) {
+      throw new IOException(e);
+    } finally {
+      releasePositionalChannel(positionalChannel, reusable);
+    }
+  }
+
+  /**
+   * Returns an idle positional channel, or opens a new one if none is idle.
+   */
+  private SeekableReadableByteChannel acquirePositionalChannel()
+      throws IOException {
+    synchronized (positionalChannels) {
+      if (!positionalChannels.isEmpty()) {
+        return positionalChannels.removeFirst();
+      }
+    }
+    if (closed) {
+      throw new IOException("Stream is closed: " + gcsPath);
+    }
+    return ghfs.getGcsFs().open(gcsPath, POSITIONAL_READ_OPTIONS);
+  }
+
+  /**
+   * Returns a positional channel to the idle pool, or closes it if it failed or the stream has
+   * been closed in the meantime.
+   */
+  private void releasePositionalChannel(
+      SeekableReadableByteChannel positionalChannel, boolean reusable)
+      throws IOException {
+    if (reusable && !closed) {
+      synchronized (positionalChannels) {
+        positionalChannels.addFirst(positionalChannel);
+      }
+    } else {
+      positionalChannel.close();
+    }
+  }
+
+  /**
+   * Closes all idle positional channels.
+   */
+  private void closePositionalChannels()
+      throws IOException {
+    synchronized (positionalChannels) {
+      for (SeekableReadableByteChannel positionalChannel : positionalChannels) {
+        positionalChannel.close();
+      }
+      positionalChannels.clear();
+    }
+  }
+
+  /**
+   * Reads the bytes from tailStart to the end of the file through a separate channel, leaving
+   * the sequential channel of this stream undisturbed.
+   *
+   * @return The tail of the file, or null if the file no longer has the expected size.
+   * @throws IOException if an IO error occurs.
+   */
+  private byte[] fetchTail(long tailStart, long size)
+      throws IOException {
+    ByteBuffer tailBuffer = ByteBuffer.allocate((int) (size - tailStart));
+    SeekableReadableByteChannel tailChannel =
+        ghfs.getGcsFs().open(gcsPath, POSITIONAL_READ_OPTIONS);
+    try {
+      tailChannel.position(tailStart);
+      while (tailBuffer.hasRemaining()) {
+        if (tailChannel.read(tailBuffer) < 0) {
+          return null;
+        }
+      }
+      // The size is known without another request once data has been read.
+      if (tailChannel.size() != size) {
+        log.debug("Size of '%s' changed from %d to %d; not caching its tail.",
+            gcsPath, size, tailChannel.size());
+        return null;
+      }
+    } finally {
+      tailChannel.close();
+    }
+    return tailBuffer.array();
+  }
+
   /**
    * Gets the current position within the file being read.
    *
@@ -304,10 +787,22 @@ class GoogleHadoopFSInputStream
   @Override
   public synchronized void close()
       throws IOException {
+    closed = true;
     if (channel != null) {
     long startTime = System.nanoTime();
       try {
         log.debug("close: file: %s, totalBytesRead: %d", gcsPath, totalBytesRead);
+        if (channel instanceof GoogleCloudStorageReadChannel) {
+          GoogleCloudStorageReadChannel gcsChannel = (GoogleCloudStorageReadChannel) channel;
+          ghfs.increment(GoogleHadoopFileSystemBase.Counter.READ_INPLACE_SEEK,
+              gcsChannel.getInplaceSeekCount());
+          ghfs.increment(GoogleHadoopFileSystemBase.Counter.READ_INPLACE_SEEK_TIME,
+              gcsChannel.getInplaceSeekTimeNanos());
+          ghfs.increment(GoogleHadoopFileSystemBase.Counter.READ_REOPEN,
+              gcsChannel.getReopenCount());
+          ghfs.increment(GoogleHadoopFileSystemBase.Counter.READ_REOPEN_TIME,
+              gcsChannel.getReopenTimeNanos());
+        }
         channel.close();
         long duration = System.nanoTime() - startTime;
         ghfs.increment(GoogleHadoopFileSystemBase.Counter.READ_CLOSE);
@@ -320,6 +815,12 @@ class GoogleHadoopFSInputStream
         channel = null;
       }
     }
+    if (bufferPool != null && buffer.capacity() > 0) {
+      bufferPool.release(buffer);
+      // Never hand out bytes from a buffer which may now belong to another stream.
+      buffer = ByteBuffer.allocate(0);
+    }
+    closePositionalChannels();
   }
 
   /**
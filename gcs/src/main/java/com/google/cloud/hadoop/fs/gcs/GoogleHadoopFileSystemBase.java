@@ -17,11 +17,17 @@
 package com.google.cloud.hadoop.fs.gcs;
 
 import com.google.api.client.auth.oauth2.Credential;
+import com.google.cloud.hadoop.gcsio.CompositeUploadOptions;
 import com.google.cloud.hadoop.gcsio.CreateFileOptions;
 import com.google.cloud.hadoop.gcsio.DirectoryListCache;
 import com.google.cloud.hadoop.gcsio.FileInfo;
+import com.google.cloud.hadoop.gcsio.FileInfoIterator;
 import com.google.cloud.hadoop.gcsio.GoogleCloudStorageFileSystem;
 import com.google.cloud.hadoop.gcsio.GoogleCloudStorageFileSystemOptions;
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageOptions;
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageReadOptions;
+import com.google.cloud.hadoop.util.AsyncWriteChannelOptions;
+import com.google.cloud.hadoop.util.BufferPool;
 import com.google.cloud.hadoop.util.ConfigurationUtil;
 import com.google.cloud.hadoop.util.CredentialFactory;
 import com.google.cloud.hadoop.util.HadoopCredentialConfiguration;
@@ -56,6 +62,7 @@ import java.nio.file.DirectoryNotEmptyException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -84,7 +91,7 @@ import java.util.concurrent.atomic.AtomicLong;
  * return false.
  */
 public abstract class GoogleHadoopFileSystemBase
-    extends FileSystem implements FileSystemDescriptor {
+    extends LocatedListingFileSystem implements FileSystemDescriptor {
   // Logger.
   public static final LogUtil log = new LogUtil(GoogleHadoopFileSystemBase.class);
 
@@ -212,19 +219,35 @@ public abstract class GoogleHadoopFileSystemBase
   // Default value for fs.gs.parent.timestamp.update.enable.
   public static final boolean GCS_PARENT_TIMESTAMP_UPDATE_ENABLE_DEFAULT = true;
 
+  // Configuration key for the time in milliseconds for which parent directories to update are
+  // collected, so that each is updated once per window no matter how many of its children
+  // changed; 0 updates them after every change. Pending updates are made on close().
+  public static final String GCS_PARENT_TIMESTAMP_UPDATE_WINDOW_MILLIS_KEY =
+      "fs.gs.parent.timestamp.update.window.millis";
+
+  // Default value for fs.gs.parent.timestamp.update.window.millis.
+  public static final long GCS_PARENT_TIMESTAMP_UPDATE_WINDOW_MILLIS_DEFAULT =
+      GoogleCloudStorageFileSystemOptions.TIMESTAMP_UPDATE_WINDOW_MILLIS_DEFAULT;
+
   // Configuration key for specifying which implementation of DirectoryListCache to use for
   // supplementing GCS API "list" results. Supported implementations:
   // IN_MEMORY: Enforces immediate consistency within same Java process.
   // FILESYSTEM_BACKED: Enforces consistency across all cooperating processes pointed at the same
   //     local mirror directory, which may be an NFS directory for distributed coordination.
+  // LOG_BACKED: Enforces consistency across all cooperating processes on the same machine pointed
+  //     at the same local directory, which holds a single log of cache entries; also shares the
+  //     object metadata fetched for listings between those processes.
+  // SERVICE_BACKED: Enforces consistency across all cooperating processes, on any machine, pointed
+  //     at the same DirectoryListCacheServer; also shares the object metadata fetched for listings
+  //     between those processes.
   public static final String GCS_METADATA_CACHE_TYPE_KEY = "fs.gs.metadata.cache.type";
 
   // Default value for fs.gs.metadata.cache.type.
   public static final String GCS_METADATA_CACHE_TYPE_DEFAULT = "IN_MEMORY";
 
-  // Only used if fs.gs.metadata.cache.type is FILESYSTEM_BACKED, specifies the local path to
-  // use as the base path for storing mirrored GCS metadata. Must be an absolute path, must be
-  // a directory, and must be fully readable/writable/executable by any user running processes
+  // Only used if fs.gs.metadata.cache.type is FILESYSTEM_BACKED or LOG_BACKED, specifies the local
+  // path to use as the base path for storing mirrored GCS metadata. Must be an absolute path, must
+  // be a directory, and must be fully readable/writable/executable by any user running processes
   // which use the GCS connector.
   public static final String GCS_METADATA_CACHE_DIRECTORY_KEY = "fs.gs.metadata.cache.directory";
 
@@ -232,6 +255,58 @@ public abstract class GoogleHadoopFileSystemBase
   public static final String GCS_METADATA_CACHE_DIRECTORY_DEFAULT =
       "/tmp/gcs_connector_metadata_cache";
 
+  // Only used if fs.gs.metadata.cache.type is SERVICE_BACKED, the host:port of the
+  // DirectoryListCacheServer holding the metadata cache. The server's own settings govern the
+  // expiration of its entries.
+  public static final String GCS_METADATA_CACHE_SERVICE_ADDRESS_KEY =
+      "fs.gs.metadata.cache.service.address";
+
+  // Default value for fs.gs.metadata.cache.service.address.
+  public static final String GCS_METADATA_CACHE_SERVICE_ADDRESS_DEFAULT = "";
+
+  // Only used if fs.gs.metadata.cache.type is SERVICE_BACKED, the secret shared with the
+  // DirectoryListCacheServer, which only serves clients that know it.
+  public static final String GCS_METADATA_CACHE_SERVICE_SECRET_KEY =
+      "fs.gs.metadata.cache.service.secret";
+
+  // Default value for fs.gs.metadata.cache.service.secret.
+  public static final String GCS_METADATA_CACHE_SERVICE_SECRET_DEFAULT = "";
+
+  // Configuration key for the time in milliseconds after which an entry of the metadata cache
+  // expires, at which point GCS API "list" results are assumed to include the object.
+  public static final String GCS_METADATA_CACHE_MAX_ENTRY_AGE_KEY =
+      "fs.gs.metadata.cache.max.entry.age.millis";
+
+  // Default value for fs.gs.metadata.cache.max.entry.age.millis.
+  public static final long GCS_METADATA_CACHE_MAX_ENTRY_AGE_DEFAULT =
+      DirectoryListCache.Config.MAX_ENTRY_AGE_MILLIS_DEFAULT;
+
+  // Configuration key for the time in milliseconds after which the object metadata held by an
+  // entry of the metadata cache is fetched again.
+  public static final String GCS_METADATA_CACHE_MAX_INFO_AGE_KEY =
+      "fs.gs.metadata.cache.max.info.age.millis";
+
+  // Default value for fs.gs.metadata.cache.max.info.age.millis.
+  public static final long GCS_METADATA_CACHE_MAX_INFO_AGE_DEFAULT =
+      DirectoryListCache.Config.MAX_INFO_AGE_MILLIS_DEFAULT;
+
+  // Only used if fs.gs.metadata.cache.type is IN_MEMORY, the maximum number of objects held by
+  // the metadata cache, beyond which the least recently used ones are evicted; 0 for no limit.
+  public static final String GCS_METADATA_CACHE_MAX_ENTRIES_KEY =
+      "fs.gs.metadata.cache.max.entries";
+
+  // Default value for fs.gs.metadata.cache.max.entries.
+  public static final int GCS_METADATA_CACHE_MAX_ENTRIES_DEFAULT = 0;
+
+  // Only used if fs.gs.metadata.cache.type is IN_MEMORY, the interval in milliseconds at which a
+  // background thread removes expired entries from the metadata cache; 0 to only remove them
+  // when adding or listing objects.
+  public static final String GCS_METADATA_CACHE_EXPIRY_INTERVAL_KEY =
+      "fs.gs.metadata.cache.expiry.interval.millis";
+
+  // Default value for fs.gs.metadata.cache.expiry.interval.millis.
+  public static final long GCS_METADATA_CACHE_EXPIRY_INTERVAL_DEFAULT = 0;
+
   // Configuration key containing a comma-separated list of sub-strings that when matched will
   // cause a particular directory to not have its modification timestamp updated.
   // Includes take precedence over excludes.
@@ -276,6 +351,16 @@ public abstract class GoogleHadoopFileSystemBase
   private boolean enableAutoRepairImplicitDirectories =
       GCS_ENABLE_REPAIR_IMPLICIT_DIRECTORIES_DEFAULT;
 
+  // Configuration key for listing subdirectories from the prefixes returned by a listing alone,
+  // instead of fetching each subdirectory's placeholder object. Subdirectories listed this way
+  // fetch their modification time only when it is first asked for, and implicit ones are not
+  // repaired by listStatus; the status of a single directory is still fetched in full.
+  public static final String GCS_LIST_INFER_DIRECTORIES_KEY = "fs.gs.list.infer.directories.enable";
+
+  // Default value for fs.gs.list.infer.directories.enable.
+  public static final boolean GCS_LIST_INFER_DIRECTORIES_DEFAULT =
+      GoogleCloudStorageOptions.INFER_DIRECTORIES_FROM_PREFIXES_DEFAULT;
+
   // Configuration key for enabling the use of a large flat listing to pre-populate possible
   // glob matches in a single API call before running the core globbing logic in-memory rather
   // than sequentially and recursively performing API calls.
@@ -284,6 +369,248 @@ public abstract class GoogleHadoopFileSystemBase
   // Default value for fs.gs.glob.flatlist.enable.
   public static final boolean GCS_ENABLE_FLAT_GLOB_DEFAULT = true;
 
+  // Configuration key for the maximum number of objects copied, then deleted, by each batch of a
+  // directory rename.
+  public static final String GCS_RENAME_BATCH_SIZE_KEY = "fs.gs.rename.batch.size";
+
+  // Default value for fs.gs.rename.batch.size.
+  public static final int GCS_RENAME_BATCH_SIZE_DEFAULT =
+      GoogleCloudStorageFileSystemOptions.RENAME_BATCH_SIZE_DEFAULT;
+
+  // Configuration key for the maximum number of batches of a directory rename in flight at once.
+  public static final String GCS_RENAME_PARALLELISM_KEY = "fs.gs.rename.parallelism";
+
+  // Default value for fs.gs.rename.parallelism.
+  public static final int GCS_RENAME_PARALLELISM_DEFAULT =
+      GoogleCloudStorageFileSystemOptions.RENAME_PARALLELISM_DEFAULT;
+
+  // Configuration key for the maximum number of ranges listed at once when a flat glob lists a
+  // whole prefix; 1 lists the prefix sequentially.
+  public static final String GCS_LIST_PARALLELISM_KEY = "fs.gs.list.parallelism";
+
+  // Default value for fs.gs.list.parallelism.
+  public static final int GCS_LIST_PARALLELISM_DEFAULT =
+      GoogleCloudStorageFileSystemOptions.LIST_PARALLELISM_DEFAULT;
+
+  // Configuration key for the maximum number of paths whose file status, or absence, is cached
+  // for a short time; 0 disables the cache. Changes made by other clients may not be visible
+  // until the entries expire.
+  public static final String GCS_STAT_CACHE_MAX_ENTRIES_KEY = "fs.gs.stat.cache.max.entries";
+
+  // Default value for fs.gs.stat.cache.max.entries.
+  public static final int GCS_STAT_CACHE_MAX_ENTRIES_DEFAULT =
+      GoogleCloudStorageFileSystemOptions.STAT_CACHE_MAX_ENTRIES_DEFAULT;
+
+  // Configuration key for the time in milliseconds after which a cached file status expires.
+  public static final String GCS_STAT_CACHE_TTL_MILLIS_KEY = "fs.gs.stat.cache.ttl.millis";
+
+  // Default value for fs.gs.stat.cache.ttl.millis.
+  public static final long GCS_STAT_CACHE_TTL_MILLIS_DEFAULT =
+      GoogleCloudStorageFileSystemOptions.STAT_CACHE_TTL_MILLIS_DEFAULT;
+
+  // Configuration key for how the status of a path is looked up; GET fetches the file, then the
+  // directory object, while LIST lists the first names starting with the path in one request and
+  // also finds implicit directories.
+  public static final String GCS_STAT_PROBE_STRATEGY_KEY = "fs.gs.stat.probe.strategy";
+
+  // Default value for fs.gs.stat.probe.strategy.
+  public static final String GCS_STAT_PROBE_STRATEGY_DEFAULT =
+      GoogleCloudStorageFileSystemOptions.STAT_PROBE_STRATEGY_DEFAULT.name();
+
+  // Configuration key for the maximum number of batch requests a single bulk operation, such as
+  // deleting, copying or getting the metadata of many objects, sends concurrently.
+  public static final String GCS_BATCH_PARALLELISM_KEY = "fs.gs.batch.parallelism";
+
+  // Default value for fs.gs.batch.parallelism.
+  public static final int GCS_BATCH_PARALLELISM_DEFAULT =
+      GoogleCloudStorageOptions.MAX_CONCURRENT_BATCHES_DEFAULT;
+
+  // Configuration key for the access pattern hint of input streams; one of SEQUENTIAL (always
+  // request open-ended ranges), RANDOM (always request bounded ranges) or AUTO (switch to bounded
+  // ranges once a backward or long forward seek is seen).
+  public static final String GCS_INPUTSTREAM_FADVISE_KEY = "fs.gs.inputstream.fadvise";
+
+  // Default value for fs.gs.inputstream.fadvise.
+  public static final String GCS_INPUTSTREAM_FADVISE_DEFAULT =
+      GoogleCloudStorageReadOptions.FADVISE_DEFAULT.name();
+
+  // Configuration key for the minimum size of a bounded range request issued by input streams
+  // in RANDOM or AUTO mode; reads larger than this (e.g. a full fs.gs.io.buffersize refill) are
+  // requested in their entirety.
+  public static final String GCS_INPUTSTREAM_MIN_RANGE_REQUEST_SIZE_KEY =
+      "fs.gs.inputstream.min.range.request.size";
+
+  // Default value for fs.gs.inputstream.min.range.request.size.
+  public static final long GCS_INPUTSTREAM_MIN_RANGE_REQUEST_SIZE_DEFAULT =
+      GoogleCloudStorageReadOptions.MIN_RANGE_REQUEST_SIZE_DEFAULT;
+
+  // Configuration key for the maximum distance of a forward seek which input streams serve by
+  // reading and discarding bytes from the open HTTP stream instead of issuing a new request.
+  public static final String GCS_INPUTSTREAM_INPLACE_SEEK_LIMIT_KEY =
+      "fs.gs.inputstream.inplace.seek.limit";
+
+  // Default value for fs.gs.inputstream.inplace.seek.limit.
+  public static final long GCS_INPUTSTREAM_INPLACE_SEEK_LIMIT_DEFAULT =
+      GoogleCloudStorageReadOptions.INPLACE_SEEK_LIMIT_DEFAULT;
+
+  // Configuration key for the number of chunks input streams fetch concurrently ahead of the
+  // current position, each with its own range request. 0 disables prefetching.
+  public static final String GCS_INPUTSTREAM_PREFETCH_PARALLELISM_KEY =
+      "fs.gs.inputstream.prefetch.parallelism";
+
+  // Default value for fs.gs.inputstream.prefetch.parallelism.
+  public static final int GCS_INPUTSTREAM_PREFETCH_PARALLELISM_DEFAULT =
+      GoogleCloudStorageReadOptions.PREFETCH_PARALLELISM_DEFAULT;
+
+  // Configuration key for the size of each chunk fetched by the input stream prefetcher.
+  public static final String GCS_INPUTSTREAM_PREFETCH_CHUNK_SIZE_KEY =
+      "fs.gs.inputstream.prefetch.chunk.size";
+
+  // Default value for fs.gs.inputstream.prefetch.chunk.size.
+  public static final int GCS_INPUTSTREAM_PREFETCH_CHUNK_SIZE_DEFAULT =
+      GoogleCloudStorageReadOptions.PREFETCH_CHUNK_SIZE_DEFAULT;
+
+  // Configuration key for the maximum memory a single input stream may hold in prefetched or
+  // in-flight chunks; caps the effective parallelism at this value divided by the chunk size.
+  public static final String GCS_INPUTSTREAM_PREFETCH_MAX_MEMORY_KEY =
+      "fs.gs.inputstream.prefetch.max.memory";
+
+  // Default value for fs.gs.inputstream.prefetch.max.memory.
+  public static final long GCS_INPUTSTREAM_PREFETCH_MAX_MEMORY_DEFAULT =
+      GoogleCloudStorageReadOptions.PREFETCH_MAX_MEMORY_DEFAULT;
+
+  // Configuration key for the maximum number of bytes between two ranges of a vectored read
+  // which are still fetched with a single request; the bytes in between are read and discarded.
+  public static final String GCS_INPUTSTREAM_VECTORED_READ_MERGE_GAP_KEY =
+      "fs.gs.inputstream.vectored.read.merge.gap";
+
+  // Default value for fs.gs.inputstream.vectored.read.merge.gap.
+  public static final long GCS_INPUTSTREAM_VECTORED_READ_MERGE_GAP_DEFAULT =
+      GoogleCloudStorageReadOptions.VECTORED_READ_MERGE_GAP_DEFAULT;
+
+  // Configuration key for the maximum size of a single request covering several ranges of a
+  // vectored read.
+  public static final String GCS_INPUTSTREAM_VECTORED_READ_MAX_MERGED_SIZE_KEY =
+      "fs.gs.inputstream.vectored.read.max.merged.size";
+
+  // Default value for fs.gs.inputstream.vectored.read.max.merged.size.
+  public static final int GCS_INPUTSTREAM_VECTORED_READ_MAX_MERGED_SIZE_DEFAULT =
+      GoogleCloudStorageReadOptions.VECTORED_READ_MAX_MERGED_SIZE_DEFAULT;
+
+  // Configuration key for the maximum number of concurrent requests issued by a single vectored
+  // read.
+  public static final String GCS_INPUTSTREAM_VECTORED_READ_PARALLELISM_KEY =
+      "fs.gs.inputstream.vectored.read.parallelism";
+
+  // Default value for fs.gs.inputstream.vectored.read.parallelism.
+  public static final int GCS_INPUTSTREAM_VECTORED_READ_PARALLELISM_DEFAULT =
+      GoogleCloudStorageReadOptions.VECTORED_READ_PARALLELISM_DEFAULT;
+
+  // Configuration key for enabling the per-JVM cache of file tails, which serves positional reads
+  // of columnar file footers from memory instead of issuing a range request per reader.
+  public static final String GCS_INPUTSTREAM_TAIL_CACHE_ENABLE_KEY =
+      "fs.gs.inputstream.tail.cache.enable";
+
+  // Default value for fs.gs.inputstream.tail.cache.enable.
+  public static final boolean GCS_INPUTSTREAM_TAIL_CACHE_ENABLE_DEFAULT = false;
+
+  // Configuration key for the number of bytes at the end of each file kept in the tail cache.
+  public static final String GCS_INPUTSTREAM_TAIL_CACHE_TAIL_SIZE_KEY =
+      "fs.gs.inputstream.tail.cache.tail.size";
+
+  // Default value for fs.gs.inputstream.tail.cache.tail.size.
+  public static final int GCS_INPUTSTREAM_TAIL_CACHE_TAIL_SIZE_DEFAULT = 64 * 1024;
+
+  // Configuration key for the total size of the tail cache. The cache is shared by all file
+  // system instances in the JVM and sized by the first one which enables it.
+  public static final String GCS_INPUTSTREAM_TAIL_CACHE_MAX_SIZE_KEY =
+      "fs.gs.inputstream.tail.cache.max.size";
+
+  // Default value for fs.gs.inputstream.tail.cache.max.size.
+  public static final long GCS_INPUTSTREAM_TAIL_CACHE_MAX_SIZE_DEFAULT = 32 * 1024 * 1024;
+
+  // Configuration key for taking input stream read buffers and upload pipe buffers from a
+  // per-JVM pool instead of allocating new ones for every stream.
+  public static final String GCS_BUFFER_POOL_ENABLE_KEY = "fs.gs.buffer.pool.enable";
+
+  // Default value for fs.gs.buffer.pool.enable.
+  public static final boolean GCS_BUFFER_POOL_ENABLE_DEFAULT =
+      AsyncWriteChannelOptions.BUFFER_POOL_ENABLED_DEFAULT;
+
+  // Configuration key for the maximum number of bytes held by idle buffers in each buffer pool.
+  // The pools are shared by all file system instances in the JVM and sized by the first one
+  // which enables them.
+  public static final String GCS_BUFFER_POOL_MAX_SIZE_KEY = "fs.gs.buffer.pool.max.size";
+
+  // Default value for fs.gs.buffer.pool.max.size.
+  public static final long GCS_BUFFER_POOL_MAX_SIZE_DEFAULT =
+      AsyncWriteChannelOptions.BUFFER_POOL_MAX_SIZE_DEFAULT;
+
+  // Configuration key for allocating pooled input stream read buffers off-heap. Upload pipe
+  // buffers always stay on the heap.
+  public static final String GCS_BUFFER_POOL_DIRECT_KEY = "fs.gs.buffer.pool.direct";
+
+  // Default value for fs.gs.buffer.pool.direct.
+  public static final boolean GCS_BUFFER_POOL_DIRECT_DEFAULT = false;
+
+  // Configuration key for writing files as parallel composite uploads: parts of the file are
+  // uploaded concurrently as temporary objects and composed into the file on close.
+  public static final String GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_ENABLE_KEY =
+      "fs.gs.outputstream.composite.upload.enable";
+
+  // Default value for fs.gs.outputstream.composite.upload.enable.
+  public static final boolean GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_ENABLE_DEFAULT =
+      CompositeUploadOptions.ENABLED_DEFAULT;
+
+  // Configuration key for the size of each part of a composite upload. A file may consist of at
+  // most 1024 parts.
+  public static final String GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_PART_SIZE_KEY =
+      "fs.gs.outputstream.composite.upload.part.size";
+
+  // Default value for fs.gs.outputstream.composite.upload.part.size.
+  public static final int GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_PART_SIZE_DEFAULT =
+      CompositeUploadOptions.PART_SIZE_DEFAULT;
+
+  // Configuration key for the maximum number of parts of a single file uploaded concurrently.
+  public static final String GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_CONCURRENCY_KEY =
+      "fs.gs.outputstream.composite.upload.concurrency";
+
+  // Default value for fs.gs.outputstream.composite.upload.concurrency.
+  public static final int GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_CONCURRENCY_DEFAULT =
+      CompositeUploadOptions.CONCURRENCY_DEFAULT;
+
+  // Configuration key for the maximum number of bytes a single output stream buffers for parts
+  // being filled or uploaded.
+  public static final String GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_MAX_MEMORY_KEY =
+      "fs.gs.outputstream.composite.upload.max.memory";
+
+  // Default value for fs.gs.outputstream.composite.upload.max.memory.
+  public static final long GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_MAX_MEMORY_DEFAULT =
+      CompositeUploadOptions.MAX_MEMORY_DEFAULT;
+
+  // Configuration key for the maximum number of bytes buffered at once by the uploads of all
+  // output streams of a file system instance; 0 means no limit. A stream reserves its buffers on
+  // its first write, or on close if nothing was written, rather than when it is opened. When the
+  // limit is near, new uploads get smaller buffers, and once not even the smallest fits, that
+  // write or close blocks until another upload completes, and fails if none does in time.
+  public static final String GCS_OUTPUTSTREAM_UPLOAD_MAX_MEMORY_KEY =
+      "fs.gs.outputstream.upload.max.memory";
+
+  // Default value for fs.gs.outputstream.upload.max.memory.
+  public static final long GCS_OUTPUTSTREAM_UPLOAD_MAX_MEMORY_DEFAULT =
+      AsyncWriteChannelOptions.UPLOAD_MAX_MEMORY_DEFAULT;
+
+  // Configuration key for the maximum number of concurrent uploads of all output streams of a
+  // file system instance; 0 means no limit. Uploads run on a thread pool of this size. While the
+  // limit is reached, the first write or close of a stream blocks until another upload
+  // completes, and fails if none does in time.
+  public static final String GCS_OUTPUTSTREAM_UPLOAD_MAX_CONCURRENT_KEY =
+      "fs.gs.outputstream.upload.max.concurrent";
+
+  // Default value for fs.gs.outputstream.upload.max.concurrent.
+  public static final int GCS_OUTPUTSTREAM_UPLOAD_MAX_CONCURRENT_DEFAULT =
+      AsyncWriteChannelOptions.MAX_CONCURRENT_UPLOADS_DEFAULT;
+
   // Default PathFilter that accepts all paths.
   public static final PathFilter DEFAULT_FILTER = new PathFilter() {
     @Override
@@ -334,6 +661,15 @@ public abstract class GoogleHadoopFileSystemBase
   // Buffer size to use instead of what Hadoop passed.
   private int bufferSizeOverride = BUFFERSIZE_DEFAULT;
 
+  // Shared cache of file tails, or null if fs.gs.inputstream.tail.cache.enable is false.
+  private FileTailCache tailCache = null;
+
+  // Value of fs.gs.inputstream.tail.cache.tail.size.
+  private int tailCacheTailSize = GCS_INPUTSTREAM_TAIL_CACHE_TAIL_SIZE_DEFAULT;
+
+  // Shared pool of input stream read buffers, or null if fs.gs.buffer.pool.enable is false.
+  private BufferPool readBufferPool = null;
+
   // Default block size.
   // Note that this is the size that is reported to Hadoop FS clients.
   // It does not modify the actual block size of an underlying GCS object,
@@ -441,14 +777,24 @@ public abstract class GoogleHadoopFileSystemBase
     READ_FROM_CHANNEL_TIME,
     READ_CLOSE,
     READ_CLOSE_TIME,
+    READ_INPLACE_SEEK,
+    READ_INPLACE_SEEK_TIME,
     READ_POS,
     READ_POS_TIME,
+    READ_REOPEN,
+    READ_REOPEN_TIME,
+    READ_VECTORED,
+    READ_VECTORED_TIME,
     RENAME,
     RENAME_TIME,
     SEEK,
     SEEK_TIME,
     SET_WD,
     SET_WD_TIME,
+    TAIL_CACHE_HIT,
+    TAIL_CACHE_HIT_TIME,
+    TAIL_CACHE_MISS,
+    TAIL_CACHE_MISS_TIME,
     WRITE1,
     WRITE1_TIME,
     WRITE,
@@ -767,8 +1113,8 @@ public abstract class GoogleHadoopFileSystemBase
         hadoopPath, bufferSize, bufferSizeOverride);
     bufferSize = bufferSizeOverride;
     URI gcsPath = getGcsPath(hadoopPath);
-    GoogleHadoopFSInputStream in =
-        new GoogleHadoopFSInputStream(this, gcsPath, bufferSize, statistics);
+    GoogleHadoopFSInputStream in = GoogleHadoopFSInputStream.create(
+        this, gcsPath, bufferSize, statistics, tailCache, tailCacheTailSize);
 
     long duration = System.nanoTime() - startTime;
     increment(Counter.OPEN);
@@ -993,6 +1339,119 @@ public abstract class GoogleHadoopFileSystemBase
     return status.toArray(new FileStatus[0]);
   }
 
+  /**
+   * Iterates over the statuses returned by {@link #listStatusIncrementally(Path)}. Its methods
+   * throw IOException like those of Hadoop 2's RemoteIterator, which Hadoop 1 doesn't have.
+   */
+  public class FileStatusIterator {
+    private final FileInfoIterator fileInfos;
+
+    // If true, directories are skipped.
+    private final boolean filesOnly;
+
+    // Entry to be returned by the next call of next(), if already looked up by hasNext().
+    private FileInfo nextFileInfo;
+
+    private FileStatusIterator(FileInfoIterator fileInfos, boolean filesOnly) {
+      this.fileInfos = fileInfos;
+      this.filesOnly = filesOnly;
+    }
+
+    /**
+     * Returns true if there are more statuses, listing the next page of the directory if needed.
+     */
+    public boolean hasNext()
+        throws IOException {
+      while (nextFileInfo == null && fileInfos.hasNext()) {
+        FileInfo fileInfo = fileInfos.next();
+        if (!filesOnly || !fileInfo.isDirectory()) {
+          nextFileInfo = fileInfo;
+        }
+      }
+      return nextFileInfo != null;
+    }
+
+    /**
+     * Returns the next status, listing the next page of the directory if needed.
+     *
+     * @throws NoSuchElementException if there are no more statuses
+     */
+    public FileStatus next()
+        throws IOException {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      FileInfo fileInfo = nextFileInfo;
+      nextFileInfo = null;
+      return getFileStatus(fileInfo);
+    }
+  }
+
+  /**
+   * Same as {@link #listStatus(Path)}, except that the children of a directory are listed from
+   * GCS one page at a time as the returned iterator advances, so that callers can process a large
+   * directory while it is being listed and in bounded memory. Children are sorted within each
+   * page, but not across pages. A missing path always results in FileNotFoundException.
+   *
+   * @param hadoopPath Given path.
+   * @return Iterator over the file statuses.
+   * @throws FileNotFoundException if the given path does not exist.
+   * @throws IOException if an error occurs.
+   */
+  public FileStatusIterator listStatusIncrementally(Path hadoopPath)
+      throws IOException {
+    long startTime = System.nanoTime();
+    Preconditions.checkArgument(hadoopPath != null, "hadoopPath must not be null");
+
+    checkOpen();
+
+    log.debug("GHFS.listStatusIncrementally: %s", hadoopPath);
+
+    URI gcsPath = getGcsPath(hadoopPath);
+    FileInfoIterator fileInfos = gcsfs.listFileInfoIterator(
+        gcsPath, enableAutoRepairImplicitDirectories);
+
+    long duration = System.nanoTime() - startTime;
+    increment(Counter.LIST_STATUS);
+    increment(Counter.LIST_STATUS_TIME, duration);
+    return new FileStatusIterator(fileInfos, false);
+  }
+
+  /**
+   * Lists the statuses of the files under the given path; Hadoop 2's
+   * FileSystem.listFiles(Path, boolean), which Hadoop 1 doesn't have, is served by this (see
+   * LocatedListingFileSystem). Directories are skipped; a file is returned as is. A recursive
+   * listing is served by a single listing of the object name prefix of the directory, which GCS
+   * returns page by page as the iterator advances, instead of one listing per subdirectory.
+   * Block locations of the returned statuses can be obtained with
+   * {@link #getFileBlockLocations(FileStatus, long, long)} without further calls to GCS.
+   *
+   * @param hadoopPath Given path; must not be the global root if recursive.
+   * @param recursive if true, files in subdirectories are listed as well.
+   * @return Iterator over the file statuses.
+   * @throws FileNotFoundException if the given path does not exist.
+   * @throws IOException if an error occurs.
+   */
+  public FileStatusIterator listFilesIncrementally(Path hadoopPath, boolean recursive)
+      throws IOException {
+    long startTime = System.nanoTime();
+    Preconditions.checkArgument(hadoopPath != null, "hadoopPath must not be null");
+
+    checkOpen();
+
+    log.debug("GHFS.listFilesIncrementally: %s, %s", hadoopPath, recursive);
+
+    URI gcsPath = getGcsPath(hadoopPath);
+    FileInfoIterator fileInfos = recursive
+        ? gcsfs.listFileInfoRecursivelyIterator(gcsPath, enableAutoRepairImplicitDirectories)
+        : gcsfs.listFileInfoIterator(gcsPath, enableAutoRepairImplicitDirectories);
+
+    long duration = System.nanoTime() - startTime;
+    increment(Counter.LIST_STATUS);
+    increment(Counter.LIST_STATUS_TIME, duration);
+    return new FileStatusIterator(fileInfos, true);
+  }
+
   /**
    * Sets the current working directory to the given path.
    *
@@ -1280,10 +1739,54 @@ public abstract class GoogleHadoopFileSystemBase
     return result;
   }
 
+  /**
+   * FileStatus of a directory which a listing inferred from a prefix without fetching its
+   * placeholder object. The modification time is unknown until asked for; the first call to
+   * getModificationTime() or getAccessTime() fetches the directory and remembers its time.
+   */
+  private class InferredDirectoryFileStatus extends FileStatus {
+    private final URI gcsPath;
+    private volatile Long modificationTime;
+
+    InferredDirectoryFileStatus(URI gcsPath, Path hadoopPath) {
+      super(0, true, REPLICATION_FACTOR_DEFAULT, defaultBlockSize, 0, 0,
+          PERMISSIONS_TO_REPORT, USER_NAME, USER_NAME, hadoopPath);
+      this.gcsPath = gcsPath;
+    }
+
+    @Override
+    public long getModificationTime() {
+      Long time = modificationTime;
+      if (time == null) {
+        try {
+          time = gcsfs.getFileInfo(gcsPath).getModificationTime();
+        } catch (IOException ioe) {
+          log.debug("Failed to fetch modification time of %s, reporting 0: %s", gcsPath, ioe);
+          time = 0L;
+        }
+        modificationTime = time;
+      }
+      return time;
+    }
+
+    @Override
+    public long getAccessTime() {
+      return getModificationTime();
+    }
+  }
+
   /**
    * Gets FileStatus corresponding to the given FileInfo value.
    */
   private FileStatus getFileStatus(FileInfo fileInfo) {
+    if (fileInfo.getItemInfo().isInferredDirectory()) {
+      // Listed without its placeholder object; fetch the timestamp only if someone asks for it.
+      FileStatus status = new InferredDirectoryFileStatus(
+          fileInfo.getPath(), getHadoopPath(fileInfo.getPath()));
+      log.debug("GHFS.getFileStatus: %s => %s", fileInfo.getPath(), fileStatusToString(status));
+      return status;
+    }
+
     // GCS does not provide modification time. It only provides creation time.
     // It works for objects because they are immutable once created.
     FileStatus status =
@@ -1360,6 +1863,13 @@ public abstract class GoogleHadoopFileSystemBase
     return gcsfs;
   }
 
+  /**
+   * Gets the pool input streams take their read buffers from, or null if buffers are not pooled.
+   */
+  BufferPool getReadBufferPool() {
+    return readBufferPool;
+  }
+
   /**
    * Increments by 1 the counter indicated by key.
    */
@@ -1411,6 +1921,12 @@ public abstract class GoogleHadoopFileSystemBase
    */
   private void logCounters() {
     log.debug(countersToString());
+    if (readBufferPool != null) {
+      log.debug("Read buffer pool: %s", readBufferPool);
+    }
+    if (gcsfs != null && gcsfs.getUploadBudget() != null) {
+      log.debug("Upload budget: %s", gcsfs.getUploadBudget());
+    }
   }
 
   /**
@@ -1474,6 +1990,13 @@ public abstract class GoogleHadoopFileSystemBase
     log.debug("GHFS.configure");
     log.debug("GHFS_ID = %s", GHFS_ID);
 
+    boolean enableBufferPool =
+        config.getBoolean(GCS_BUFFER_POOL_ENABLE_KEY, GCS_BUFFER_POOL_ENABLE_DEFAULT);
+    log.debug("%s = %s", GCS_BUFFER_POOL_ENABLE_KEY, enableBufferPool);
+    long bufferPoolMaxSize =
+        config.getLong(GCS_BUFFER_POOL_MAX_SIZE_KEY, GCS_BUFFER_POOL_MAX_SIZE_DEFAULT);
+    log.debug("%s = %d", GCS_BUFFER_POOL_MAX_SIZE_KEY, bufferPoolMaxSize);
+
     if (gcsfs == null) {
 
       copyDeprecatedConfigurationOptions(config);
@@ -1510,11 +2033,77 @@ public abstract class GoogleHadoopFileSystemBase
       log.debug("%s = %s", GCS_METADATA_CACHE_DIRECTORY_KEY, cacheBasePath);
       optionsBuilder.setCacheBasePath(cacheBasePath);
 
+      String cacheServiceAddress = config.get(
+          GCS_METADATA_CACHE_SERVICE_ADDRESS_KEY, GCS_METADATA_CACHE_SERVICE_ADDRESS_DEFAULT);
+      log.debug("%s = %s", GCS_METADATA_CACHE_SERVICE_ADDRESS_KEY, cacheServiceAddress);
+      optionsBuilder.setCacheServiceAddress(cacheServiceAddress);
+
+      // The secret itself is not logged.
+      String cacheServiceSecret = config.get(
+          GCS_METADATA_CACHE_SERVICE_SECRET_KEY, GCS_METADATA_CACHE_SERVICE_SECRET_DEFAULT).trim();
+      log.debug("%s is %s", GCS_METADATA_CACHE_SERVICE_SECRET_KEY,
+          cacheServiceSecret.isEmpty() ? "not set" : "set");
+      optionsBuilder.setCacheServiceSecret(cacheServiceSecret);
+
+      long cacheMaxEntryAgeMillis = config.getLong(
+          GCS_METADATA_CACHE_MAX_ENTRY_AGE_KEY, GCS_METADATA_CACHE_MAX_ENTRY_AGE_DEFAULT);
+      log.debug("%s = %d", GCS_METADATA_CACHE_MAX_ENTRY_AGE_KEY, cacheMaxEntryAgeMillis);
+      long cacheMaxInfoAgeMillis = config.getLong(
+          GCS_METADATA_CACHE_MAX_INFO_AGE_KEY, GCS_METADATA_CACHE_MAX_INFO_AGE_DEFAULT);
+      log.debug("%s = %d", GCS_METADATA_CACHE_MAX_INFO_AGE_KEY, cacheMaxInfoAgeMillis);
+      int cacheMaxEntries = config.getInt(
+          GCS_METADATA_CACHE_MAX_ENTRIES_KEY, GCS_METADATA_CACHE_MAX_ENTRIES_DEFAULT);
+      log.debug("%s = %d", GCS_METADATA_CACHE_MAX_ENTRIES_KEY, cacheMaxEntries);
+      long cacheExpiryIntervalMillis = config.getLong(
+          GCS_METADATA_CACHE_EXPIRY_INTERVAL_KEY, GCS_METADATA_CACHE_EXPIRY_INTERVAL_DEFAULT);
+      log.debug("%s = %d", GCS_METADATA_CACHE_EXPIRY_INTERVAL_KEY, cacheExpiryIntervalMillis);
+      optionsBuilder.setMetadataCacheConfig(new DirectoryListCache.Config()
+          .setMaxEntryAgeMillis(cacheMaxEntryAgeMillis)
+          .setMaxInfoAgeMillis(cacheMaxInfoAgeMillis)
+          .setMaxEntries(cacheMaxEntries)
+          .setBackgroundExpiryIntervalMillis(cacheExpiryIntervalMillis));
+
       Predicate<String> shouldIncludeInTimestampUpdatesPredicate =
           ParentTimestampUpdateIncludePredicate.create(config);
       optionsBuilder.setShouldIncludeInTimestampUpdatesPredicate(
           shouldIncludeInTimestampUpdatesPredicate);
 
+      long timestampUpdateWindowMillis = config.getLong(
+          GCS_PARENT_TIMESTAMP_UPDATE_WINDOW_MILLIS_KEY,
+          GCS_PARENT_TIMESTAMP_UPDATE_WINDOW_MILLIS_DEFAULT);
+      log.debug("%s = %d", GCS_PARENT_TIMESTAMP_UPDATE_WINDOW_MILLIS_KEY,
+          timestampUpdateWindowMillis);
+      optionsBuilder.setTimestampUpdateWindowMillis(timestampUpdateWindowMillis);
+
+      int renameBatchSize = config.getInt(GCS_RENAME_BATCH_SIZE_KEY, GCS_RENAME_BATCH_SIZE_DEFAULT);
+      log.debug("%s = %d", GCS_RENAME_BATCH_SIZE_KEY, renameBatchSize);
+      optionsBuilder.setRenameBatchSize(renameBatchSize);
+
+      int renameParallelism =
+          config.getInt(GCS_RENAME_PARALLELISM_KEY, GCS_RENAME_PARALLELISM_DEFAULT);
+      log.debug("%s = %d", GCS_RENAME_PARALLELISM_KEY, renameParallelism);
+      optionsBuilder.setRenameParallelism(renameParallelism);
+
+      int listParallelism = config.getInt(GCS_LIST_PARALLELISM_KEY, GCS_LIST_PARALLELISM_DEFAULT);
+      log.debug("%s = %d", GCS_LIST_PARALLELISM_KEY, listParallelism);
+      optionsBuilder.setListParallelism(listParallelism);
+
+      int statCacheMaxEntries =
+          config.getInt(GCS_STAT_CACHE_MAX_ENTRIES_KEY, GCS_STAT_CACHE_MAX_ENTRIES_DEFAULT);
+      log.debug("%s = %d", GCS_STAT_CACHE_MAX_ENTRIES_KEY, statCacheMaxEntries);
+      optionsBuilder.setStatCacheMaxEntries(statCacheMaxEntries);
+
+      long statCacheTtlMillis =
+          config.getLong(GCS_STAT_CACHE_TTL_MILLIS_KEY, GCS_STAT_CACHE_TTL_MILLIS_DEFAULT);
+      log.debug("%s = %d", GCS_STAT_CACHE_TTL_MILLIS_KEY, statCacheTtlMillis);
+      optionsBuilder.setStatCacheTtlMillis(statCacheTtlMillis);
+
+      GoogleCloudStorageFileSystemOptions.StatProbeStrategy statProbeStrategy =
+          GoogleCloudStorageFileSystemOptions.StatProbeStrategy.valueOf(config.get(
+              GCS_STAT_PROBE_STRATEGY_KEY, GCS_STAT_PROBE_STRATEGY_DEFAULT));
+      log.debug("%s = %s", GCS_STAT_PROBE_STRATEGY_KEY, statProbeStrategy);
+      optionsBuilder.setStatProbeStrategy(statProbeStrategy);
+
       enableAutoRepairImplicitDirectories = config.getBoolean(
           GCS_ENABLE_REPAIR_IMPLICIT_DIRECTORIES_KEY,
           GCS_ENABLE_REPAIR_IMPLICIT_DIRECTORIES_DEFAULT);
@@ -1530,6 +2119,20 @@ public abstract class GoogleHadoopFileSystemBase
           .getCloudStorageOptionsBuilder()
           .setAutoRepairImplicitDirectoriesEnabled(enableAutoRepairImplicitDirectories);
 
+      boolean inferDirectories =
+          config.getBoolean(GCS_LIST_INFER_DIRECTORIES_KEY, GCS_LIST_INFER_DIRECTORIES_DEFAULT);
+      log.debug("%s = %s", GCS_LIST_INFER_DIRECTORIES_KEY, inferDirectories);
+      optionsBuilder
+          .getCloudStorageOptionsBuilder()
+          .setInferDirectoriesFromPrefixesEnabled(inferDirectories);
+
+      int batchParallelism =
+          config.getInt(GCS_BATCH_PARALLELISM_KEY, GCS_BATCH_PARALLELISM_DEFAULT);
+      log.debug("%s = %d", GCS_BATCH_PARALLELISM_KEY, batchParallelism);
+      optionsBuilder
+          .getCloudStorageOptionsBuilder()
+          .setMaxConcurrentBatches(batchParallelism);
+
       projectId = ConfigurationUtil.getMandatoryConfig(config, GCS_PROJECT_ID_KEY);
 
       optionsBuilder.getCloudStorageOptionsBuilder().setProjectId(projectId);
@@ -1552,6 +2155,121 @@ public abstract class GoogleHadoopFileSystemBase
           getWriteChannelOptionsBuilder().
           setUploadBufferSize(uploadBufferSize);
 
+      optionsBuilder
+          .getCloudStorageOptionsBuilder()
+          .getWriteChannelOptionsBuilder()
+          .setBufferPoolEnabled(enableBufferPool)
+          .setBufferPoolMaxSize(bufferPoolMaxSize);
+
+      long uploadMaxMemory = config.getLong(
+          GCS_OUTPUTSTREAM_UPLOAD_MAX_MEMORY_KEY, GCS_OUTPUTSTREAM_UPLOAD_MAX_MEMORY_DEFAULT);
+      log.debug("%s = %d", GCS_OUTPUTSTREAM_UPLOAD_MAX_MEMORY_KEY, uploadMaxMemory);
+
+      int maxConcurrentUploads = config.getInt(
+          GCS_OUTPUTSTREAM_UPLOAD_MAX_CONCURRENT_KEY,
+          GCS_OUTPUTSTREAM_UPLOAD_MAX_CONCURRENT_DEFAULT);
+      log.debug("%s = %d", GCS_OUTPUTSTREAM_UPLOAD_MAX_CONCURRENT_KEY, maxConcurrentUploads);
+
+      optionsBuilder
+          .getCloudStorageOptionsBuilder()
+          .getWriteChannelOptionsBuilder()
+          .setUploadMaxMemory(uploadMaxMemory)
+          .setMaxConcurrentUploads(maxConcurrentUploads);
+
+      boolean enableCompositeUpload = config.getBoolean(
+          GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_ENABLE_KEY,
+          GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_ENABLE_DEFAULT);
+      log.debug("%s = %s", GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_ENABLE_KEY, enableCompositeUpload);
+
+      int compositeUploadPartSize = config.getInt(
+          GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_PART_SIZE_KEY,
+          GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_PART_SIZE_DEFAULT);
+      log.debug("%s = %d",
+          GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_PART_SIZE_KEY, compositeUploadPartSize);
+
+      int compositeUploadConcurrency = config.getInt(
+          GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_CONCURRENCY_KEY,
+          GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_CONCURRENCY_DEFAULT);
+      log.debug("%s = %d",
+          GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_CONCURRENCY_KEY, compositeUploadConcurrency);
+
+      long compositeUploadMaxMemory = config.getLong(
+          GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_MAX_MEMORY_KEY,
+          GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_MAX_MEMORY_DEFAULT);
+      log.debug("%s = %d",
+          GCS_OUTPUTSTREAM_COMPOSITE_UPLOAD_MAX_MEMORY_KEY, compositeUploadMaxMemory);
+
+      optionsBuilder
+          .getCloudStorageOptionsBuilder()
+          .getCompositeUploadOptionsBuilder()
+          .setEnabled(enableCompositeUpload)
+          .setPartSize(compositeUploadPartSize)
+          .setConcurrency(compositeUploadConcurrency)
+          .setMaxMemory(compositeUploadMaxMemory);
+
+      GoogleCloudStorageReadOptions.Fadvise fadvise =
+          GoogleCloudStorageReadOptions.Fadvise.valueOf(config.get(
+              GCS_INPUTSTREAM_FADVISE_KEY, GCS_INPUTSTREAM_FADVISE_DEFAULT));
+      log.debug("%s = %s", GCS_INPUTSTREAM_FADVISE_KEY, fadvise);
+
+      long minRangeRequestSize = config.getLong(
+          GCS_INPUTSTREAM_MIN_RANGE_REQUEST_SIZE_KEY,
+          GCS_INPUTSTREAM_MIN_RANGE_REQUEST_SIZE_DEFAULT);
+      log.debug("%s = %d", GCS_INPUTSTREAM_MIN_RANGE_REQUEST_SIZE_KEY, minRangeRequestSize);
+
+      long inplaceSeekLimit = config.getLong(
+          GCS_INPUTSTREAM_INPLACE_SEEK_LIMIT_KEY, GCS_INPUTSTREAM_INPLACE_SEEK_LIMIT_DEFAULT);
+      log.debug("%s = %d", GCS_INPUTSTREAM_INPLACE_SEEK_LIMIT_KEY, inplaceSeekLimit);
+
+      optionsBuilder
+          .getCloudStorageOptionsBuilder()
+          .getReadChannelOptionsBuilder()
+          .setFadvise(fadvise)
+          .setMinRangeRequestSize(minRangeRequestSize)
+          .setInplaceSeekLimit(inplaceSeekLimit);
+
+      int prefetchParallelism = config.getInt(
+          GCS_INPUTSTREAM_PREFETCH_PARALLELISM_KEY, GCS_INPUTSTREAM_PREFETCH_PARALLELISM_DEFAULT);
+      log.debug("%s = %d", GCS_INPUTSTREAM_PREFETCH_PARALLELISM_KEY, prefetchParallelism);
+
+      int prefetchChunkSize = config.getInt(
+          GCS_INPUTSTREAM_PREFETCH_CHUNK_SIZE_KEY, GCS_INPUTSTREAM_PREFETCH_CHUNK_SIZE_DEFAULT);
+      log.debug("%s = %d", GCS_INPUTSTREAM_PREFETCH_CHUNK_SIZE_KEY, prefetchChunkSize);
+
+      long prefetchMaxMemory = config.getLong(
+          GCS_INPUTSTREAM_PREFETCH_MAX_MEMORY_KEY, GCS_INPUTSTREAM_PREFETCH_MAX_MEMORY_DEFAULT);
+      log.debug("%s = %d", GCS_INPUTSTREAM_PREFETCH_MAX_MEMORY_KEY, prefetchMaxMemory);
+
+      optionsBuilder
+          .getCloudStorageOptionsBuilder()
+          .getReadChannelOptionsBuilder()
+          .setPrefetchParallelism(prefetchParallelism)
+          .setPrefetchChunkSize(prefetchChunkSize)
+          .setPrefetchMaxMemory(prefetchMaxMemory);
+
+      long vectoredReadMergeGap = config.getLong(
+          GCS_INPUTSTREAM_VECTORED_READ_MERGE_GAP_KEY,
+          GCS_INPUTSTREAM_VECTORED_READ_MERGE_GAP_DEFAULT);
+      log.debug("%s = %d", GCS_INPUTSTREAM_VECTORED_READ_MERGE_GAP_KEY, vectoredReadMergeGap);
+
+      int vectoredReadMaxMergedSize = config.getInt(
+          GCS_INPUTSTREAM_VECTORED_READ_MAX_MERGED_SIZE_KEY,
+          GCS_INPUTSTREAM_VECTORED_READ_MAX_MERGED_SIZE_DEFAULT);
+      log.debug("%s = %d",
+          GCS_INPUTSTREAM_VECTORED_READ_MAX_MERGED_SIZE_KEY, vectoredReadMaxMergedSize);
+
+      int vectoredReadParallelism = config.getInt(
+          GCS_INPUTSTREAM_VECTORED_READ_PARALLELISM_KEY,
+          GCS_INPUTSTREAM_VECTORED_READ_PARALLELISM_DEFAULT);
+      log.debug("%s = %d", GCS_INPUTSTREAM_VECTORED_READ_PARALLELISM_KEY, vectoredReadParallelism);
+
+      optionsBuilder
+          .getCloudStorageOptionsBuilder()
+          .getReadChannelOptionsBuilder()
+          .setVectoredReadMergeGap(vectoredReadMergeGap)
+          .setVectoredReadMaxMergedSize(vectoredReadMaxMergedSize)
+          .setVectoredReadParallelism(vectoredReadParallelism);
+
       optionsBuilder
           .getCloudStorageOptionsBuilder()
           .setAppName(GHFS_ID);
@@ -1565,6 +2283,30 @@ public abstract class GoogleHadoopFileSystemBase
     defaultBlockSize = config.getLong(BLOCK_SIZE_KEY, BLOCK_SIZE_DEFAULT);
     log.debug("%s = %d", BLOCK_SIZE_KEY, defaultBlockSize);
 
+    boolean enableTailCache = config.getBoolean(
+        GCS_INPUTSTREAM_TAIL_CACHE_ENABLE_KEY, GCS_INPUTSTREAM_TAIL_CACHE_ENABLE_DEFAULT);
+    log.debug("%s = %s", GCS_INPUTSTREAM_TAIL_CACHE_ENABLE_KEY, enableTailCache);
+    if (enableTailCache) {
+      tailCacheTailSize = config.getInt(
+          GCS_INPUTSTREAM_TAIL_CACHE_TAIL_SIZE_KEY, GCS_INPUTSTREAM_TAIL_CACHE_TAIL_SIZE_DEFAULT);
+      log.debug("%s = %d", GCS_INPUTSTREAM_TAIL_CACHE_TAIL_SIZE_KEY, tailCacheTailSize);
+      long tailCacheMaxSize = config.getLong(
+          GCS_INPUTSTREAM_TAIL_CACHE_MAX_SIZE_KEY, GCS_INPUTSTREAM_TAIL_CACHE_MAX_SIZE_DEFAULT);
+      log.debug("%s = %d", GCS_INPUTSTREAM_TAIL_CACHE_MAX_SIZE_KEY, tailCacheMaxSize);
+      tailCache = FileTailCache.getInstance(tailCacheMaxSize);
+    } else {
+      tailCache = null;
+    }
+
+    if (enableBufferPool) {
+      boolean directBufferPool =
+          config.getBoolean(GCS_BUFFER_POOL_DIRECT_KEY, GCS_BUFFER_POOL_DIRECT_DEFAULT);
+      log.debug("%s = %s", GCS_BUFFER_POOL_DIRECT_KEY, directBufferPool);
+      readBufferPool = BufferPool.getInstance(directBufferPool, bufferPoolMaxSize);
+    } else {
+      readBufferPool = null;
+    }
+
     String systemBucketName = config.get(GCS_SYSTEM_BUCKET_KEY, null);
     log.debug("%s = %s", GCS_SYSTEM_BUCKET_KEY, systemBucketName);
 
@@ -19,6 +19,7 @@ package com.google.cloud.hadoop.fs.gcs;
 import com.google.cloud.hadoop.gcsio.CacheEntry;
 import com.google.cloud.hadoop.gcsio.DirectoryListCache;
 import com.google.cloud.hadoop.gcsio.FileSystemBackedDirectoryListCache;
+import com.google.cloud.hadoop.gcsio.LogBackedDirectoryListCache;
 import com.google.cloud.hadoop.util.LogUtil;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
@@ -32,7 +33,8 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 
 /**
- * A tool that will perform GC on {@link FileSystemBackedDirectoryListCache} backing stores.
+ * A tool that will perform GC on {@link FileSystemBackedDirectoryListCache} and
+ * {@link LogBackedDirectoryListCache} backing stores.
  */
 public class GoogleHadoopFileSystemCacheCleaner {
   public static final LogUtil log = new LogUtil(GoogleHadoopFileSystemCacheCleaner.class);
@@ -60,7 +62,8 @@ public class GoogleHadoopFileSystemCacheCleaner {
     Configuration configuration = parser.getConfiguration();
 
     // TODO: Wire out constants and defaults through GoogleHadoopFileSystemBase once submitted.
-    if ("FILESYSTEM_BACKED".equals(configuration.get("fs.gs.metadata.cache.type", "IN_MEMORY"))) {
+    String cacheType = configuration.get("fs.gs.metadata.cache.type", "IN_MEMORY");
+    if ("FILESYSTEM_BACKED".equals(cacheType)) {
       String fsStringPath = configuration.get("fs.gs.metadata.cache.directory", "");
       Preconditions.checkState(!Strings.isNullOrEmpty(fsStringPath));
       log.info("Performing GC on cache directory %s", fsStringPath);
@@ -71,6 +74,18 @@ public class GoogleHadoopFileSystemCacheCleaner {
             new FileSystemBackedDirectoryListCache(fsStringPath);
         cleanCache(cache);
       }
+    } else if ("LOG_BACKED".equals(cacheType)) {
+      String fsStringPath = configuration.get("fs.gs.metadata.cache.directory", "");
+      Preconditions.checkState(!Strings.isNullOrEmpty(fsStringPath));
+      log.info("Performing GC on cache directory %s", fsStringPath);
+
+      Path path = Paths.get(fsStringPath);
+      if (Files.exists(path)) {
+        try (LogBackedDirectoryListCache cache = new LogBackedDirectoryListCache(fsStringPath)) {
+          cleanCache(cache);
+          cache.compact();
+        }
+      }
     }
 
     log.info("Done with GC.");
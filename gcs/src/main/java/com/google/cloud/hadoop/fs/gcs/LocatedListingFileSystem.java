@@ -0,0 +1,96 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.fs.gcs;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+
+import java.io.IOException;
+
+/**
+ * Superclass of GoogleHadoopFileSystemBase which serves Hadoop 2's FileSystem.listFiles() and
+ * listLocatedStatus() from the incremental listings of GoogleHadoopFileSystemBase. By default,
+ * FileSystem lists a recursive listFiles() one directory at a time, fetches each directory
+ * completely, and looks up the block locations of each listed file by path again.
+ *
+ * LocatedFileStatus and RemoteIterator only exist in Hadoop 2, so this file is excluded from
+ * Hadoop 1 builds, which compile the empty class of LocatedListingFileSystemHadoop1.java
+ * instead.
+ */
+abstract class LocatedListingFileSystem
+    extends FileSystem {
+
+  /**
+   * See {@link GoogleHadoopFileSystemBase#listStatusIncrementally(Path)}.
+   */
+  public abstract GoogleHadoopFileSystemBase.FileStatusIterator listStatusIncrementally(
+      Path hadoopPath)
+      throws IOException;
+
+  /**
+   * See {@link GoogleHadoopFileSystemBase#listFilesIncrementally(Path, boolean)}.
+   */
+  public abstract GoogleHadoopFileSystemBase.FileStatusIterator listFilesIncrementally(
+      Path hadoopPath, boolean recursive)
+      throws IOException;
+
+  /**
+   * Lists the files under the given path with a single flat listing if recursive, rather than
+   * one listing per subdirectory.
+   */
+  @Override
+  public RemoteIterator<LocatedFileStatus> listFiles(Path hadoopPath, boolean recursive)
+      throws IOException {
+    return toLocatedStatuses(listFilesIncrementally(hadoopPath, recursive));
+  }
+
+  /**
+   * Lists the children of the given directory page by page as the returned iterator advances.
+   */
+  @Override
+  public RemoteIterator<LocatedFileStatus> listLocatedStatus(Path hadoopPath)
+      throws IOException {
+    return toLocatedStatuses(listStatusIncrementally(hadoopPath));
+  }
+
+  /**
+   * Attaches block locations to the given statuses; they are synthesized from each status by
+   * getFileBlockLocations(FileStatus, long, long) rather than by looking up its path again.
+   */
+  private RemoteIterator<LocatedFileStatus> toLocatedStatuses(
+      final GoogleHadoopFileSystemBase.FileStatusIterator statuses) {
+    return new RemoteIterator<LocatedFileStatus>() {
+      @Override
+      public boolean hasNext()
+          throws IOException {
+        return statuses.hasNext();
+      }
+
+      @Override
+      public LocatedFileStatus next()
+          throws IOException {
+        FileStatus status = statuses.next();
+        BlockLocation[] locations = status.isFile()
+            ? getFileBlockLocations(status, 0, status.getLen())
+            : null;
+        return new LocatedFileStatus(status, locations);
+      }
+    };
+  }
+}
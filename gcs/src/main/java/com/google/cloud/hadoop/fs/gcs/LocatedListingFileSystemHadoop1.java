@@ -0,0 +1,27 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.fs.gcs;
+
+import org.apache.hadoop.fs.FileSystem;
+
+/**
+ * Hadoop 1 version of the superclass of GoogleHadoopFileSystemBase. Hadoop 1's FileSystem has no
+ * listFiles() or listLocatedStatus(), so there is nothing to override; see
+ * LocatedListingFileSystem.java for the Hadoop 2 version. Only one of the two files is compiled
+ * by each build profile.
+ */
+abstract class LocatedListingFileSystem
+    extends FileSystem {
+}
@@ -22,10 +22,15 @@ import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.services.storage.Storage;
 import com.google.api.services.storage.StorageRequest;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * BatchHelper abstracts out the logic for maximum requests per batch, and also allows a workaround
@@ -33,8 +38,15 @@ import java.util.List;
  * impossible to unittest. Instead, batch interactions with a Storage API client will be funneled
  * through this class, while unittests can inject a mock batch helper.
  * <p>
- * This class is not thread-safe; expected usage is to create a new BatchHelper instance per
- * single-threaded logical grouping of requests.
+ * Queued requests are sent in batches of up to {@code maxRequestsPerBatch} requests. If the
+ * factory was given an executor, up to {@code maxConcurrentBatches} batches are sent concurrently
+ * on it, or on the thread sending them when the executor is busy; otherwise batches are sent one
+ * at a time on the calling thread. Either way, callbacks may queue further requests, e.g. to
+ * retry, which flush() sends as well, and callbacks of different batches may run concurrently,
+ * so they must be thread-safe.
+ * <p>
+ * Apart from callbacks, an instance is meant to be used by a single thread; expected usage is to
+ * create a new BatchHelper instance per logical grouping of requests.
  */
 public class BatchHelper {
   /**
@@ -42,100 +54,228 @@ public class BatchHelper {
    * use cases will generally interact via an injectable BatchHelper.Factory.
    */
   public static class Factory {
+    private final ExecutorService executor;
+    private final int maxConcurrentBatches;
+
+    /**
+     * Creates a Factory whose BatchHelpers send one batch at a time on the calling thread.
+     */
+    public Factory() {
+      this(null, 1);
+    }
+
+    /**
+     * Creates a Factory whose BatchHelpers send up to {@code maxConcurrentBatches} batches at
+     * once on {@code executor}, which should reject rather than queue tasks it cannot start
+     * right away; rejected batches are sent on the calling thread.
+     */
+    public Factory(ExecutorService executor, int maxConcurrentBatches) {
+      Preconditions.checkArgument(maxConcurrentBatches > 0,
+          "maxConcurrentBatches must be positive: %s", maxConcurrentBatches);
+      this.executor = executor;
+      this.maxConcurrentBatches = maxConcurrentBatches;
+    }
+
     public BatchHelper newBatchHelper(HttpRequestInitializer requestInitializer, Storage gcs,
         long maxRequestsPerBatch) {
-      return new BatchHelper(requestInitializer, gcs, maxRequestsPerBatch);
+      return new BatchHelper(
+          requestInitializer, gcs, maxRequestsPerBatch, executor, maxConcurrentBatches);
     }
   }
 
   /**
-   * Callback that causes a single StorageRequest to be added to the BatchRequest.
+   * Callback that causes a single StorageRequest to be added to a BatchRequest.
    */
   protected static interface QueueRequestCallback {
-    void enqueue() throws IOException;
+    void enqueue(BatchRequest batch) throws IOException;
   }
 
+  private final HttpRequestInitializer requestInitializer;
+  private final Storage gcs;
+  // Requests queued but not yet sent; guarded by this.
   private final List<QueueRequestCallback> pendingBatchEntries;
-  private final BatchRequest batch;
   // Number of requests which can be queued into a single actual HTTP request before a sub-batch
   // is sent.
   private final long maxRequestsPerBatch;
-  // Flag that indicates whether there is an in-progress flush.
-  private boolean flushing = false;
+  // Executor on which batches are sent, or null to send them on the calling thread.
+  private final ExecutorService executor;
+  // Maximum number of batches sent at once.
+  private final int maxConcurrentBatches;
+  // Number of batches being sent; guarded by this.
+  private int batchesInFlight = 0;
+  // First exception thrown sending a batch; guarded by this.
+  private IOException failure;
+  // Set while the current thread sends a batch of this instance, i.e. runs its callbacks.
+  private final ThreadLocal<Boolean> sendingBatch = new ThreadLocal<>();
 
   /**
    * Primary constructor, generally accessed only via the inner Factory class.
    */
   private BatchHelper(HttpRequestInitializer requestInitializer, Storage gcs,
-      long maxRequestsPerBatch) {
+      long maxRequestsPerBatch, ExecutorService executor, int maxConcurrentBatches) {
     this.pendingBatchEntries = new LinkedList<>();
-    this.batch = gcs.batch(requestInitializer);
+    this.requestInitializer = requestInitializer;
+    this.gcs = gcs;
     this.maxRequestsPerBatch = maxRequestsPerBatch;
+    this.executor = executor;
+    this.maxConcurrentBatches = maxConcurrentBatches;
   }
 
   @VisibleForTesting
   protected BatchHelper() {
     this.pendingBatchEntries = new LinkedList<>();
-    this.batch = null;
+    this.requestInitializer = null;
+    this.gcs = null;
     this.maxRequestsPerBatch = -1;
+    this.executor = null;
+    this.maxConcurrentBatches = 1;
   }
 
   /**
-   * Adds an additional request to the batch, and possibly flushes the current contents of the batch
-   * if {@code maxRequestsPerBatch} has been reached.
+   * Adds an additional request to the batch, and possibly sends queued requests if
+   * {@code maxRequestsPerBatch} has been reached. Requests queued by callbacks are only sent by
+   * a subsequent flush().
    */
   public <T> void queue(final StorageRequest<T> req, final JsonBatchCallback<T> callback)
       throws IOException {
-      QueueRequestCallback queueCallback = new QueueRequestCallback() {
-        @Override
-        public void enqueue() throws IOException {
-          req.queue(batch, callback);
-        }
-      };
-    pendingBatchEntries.add(queueCallback);
+    QueueRequestCallback queueCallback = new QueueRequestCallback() {
+      @Override
+      public void enqueue(BatchRequest batch) throws IOException {
+        req.queue(batch, callback);
+      }
+    };
+    synchronized (this) {
+      pendingBatchEntries.add(queueCallback);
+      // Wake up flush() in case it waits for batches in flight which just queued a retry.
+      notifyAll();
+    }
 
-    flushIfPossibleAndRequired();
+    if (sendingBatch.get() == null) {
+      flushIfRequired();
+    }
   }
 
-  // Flush our buffer if we have more pending entries than maxRequestsPerBatch
-  private void flushIfPossibleAndRequired() throws IOException {
-    if (pendingBatchEntries.size() > maxRequestsPerBatch) {
-      flushIfPossible();
+  // Send batches while we have more pending entries than maxRequestsPerBatch.
+  private void flushIfRequired() throws IOException {
+    while (true) {
+      synchronized (this) {
+        if (pendingBatchEntries.size() <= maxRequestsPerBatch) {
+          return;
+        }
+      }
+      if (!sendNextBatch()) {
+        // A batch failed; flush() reports it.
+        return;
+      }
     }
   }
 
-  // Flush our buffer if we are not already in a flush operation and we have data to flush.
-  private void flushIfPossible() throws IOException {
-    if (!flushing && pendingBatchEntries.size() > 0) {
-      flushing = true;
+  /**
+   * Takes up to maxRequestsPerBatch pending entries and sends them as one batch once fewer than
+   * maxConcurrentBatches are in flight. Returns false without sending anything if a batch failed.
+   */
+  private boolean sendNextBatch() throws IOException {
+    final List<QueueRequestCallback> entries = new ArrayList<>();
+    synchronized (this) {
       try {
-        while (batch.size() < maxRequestsPerBatch
-            && pendingBatchEntries.size() > 0) {
-          QueueRequestCallback head = pendingBatchEntries.remove(0);
-          head.enqueue();
+        while (batchesInFlight >= maxConcurrentBatches && failure == null) {
+          wait();
         }
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting to send a batch");
+      }
+      if (failure != null) {
+        return false;
+      }
+      while (entries.size() < maxRequestsPerBatch && !pendingBatchEntries.isEmpty()) {
+        entries.add(pendingBatchEntries.remove(0));
+      }
+      if (entries.isEmpty()) {
+        return true;
+      }
+      ++batchesInFlight;
+    }
 
-        batch.execute();
-      } finally {
-        flushing = false;
+    if (executor != null) {
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            sendBatch(entries);
+          }
+        });
+        return true;
+      } catch (RejectedExecutionException ree) {
+        // All threads are busy; this thread would only wait for them anyway.
       }
     }
+    sendBatch(entries);
+    return true;
   }
 
+  /**
+   * Sends the given entries as a single batch, running their callbacks on the current thread.
+   */
+  private void sendBatch(List<QueueRequestCallback> entries) {
+    IOException batchFailure = null;
+    sendingBatch.set(Boolean.TRUE);
+    try {
+      BatchRequest batch = gcs.batch(requestInitializer);
+      for (QueueRequestCallback entry : entries) {
+        entry.enqueue(batch);
+      }
+      batch.execute();
+    } catch (IOException ioe) {
+      batchFailure = ioe;
+    } catch (RuntimeException re) {
+      batchFailure = new IOException(re);
+    } finally {
+      sendingBatch.remove();
+      synchronized (this) {
+        --batchesInFlight;
+        if (batchFailure != null && failure == null) {
+          failure = batchFailure;
+        }
+        notifyAll();
+      }
+    }
+  }
 
   /**
-   * Sends any currently remaining requests in the batch; should be caleld at the end of any
-   * series of batched requests to ensure everything has been sent.
+   * Sends any currently remaining requests, including those queued by callbacks in the meantime,
+   * and waits for all batches to complete; should be called at the end of any series of batched
+   * requests to ensure everything has been sent.
+   *
+   * @throws IOException if sending any batch failed
    */
   public void flush()
       throws IOException {
-    flushIfPossible();
+    while (true) {
+      synchronized (this) {
+        try {
+          while (batchesInFlight > 0 && (pendingBatchEntries.isEmpty() || failure != null)) {
+            wait();
+          }
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted waiting for batches to complete");
+        }
+        if (failure != null) {
+          throw failure;
+        }
+        if (pendingBatchEntries.isEmpty()) {
+          return;
+        }
+      }
+      sendNextBatch();
+    }
   }
 
   /**
-   * Returns true if there are no currently queued entries in the batch helper.
+   * Returns true if there are no currently queued entries or batches in flight.
    */
-  public boolean isEmpty() {
-    return pendingBatchEntries.size() == 0;
+  public synchronized boolean isEmpty() {
+    return pendingBatchEntries.isEmpty() && batchesInFlight == 0;
   }
 }
@@ -21,11 +21,17 @@ import com.google.cloud.hadoop.util.LogUtil;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Container for various pieces of metadata for a single cache entry which may be either a Bucket
  * or a StorageObject; includes GCS API metadata such as StorageResourceId and
  * GoogleCloudStorageItemInfo as well as cache-specific metadata, such as creation time,
  * and last-updated time.
+ *
+ * The GoogleCloudStorageItemInfo and the time it was last updated are replaced together
+ * atomically, without locking, so that concurrent readers never block each other and never see
+ * an info paired with another info's update time.
  */
 public class CacheEntry {
   // Logger.
@@ -41,13 +47,29 @@ public class CacheEntry {
   // in milliseconds since January 1, 1970 UTC.
   private final long creationTimeMillis;
 
-  // The metadata for the GCS Bucket or StorageObject associated with this cache entry; may be null
-  // since the metadata is only populated lazily.
-  private GoogleCloudStorageItemInfo itemInfo;
+  /**
+   * Immutable pairing of a GoogleCloudStorageItemInfo with the time it was set.
+   */
+  private static final class InfoSnapshot {
+    // Snapshot of an entry without info.
+    static final InfoSnapshot EMPTY = new InfoSnapshot(null, 0);
 
-  // Time at which we last populated itemInfo, in milliseconds since January 1, 1970 ETC.
-  // Might be 0 if the info was never retrieved.
-  private long itemInfoUpdateTimeMillis;
+    // The metadata for the GCS Bucket or StorageObject associated with this cache entry; may be
+    // null since the metadata is only populated lazily.
+    final GoogleCloudStorageItemInfo itemInfo;
+
+    // Time at which itemInfo was populated, in milliseconds since January 1, 1970 UTC.
+    // Might be 0 if the info was never retrieved.
+    final long itemInfoUpdateTimeMillis;
+
+    InfoSnapshot(GoogleCloudStorageItemInfo itemInfo, long itemInfoUpdateTimeMillis) {
+      this.itemInfo = itemInfo;
+      this.itemInfoUpdateTimeMillis = itemInfoUpdateTimeMillis;
+    }
+  }
+
+  // The current info of this cache entry and the time it was set.
+  private final AtomicReference<InfoSnapshot> infoSnapshot = new AtomicReference<>();
 
   /**
    * Constructs a CacheEntry with no known GoogleCloudStorageItemInfo; callers may have to
@@ -63,8 +85,7 @@ public class CacheEntry {
 
     this.resourceId = resourceId;
     this.creationTimeMillis = clock.currentTimeMillis();
-    this.itemInfo = null;
-    this.itemInfoUpdateTimeMillis = 0;
+    this.infoSnapshot.set(InfoSnapshot.EMPTY);
   }
 
   /**
@@ -85,8 +106,30 @@ public class CacheEntry {
 
     this.resourceId = resourceId;
     this.creationTimeMillis = creationTimeMillis;
-    this.itemInfo = null;
-    this.itemInfoUpdateTimeMillis = 0;
+    this.infoSnapshot.set(InfoSnapshot.EMPTY);
+  }
+
+  /**
+   * Constructs a CacheEntry with an explicit creationTimeMillis and a GoogleCloudStorageItemInfo
+   * set at an explicit time. This should be used for implementations which store the infos
+   * alongside the cache-entry creation times somewhere else, e.g. in a file.
+   *
+   * @param resourceId Must be non-null, and correspond to either a Bucket or StorageObject.
+   * @param creationTimeMillis The logical creation time of the authoritative cache entry.
+   * @param itemInfo The stored itemInfo for {@code resourceId}, or null if there is none.
+   * @param itemInfoUpdateTimeMillis The time at which {@code itemInfo} was set; ignored if
+   *     {@code itemInfo} is null.
+   */
+  public CacheEntry(StorageResourceId resourceId, long creationTimeMillis,
+      GoogleCloudStorageItemInfo itemInfo, long itemInfoUpdateTimeMillis) {
+    this(resourceId, creationTimeMillis);
+    if (itemInfo != null) {
+      validateItemInfo(itemInfo);
+      Preconditions.checkArgument(itemInfo.getResourceId().equals(resourceId),
+          "itemInfo's resourceId (%s) doesn't match resourceId (%s)!",
+          itemInfo.getResourceId(), resourceId);
+      this.infoSnapshot.set(new InfoSnapshot(itemInfo, itemInfoUpdateTimeMillis));
+    }
   }
 
   /**
@@ -98,8 +141,7 @@ public class CacheEntry {
 
     this.resourceId = itemInfo.getResourceId();
     this.creationTimeMillis = clock.currentTimeMillis();
-    this.itemInfo = itemInfo;
-    this.itemInfoUpdateTimeMillis = this.creationTimeMillis;
+    this.infoSnapshot.set(new InfoSnapshot(itemInfo, this.creationTimeMillis));
   }
 
   /**
@@ -143,25 +185,44 @@ public class CacheEntry {
    * Accessor for the last time the GoogleCloudStorageItemInfo of this CacheEntry was updated,
    * or 0 if it was never updated.
    */
-  public synchronized long getItemInfoUpdateTimeMillis() {
-    return itemInfoUpdateTimeMillis;
+  public long getItemInfoUpdateTimeMillis() {
+    return infoSnapshot.get().itemInfoUpdateTimeMillis;
   }
 
   /**
    * Returns the GoogleCloudStorageItemInfo currently held by this CacheEntry; may be null if one
    * was never provided.
    */
-  public synchronized GoogleCloudStorageItemInfo getItemInfo() {
-    return itemInfo;
+  public GoogleCloudStorageItemInfo getItemInfo() {
+    return infoSnapshot.get().itemInfo;
   }
 
   /**
    * Clears the GoogleCloudStorageItemInfo stored by this CacheEntry, if any, and sets
    * itemInfoUpdateTimeMillis to 0.
    */
-  public synchronized void clearItemInfo() {
-    itemInfo = null;
-    itemInfoUpdateTimeMillis = 0;
+  public void clearItemInfo() {
+    infoSnapshot.set(InfoSnapshot.EMPTY);
+  }
+
+  /**
+   * Clears the GoogleCloudStorageItemInfo stored by this CacheEntry if it was set more than
+   * {@code maxInfoAgeMillis} before {@code currentTimeMillis}. An info set concurrently is never
+   * cleared by mistake for the one it replaced.
+   *
+   * @return true if an info was cleared.
+   */
+  public boolean clearItemInfoIfExpired(long currentTimeMillis, long maxInfoAgeMillis) {
+    while (true) {
+      InfoSnapshot snapshot = infoSnapshot.get();
+      long lastUpdated = snapshot.itemInfoUpdateTimeMillis;
+      if (lastUpdated <= 0 || currentTimeMillis - lastUpdated <= maxInfoAgeMillis) {
+        return false;
+      }
+      if (infoSnapshot.compareAndSet(snapshot, InfoSnapshot.EMPTY)) {
+        return true;
+      }
+    }
   }
 
   /**
@@ -173,23 +234,22 @@ public class CacheEntry {
    *     must not be root, and the info's StorageResourceId must match the existing
    *     StorageResourceId of this CacheEntry.
    */
-  public synchronized GoogleCloudStorageItemInfo setItemInfo(
+  public GoogleCloudStorageItemInfo setItemInfo(
       GoogleCloudStorageItemInfo newItemInfo) {
     validateItemInfo(newItemInfo);
     Preconditions.checkArgument(newItemInfo.getResourceId().equals(resourceId),
         String.format("newItemInfo's resourceId (%s) doesn't match existing resourceId (%s)!",
             newItemInfo.getResourceId(), resourceId));
 
-    if (itemInfo != null) {
-      // TODO(user): Maybe skip the update if the newItemInfo has an older creationTime than
-      // the existing itemInfo.
-      log.debug("Replacing existing itemInfo '%s' with newItemInfo '%s'", itemInfo, newItemInfo);
+    // TODO(user): Maybe skip the update if the newItemInfo has an older creationTime than
+    // the existing itemInfo.
+    GoogleCloudStorageItemInfo oldInfo = infoSnapshot.getAndSet(
+        new InfoSnapshot(newItemInfo, clock.currentTimeMillis())).itemInfo;
+    if (oldInfo != null) {
+      log.debug("Replaced existing itemInfo '%s' with newItemInfo '%s'", oldInfo, newItemInfo);
     } else {
-      log.debug("Setting itemInfo for first time for cache entry: '%s'", newItemInfo);
+      log.debug("Set itemInfo for first time for cache entry: '%s'", newItemInfo);
     }
-    GoogleCloudStorageItemInfo oldInfo = itemInfo;
-    itemInfo = newItemInfo;
-    itemInfoUpdateTimeMillis = clock.currentTimeMillis();
     return oldInfo;
   }
 }
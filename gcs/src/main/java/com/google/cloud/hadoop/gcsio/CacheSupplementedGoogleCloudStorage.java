@@ -19,6 +19,7 @@ package com.google.cloud.hadoop.gcsio;
 import com.google.cloud.hadoop.util.LogUtil;
 import com.google.common.base.Preconditions;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
@@ -26,6 +27,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 /**
  * CacheSupplementedGoogleCloudStorage adds additional book-keeping to a GoogleCloudStorage instance
@@ -38,6 +40,10 @@ public class CacheSupplementedGoogleCloudStorage
   // Logger.
   private static final LogUtil log = new LogUtil(CacheSupplementedGoogleCloudStorage.class);
 
+  // Separates the last listed name from the token of the delegate in page tokens; GCS object
+  // names may not contain line feeds.
+  private static final char PAGE_TOKEN_SEPARATOR = '\n';
+
   // An actual implementation of GoogleCloudStorage which will be used for the actual logic of
   // GCS operations, while this class adds book-keeping around the delegated calls.
   private final GoogleCloudStorage gcsDelegate;
@@ -165,6 +171,28 @@ public class CacheSupplementedGoogleCloudStorage
     return gcsDelegate.open(resourceId);
   }
 
+  /**
+   * Pure pass-through.
+   */
+  @Override
+  public SeekableReadableByteChannel open(
+      StorageResourceId resourceId, GoogleCloudStorageReadOptions readOptions)
+      throws IOException {
+    log.debug("open(%s, %s)", resourceId, readOptions.getFadvise());
+    return gcsDelegate.open(resourceId, readOptions);
+  }
+
+  /**
+   * Pure pass-through.
+   */
+  @Override
+  public List<Future<ByteBuffer>> readVectored(
+      StorageResourceId resourceId, List<ReadRange> ranges)
+      throws IOException {
+    log.debug("readVectored(%s, %d ranges)", resourceId, ranges.size());
+    return gcsDelegate.readVectored(resourceId, ranges);
+  }
+
   /**
    * Updates cache with bucketName.
    */
@@ -210,6 +238,16 @@ public class CacheSupplementedGoogleCloudStorage
     }
   }
 
+  @Override
+  public void deleteObjects(List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException {
+    log.debug("deleteObjects(%s, %s)", fullObjectNames, generations);
+    gcsDelegate.deleteObjects(fullObjectNames, generations);
+    for (StorageResourceId resourceId : fullObjectNames) {
+      resourceCache.removeResourceId(resourceId);
+    }
+  }
+
   /**
    * Adds the copied destination items to the list cache, without their associated metadata;
    * supplementing with the cache will have to populate the metadata on-demand.
@@ -229,6 +267,20 @@ public class CacheSupplementedGoogleCloudStorage
     }
   }
 
+  /**
+   * Records the destination after delegating.
+   */
+  @Override
+  public GoogleCloudStorageItemInfo composeObjects(List<StorageResourceId> sources,
+      StorageResourceId destination, CreateObjectOptions options)
+      throws IOException {
+    log.debug("composeObjects(%s, %s)", sources, destination);
+    GoogleCloudStorageItemInfo destinationInfo =
+        gcsDelegate.composeObjects(sources, destination, options);
+    resourceCache.putResourceId(destination);
+    return destinationInfo;
+  }
+
   /**
    * Helper for checking the list of {@code candidateEntries} against a {@code originalIds} to
    * possibly retrieve supplemental results from the DirectoryListCache.
@@ -423,6 +475,128 @@ public class CacheSupplementedGoogleCloudStorage
     return allObjectInfos;
   }
 
+  /**
+   * Supplements each page returned by the delegate with the cached object infos which are missing
+   * from the listing and fall into the page, like {@link #listObjectInfo}. GCS lists objects in
+   * lexicographical order, so a page covers the names after the last name of the previous page up
+   * to its own last name; the returned page tokens carry that last name along with the token of
+   * the delegate.
+   */
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken)
+      throws IOException {
+    log.debug("listObjectInfoPage(%s, %s, %s, %s)",
+        bucketName, objectNamePrefix, delimiter, pageToken);
+    return listAndSupplementPage(
+        bucketName, objectNamePrefix, delimiter, null, null, pageToken, null);
+  }
+
+  /**
+   * Supplements each page like {@link #listObjectInfoPage(String, String, String, String)}.
+   */
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken,
+      long maxResults)
+      throws IOException {
+    log.debug("listObjectInfoPage(%s, %s, %s, %s, %d)",
+        bucketName, objectNamePrefix, delimiter, pageToken, maxResults);
+    return listAndSupplementPage(
+        bucketName, objectNamePrefix, delimiter, null, null, pageToken, maxResults);
+  }
+
+  /**
+   * Supplements each page like {@link #listObjectInfoPage(String, String, String, String)}, with
+   * just the cached object infos which also fall into the range.
+   */
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPageInRange(
+      String bucketName, String objectNamePrefix, String startOffset, String endOffset,
+      String pageToken, long maxResults)
+      throws IOException {
+    log.debug("listObjectInfoPageInRange(%s, %s, %s, %s, %s, %d)",
+        bucketName, objectNamePrefix, startOffset, endOffset, pageToken, maxResults);
+    return listAndSupplementPage(
+        bucketName, objectNamePrefix, null, startOffset, endOffset, pageToken, maxResults);
+  }
+
+  /**
+   * Helper for the listObjectInfoPage overloads and listObjectInfoPageInRange; {@code maxResults}
+   * is null to leave the page size to the delegate, and the offsets are both null unless listing
+   * a range.
+   */
+  private ListPage<GoogleCloudStorageItemInfo> listAndSupplementPage(
+      String bucketName, String objectNamePrefix, String delimiter, String startOffset,
+      String endOffset, String pageToken, Long maxResults)
+      throws IOException {
+    // Exclusive lower bound of the names covered by this page, or null for the first page.
+    String previousLastName = null;
+    String delegatePageToken = null;
+    if (pageToken != null) {
+      int separatorIndex = pageToken.indexOf(PAGE_TOKEN_SEPARATOR);
+      Preconditions.checkArgument(separatorIndex >= 0, "Invalid page token: %s", pageToken);
+      previousLastName = pageToken.substring(0, separatorIndex);
+      delegatePageToken = pageToken.substring(separatorIndex + 1);
+    }
+
+    boolean inRange = startOffset != null || endOffset != null;
+    ListPage<GoogleCloudStorageItemInfo> page;
+    if (inRange) {
+      page = gcsDelegate.listObjectInfoPageInRange(bucketName, objectNamePrefix, startOffset,
+          endOffset, delegatePageToken, maxResults);
+    } else if (maxResults == null) {
+      page = gcsDelegate.listObjectInfoPage(
+          bucketName, objectNamePrefix, delimiter, delegatePageToken);
+    } else {
+      page = gcsDelegate.listObjectInfoPage(
+          bucketName, objectNamePrefix, delimiter, delegatePageToken, maxResults);
+    }
+
+    // Inclusive upper bound of the names covered by this page, unless it is the last page.
+    String lastName = previousLastName != null ? previousLastName : "";
+    Set<StorageResourceId> objectIdsSet = new HashSet<>();
+    for (GoogleCloudStorageItemInfo itemInfo : page.getItems()) {
+      objectIdsSet.add(itemInfo.getResourceId());
+      if (itemInfo.getObjectName().compareTo(lastName) > 0) {
+        lastName = itemInfo.getObjectName();
+      }
+    }
+    String nextPageToken = page.getNextPageToken() == null
+        ? null
+        : lastName + PAGE_TOKEN_SEPARATOR + page.getNextPageToken();
+
+    // Only ask the cache for the names this page covers, rather than for the whole prefix.
+    List<CacheEntry> pageCachedObjects = resourceCache.getObjectListInRange(
+        bucketName, objectNamePrefix, delimiter, previousLastName,
+        nextPageToken == null ? null : lastName);
+    if (inRange && pageCachedObjects != null) {
+      List<CacheEntry> rangeCachedObjects = new ArrayList<>();
+      for (CacheEntry entry : pageCachedObjects) {
+        String objectName = entry.getResourceId().getObjectName();
+        if ((startOffset == null || objectName.compareTo(startOffset) >= 0)
+            && (endOffset == null || objectName.compareTo(endOffset) < 0)) {
+          rangeCachedObjects.add(entry);
+        }
+      }
+      pageCachedObjects = rangeCachedObjects;
+    }
+    if (pageCachedObjects == null || pageCachedObjects.isEmpty()) {
+      return new ListPage<>(page.getItems(), nextPageToken, page.getPrefixes());
+    }
+
+    List<CacheEntry> missingCachedObjects =
+        getSupplementalEntries(objectIdsSet, pageCachedObjects);
+    if (missingCachedObjects.isEmpty()) {
+      return new ListPage<>(page.getItems(), nextPageToken, page.getPrefixes());
+    }
+
+    // Make a copy in case the delegate returned an immutable list.
+    List<GoogleCloudStorageItemInfo> allObjectInfos = new ArrayList<>(page.getItems());
+    allObjectInfos.addAll(extractItemInfos(missingCachedObjects));
+    return new ListPage<>(allObjectInfos, nextPageToken, page.getPrefixes());
+  }
+
   /**
    * Pure pass-through.
    */
@@ -453,11 +627,19 @@ public class CacheSupplementedGoogleCloudStorage
   }
 
   /**
-   * Pure pass-through.
+   * Closes the delegate, and the resourceCache if it holds resources of its own, such as a
+   * connection to a DirectoryListCacheServer.
    */
   @Override
   public void close() {
     gcsDelegate.close();
+    if (resourceCache instanceof Closeable) {
+      try {
+        ((Closeable) resourceCache).close();
+      } catch (IOException ioe) {
+        log.warn("Failed to close resourceCache", ioe);
+      }
+    }
   }
 
   /**
@@ -19,9 +19,13 @@ package com.google.cloud.hadoop.gcsio;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A cache entry for the relevant metadata of a single GCS Bucket, used by {@code
@@ -33,10 +37,22 @@ import java.util.Map;
  * not have associated GoogleCloudStorageItemInfo available. The caller is responsible for fetching
  * or updating such stale/nonexistent metadata if it is desired; for name-listing operations,
  * cached bucket/object names may be used directly without lazily populating associated metadata.
+ *
+ * StorageObjects are held in lexicographic order of their names, so that the objects under a
+ * prefix can be visited without scanning the rest of the bucket; see {@link #getObjectsFrom}.
+ * All methods are thread-safe and non-blocking.
  */
 public class CachedBucket extends CacheEntry {
-  // Mapping from objectNames to cache entries for GCS StorageObjects.
-  private final Map<String, CacheEntry> objectLookup = new HashMap<>();
+  // Mapping from objectNames to cache entries for GCS StorageObjects, sorted by objectName.
+  private final ConcurrentNavigableMap<String, CacheEntry> objectLookup =
+      new ConcurrentSkipListMap<>();
+
+  // Number of entries in objectLookup, which itself can only count them in linear time.
+  private final AtomicInteger numObjects = new AtomicInteger();
+
+  // Name of the last StorageObject returned by getNextObjectsToSweep(), or null to start over
+  // from the first object.
+  private volatile String lastSweptObjectName;
 
   /**
    * Constructs a CachedBucket which has no associated GoogleCloudStorageItemInfo for the bucket.
@@ -88,7 +104,7 @@ public class CachedBucket extends CacheEntry {
    *
    * @param resourceId identifies a StorageObject. Bucket must match this CachedBucket's name.
    */
-  public synchronized CacheEntry get(StorageResourceId resourceId) {
+  public CacheEntry get(StorageResourceId resourceId) {
     validateStorageObjectId(resourceId);
     return objectLookup.get(resourceId.getObjectName());
   }
@@ -98,10 +114,32 @@ public class CachedBucket extends CacheEntry {
    * residing inside this CachedBucket, if it exists.
    *
    * @param resourceId identifies a StorageObject. Bucket must match this CachedBucket's name.
+   * @return Whether an entry was removed.
    */
-  public synchronized void remove(StorageResourceId resourceId) {
+  public boolean remove(StorageResourceId resourceId) {
     validateStorageObjectId(resourceId);
-    objectLookup.remove(resourceId.getObjectName());
+    if (objectLookup.remove(resourceId.getObjectName()) == null) {
+      return false;
+    }
+    numObjects.decrementAndGet();
+    return true;
+  }
+
+  /**
+   * Removes {@code objectEntry} from this CachedBucket if it is still the entry for its
+   * StorageObject, rather than one which has since replaced it.
+   *
+   * @param objectEntry a StorageObject entry previously returned by this CachedBucket.
+   * @return Whether the entry was removed.
+   */
+  public boolean removeEntry(CacheEntry objectEntry) {
+    StorageResourceId resourceId = objectEntry.getResourceId();
+    validateStorageObjectId(resourceId);
+    if (!objectLookup.remove(resourceId.getObjectName(), objectEntry)) {
+      return false;
+    }
+    numObjects.decrementAndGet();
+    return true;
   }
 
   /**
@@ -111,32 +149,81 @@ public class CachedBucket extends CacheEntry {
    * @param resourceId identifies a StorageObject. Bucket must match this CachedBucket's name.
    * @return The CacheEntry which got added, *or* the pre-existing entry.
    */
-  public synchronized CacheEntry put(StorageResourceId resourceId) {
+  public CacheEntry put(StorageResourceId resourceId) {
     validateStorageObjectId(resourceId);
 
     // Only add a new CacheEntry entry if it doesn't already exist.
     // TODO(user): Maybe invalidate any existing entry's info.
     CacheEntry returnEntry = objectLookup.get(resourceId.getObjectName());
     if (returnEntry == null) {
-      returnEntry = new CacheEntry(resourceId);
-      objectLookup.put(resourceId.getObjectName(), returnEntry);
+      CacheEntry newEntry = new CacheEntry(resourceId);
+      returnEntry = objectLookup.putIfAbsent(resourceId.getObjectName(), newEntry);
+      if (returnEntry == null) {
+        numObjects.incrementAndGet();
+        returnEntry = newEntry;
+      }
     }
     return returnEntry;
   }
 
   /**
-   * @return List of CacheEntrys for StorageObjects residing in this bucket. May be empty. The
-   *     list is a copy, so any later additions/removals of StorageObjects to this bucket will
-   *     not be reflected in the returned list instance.
+   * @return List of CacheEntrys for StorageObjects residing in this bucket, in lexicographic order
+   *     of their names. May be empty. The list is a copy, so any later additions/removals of
+   *     StorageObjects to this bucket will not be reflected in the returned list instance.
    */
-  public synchronized List<CacheEntry> getObjectList() {
+  public List<CacheEntry> getObjectList() {
     return ImmutableList.copyOf(objectLookup.values());
   }
 
+  /**
+   * Returns the CacheEntrys for StorageObjects residing in this bucket whose names are greater
+   * than or equal to {@code fromObjectName}, in lexicographic order of their names. The returned
+   * view is backed by this bucket: its iterators reflect some of the additions/removals made
+   * while iterating, never throw ConcurrentModificationException, and don't support removal.
+   * Callers listing a prefix stop iterating at the first name which doesn't start with it.
+   *
+   * @param fromObjectName The name to start from; "" for the first StorageObject.
+   */
+  public Iterable<CacheEntry> getObjectsFrom(String fromObjectName) {
+    Preconditions.checkArgument(fromObjectName != null, "fromObjectName must not be null.");
+    return Collections.unmodifiableCollection(
+        objectLookup.tailMap(fromObjectName, true).values());
+  }
+
+  /**
+   * Returns up to {@code maxObjects} CacheEntrys following the ones returned by the previous call,
+   * starting over from the first StorageObject after the last one has been returned. Repeated
+   * calls thus visit every StorageObject in turn, a few at a time, which lets expired entries be
+   * removed incrementally rather than by scanning the whole bucket at once. Concurrent calls may
+   * return overlapping entries, but no entry is passed over.
+   */
+  public List<CacheEntry> getNextObjectsToSweep(int maxObjects) {
+    Preconditions.checkArgument(maxObjects > 0, "maxObjects must be positive: %s", maxObjects);
+    List<CacheEntry> sweptEntries = new ArrayList<>(maxObjects);
+    String startAfterObjectName = lastSweptObjectName;
+    Iterator<CacheEntry> entries = (startAfterObjectName == null)
+        ? objectLookup.values().iterator()
+        : objectLookup.tailMap(startAfterObjectName, false).values().iterator();
+    while (sweptEntries.size() < maxObjects && entries.hasNext()) {
+      sweptEntries.add(entries.next());
+    }
+    lastSweptObjectName = entries.hasNext()
+        ? sweptEntries.get(sweptEntries.size() - 1).getResourceId().getObjectName()
+        : null;
+    return sweptEntries;
+  }
+
   /**
    * @return The number of StorageObjects residing within this CachedBucket.
    */
-  public synchronized int getNumObjects() {
-    return objectLookup.size();
+  public int getNumObjects() {
+    return numObjects.get();
+  }
+
+  /**
+   * @return Whether no StorageObjects reside within this CachedBucket.
+   */
+  public boolean isEmpty() {
+    return objectLookup.isEmpty();
   }
 }
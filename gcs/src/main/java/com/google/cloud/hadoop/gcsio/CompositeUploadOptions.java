@@ -0,0 +1,141 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Options for parallel composite uploads, see {@link CompositeUploadWriteChannel}.
+ */
+public class CompositeUploadOptions {
+
+  /**
+   * Default setting for uploading new objects as composites of concurrently uploaded parts.
+   */
+  public static final boolean ENABLED_DEFAULT = false;
+
+  /**
+   * Default size of each part.
+   */
+  public static final int PART_SIZE_DEFAULT = 64 * 1024 * 1024;
+
+  /**
+   * Default maximum number of parts of a single object uploaded concurrently.
+   */
+  public static final int CONCURRENCY_DEFAULT = 4;
+
+  /**
+   * Default upper bound on the memory a single channel may use to buffer parts.
+   */
+  public static final long MAX_MEMORY_DEFAULT = 320 * 1024 * 1024;
+
+  /**
+   * Default composite upload options.
+   */
+  public static final CompositeUploadOptions DEFAULT = newBuilder().build();
+
+  /**
+   * Mutable builder for the CompositeUploadOptions class.
+   */
+  public static class Builder {
+    private boolean enabled = ENABLED_DEFAULT;
+    private int partSize = PART_SIZE_DEFAULT;
+    private int concurrency = CONCURRENCY_DEFAULT;
+    private long maxMemory = MAX_MEMORY_DEFAULT;
+
+    public Builder setEnabled(boolean enabled) {
+      this.enabled = enabled;
+      return this;
+    }
+
+    public Builder setPartSize(int partSize) {
+      this.partSize = partSize;
+      return this;
+    }
+
+    public Builder setConcurrency(int concurrency) {
+      this.concurrency = concurrency;
+      return this;
+    }
+
+    public Builder setMaxMemory(long maxMemory) {
+      this.maxMemory = maxMemory;
+      return this;
+    }
+
+    public CompositeUploadOptions build() {
+      return new CompositeUploadOptions(enabled, partSize, concurrency, maxMemory);
+    }
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  private final boolean enabled;
+  private final int partSize;
+  private final int concurrency;
+  private final long maxMemory;
+
+  public CompositeUploadOptions(
+      boolean enabled, int partSize, int concurrency, long maxMemory) {
+    Preconditions.checkArgument(partSize > 0, "partSize must be positive: %s", partSize);
+    Preconditions.checkArgument(concurrency > 0, "concurrency must be positive: %s", concurrency);
+    Preconditions.checkArgument(maxMemory > 0, "maxMemory must be positive: %s", maxMemory);
+    this.enabled = enabled;
+    this.partSize = partSize;
+    this.concurrency = concurrency;
+    this.maxMemory = maxMemory;
+  }
+
+  /**
+   * Returns true if new objects are uploaded as composites of concurrently uploaded parts.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns the number of bytes in each part except the last one.
+   */
+  public int getPartSize() {
+    return partSize;
+  }
+
+  /**
+   * Returns the maximum number of parts of a single object uploaded concurrently.
+   */
+  public int getConcurrency() {
+    return concurrency;
+  }
+
+  /**
+   * Returns the upper bound on the memory a single channel uses to buffer parts; the channel
+   * always holds at least one part regardless.
+   */
+  public long getMaxMemory() {
+    return maxMemory;
+  }
+
+  /**
+   * Returns the number of part buffers a single channel may hold at once: one being filled by
+   * the writer plus up to {@link #getConcurrency()} being uploaded, bounded by
+   * {@link #getMaxMemory()}.
+   */
+  public int getMaxBufferedParts() {
+    long maxParts = Math.min(concurrency + 1L, maxMemory / partSize);
+    return (int) Math.max(1L, maxParts);
+  }
+}
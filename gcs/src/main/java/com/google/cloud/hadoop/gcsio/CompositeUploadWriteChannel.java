@@ -0,0 +1,522 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.cloud.hadoop.util.LogUtil;
+import com.google.cloud.hadoop.util.UploadBudget;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Writes an object as a parallel composite upload: the written bytes are cut into parts of
+ * {@link CompositeUploadOptions#getPartSize()} bytes, each part is uploaded concurrently as a
+ * temporary object, and close() composes the parts into the destination object and deletes
+ * them. This allows a single large object to be written over several HTTP streams at once.
+ *
+ * Parts are buffered in memory; once {@link CompositeUploadOptions#getMaxBufferedParts()} part
+ * buffers are in use, write() blocks until an upload completes and frees one. If an
+ * {@link UploadBudget} is set, each part also reserves its buffer from the budget before it is
+ * filled, and hands it back once its upload completes or fails. Temporary objects
+ * are created next to the destination object, named "_&lt;name&gt;{@value #TEMPORARY_OBJECT_MARKER}..."
+ * so that Hadoop treats them as hidden files, and are deleted whether or not the upload succeeds.
+ *
+ * Subclasses may override {@link #uploadPart} and {@link #composeObjects} to use cheaper or
+ * stricter requests than the generic ones of {@link GoogleCloudStorage}, and
+ * {@link #uploadObject} to write an object which fits in a single part directly, without any
+ * temporary object.
+ *
+ * Like other WritableByteChannels, only a single writer may be in write() at a time.
+ */
+public class CompositeUploadWriteChannel
+    implements WritableByteChannel {
+
+  // Logging helper.
+  private static final LogUtil log = new LogUtil(CompositeUploadWriteChannel.class);
+
+  /**
+   * Marks the names of temporary objects, which are
+   * "&lt;parent&gt;_&lt;name&gt;.gcs_composite_upload_tmp.&lt;uuid&gt;.&lt;part&gt;".
+   */
+  public static final String TEMPORARY_OBJECT_MARKER = ".gcs_composite_upload_tmp.";
+
+  /**
+   * Maximum number of source objects of a single compose request.
+   */
+  public static final int MAX_COMPOSE_OBJECTS = 32;
+
+  /**
+   * Maximum number of parts a single composite object can consist of.
+   */
+  public static final int MAX_COMPONENT_COUNT = 1024;
+
+  // Options used to create temporary objects; their names are unique to this channel.
+  private static final CreateObjectOptions TEMPORARY_OBJECT_OPTIONS =
+      new CreateObjectOptions(true);
+
+  // Storage used to upload, compose and delete objects.
+  private final GoogleCloudStorage gcs;
+
+  // Executor on which parts are uploaded.
+  private final ExecutorService threadPool;
+
+  // Object being written.
+  private final StorageResourceId resourceId;
+
+  // Options used to create the composed object.
+  private final CreateObjectOptions createOptions;
+
+  // Number of bytes in each part except the last.
+  private final int partSize;
+
+  // Maximum number of part buffers held at once.
+  private final int maxBufferedParts;
+
+  // Prefix of the names of the temporary objects of this channel.
+  private final String temporaryObjectPrefix;
+
+  // Part buffers which are not in use; grows lazily up to maxBufferedParts.
+  private final BlockingQueue<byte[]> freeBuffers = new LinkedBlockingQueue<>();
+
+  // Number of part buffers allocated so far.
+  private int allocatedBuffers = 0;
+
+  // Budget shared with other channels which part buffers are reserved from, or null.
+  private UploadBudget uploadBudget;
+
+  // Part currently being filled by write(), or null, and the bytes reserved for it from
+  // uploadBudget, or -1 if none were.
+  private byte[] currentPart;
+  private int currentPartLength;
+  private long currentPartReservedBytes = -1;
+
+  // Temporary objects created or being created by this channel, in composition order for parts.
+  private final List<StorageResourceId> parts = new ArrayList<>();
+  private final List<StorageResourceId> intermediateObjects = new ArrayList<>();
+
+  // Content generations of the temporary objects created so far, when known, so that they can be
+  // deleted without looking them up first. Written by the part uploads.
+  private final Map<StorageResourceId, Long> temporaryObjectGenerations =
+      new ConcurrentHashMap<>();
+
+  // Pending and completed part uploads.
+  private final List<Future<Void>> partUploads = new ArrayList<>();
+
+  // First failure encountered by a part upload, or null.
+  private volatile Throwable uploadFailure;
+
+  private boolean isOpen = true;
+
+  /**
+   * Constructs an instance of CompositeUploadWriteChannel.
+   *
+   * @param gcs storage used to upload parts, compose and delete them; creating a temporary
+   *     object through it must not itself start a composite upload
+   * @param threadPool executor on which parts are uploaded; may only queue tasks behind other
+   *     uploads, which never wait for this channel
+   * @param resourceId object to write
+   * @param createOptions options used to create the composed object
+   * @param uploadOptions part size and memory bound of this channel
+   */
+  public CompositeUploadWriteChannel(
+      GoogleCloudStorage gcs,
+      ExecutorService threadPool,
+      StorageResourceId resourceId,
+      CreateObjectOptions createOptions,
+      CompositeUploadOptions uploadOptions) {
+    Preconditions.checkArgument(gcs != null, "gcs must not be null");
+    Preconditions.checkArgument(threadPool != null, "threadPool must not be null");
+    Preconditions.checkArgument(resourceId.isStorageObject(),
+        "Expected full StorageObject id, got " + resourceId);
+    this.gcs = gcs;
+    this.threadPool = threadPool;
+    this.resourceId = resourceId;
+    this.createOptions = createOptions;
+    this.partSize = uploadOptions.getPartSize();
+    this.maxBufferedParts = uploadOptions.getMaxBufferedParts();
+    String objectName = resourceId.getObjectName();
+    int nameStart = objectName.lastIndexOf(GoogleCloudStorage.PATH_DELIMITER) + 1;
+    this.temporaryObjectPrefix = String.format("%s_%s%s%s.",
+        objectName.substring(0, nameStart), objectName.substring(nameStart),
+        TEMPORARY_OBJECT_MARKER, UUID.randomUUID());
+  }
+
+  /**
+   * Returns true if the given object name is that of a temporary object of a composite upload.
+   */
+  public static boolean isTemporaryObject(String objectName) {
+    if (objectName == null) {
+      return false;
+    }
+    int nameStart = objectName.lastIndexOf(GoogleCloudStorage.PATH_DELIMITER) + 1;
+    return objectName.startsWith("_", nameStart)
+        && objectName.indexOf(TEMPORARY_OBJECT_MARKER, nameStart) >= 0;
+  }
+
+  /**
+   * Sets the budget shared with other channels from which this channel reserves each part buffer
+   * before filling it. Reserving waits while the budget is exhausted, up to the budget's maximum
+   * wait, after which write() or close() fails rather than buffer the part outside of the budget.
+   */
+  public void setUploadBudget(UploadBudget uploadBudget) {
+    this.uploadBudget = uploadBudget;
+  }
+
+  /**
+   * Returns the object being written.
+   */
+  protected StorageResourceId getResourceId() {
+    return resourceId;
+  }
+
+  /**
+   * Uploads the first {@code length} bytes of {@code contents} as the whole contents of the
+   * temporary object {@code partId}. By default the part is written through
+   * {@link GoogleCloudStorage#create(StorageResourceId, CreateObjectOptions)}, which doesn't
+   * report the generation it created.
+   *
+   * @return the content generation of the created part, or 0 if unknown
+   */
+  protected long uploadPart(StorageResourceId partId, byte[] contents, int length)
+      throws IOException {
+    WritableByteChannel channel = gcs.create(partId, TEMPORARY_OBJECT_OPTIONS);
+    ByteBuffer buffer = ByteBuffer.wrap(contents, 0, length);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    channel.close();
+    return 0L;
+  }
+
+  /**
+   * Uploads the first {@code length} bytes of {@code contents} directly as the whole contents of
+   * the object being written, created with {@code options}. close() calls this when everything
+   * written fits in the first part, to save uploading, composing and deleting a temporary object.
+   * By default this returns false, since creating the object through a generic
+   * {@link GoogleCloudStorage} may start another composite upload.
+   *
+   * @return true if the object was uploaded, or false to compose it from a single part instead
+   */
+  protected boolean uploadObject(byte[] contents, int length, CreateObjectOptions options)
+      throws IOException {
+    return false;
+  }
+
+  /**
+   * Composes {@code sources} into {@code destination}, which is either the object being written
+   * or a new temporary object. By default this calls
+   * {@link GoogleCloudStorage#composeObjects(List, StorageResourceId, CreateObjectOptions)}.
+   *
+   * @return the content generation of the composed object, or 0 if unknown
+   */
+  protected long composeObjects(List<StorageResourceId> sources,
+      StorageResourceId destination, CreateObjectOptions options)
+      throws IOException {
+    return gcs.composeObjects(sources, destination, options).getContentGeneration();
+  }
+
+  /**
+   * Buffers the contents of the given buffer, starting the upload of each full part as soon as
+   * more bytes follow it. Blocks while all part buffers are in use.
+   *
+   * Errors encountered uploading earlier parts are reported by a subsequent write() or close().
+   */
+  @Override
+  public int write(ByteBuffer buffer)
+      throws IOException {
+    throwIfNotOpen();
+    throwIfUploadFailed();
+
+    int numBytes = buffer.remaining();
+    while (buffer.hasRemaining()) {
+      if (currentPart != null && currentPartLength == partSize) {
+        // Only now is the current part known not to be the whole object.
+        uploadCurrentPart();
+      }
+      if (currentPart == null) {
+        long reservedBytes = reservePartBuffer();
+        try {
+          currentPart = takeBuffer();
+        } catch (IOException | RuntimeException e) {
+          releasePartBuffer(reservedBytes);
+          throw e;
+        }
+        currentPartReservedBytes = reservedBytes;
+        currentPartLength = 0;
+      }
+      int toCopy = Math.min(buffer.remaining(), partSize - currentPartLength);
+      buffer.get(currentPart, currentPartLength, toCopy);
+      currentPartLength += toCopy;
+    }
+    return numBytes;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return isOpen;
+  }
+
+  /**
+   * Uploads the last part, waits for all parts and composes them into the destination object,
+   * unless everything written fits in the first part and {@link #uploadObject} uploads it
+   * directly. Temporary objects are deleted whether or not this succeeds.
+   */
+  @Override
+  public void close()
+      throws IOException {
+    throwIfNotOpen();
+    isOpen = false;
+    try {
+      if (parts.isEmpty()) {
+        byte[] contents = currentPart == null ? new byte[0] : currentPart;
+        if (uploadObject(contents, currentPartLength, createOptions)) {
+          log.debug("Uploaded %d bytes of %s directly", currentPartLength, resourceId);
+          return;
+        }
+      }
+      if (currentPart != null || parts.isEmpty()) {
+        if (currentPart == null) {
+          // Nothing was written; compose a single empty part.
+          currentPart = new byte[0];
+          currentPartLength = 0;
+        }
+        uploadCurrentPart();
+      }
+      waitForPartUploads();
+      throwIfUploadFailed();
+      compose();
+    } finally {
+      // Make sure no part upload is still running before deleting, e.g. if uploading the last
+      // part could not be started.
+      waitForPartUploads();
+      deleteTemporaryObjects();
+      if (currentPart != null) {
+        // The last part was never handed to an upload.
+        releasePartBuffer(currentPartReservedBytes);
+      }
+      currentPart = null;
+      currentPartReservedBytes = -1;
+      freeBuffers.clear();
+    }
+  }
+
+  /**
+   * Reserves a part buffer from uploadBudget, if any.
+   *
+   * @return the number of bytes reserved, or -1 if there is no uploadBudget
+   * @throws IOException if the budget can't be reserved in time
+   */
+  private long reservePartBuffer()
+      throws IOException {
+    if (uploadBudget == null) {
+      return -1;
+    }
+    long reservedBytes = uploadBudget.tryAcquire(partSize, partSize);
+    if (reservedBytes < 0) {
+      throw new IOException(String.format(
+          "Timed out waiting for upload budget to buffer a part of %s: %s",
+          resourceId, uploadBudget));
+    }
+    return reservedBytes;
+  }
+
+  /**
+   * Hands back bytes reserved by reservePartBuffer().
+   */
+  private void releasePartBuffer(long reservedBytes) {
+    if (reservedBytes >= 0) {
+      uploadBudget.release(reservedBytes);
+    }
+  }
+
+  /**
+   * Returns a free part buffer, allocating one if fewer than maxBufferedParts exist, or else
+   * waiting for an upload to hand one back.
+   */
+  private byte[] takeBuffer()
+      throws IOException {
+    byte[] buffer = freeBuffers.poll();
+    if (buffer != null) {
+      return buffer;
+    }
+    if (allocatedBuffers < maxBufferedParts) {
+      ++allocatedBuffers;
+      return new byte[partSize];
+    }
+    try {
+      buffer = freeBuffers.take();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(
+          String.format("Interrupted waiting for a part buffer of %s", resourceId));
+    }
+    // A failed upload hands back its buffer too; don't keep writing after a failure.
+    throwIfUploadFailed();
+    return buffer;
+  }
+
+  /**
+   * Starts uploading the current part as the next temporary part object.
+   */
+  private void uploadCurrentPart()
+      throws IOException {
+    if (parts.size() == MAX_COMPONENT_COUNT) {
+      throw new IOException(String.format(
+          "Cannot upload %s in more than %d parts of %d bytes; use a larger part size",
+          resourceId, MAX_COMPONENT_COUNT, partSize));
+    }
+    final byte[] partContents = currentPart;
+    final int partLength = currentPartLength;
+    final long partReservedBytes = currentPartReservedBytes;
+    final StorageResourceId partId = new StorageResourceId(resourceId.getBucketName(),
+        String.format("%spart-%05d", temporaryObjectPrefix, parts.size()));
+
+    log.debug("Uploading %d bytes of %s as %s", partLength, resourceId, partId);
+    Future<Void> partUpload;
+    try {
+      partUpload = threadPool.submit(new Callable<Void>() {
+        @Override
+        public Void call()
+            throws IOException {
+          try {
+            long generation = uploadPart(partId, partContents, partLength);
+            if (generation != 0) {
+              temporaryObjectGenerations.put(partId, generation);
+            }
+            return null;
+          } catch (IOException | RuntimeException | Error e) {
+            if (uploadFailure == null) {
+              uploadFailure = e;
+            }
+            throw e;
+          } finally {
+            freeBuffers.offer(partContents);
+            releasePartBuffer(partReservedBytes);
+          }
+        }
+      });
+    } catch (RejectedExecutionException ree) {
+      // The current part stays with the channel; close() hands back its reservation.
+      throw new IOException(
+          String.format("Could not start uploading a part of %s", resourceId), ree);
+    }
+    parts.add(partId);
+    partUploads.add(partUpload);
+    currentPart = null;
+    currentPartLength = 0;
+    currentPartReservedBytes = -1;
+  }
+
+  /**
+   * Waits for all part uploads started so far; failures are recorded in uploadFailure.
+   */
+  private void waitForPartUploads() {
+    for (Future<Void> partUpload : partUploads) {
+      try {
+        Uninterruptibles.getUninterruptibly(partUpload);
+      } catch (ExecutionException ee) {
+        // Already recorded by the upload itself.
+        log.debug("Part upload of %s failed: %s", resourceId, ee.getCause());
+      }
+    }
+  }
+
+  /**
+   * Composes all parts into the destination object, going through intermediate composite
+   * objects when there are more parts than a single compose request accepts.
+   */
+  private void compose()
+      throws IOException {
+    List<StorageResourceId> sources = parts;
+    while (sources.size() > MAX_COMPOSE_OBJECTS) {
+      StorageResourceId intermediate = new StorageResourceId(resourceId.getBucketName(),
+          String.format("%scomposite-%05d", temporaryObjectPrefix, intermediateObjects.size()));
+      intermediateObjects.add(intermediate);
+      long generation = composeObjects(
+          sources.subList(0, MAX_COMPOSE_OBJECTS), intermediate, TEMPORARY_OBJECT_OPTIONS);
+      if (generation != 0) {
+        temporaryObjectGenerations.put(intermediate, generation);
+      }
+
+      List<StorageResourceId> remainingSources = new ArrayList<>();
+      remainingSources.add(intermediate);
+      remainingSources.addAll(sources.subList(MAX_COMPOSE_OBJECTS, sources.size()));
+      sources = remainingSources;
+    }
+    log.debug("Composing %d parts into %s", parts.size(), resourceId);
+    composeObjects(sources, resourceId, createOptions);
+  }
+
+  /**
+   * Deletes all temporary objects of this channel, conditionally on the generations they were
+   * created with where those are known. Failures are logged rather than thrown, since they don't
+   * affect the destination object.
+   */
+  private void deleteTemporaryObjects() {
+    List<StorageResourceId> temporaryObjects = new ArrayList<>(parts);
+    temporaryObjects.addAll(intermediateObjects);
+    if (temporaryObjects.isEmpty()) {
+      return;
+    }
+    List<Long> generations = new ArrayList<>(temporaryObjects.size());
+    for (StorageResourceId temporaryObject : temporaryObjects) {
+      Long generation = temporaryObjectGenerations.get(temporaryObject);
+      generations.add(generation == null ? 0L : generation);
+    }
+    try {
+      gcs.deleteObjects(temporaryObjects, generations);
+    } catch (IOException ioe) {
+      // Parts whose upload failed may not exist.
+      log.warn("Failed to delete some of the %d temporary objects gs://%s/%s*: %s",
+          temporaryObjects.size(), resourceId.getBucketName(), temporaryObjectPrefix, ioe);
+    }
+  }
+
+  private void throwIfNotOpen()
+      throws IOException {
+    if (!isOpen) {
+      throw new ClosedChannelException();
+    }
+  }
+
+  private void throwIfUploadFailed()
+      throws IOException {
+    Throwable failure = uploadFailure;
+    if (failure != null) {
+      if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+      throw new IOException(
+          String.format("Failed to upload a part of %s", resourceId), failure);
+    }
+  }
+}
@@ -22,6 +22,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -45,7 +46,7 @@ public abstract class DirectoryListCache {
   private static final LogUtil log = new LogUtil(DirectoryListCache.class);
 
   // Clock instance used for calculating expiration times.
-  protected Clock clock = Clock.SYSTEM;
+  protected volatile Clock clock = Clock.SYSTEM;
 
   // The configuration settings for this DirectlyListCache instance.
   protected Config cacheConfig = new Config();
@@ -55,29 +56,44 @@ public abstract class DirectoryListCache {
    * managing expiration/retention policies, etc.
    */
   public static class Config {
+    // Default value of maxEntryAgeMillis.
+    public static final long MAX_ENTRY_AGE_MILLIS_DEFAULT = 30 * 60 * 1000L;
+
+    // Default value of maxInfoAgeMillis.
+    public static final long MAX_INFO_AGE_MILLIS_DEFAULT = 10 * 1000L;
+
     // Maximum number of milliseconds a cache entry will remain in this cache, even as an id-only
     // entry (no risk of stale GoogleCloudStorageItemInfo). In general, entries should be allowed
     // to expire fully from the cache once reasonably certain the remote GCS API's list-index
     // is up-to-date to save memory and computation when trying to supplement new results using
     // the cache.
-    private long maxEntryAgeMillis = 30 * 60 * 1000L;
+    private volatile long maxEntryAgeMillis = MAX_ENTRY_AGE_MILLIS_DEFAULT;
 
     // Maximum number of milliseconds a GoogleCloudStorageItemInfo will remain "valid" in the cache,
     // after which the next attempt to fetch the itemInfo will require fetching fresh info from
     // a GoogleCloudStorage instance.
-    private long maxInfoAgeMillis = 10 * 1000L;
+    private volatile long maxInfoAgeMillis = MAX_INFO_AGE_MILLIS_DEFAULT;
+
+    // Maximum number of StorageObject entries held by the cache, beyond which the least recently
+    // used entries are evicted; 0 for no limit. Only honored by InMemoryDirectoryListCache.
+    private volatile int maxEntries = 0;
+
+    // Interval in milliseconds at which expired entries are removed by a background thread; 0 to
+    // only remove them in the course of other cache operations. Only honored by
+    // InMemoryDirectoryListCache.
+    private volatile long backgroundExpiryIntervalMillis = 0;
 
     /**
      * Getter for maxEntryAgeMillis.
      */
-    public synchronized long getMaxEntryAgeMillis() {
+    public long getMaxEntryAgeMillis() {
       return maxEntryAgeMillis;
     }
 
     /**
      * Setter for maxEntryAgeMillis.
      */
-    public synchronized Config setMaxEntryAgeMillis(long maxEntryAgeMillis) {
+    public Config setMaxEntryAgeMillis(long maxEntryAgeMillis) {
       this.maxEntryAgeMillis = maxEntryAgeMillis;
       return this;
     }
@@ -85,17 +101,62 @@ public abstract class DirectoryListCache {
     /**
      * Getter for maxInfoAgeMillis.
      */
-    public synchronized long getMaxInfoAgeMillis() {
+    public long getMaxInfoAgeMillis() {
       return maxInfoAgeMillis;
     }
 
     /**
      * Setter for maxInfoAgeMillis.
      */
-    public synchronized Config setMaxInfoAgeMillis(long maxInfoAgeMillis) {
+    public Config setMaxInfoAgeMillis(long maxInfoAgeMillis) {
       this.maxInfoAgeMillis = maxInfoAgeMillis;
       return this;
     }
+
+    /**
+     * Getter for maxEntries.
+     */
+    public int getMaxEntries() {
+      return maxEntries;
+    }
+
+    /**
+     * Setter for maxEntries.
+     */
+    public Config setMaxEntries(int maxEntries) {
+      Preconditions.checkArgument(
+          maxEntries >= 0, "maxEntries must not be negative: %s", maxEntries);
+      this.maxEntries = maxEntries;
+      return this;
+    }
+
+    /**
+     * Getter for backgroundExpiryIntervalMillis.
+     */
+    public long getBackgroundExpiryIntervalMillis() {
+      return backgroundExpiryIntervalMillis;
+    }
+
+    /**
+     * Setter for backgroundExpiryIntervalMillis.
+     */
+    public Config setBackgroundExpiryIntervalMillis(long backgroundExpiryIntervalMillis) {
+      Preconditions.checkArgument(backgroundExpiryIntervalMillis >= 0,
+          "backgroundExpiryIntervalMillis must not be negative: %s",
+          backgroundExpiryIntervalMillis);
+      this.backgroundExpiryIntervalMillis = backgroundExpiryIntervalMillis;
+      return this;
+    }
+
+    /**
+     * Sets all settings of this Config to those of {@code other}.
+     */
+    public Config copyFrom(Config other) {
+      return setMaxEntryAgeMillis(other.getMaxEntryAgeMillis())
+          .setMaxInfoAgeMillis(other.getMaxInfoAgeMillis())
+          .setMaxEntries(other.getMaxEntries())
+          .setBackgroundExpiryIntervalMillis(other.getBackgroundExpiryIntervalMillis());
+    }
   }
 
   /**
@@ -103,7 +164,9 @@ public abstract class DirectoryListCache {
    */
   public static enum Type {
     IN_MEMORY,
-    FILESYSTEM_BACKED
+    FILESYSTEM_BACKED,
+    LOG_BACKED,
+    SERVICE_BACKED
   }
 
   /**
@@ -195,6 +258,40 @@ public abstract class DirectoryListCache {
       String bucketName, String objectNamePrefix, String delimiter, Set<String> returnedPrefixes)
       throws IOException;
 
+  /**
+   * Same as {@link #getObjectList} without returnedPrefixes, except that only objects whose names
+   * lie in the given range are returned. This default implementation filters the whole listing;
+   * caches which keep their objects sorted by name override it to visit only the range.
+   *
+   * @param startAfterName Exclusive lower bound of the names to return, or null for no bound.
+   * @param endName Inclusive upper bound of the names to return, or null for no bound.
+   */
+  public List<CacheEntry> getObjectListInRange(
+      String bucketName, String objectNamePrefix, String delimiter, String startAfterName,
+      String endName)
+      throws IOException {
+    List<CacheEntry> objectEntries =
+        getObjectList(bucketName, objectNamePrefix, delimiter, null);
+    if (objectEntries == null) {
+      return null;
+    }
+    List<CacheEntry> rangeEntries = new ArrayList<>();
+    for (CacheEntry entry : objectEntries) {
+      if (isInRange(entry.getResourceId().getObjectName(), startAfterName, endName)) {
+        rangeEntries.add(entry);
+      }
+    }
+    return rangeEntries;
+  }
+
+  /**
+   * Indicates whether {@code objectName} lies in the range given to getObjectListInRange.
+   */
+  protected static boolean isInRange(String objectName, String startAfterName, String endName) {
+    return (startAfterName == null || objectName.compareTo(startAfterName) > 0)
+        && (endName == null || objectName.compareTo(endName) <= 0);
+  }
+
   /**
    * Gets the internal number of CachedBucket entries, which may not be equal to the size of
    * getBucketList() if there are expired entries. Does not mutate the cache.
@@ -222,7 +319,7 @@ public abstract class DirectoryListCache {
    * Sets the static Clock instance used for calculating expiration times.
    */
   @VisibleForTesting
-  public synchronized void setClock(Clock clock) {
+  public void setClock(Clock clock) {
     this.clock = clock;
   }
 
@@ -230,9 +327,17 @@ public abstract class DirectoryListCache {
    * Helper for determining whether a CacheEntry is entirely expired and should be removed
    * from the cache.
    */
-  protected synchronized boolean isCacheEntryExpired(CacheEntry entry) {
+  protected boolean isCacheEntryExpired(CacheEntry entry) {
+    return isCacheEntryExpired(entry, clock.currentTimeMillis());
+  }
+
+  /**
+   * Same as {@link #isCacheEntryExpired(CacheEntry)} as of {@code currentTimeMillis}, for callers
+   * checking many entries at once.
+   */
+  protected boolean isCacheEntryExpired(CacheEntry entry, long currentTimeMillis) {
     long creationTime = entry.getCreationTimeMillis();
-    long entryAge = clock.currentTimeMillis() - creationTime;
+    long entryAge = currentTimeMillis - creationTime;
     if (entryAge > cacheConfig.getMaxEntryAgeMillis()) {
       return true;
     }
@@ -255,24 +360,18 @@ public abstract class DirectoryListCache {
    * on cacheConfig settings.
    */
   protected void maybeInvalidateExpiredInfo(CacheEntry entry) {
-    long currentTimeMillis;
-    long maxInfoAgeMillis;
-    synchronized (this) {
-      currentTimeMillis = clock.currentTimeMillis();
-      maxInfoAgeMillis = cacheConfig.getMaxInfoAgeMillis();
-    }
+    maybeInvalidateExpiredInfo(entry, clock.currentTimeMillis());
+  }
 
-    // We must synchronize on 'entry' since we are reading its itemInfoUpdateTimeMillis and then
-    // possibly mutating it based on that value. Requires that CacheEntry's other mutators like
-    // setItemInfo are also synchronized at the object-instance level.
-    synchronized (entry) {
-      long lastUpdated = entry.getItemInfoUpdateTimeMillis();
-      long infoAge = currentTimeMillis - lastUpdated;
-      if (lastUpdated > 0 && infoAge > maxInfoAgeMillis) {
-        log.debug("Clearing itemInfo for CacheEntry '%s' with infoAge: %d ms",
-            entry.getResourceId(), infoAge);
-        entry.clearItemInfo();
-      }
+  /**
+   * Same as {@link #maybeInvalidateExpiredInfo(CacheEntry)} as of {@code currentTimeMillis}, for
+   * callers checking many entries at once.
+   */
+  protected void maybeInvalidateExpiredInfo(CacheEntry entry, long currentTimeMillis) {
+    // Clearing is atomic with respect to concurrent setItemInfo() calls on the entry, so that a
+    // fresh info is never cleared because the info it replaced had expired.
+    if (entry.clearItemInfoIfExpired(currentTimeMillis, cacheConfig.getMaxInfoAgeMillis())) {
+      log.debug("Cleared expired itemInfo for CacheEntry '%s'", entry.getResourceId());
     }
   }
 }
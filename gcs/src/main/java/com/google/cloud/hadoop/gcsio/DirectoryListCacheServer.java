@@ -0,0 +1,521 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * DirectoryListCacheServer serves a DirectoryListCache to ServiceBackedDirectoryListCache clients
+ * over TCP, so that all connector instances of a cluster or job which are configured with its
+ * address share one metadata cache: an object added by any of them is immediately listed by all
+ * of them, and an item info fetched by any of them is returned to all of them until it expires.
+ * It may be embedded in any long-running process, e.g. a job driver or a test, or run standalone
+ * with main().
+ * <p>
+ * The protocol is deliberately simple: the client sends PROTOCOL_VERSION, the server answers with
+ * a random challenge, and the client proves that it knows the secret shared by the server and its
+ * clients by returning the HMAC of the challenge under that secret; the secret itself is never
+ * sent. The answer is read as exactly HANDSHAKE_MAC_LENGTH raw bytes, so that unauthenticated
+ * clients can't make the server buffer anything larger. Once the server acknowledges the answer,
+ * each request is a length-prefixed message holding an operation byte followed by its arguments,
+ * and is answered by a length-prefixed message holding a status byte followed by either the
+ * result or an error message. Each connection is served in order by a thread of its own;
+ * connections beyond the server's limit are closed as soon as they are accepted, and connections
+ * which stall during the handshake or stay idle for too long afterwards are closed as well.
+ * Entries are held by an InMemoryDirectoryListCache, whose Config governs their expiration.
+ * <p>
+ * The secret only keeps out clients which don't know it; messages are neither encrypted nor
+ * signed, so the server should listen on an address only reachable from the cluster.
+ * <p>
+ * This class is thread-safe.
+ */
+public class DirectoryListCacheServer implements Closeable {
+  // Logger.
+  private static final LogUtil log = new LogUtil(DirectoryListCacheServer.class);
+
+  // Version of the protocol, sent by clients when connecting.
+  static final int PROTOCOL_VERSION = 3;
+
+  // Algorithm of the handshake's HMAC, length of its output, and length of its challenge.
+  static final String HANDSHAKE_MAC_ALGORITHM = "HmacSHA256";
+  static final int HANDSHAKE_MAC_LENGTH = 32;
+  static final int CHALLENGE_LENGTH = 32;
+
+  // Operations; each is answered with the results of the DirectoryListCache method of the same
+  // name, except SET_ITEM_INFOS, which sets a batch of infos on their existing entries.
+  static final byte PUT_RESOURCE_ID = 1;
+  static final byte GET_CACHE_ENTRY = 2;
+  static final byte REMOVE_RESOURCE_ID = 3;
+  static final byte GET_BUCKET_LIST = 4;
+  static final byte GET_RAW_BUCKET_LIST = 5;
+  static final byte GET_OBJECT_LIST = 6;
+  static final byte GET_INTERNAL_NUM_BUCKETS = 7;
+  static final byte GET_INTERNAL_NUM_OBJECTS = 8;
+  static final byte SET_ITEM_INFOS = 9;
+
+  // Statuses of responses.
+  static final byte STATUS_OK = 0;
+  static final byte STATUS_ERROR = 1;
+
+  // Messages longer than this are rejected rather than buffered.
+  static final int MAX_MESSAGE_LENGTH = 64 * 1024 * 1024;
+
+  // Default limit on the number of open connections.
+  static final int DEFAULT_MAX_CONNECTIONS = 256;
+
+  // How long a client may take to complete the handshake.
+  static final int HANDSHAKE_TIMEOUT_MILLIS = 10 * 1000;
+
+  // How long an authenticated connection may stay idle before it is closed; clients retry requests
+  // which fail on an idle connection on a new one.
+  static final int IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+  // How long close() waits for the serving threads to exit.
+  private static final long CLOSE_TIMEOUT_MILLIS = 10 * 1000;
+
+  // The served cache.
+  private final InMemoryDirectoryListCache cache;
+
+  // Secret shared with the clients.
+  private final byte[] secret;
+
+  // Generates handshake challenges.
+  private final SecureRandom random = new SecureRandom();
+
+  // Accepts connections.
+  private final ServerSocket serverSocket;
+
+  // Runs the accepting thread, and a thread per connection, up to maxConnections of them.
+  private final ExecutorService executor;
+
+  // Maximum number of open connections.
+  private final int maxConnections;
+
+  // Open connections, closed along with the server.
+  private final Set<Socket> connections =
+      Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+  // Whether close() was called.
+  private volatile boolean closed;
+
+  // Accepts connections until the server is closed.
+  private final Runnable acceptLoop = new Runnable() {
+    @Override
+    public void run() {
+      while (!closed) {
+        try {
+          final Socket socket = serverSocket.accept();
+          if (connections.size() >= maxConnections) {
+            log.warn("Rejecting connection from %s; %d connections are already open",
+                socket.getRemoteSocketAddress(), maxConnections);
+            socket.close();
+            continue;
+          }
+          socket.setTcpNoDelay(true);
+          socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+          connections.add(socket);
+          try {
+            executor.execute(new Runnable() {
+              @Override
+              public void run() {
+                serve(socket);
+              }
+            });
+          } catch (RejectedExecutionException ree) {
+            // A thread which served a closed connection may not have returned to the pool yet.
+            connections.remove(socket);
+            socket.close();
+            if (!closed) {
+              log.warn("Rejecting connection from %s; no serving thread is available",
+                  socket.getRemoteSocketAddress());
+            }
+          }
+        } catch (IOException ioe) {
+          if (!closed) {
+            log.warn("Failed to accept connection", ioe);
+          }
+        }
+      }
+    }
+  };
+
+  /**
+   * Constructs a server for a new InMemoryDirectoryListCache, listening on {@code bindAddress}
+   * once started.
+   *
+   * @param bindAddress the address to listen on; its port may be 0 for any free port
+   * @param secret the secret shared with the clients
+   */
+  public DirectoryListCacheServer(InetSocketAddress bindAddress, String secret)
+      throws IOException {
+    this(new InMemoryDirectoryListCache(), bindAddress, secret, DEFAULT_MAX_CONNECTIONS);
+  }
+
+  /**
+   * Constructs a server for {@code cache}, listening on {@code bindAddress} once started, which
+   * closes connections beyond the first {@code maxConnections} open ones.
+   */
+  @VisibleForTesting
+  DirectoryListCacheServer(InMemoryDirectoryListCache cache, InetSocketAddress bindAddress,
+      String secret, int maxConnections)
+      throws IOException {
+    Preconditions.checkArgument(cache != null, "cache must not be null");
+    Preconditions.checkArgument(bindAddress != null, "bindAddress must not be null");
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(secret), "secret must not be null/empty");
+    Preconditions.checkArgument(maxConnections > 0, "maxConnections must be positive");
+    this.cache = cache;
+    this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    this.maxConnections = maxConnections;
+    this.serverSocket = new ServerSocket();
+    serverSocket.setReuseAddress(true);
+    serverSocket.bind(bindAddress);
+    // One thread accepts, and each of the others serves a connection; there is no queue, since a
+    // connection which can't be served right away is closed instead.
+    this.executor = new ThreadPoolExecutor(
+        0, maxConnections + 1, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new ThreadFactoryBuilder()
+            .setNameFormat("gcs-metadata-cache-server-%d")
+            .setDaemon(true)
+            .build());
+  }
+
+  /**
+   * Starts accepting connections.
+   */
+  public DirectoryListCacheServer start() {
+    log.info("Serving metadata cache on %s", serverSocket.getLocalSocketAddress());
+    executor.execute(acceptLoop);
+    return this;
+  }
+
+  /**
+   * Returns the port the server listens on.
+   */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Returns the configuration of the served cache, which governs the expiration of its entries.
+   */
+  public DirectoryListCache.Config getMutableConfig() {
+    return cache.getMutableConfig();
+  }
+
+  /**
+   * Stops accepting connections, and closes the open ones. Waits for up to
+   * CLOSE_TIMEOUT_MILLIS for the serving threads to exit, since the port may only be released
+   * once the accepting thread has.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    serverSocket.close();
+    for (Socket socket : connections) {
+      socket.close();
+    }
+    executor.shutdownNow();
+    try {
+      if (!executor.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        log.warn("Timed out waiting for serving threads to exit");
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while closing", ie);
+    }
+  }
+
+  /**
+   * Serves the requests of {@code socket} until it is closed.
+   */
+  private void serve(Socket socket) {
+    try (Socket closedSocket = socket;
+        DataInputStream in =
+            new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+      int clientVersion = in.readInt();
+      if (clientVersion != PROTOCOL_VERSION) {
+        writeMessage(encodeError(String.format(
+            "Unsupported protocol version %d, expected %d", clientVersion, PROTOCOL_VERSION)),
+            out);
+        return;
+      }
+      if (!authenticate(in, out)) {
+        return;
+      }
+      socket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+
+      while (!closed) {
+        byte[] request;
+        try {
+          request = readMessage(in);
+        } catch (EOFException eofe) {
+          // The client closed the connection.
+          return;
+        }
+        writeMessage(handleRequest(request), out);
+      }
+    } catch (IOException ioe) {
+      if (!closed) {
+        log.debug("Closing connection after exception", ioe);
+      }
+    } finally {
+      connections.remove(socket);
+    }
+  }
+
+  /**
+   * Sends a challenge to the client and checks its answer, acknowledging it if it is correct.
+   *
+   * @return whether the client knows the secret
+   */
+  private boolean authenticate(DataInputStream in, DataOutputStream out) throws IOException {
+    byte[] challenge = new byte[CHALLENGE_LENGTH];
+    random.nextBytes(challenge);
+    byte[] challengeMessage = new byte[1 + CHALLENGE_LENGTH];
+    challengeMessage[0] = STATUS_OK;
+    System.arraycopy(challenge, 0, challengeMessage, 1, CHALLENGE_LENGTH);
+    writeMessage(challengeMessage, out);
+
+    byte[] answer = new byte[HANDSHAKE_MAC_LENGTH];
+    in.readFully(answer);
+    // Compare in constant time, so that timing doesn't reveal how much of the answer is right.
+    if (!MessageDigest.isEqual(computeHandshakeMac(secret, challenge), answer)) {
+      log.warn("Rejecting client which failed the handshake");
+      writeMessage(encodeError("Handshake failed"), out);
+      return false;
+    }
+    writeMessage(new byte[] {STATUS_OK}, out);
+    return true;
+  }
+
+  /**
+   * Returns the answer to the handshake {@code challenge} under {@code secret}.
+   */
+  static byte[] computeHandshakeMac(byte[] secret, byte[] challenge) throws IOException {
+    try {
+      Mac mac = Mac.getInstance(HANDSHAKE_MAC_ALGORITHM);
+      mac.init(new SecretKeySpec(secret, HANDSHAKE_MAC_ALGORITHM));
+      return mac.doFinal(challenge);
+    } catch (GeneralSecurityException gse) {
+      throw new IOException("Failed to compute handshake MAC", gse);
+    }
+  }
+
+  /**
+   * Returns the response to {@code request}; an error response if the request fails, so that the
+   * connection can go on serving subsequent requests.
+   */
+  private byte[] handleRequest(byte[] request) {
+    ByteArrayOutputStream responseBytes = new ByteArrayOutputStream();
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(request));
+      DataOutputStream out = new DataOutputStream(responseBytes);
+      out.writeByte(STATUS_OK);
+      byte operation = in.readByte();
+      switch (operation) {
+        case PUT_RESOURCE_ID:
+          writeCacheEntry(cache.putResourceId(ItemInfoCodec.readResourceId(in)), out);
+          break;
+        case GET_CACHE_ENTRY: {
+          CacheEntry entry = cache.getCacheEntry(ItemInfoCodec.readResourceId(in));
+          out.writeBoolean(entry != null);
+          if (entry != null) {
+            writeCacheEntry(entry, out);
+          }
+          break;
+        }
+        case REMOVE_RESOURCE_ID:
+          cache.removeResourceId(ItemInfoCodec.readResourceId(in));
+          break;
+        case GET_BUCKET_LIST:
+          writeCacheEntries(cache.getBucketList(), out);
+          break;
+        case GET_RAW_BUCKET_LIST:
+          writeCacheEntries(cache.getRawBucketList(), out);
+          break;
+        case GET_OBJECT_LIST: {
+          String bucketName = in.readUTF();
+          String objectNamePrefix = ItemInfoCodec.readNullableString(in);
+          String delimiter = ItemInfoCodec.readNullableString(in);
+          Set<String> returnedPrefixes = in.readBoolean() ? new HashSet<String>() : null;
+          List<CacheEntry> entries =
+              cache.getObjectList(bucketName, objectNamePrefix, delimiter, returnedPrefixes);
+          out.writeBoolean(entries != null);
+          if (entries != null) {
+            writeCacheEntries(entries, out);
+            if (returnedPrefixes != null) {
+              out.writeInt(returnedPrefixes.size());
+              for (String prefix : returnedPrefixes) {
+                out.writeUTF(prefix);
+              }
+            }
+          }
+          break;
+        }
+        case GET_INTERNAL_NUM_BUCKETS:
+          out.writeInt(cache.getInternalNumBuckets());
+          break;
+        case GET_INTERNAL_NUM_OBJECTS:
+          out.writeInt(cache.getInternalNumObjects());
+          break;
+        case SET_ITEM_INFOS: {
+          int numItemInfos = in.readInt();
+          for (int i = 0; i < numItemInfos; ++i) {
+            StorageResourceId resourceId = ItemInfoCodec.readResourceId(in);
+            GoogleCloudStorageItemInfo itemInfo = ItemInfoCodec.readItemInfo(resourceId, in);
+            // Infos of entries removed in the meantime are dropped.
+            CacheEntry entry = cache.getCacheEntry(resourceId);
+            if (entry != null) {
+              entry.setItemInfo(itemInfo);
+            }
+          }
+          break;
+        }
+        default:
+          throw new IOException(String.format("Unknown operation %d", operation));
+      }
+      out.flush();
+      return responseBytes.toByteArray();
+    } catch (IOException | RuntimeException e) {
+      log.debug("Failed to handle request", e);
+      return encodeError(Strings.nullToEmpty(e.getMessage()));
+    }
+  }
+
+  /**
+   * Writes the state of {@code entry}: its resourceId, creation time and info, if any.
+   */
+  private static void writeCacheEntry(CacheEntry entry, DataOutputStream out) throws IOException {
+    ItemInfoCodec.writeResourceId(entry.getResourceId(), out);
+    out.writeLong(entry.getCreationTimeMillis());
+    // Read the info and its update time once, since it may be replaced concurrently.
+    long itemInfoUpdateTimeMillis = entry.getItemInfoUpdateTimeMillis();
+    GoogleCloudStorageItemInfo itemInfo = entry.getItemInfo();
+    out.writeBoolean(itemInfo != null);
+    if (itemInfo != null) {
+      out.writeLong(itemInfoUpdateTimeMillis);
+      ItemInfoCodec.writeItemInfo(itemInfo, out);
+    }
+  }
+
+  private static void writeCacheEntries(List<CacheEntry> entries, DataOutputStream out)
+      throws IOException {
+    out.writeInt(entries.size());
+    for (CacheEntry entry : entries) {
+      writeCacheEntry(entry, out);
+    }
+  }
+
+  private static byte[] encodeError(String message) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(STATUS_ERROR);
+      out.writeUTF(message);
+    } catch (IOException ioe) {
+      // Not thrown by a ByteArrayOutputStream.
+      throw new IllegalStateException(ioe);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Reads a length-prefixed message, as written by writeMessage().
+   */
+  static byte[] readMessage(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > MAX_MESSAGE_LENGTH) {
+      throw new IOException(String.format("Invalid message length %d", length));
+    }
+    byte[] message = new byte[length];
+    in.readFully(message);
+    return message;
+  }
+
+  /**
+   * Writes {@code message} prefixed by its length, and flushes it.
+   */
+  static void writeMessage(byte[] message, DataOutputStream out) throws IOException {
+    out.writeInt(message.length);
+    out.write(message);
+    out.flush();
+  }
+
+  /**
+   * Runs a server for a new InMemoryDirectoryListCache until the process is killed. The secret is
+   * read from a file rather than passed on the command line, where other users could see it; as
+   * with the client's configuration, surrounding whitespace is ignored.
+   *
+   * Usage: DirectoryListCacheServer host:port secretFile [maxEntryAgeMillis [maxInfoAgeMillis]]
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    String usage = "Usage: DirectoryListCacheServer host:port secretFile "
+        + "[maxEntryAgeMillis [maxInfoAgeMillis]]";
+    Preconditions.checkArgument(args.length >= 2 && args.length <= 4, usage);
+    int portIndex = args[0].lastIndexOf(':');
+    Preconditions.checkArgument(portIndex > 0 && portIndex < args[0].length() - 1, usage);
+    InetSocketAddress bindAddress = new InetSocketAddress(
+        args[0].substring(0, portIndex), Integer.parseInt(args[0].substring(portIndex + 1)));
+    String secret =
+        new String(Files.readAllBytes(Paths.get(args[1])), StandardCharsets.UTF_8).trim();
+
+    DirectoryListCacheServer server = new DirectoryListCacheServer(bindAddress, secret);
+    if (args.length >= 3) {
+      server.getMutableConfig().setMaxEntryAgeMillis(Long.parseLong(args[2]));
+    }
+    if (args.length >= 4) {
+      server.getMutableConfig().setMaxInfoAgeMillis(Long.parseLong(args[3]));
+    }
+    server.start();
+    Thread.currentThread().join();
+  }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.net.URI;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A short-lived, size-bounded cache of the results of
+ * {@link GoogleCloudStorageFileSystem#getFileInfo(URI)}, keyed by the requested path. Results
+ * for paths which don't exist are cached as well, since query planners typically probe the same
+ * missing paths over and over.
+ *
+ * Entries expire a fixed time after they were cached; a change made through another client is
+ * therefore visible after at most that long. Changes made through the owning file system
+ * invalidate the affected entries immediately, see {@link #invalidate(URI)} and
+ * {@link #invalidateDirectory(URI)}.
+ */
+class FileInfoCache {
+
+  // Logging helper.
+  private static final LogUtil log = new LogUtil(FileInfoCache.class);
+
+  // Cached infos by requested path.
+  private final Cache<URI, FileInfo> cache;
+
+  // Number of invalidations so far; lets put() detect infos fetched before an invalidation.
+  private final AtomicLong invalidationCount = new AtomicLong();
+
+  /**
+   * Constructs an instance of FileInfoCache.
+   *
+   * @param maxEntries maximum number of cached paths
+   * @param ttlMillis time after which a cached entry expires
+   */
+  FileInfoCache(long maxEntries, long ttlMillis) {
+    this(maxEntries, ttlMillis, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  FileInfoCache(long maxEntries, long ttlMillis, Ticker ticker) {
+    Preconditions.checkArgument(maxEntries > 0, "maxEntries must be positive: %s", maxEntries);
+    Preconditions.checkArgument(ttlMillis > 0, "ttlMillis must be positive: %s", ttlMillis);
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maxEntries)
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .ticker(ticker)
+        .build();
+  }
+
+  /**
+   * Returns the number of invalidations so far, to be passed to {@link #put} along with an info
+   * fetched after this call.
+   */
+  long getInvalidationCount() {
+    return invalidationCount.get();
+  }
+
+  /**
+   * Returns the cached info of the given path, or null if there is none or it expired.
+   */
+  FileInfo get(URI path) {
+    return cache.getIfPresent(path);
+  }
+
+  /**
+   * Caches the info of the given path, unless any entry was invalidated since
+   * {@code invalidationCountBeforeFetch} was obtained, in which case the info may already be
+   * stale.
+   */
+  void put(URI path, FileInfo fileInfo, long invalidationCountBeforeFetch) {
+    cache.put(path, fileInfo);
+    if (invalidationCount.get() != invalidationCountBeforeFetch) {
+      // Raced with a change; don't keep what may predate it.
+      cache.invalidate(path);
+    }
+  }
+
+  /**
+   * Invalidates the entries of the given path, whether requested as a file or as a directory
+   * path.
+   */
+  void invalidate(URI path) {
+    invalidationCount.incrementAndGet();
+    String filePath = toFilePath(path);
+    cache.invalidate(URI.create(filePath));
+    cache.invalidate(URI.create(filePath + GoogleCloudStorage.PATH_DELIMITER));
+  }
+
+  /**
+   * Invalidates the entries of the given directory and of every path under it.
+   */
+  void invalidateDirectory(URI dirPath) {
+    invalidate(dirPath);
+    String prefix = toFilePath(dirPath) + GoogleCloudStorage.PATH_DELIMITER;
+    int count = 0;
+    for (Iterator<URI> paths = cache.asMap().keySet().iterator(); paths.hasNext(); ) {
+      if (paths.next().toString().startsWith(prefix)) {
+        paths.remove();
+        ++count;
+      }
+    }
+    log.debug("invalidateDirectory(%s): %d entries", dirPath, count);
+  }
+
+  /**
+   * Removes all entries.
+   */
+  void invalidateAll() {
+    invalidationCount.incrementAndGet();
+    cache.invalidateAll();
+  }
+
+  @VisibleForTesting
+  long size() {
+    cache.cleanUp();
+    return cache.size();
+  }
+
+  private static String toFilePath(URI path) {
+    String pathString = path.toString();
+    return pathString.endsWith(GoogleCloudStorage.PATH_DELIMITER)
+        ? pathString.substring(0, pathString.length() - 1)
+        : pathString;
+  }
+}
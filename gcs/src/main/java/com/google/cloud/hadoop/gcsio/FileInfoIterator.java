@@ -0,0 +1,136 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the FileInfos of a listing, fetching the next page of the listing from GCS only
+ * once the previous one has been consumed. Callers can process the first entries of a large
+ * directory before the rest has been listed, and only one page is held in memory at a time.
+ *
+ * Entries are sorted by path within each page, but not across pages. Unlike a
+ * java.util.Iterator, fetching a page can fail, so hasNext() and next() throw IOException.
+ */
+public class FileInfoIterator {
+
+  // Logging helper.
+  private static final LogUtil log = new LogUtil(FileInfoIterator.class);
+
+  // Storage to list, or null if all entries were given up front.
+  private final GoogleCloudStorage gcs;
+
+  // Parameters of the listing.
+  private final String bucketName;
+  private final String objectNamePrefix;
+  private final String delimiter;
+
+  // Entries of the current page not returned yet.
+  private Iterator<FileInfo> currentPage;
+
+  // Token of the next page; only meaningful until lastPageFetched.
+  private String nextPageToken;
+  private boolean lastPageFetched;
+
+  // Number of pages fetched so far.
+  private long pageCount;
+
+  /**
+   * Constructs an instance of FileInfoIterator over entries which are all known already.
+   */
+  FileInfoIterator(List<FileInfo> fileInfos) {
+    Preconditions.checkArgument(fileInfos != null, "fileInfos must not be null");
+    this.gcs = null;
+    this.bucketName = null;
+    this.objectNamePrefix = null;
+    this.delimiter = null;
+    this.currentPage = fileInfos.iterator();
+    this.lastPageFetched = true;
+  }
+
+  /**
+   * Constructs an instance of FileInfoIterator over the results of
+   * {@link GoogleCloudStorage#listObjectInfoPage}. No page is fetched until the first call of
+   * hasNext() or next().
+   */
+  FileInfoIterator(
+      GoogleCloudStorage gcs, String bucketName, String objectNamePrefix, String delimiter) {
+    Preconditions.checkArgument(gcs != null, "gcs must not be null");
+    this.gcs = gcs;
+    this.bucketName = bucketName;
+    this.objectNamePrefix = objectNamePrefix;
+    this.delimiter = delimiter;
+    this.currentPage = Collections.<FileInfo>emptyList().iterator();
+    this.lastPageFetched = false;
+  }
+
+  /**
+   * Returns true if there are more entries, fetching pages as needed to find out.
+   *
+   * @throws IOException if fetching a page failed
+   */
+  public boolean hasNext()
+      throws IOException {
+    // Pages may be empty, e.g. if GCS filtered out every item of a page.
+    while (!currentPage.hasNext() && !lastPageFetched) {
+      fetchNextPage();
+    }
+    return currentPage.hasNext();
+  }
+
+  /**
+   * Returns the next entry, fetching the next page if the current one is exhausted.
+   *
+   * @throws NoSuchElementException if there are no more entries
+   * @throws IOException if fetching a page failed
+   */
+  public FileInfo next()
+      throws IOException {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return currentPage.next();
+  }
+
+  /**
+   * Returns the number of pages fetched from GCS so far.
+   */
+  public long getPageCount() {
+    return pageCount;
+  }
+
+  private void fetchNextPage()
+      throws IOException {
+    log.debug("fetchNextPage(%s, %s, %s, %s)",
+        bucketName, objectNamePrefix, delimiter, nextPageToken);
+    ListPage<GoogleCloudStorageItemInfo> page =
+        gcs.listObjectInfoPage(bucketName, objectNamePrefix, delimiter, nextPageToken);
+    ++pageCount;
+
+    List<FileInfo> fileInfos = FileInfo.fromItemInfos(page.getItems());
+    Collections.sort(fileInfos, GoogleCloudStorageFileSystem.fileInfoPathComparator);
+    currentPage = fileInfos.iterator();
+
+    nextPageToken = page.getNextPageToken();
+    lastPageFetched = nextPageToken == null;
+  }
+}
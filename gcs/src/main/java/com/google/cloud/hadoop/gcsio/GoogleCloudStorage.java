@@ -17,8 +17,10 @@
 package com.google.cloud.hadoop.gcsio;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * Interface for exposing the Google Cloud Storage API behavior in a way more amenable to writing
@@ -106,6 +108,32 @@ public interface GoogleCloudStorage {
   SeekableReadableByteChannel open(StorageResourceId resourceId)
       throws IOException;
 
+  /**
+   * Opens an object for reading, overriding the read options this instance was configured with.
+   *
+   * @param resourceId identifies a StorageObject
+   * @param readOptions options controlling how the returned channel fetches data
+   * @return a channel for reading from the given object
+   * @throws FileNotFoundException if the given object does not exist
+   * @throws IOException if object exists but cannot be opened
+   */
+  SeekableReadableByteChannel open(
+      StorageResourceId resourceId, GoogleCloudStorageReadOptions readOptions)
+      throws IOException;
+
+  /**
+   * Starts reading the given ranges of an object concurrently, fetching ranges which lie close to
+   * each other with a single request. Unlike {@link #open(StorageResourceId)}, a missing object
+   * is only reported through the returned futures.
+   *
+   * @param resourceId identifies a StorageObject
+   * @param ranges ranges of the object to read; may overlap and need not be sorted
+   * @return futures completing with the contents of each range, in the order of {@code ranges}
+   * @throws IOException if the reads cannot be started
+   */
+  List<Future<ByteBuffer>> readVectored(StorageResourceId resourceId, List<ReadRange> ranges)
+      throws IOException;
+
   /**
    * Creates a bucket.
    *
@@ -135,6 +163,19 @@ public interface GoogleCloudStorage {
   void deleteObjects(List<StorageResourceId> fullObjectNames)
       throws IOException;
 
+  /**
+   * Deletes the given objects like {@link #deleteObjects(List)}, given the generation of each
+   * object as last seen by the caller, e.g. from a listing. An object whose generation is known is
+   * deleted with a single request conditional on that generation; its current generation is only
+   * looked up if it has changed since. A generation of 0 means unknown.
+   *
+   * @param fullObjectNames names of objects to delete with their respective bucketNames.
+   * @param generations generation of each object in fullObjectNames, or 0 if unknown
+   * @throws IOException if object exists but cannot be deleted
+   */
+  void deleteObjects(List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException;
+
   /**
    * Copies metadata of the given objects. After the copy is successfully complete,
    * each object blob is reachable by two different names.
@@ -152,6 +193,23 @@ public interface GoogleCloudStorage {
       String dstBucketName, List<String> dstObjectNames)
       throws IOException;
 
+  /**
+   * Concatenates the given source objects, in order, into the destination object. All objects
+   * must be in the same bucket, and at most {@link CompositeUploadWriteChannel#MAX_COMPOSE_OBJECTS}
+   * sources may be composed at once. An existing destination object is replaced only if
+   * {@code options} allow overwriting it.
+   *
+   * @param sources objects to concatenate
+   * @param destination object to create
+   * @param options metadata and overwrite behavior of the destination object
+   * @return the metadata of the destination object
+   * @throws FileNotFoundException if a source object does not exist
+   * @throws IOException in all other error cases
+   */
+  GoogleCloudStorageItemInfo composeObjects(List<StorageResourceId> sources,
+      StorageResourceId destination, CreateObjectOptions options)
+      throws IOException;
+
   /**
    * Gets a list of names of buckets in this project.
    */
@@ -209,6 +267,59 @@ public interface GoogleCloudStorage {
       final String bucketName, String objectNamePrefix, String delimiter)
       throws IOException;
 
+  /**
+   * Same as {@link #listObjectInfo}, but returns a single page of the results at a time, so that
+   * callers can process a large listing as it arrives while holding only one page in memory.
+   *
+   * @param bucketName bucket name
+   * @param objectNamePrefix object name prefix or null if all objects in the bucket are desired
+   * @param delimiter delimiter to use (typically "/"), otherwise null
+   * @param pageToken token returned with the previous page, or null for the first page
+   * @return one page of object info
+   * @throws IOException on IO error
+   */
+  ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken)
+      throws IOException;
+
+  /**
+   * Same as {@link #listObjectInfoPage(String, String, String, String)}, but asks GCS for at most
+   * {@code maxResults} entries instead of the configured maximum number of items per call; useful
+   * to peek at the first few names starting with a prefix.
+   *
+   * @param bucketName bucket name
+   * @param objectNamePrefix object name prefix or null if all objects in the bucket are desired
+   * @param delimiter delimiter to use (typically "/"), otherwise null
+   * @param pageToken token returned with the previous page, or null for the first page
+   * @param maxResults maximum number of entries to ask for
+   * @return one page of object info
+   * @throws IOException on IO error
+   */
+  ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken,
+      long maxResults)
+      throws IOException;
+
+  /**
+   * Same as {@link #listObjectInfoPage(String, String, String, String, long)} without delimiter,
+   * but only lists the objects whose names are at least {@code startOffset} and less than
+   * {@code endOffset}, so that disjoint ranges of a large prefix can be listed independently.
+   * Like any listing without delimiter, no implicit directories are returned or repaired.
+   *
+   * @param bucketName bucket name
+   * @param objectNamePrefix object name prefix or null if all objects in the bucket are desired
+   * @param startOffset inclusive lower bound of the listed names, or null for none
+   * @param endOffset exclusive upper bound of the listed names, or null for none
+   * @param pageToken token returned with the previous page, or null for the first page
+   * @param maxResults maximum number of entries to ask for
+   * @return one page of object info
+   * @throws IOException on IO error
+   */
+  ListPage<GoogleCloudStorageItemInfo> listObjectInfoPageInRange(
+      String bucketName, String objectNamePrefix, String startOffset, String endOffset,
+      String pageToken, long maxResults)
+      throws IOException;
+
   /**
    * Gets information about an object or a bucket.
    *
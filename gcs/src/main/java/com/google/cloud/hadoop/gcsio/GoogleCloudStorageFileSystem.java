@@ -18,20 +18,25 @@ package com.google.cloud.hadoop.gcsio;
 
 import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.util.Clock;
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageFileSystemOptions.StatProbeStrategy;
 import com.google.cloud.hadoop.util.LogUtil;
+import com.google.cloud.hadoop.util.UploadBudget;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.DirectoryNotEmptyException;
 import java.util.ArrayList;
@@ -42,7 +47,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -63,6 +72,11 @@ public class GoogleCloudStorageFileSystem {
   // URI of the root path.
   public static final URI GCS_ROOT = URI.create(SCHEME + ":/");
 
+  // Number of names listed to probe a path; see StatProbeStrategy.LIST. The file and the
+  // directory object, or the first object under the directory, fit unless other names sort
+  // between them.
+  private static final long STAT_PROBE_MAX_RESULTS = 2;
+
   // Logger.
   public static LogUtil log = new LogUtil(GoogleCloudStorageFileSystem.class);
 
@@ -72,6 +86,15 @@ public class GoogleCloudStorageFileSystem {
   // FS options
   private final GoogleCloudStorageFileSystemOptions options;
 
+  // Cache of getFileInfo() results, or null if disabled.
+  private final FileInfoCache fileInfoCache;
+
+  // Budget shared by the uploads of this instance, or null if the GCS instance was supplied.
+  private UploadBudget uploadBudget;
+
+  // Collects parent directories to update together, or null if each change updates its own.
+  private final TimestampUpdateCoalescer timestampUpdateCoalescer;
+
   // Executor for updating directory timestamps
   private ExecutorService updateTimestampsExecutor = new ThreadPoolExecutor(
       0 /* base thread count */, 5 /* max thread count */, 2 /* keepAliveTime */,
@@ -81,6 +104,12 @@ public class GoogleCloudStorageFileSystem {
           .setDaemon(true)
           .build());
 
+  // Executor on which directory renames run their batches; created on first use.
+  private ExecutorService renameExecutor;
+
+  // Executor on which ranges of parallel prefix listings are listed; created on first use.
+  private ExecutorService listExecutor;
+
   // Comparator used for sorting paths.
   //
   // For some bulk operations, we need to operate on parent directories before
@@ -126,13 +155,23 @@ public class GoogleCloudStorageFileSystem {
     Preconditions.checkArgument(credential != null, "credential must not be null");
 
     this.options = options;
-    this.gcs = new GoogleCloudStorageImpl(options.getCloudStorageOptions(), credential);
+    this.fileInfoCache = createFileInfoCache(options);
+    this.timestampUpdateCoalescer = createTimestampUpdateCoalescer(options);
+    GoogleCloudStorageImpl gcsImpl =
+        new GoogleCloudStorageImpl(options.getCloudStorageOptions(), credential);
+    this.gcs = gcsImpl;
+    this.uploadBudget = gcsImpl.getUploadBudget();
 
     if (options.isMetadataCacheEnabled()) {
+      DirectoryListCache.Config cacheConfig = options.getMetadataCacheConfig();
       DirectoryListCache resourceCache = null;
       switch (options.getCacheType()) {
         case IN_MEMORY: {
-          resourceCache = InMemoryDirectoryListCache.getInstance();
+          // The shared instance takes only the first Config it is given, so that the limits set
+          // for one instance don't change those of every other instance in the process.
+          resourceCache = (cacheConfig == null)
+              ? InMemoryDirectoryListCache.getInstance()
+              : InMemoryDirectoryListCache.getInstance(cacheConfig);
           break;
         }
         case FILESYSTEM_BACKED: {
@@ -141,10 +180,30 @@ public class GoogleCloudStorageFileSystem {
           resourceCache = new FileSystemBackedDirectoryListCache(options.getCacheBasePath());
           break;
         }
+        case LOG_BACKED: {
+          Preconditions.checkArgument(!Strings.isNullOrEmpty(options.getCacheBasePath()),
+              "When using LOG_BACKED DirectoryListCache, cacheBasePath must not be null.");
+          resourceCache = new LogBackedDirectoryListCache(options.getCacheBasePath());
+          break;
+        }
+        case SERVICE_BACKED: {
+          Preconditions.checkArgument(!Strings.isNullOrEmpty(options.getCacheServiceAddress()),
+              "When using SERVICE_BACKED DirectoryListCache, cacheServiceAddress must not be "
+              + "null.");
+          Preconditions.checkArgument(!Strings.isNullOrEmpty(options.getCacheServiceSecret()),
+              "When using SERVICE_BACKED DirectoryListCache, cacheServiceSecret must not be "
+              + "null.");
+          resourceCache = new ServiceBackedDirectoryListCache(
+              options.getCacheServiceAddress(), options.getCacheServiceSecret());
+          break;
+        }
         default:
           throw new IllegalArgumentException(String.format(
               "DirectoryListCache.Type '%s' not supported.", options.getCacheType()));
       }
+      if (cacheConfig != null && options.getCacheType() != DirectoryListCache.Type.IN_MEMORY) {
+        resourceCache.getMutableConfig().copyFrom(cacheConfig);
+      }
       gcs = new CacheSupplementedGoogleCloudStorage(gcs, resourceCache);
     }
   }
@@ -165,6 +224,29 @@ public class GoogleCloudStorageFileSystem {
       GoogleCloudStorage gcs, GoogleCloudStorageFileSystemOptions options) throws IOException {
     this.gcs = gcs;
     this.options = options;
+    this.fileInfoCache = createFileInfoCache(options);
+    this.timestampUpdateCoalescer = createTimestampUpdateCoalescer(options);
+  }
+
+  private static FileInfoCache createFileInfoCache(GoogleCloudStorageFileSystemOptions options) {
+    if (options.getStatCacheMaxEntries() == 0) {
+      return null;
+    }
+    return new FileInfoCache(options.getStatCacheMaxEntries(), options.getStatCacheTtlMillis());
+  }
+
+  private TimestampUpdateCoalescer createTimestampUpdateCoalescer(
+      GoogleCloudStorageFileSystemOptions options) {
+    if (options.getTimestampUpdateWindowMillis() == 0) {
+      return null;
+    }
+    return new TimestampUpdateCoalescer(new TimestampUpdateCoalescer.Updater() {
+      @Override
+      public void updateTimestamps(Set<URI> dirPaths)
+          throws IOException {
+        updateDirectoryTimestamps(dirPaths);
+      }
+    }, options.getTimestampUpdateWindowMillis());
   }
 
   @VisibleForTesting
@@ -172,6 +254,14 @@ public class GoogleCloudStorageFileSystem {
     this.updateTimestampsExecutor = executor;
   }
 
+  /**
+   * Returns the budget shared by all uploads of this instance, or null if this instance was
+   * constructed around an already-configured GoogleCloudStorage.
+   */
+  public UploadBudget getUploadBudget() {
+    return uploadBudget;
+  }
+
 
   /**
    * Creates and opens an object for writing.
@@ -237,10 +327,49 @@ public class GoogleCloudStorageFileSystem {
     // Validate the given path. false == do not allow empty object name.
     StorageResourceId resourceId = validatePathAndGetId(path, false);
     WritableByteChannel channel = gcs.create(resourceId, objectOptionsFromFileOptions(options));
+    invalidateFileInfo(path);
     tryUpdateTimestampsForParentDirectories(ImmutableList.of(path), ImmutableList.<URI>of());
+    if (fileInfoCache != null) {
+      // The object changes once more when the upload completes.
+      channel = new InvalidatingWriteChannel(channel, path);
+    }
     return channel;
   }
 
+  /**
+   * Write channel which invalidates the cached info of the object it writes once closed.
+   */
+  private class InvalidatingWriteChannel implements WritableByteChannel {
+    private final WritableByteChannel delegate;
+    private final URI path;
+
+    InvalidatingWriteChannel(WritableByteChannel delegate, URI path) {
+      this.delegate = delegate;
+      this.path = path;
+    }
+
+    @Override
+    public int write(ByteBuffer buffer)
+        throws IOException {
+      return delegate.write(buffer);
+    }
+
+    @Override
+    public boolean isOpen() {
+      return delegate.isOpen();
+    }
+
+    @Override
+    public void close()
+        throws IOException {
+      try {
+        delegate.close();
+      } finally {
+        invalidateFileInfo(path);
+      }
+    }
+  }
+
   /**
    * Opens an object for reading.
    *
@@ -262,6 +391,51 @@ public class GoogleCloudStorageFileSystem {
     return gcs.open(resourceId);
   }
 
+  /**
+   * Opens an object for reading using the given read options instead of the ones configured for
+   * the underlying GoogleCloudStorage.
+   *
+   * @param path Object full path of the form gs://bucket/object-path.
+   * @param readOptions Options controlling how the returned channel fetches data.
+   * @return A channel for reading from the given object.
+   * @throws FileNotFoundException if the given path does not exist.
+   * @throws IOException if object exists but cannot be opened.
+   */
+  public SeekableReadableByteChannel open(URI path, GoogleCloudStorageReadOptions readOptions)
+      throws IOException {
+
+    log.debug("open(%s, %s)", path, readOptions.getFadvise());
+    Preconditions.checkNotNull(path);
+    Preconditions.checkArgument(!FileInfo.isDirectoryPath(path),
+        "Cannot open a directory for reading: " + path);
+
+    // Validate the given path. false == do not allow empty object name.
+    StorageResourceId resourceId = validatePathAndGetId(path, false);
+    return gcs.open(resourceId, readOptions);
+  }
+
+  /**
+   * Starts reading the given ranges of an object concurrently; see
+   * {@link GoogleCloudStorage#readVectored(StorageResourceId, List)}.
+   *
+   * @param path Object full path of the form gs://bucket/object-path.
+   * @param ranges Ranges of the object to read; may overlap and need not be sorted.
+   * @return Futures completing with the contents of each range, in the order of ranges.
+   * @throws IOException if the reads cannot be started.
+   */
+  public List<Future<ByteBuffer>> readVectored(URI path, List<ReadRange> ranges)
+      throws IOException {
+
+    log.debug("readVectored(%s, %d ranges)", path, ranges.size());
+    Preconditions.checkNotNull(path);
+    Preconditions.checkArgument(!FileInfo.isDirectoryPath(path),
+        "Cannot open a directory for reading: " + path);
+
+    // Validate the given path. false == do not allow empty object name.
+    StorageResourceId resourceId = validatePathAndGetId(path, false);
+    return gcs.readVectored(resourceId, ranges);
+  }
+
   /**
    * Deletes one or more items indicated by the given path.
    *
@@ -297,12 +471,26 @@ public class GoogleCloudStorageFileSystem {
     List<URI> itemsToDelete = new ArrayList<>();
     List<URI> bucketsToDelete = new ArrayList<>();
 
+    // Generations of the items to delete as of when they were listed, so that each can be
+    // deleted with a single conditional request instead of looking its generation up first.
+    Map<URI, Long> generations = new HashMap<>();
+
     // Delete sub-items if it is a directory.
     if (fileInfo.isDirectory()) {
-      List<URI> subpaths = listFileNames(fileInfo, recursive);
       if (recursive) {
-        itemsToDelete.addAll(subpaths);
+        // A null delimiter lists all objects under the directory, like listFileNames does
+        // for a recursive listing.
+        List<GoogleCloudStorageItemInfo> subInfos = gcs.listObjectInfo(
+            fileInfo.getItemInfo().getBucketName(),
+            fileInfo.getItemInfo().getObjectName(),
+            null);
+        for (GoogleCloudStorageItemInfo subInfo : subInfos) {
+          URI subpath = getPath(subInfo.getBucketName(), subInfo.getObjectName());
+          itemsToDelete.add(subpath);
+          generations.put(subpath, subInfo.getContentGeneration());
+        }
       } else {
+        List<URI> subpaths = listFileNames(fileInfo, false);
         if (subpaths.size() > 0) {
           throw new DirectoryNotEmptyException("Cannot delete a non-empty directory.");
         }
@@ -311,11 +499,13 @@ public class GoogleCloudStorageFileSystem {
 
     if (fileInfo.getItemInfo().isBucket()) {
       bucketsToDelete.add(fileInfo.getPath());
-    } else {
+    } else if (!fileInfo.getItemInfo().isInferredDirectory()) {
+      // An implicit directory has no object of its own; it is gone along with its children.
       itemsToDelete.add(fileInfo.getPath());
+      generations.put(fileInfo.getPath(), fileInfo.getItemInfo().getContentGeneration());
     }
 
-    deleteInternal(itemsToDelete, bucketsToDelete);
+    deleteInternal(itemsToDelete, generations, bucketsToDelete);
   }
 
   /**
@@ -323,6 +513,17 @@ public class GoogleCloudStorageFileSystem {
    */
   private void deleteInternal(List<URI> paths, List<URI> bucketPaths)
       throws IOException {
+    deleteInternal(paths, Collections.<URI, Long>emptyMap(), bucketPaths);
+  }
+
+  /**
+   * Deletes all items in the given path list followed by all bucket items. Items found in
+   * {@code generations} are deleted conditional on the given generation, looking up the current
+   * one only if it has changed since; the generation of the other items is always looked up.
+   */
+  private void deleteInternal(
+      List<URI> paths, Map<URI, Long> generations, List<URI> bucketPaths)
+      throws IOException {
     // TODO(user): We might need to separate out children into separate batches from parents to
     // avoid deleting a parent before somehow failing to delete a child.
 
@@ -335,11 +536,23 @@ public class GoogleCloudStorageFileSystem {
 
     if (paths.size() > 0) {
       List<StorageResourceId> objectsToDelete = new ArrayList<>();
+      List<Long> objectGenerations = new ArrayList<>();
       for (URI path : paths) {
         StorageResourceId resourceId = validatePathAndGetId(path, false);
         objectsToDelete.add(resourceId);
+        Long generation = generations.get(path);
+        objectGenerations.add(generation != null ? generation : 0L);
+      }
+      try {
+        if (generations.isEmpty()) {
+          gcs.deleteObjects(objectsToDelete);
+        } else {
+          gcs.deleteObjects(objectsToDelete, objectGenerations);
+        }
+      } finally {
+        // Some of the objects may be gone even if others failed to be deleted.
+        invalidateFileInfos(paths);
       }
-      gcs.deleteObjects(objectsToDelete);
       // Any path that was deleted, we should update the parent except for parents we also deleted
       tryUpdateTimestampsForParentDirectories(paths, paths);
     }
@@ -351,7 +564,11 @@ public class GoogleCloudStorageFileSystem {
         gcs.waitForBucketEmpty(resourceId.getBucketName());
         bucketsToDelete.add(resourceId.getBucketName());
       }
-      gcs.deleteBuckets(bucketsToDelete);
+      try {
+        gcs.deleteBuckets(bucketsToDelete);
+      } finally {
+        invalidateFileInfos(bucketPaths);
+      }
     }
   }
 
@@ -401,6 +618,9 @@ public class GoogleCloudStorageFileSystem {
     } else if (dirsToCreate.size() > 1) {
       gcs.createEmptyObjects(dirsToCreate);
     }
+    for (StorageResourceId dirId : dirsToCreate) {
+      invalidateFileInfo(getPath(dirId.getBucketName(), dirId.getObjectName()));
+    }
 
     log.warn("Successfully repaired %d directories.", dirsToCreate.size());
   }
@@ -491,26 +711,31 @@ public class GoogleCloudStorageFileSystem {
 
     // Make buckets immediately, otherwise collect directories into a list for batch creation.
     List<StorageResourceId> dirsToCreate = new ArrayList<>();
-    for (FileInfo fileInfo : subDirInfos) {
-      if (fileInfo.isDirectory() && !fileInfo.exists()) {
-        StorageResourceId dirId = fileInfo.getItemInfo().getResourceId();
-        Preconditions.checkArgument(!dirId.isRoot(), "Cannot create root directory.");
-        if (dirId.isBucket()) {
-          gcs.create(dirId.getBucketName());
-          continue;
-        }
+    try {
+      for (FileInfo fileInfo : subDirInfos) {
+        if (fileInfo.isDirectory() && !fileInfo.exists()) {
+          StorageResourceId dirId = fileInfo.getItemInfo().getResourceId();
+          Preconditions.checkArgument(!dirId.isRoot(), "Cannot create root directory.");
+          if (dirId.isBucket()) {
+            gcs.create(dirId.getBucketName());
+            continue;
+          }
 
-        // Ensure that the path looks like a directory path.
-        dirId = FileInfo.convertToDirectoryPath(dirId);
-        dirsToCreate.add(dirId);
+          // Ensure that the path looks like a directory path.
+          dirId = FileInfo.convertToDirectoryPath(dirId);
+          dirsToCreate.add(dirId);
+        }
       }
-    }
 
-    if (dirsToCreate.size() == 1) {
-      // Don't go through batch interface for a single-item case to avoid batching overhead.
-      gcs.createEmptyObject(dirsToCreate.get(0));
-    } else if (dirsToCreate.size() > 1) {
-      gcs.createEmptyObjects(dirsToCreate);
+      if (dirsToCreate.size() == 1) {
+        // Don't go through batch interface for a single-item case to avoid batching overhead.
+        gcs.createEmptyObject(dirsToCreate.get(0));
+      } else if (dirsToCreate.size() > 1) {
+        gcs.createEmptyObjects(dirsToCreate);
+      }
+    } finally {
+      // Covers both the file and the directory form of each intermediate path.
+      invalidateFileInfos(subDirPaths);
     }
 
     List<URI> createdDirectories =
@@ -576,7 +801,7 @@ public class GoogleCloudStorageFileSystem {
       // dstParent is null if dst is GCS_ROOT.
       paths.add(dstParent);
     }
-    List<FileInfo> fileInfo = getFileInfos(paths);
+    List<FileInfo> fileInfo = probeFileInfos(paths);
     FileInfo srcInfo = fileInfo.get(0);
     FileInfo dstInfo = fileInfo.get(1);
     FileInfo dstParentInfo = null;
@@ -669,87 +894,150 @@ public class GoogleCloudStorageFileSystem {
    */
   private void renameInternal(FileInfo srcInfo, URI dst)
       throws IOException {
-
-    // List of individual paths to rename; we will try to carry out the copies in this list's
-    // order.
-    List<URI> srcItemNames = new ArrayList<>();
-
-    // Mapping from each src to its respective dst.
-    Map<URI, URI> dstItemNames = new HashMap<>();
-
     if (srcInfo.isDirectory()) {
-      srcItemNames = listFileNames(srcInfo, true);
-
-      // Sort src items so that parent directories appear before their children.
-      // That allows us to copy parent directories before we copy their children.
-      Collections.sort(srcItemNames, pathComparator);
-
-      // Create the destination directory.
-      dst = FileInfo.convertToDirectoryPath(dst);
-      mkdir(dst);
-
-      // Create a list of sub-items to copy.
-      String prefix = srcInfo.getPath().toString();
-      for (URI srcItemName : srcItemNames) {
-        String relativeItemName = srcItemName.toString().substring(prefix.length());
-        URI dstItemName = dst.resolve(relativeItemName);
-        dstItemNames.put(srcItemName, dstItemName);
-      }
-
-    } else {
-      srcItemNames.add(srcInfo.getPath());
-      dstItemNames.put(srcInfo.getPath(), dst);
+      renameDirectoryInternal(srcInfo, dst);
+      return;
     }
-    Preconditions.checkState(srcItemNames.size() == dstItemNames.size(),
-        "srcItemNames.size() != dstItemNames.size(), '%s' vs '%s'", srcItemNames, dstItemNames);
 
-    if (srcItemNames.size() > 0) {
+    StorageResourceId srcResourceId = validatePathAndGetId(srcInfo.getPath(), true);
+    StorageResourceId dstResourceId = validatePathAndGetId(dst, true);
+    gcs.copy(
+        srcResourceId.getBucketName(), ImmutableList.of(srcResourceId.getObjectName()),
+        dstResourceId.getBucketName(), ImmutableList.of(dstResourceId.getObjectName()));
+    invalidateFileInfo(dst);
 
-      String srcBucketName = null;
-      String dstBucketName = null;
-      List<String> srcObjectNames = new ArrayList<>();
-      List<String> dstObjectNames = new ArrayList<>();
+    tryUpdateTimestampsForParentDirectories(ImmutableList.of(dst), ImmutableList.<URI>of());
 
-      // Prepare list of items to copy.
-      for (URI srcItemName : srcItemNames) {
-        StorageResourceId resourceId;
+    // Delete the item we successfully copied, conditional on the generation we saw.
+    List<URI> srcItemNames = new ArrayList<>();
+    srcItemNames.add(srcInfo.getPath());
+    deleteInternal(srcItemNames,
+        ImmutableMap.of(srcInfo.getPath(), srcInfo.getItemInfo().getContentGeneration()),
+        new ArrayList<URI>());
+  }
 
-        resourceId = validatePathAndGetId(srcItemName, true);
-        srcBucketName = resourceId.getBucketName();
-        String srcObjectName = resourceId.getObjectName();
-        srcObjectNames.add(srcObjectName);
+  /**
+   * Renames the given directory without checking any parameters.
+   *
+   * The objects under the directory are moved by a {@link RenamePipeline}: batches of
+   * {@link GoogleCloudStorageFileSystemOptions#getRenameBatchSize()} objects are copied, and
+   * their sources deleted, with up to
+   * {@link GoogleCloudStorageFileSystemOptions#getRenameParallelism()} batches in flight. Source
+   * directory objects, and finally the source directory itself, are deleted once all other
+   * objects have been moved.
+   */
+  private void renameDirectoryInternal(FileInfo srcInfo, URI dst)
+      throws IOException {
+    try {
+      moveDirectory(srcInfo, dst);
+    } finally {
+      // Anything under either directory may have changed, even if the rename failed midway.
+      invalidateDirectoryFileInfos(srcInfo.getPath());
+      invalidateDirectoryFileInfos(dst);
+    }
+  }
 
-        resourceId = validatePathAndGetId(dstItemNames.get(srcItemName), true);
-        dstBucketName = resourceId.getBucketName();
-        String dstObjectName = resourceId.getObjectName();
-        dstObjectNames.add(dstObjectName);
+  /**
+   * Moves the given directory as described in {@link #renameDirectoryInternal}.
+   */
+  private void moveDirectory(FileInfo srcInfo, URI dst)
+      throws IOException {
+    // Create the destination directory.
+    dst = FileInfo.convertToDirectoryPath(dst);
+    mkdir(dst);
+
+    StorageResourceId srcResourceId = validatePathAndGetId(srcInfo.getPath(), true);
+    StorageResourceId dstResourceId = validatePathAndGetId(dst, true);
+    String srcBucketName = srcResourceId.getBucketName();
+    String dstBucketName = dstResourceId.getBucketName();
+    String srcPrefix = srcResourceId.isBucket() ? "" : srcResourceId.getObjectName();
+    String dstPrefix = dstResourceId.isBucket() ? "" : dstResourceId.getObjectName();
+
+    // Use 'null' for delimiter to list all objects under the directory. Pages are fetched as the
+    // pipeline starts batches, so the listing is never held in memory as a whole.
+    FileInfoIterator srcInfos = new FileInfoIterator(gcs, srcBucketName, srcPrefix, null);
+    if (srcBucketName.equals(dstBucketName) && dstPrefix.startsWith(srcPrefix)) {
+      // The destination is inside the source, so later pages of the listing would return the
+      // objects already moved there; list the source in full before moving anything.
+      List<FileInfo> srcInfoList = new ArrayList<>();
+      while (srcInfos.hasNext()) {
+        srcInfoList.add(srcInfos.next());
       }
+      srcInfos = new FileInfoIterator(srcInfoList);
+    }
 
-      // Perform copy.
-      gcs.copy(srcBucketName, srcObjectNames, dstBucketName, dstObjectNames);
+    RenamePipeline renamePipeline = new RenamePipeline(
+        gcs,
+        getRenameExecutor(),
+        options.getRenameBatchSize(),
+        options.getRenameParallelism(),
+        srcBucketName,
+        srcPrefix,
+        dstBucketName,
+        dstPrefix);
+    renamePipeline.run(srcInfos);
+    log.debug("renameDirectoryInternal(%s, %s): %s", srcInfo.getPath(), dst, renamePipeline);
 
-      // So far, only the destination directories are updated. Only do those now:
-      List<URI> destinationUris = new ArrayList<>(dstObjectNames.size());
-      for (String dstObjectName : dstObjectNames) {
-        destinationUris.add(getPath(dstBucketName, dstObjectName));
-      }
-      tryUpdateTimestampsForParentDirectories(destinationUris, destinationUris);
+    // Update the directories which received new children but were not themselves copied.
+    List<URI> destinationUris = new ArrayList<>();
+    for (String dstObjectName : renamePipeline.getDestinationChildPerParent()) {
+      destinationUris.add(getPath(dstBucketName, dstObjectName));
+    }
+    if (!destinationUris.isEmpty()) {
+      tryUpdateTimestampsForParentDirectories(destinationUris, ImmutableList.<URI>of());
+    }
+
+    // Delete the source directories with the generations they were listed with, like the
+    // pipeline deleted the other objects.
+    List<URI> srcDirectoriesToDelete = new ArrayList<>();
+    Map<URI, Long> generations = new HashMap<>();
+    Map<String, Long> srcDirectoryGenerations = renamePipeline.getSourceDirectoryGenerations();
+    for (String srcDirectoryName : renamePipeline.getSourceDirectoryNames()) {
+      URI srcDirectoryPath = getPath(srcBucketName, srcDirectoryName);
+      srcDirectoriesToDelete.add(srcDirectoryPath);
+      generations.put(srcDirectoryPath, srcDirectoryGenerations.get(srcDirectoryName));
     }
 
     List<URI> bucketsToDelete = new ArrayList<>();
+    if (srcInfo.getItemInfo().isBucket()) {
+      bucketsToDelete.add(srcInfo.getPath());
+    } else if (!srcInfo.getItemInfo().isInferredDirectory()) {
+      // The listing did not return the directory's own object.
+      srcDirectoriesToDelete.add(srcInfo.getPath());
+      generations.put(srcInfo.getPath(), srcInfo.getItemInfo().getContentGeneration());
+    }
 
-    if (srcInfo.isDirectory()) {
-      if (srcInfo.getItemInfo().isBucket()) {
-        bucketsToDelete.add(srcInfo.getPath());
-      } else {
-        // If src is a directory then srcItemNames does not contain its own name,
-        // therefore add it to the list before we delete items in the list.
-        srcItemNames.add(srcInfo.getPath());
-      }
+    // Delete the source directories; deleteInternal deletes children before parents.
+    deleteInternal(srcDirectoriesToDelete, generations, bucketsToDelete);
+  }
+
+  /**
+   * Returns the executor on which directory renames run their batches, creating it on first use.
+   */
+  private synchronized ExecutorService getRenameExecutor() {
+    if (renameExecutor == null) {
+      // Each rename bounds its own number of batches in flight, so threads are not bounded here.
+      renameExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+          .setNameFormat("gcsfs-rename-%d")
+          .setDaemon(true)
+          .build());
     }
+    return renameExecutor;
+  }
 
-    // Delete the items we successfully copied.
-    deleteInternal(srcItemNames, bucketsToDelete);
+  /**
+   * Returns the executor on which parallel prefix listings list their ranges, creating it on
+   * first use.
+   */
+  private synchronized ExecutorService getListExecutor() {
+    if (listExecutor == null) {
+      // Each listing bounds its own number of ranges in flight, so threads are not bounded here.
+      listExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+          .setNameFormat("gcsfs-list-%d")
+          .setDaemon(true)
+          .build());
+    }
+    return listExecutor;
   }
 
   /**
@@ -896,6 +1184,9 @@ public class GoogleCloudStorageFileSystem {
    * is no auto-repair of implicit directories since we can't detect implicit directories
    * without listing by 'delimiter'. The 'authority' component of the {@code prefix} *must*
    * be the complete authority, however; we can only list prefixes of *objects*, not buckets.
+   * If {@link GoogleCloudStorageFileSystemOptions#getListParallelism()} is greater than 1, the
+   * prefix is listed by a {@link ParallelPrefixLister}, which splits it into name ranges listed
+   * concurrently, with the same result and likewise without auto-repair.
    *
    * @param prefix the prefix to use to list all matching objects.
    */
@@ -907,9 +1198,14 @@ public class GoogleCloudStorageFileSystem {
     StorageResourceId prefixId = validatePathAndGetId(prefix, true);
     Preconditions.checkState(
         !prefixId.isRoot(), "Prefix must not be global root, got '%s'", prefix);
-    // Use 'null' for delimiter to get full 'recursive' listing.
-    List<GoogleCloudStorageItemInfo> itemInfos = gcs.listObjectInfo(
-        prefixId.getBucketName(), prefixId.getObjectName(), null);
+    List<GoogleCloudStorageItemInfo> itemInfos;
+    if (options.getListParallelism() > 1) {
+      itemInfos = new ParallelPrefixLister(gcs, getListExecutor(), options.getListParallelism())
+          .listObjectInfo(prefixId.getBucketName(), prefixId.getObjectName());
+    } else {
+      // Use 'null' for delimiter to get full 'recursive' listing.
+      itemInfos = gcs.listObjectInfo(prefixId.getBucketName(), prefixId.getObjectName(), null);
+    }
     List<FileInfo> fileInfos = FileInfo.fromItemInfos(itemInfos);
     Collections.sort(fileInfos, fileInfoPathComparator);
     return fileInfos;
@@ -947,17 +1243,111 @@ public class GoogleCloudStorageFileSystem {
     log.debug("listFileInfo(%s, %s)", path, enableAutoRepair);
     Preconditions.checkNotNull(path);
 
+    // If the non-directory object exists, return a single-element list directly.
+    FileInfo dirInfo = getFileOrDirectoryToList(path, enableAutoRepair);
+    if (!dirInfo.isDirectory()) {
+      List<FileInfo> listedInfo = new ArrayList<>();
+      listedInfo.add(dirInfo);
+      return listedInfo;
+    }
+
+    List<GoogleCloudStorageItemInfo> itemInfos;
+    if (dirInfo.isGlobalRoot()) {
+      itemInfos = gcs.listBucketInfo();
+    } else {
+      itemInfos = gcs.listObjectInfo(
+          dirInfo.getItemInfo().getBucketName(),
+          dirInfo.getItemInfo().getObjectName(),
+          GoogleCloudStorage.PATH_DELIMITER);
+    }
+    List<FileInfo> fileInfos = FileInfo.fromItemInfos(itemInfos);
+    Collections.sort(fileInfos, fileInfoPathComparator);
+    return fileInfos;
+  }
+
+  /**
+   * Same as {@link #listFileInfo(URI, boolean)}, except that the children of a directory are
+   * listed one page at a time as the returned iterator advances, so that callers can start
+   * processing a large directory before all of it has been listed, while holding only one page in
+   * memory. Children are sorted within each page, but not across pages.
+   *
+   * @param path Given path.
+   * @param enableAutoRepair if true, attempt to repair implicit directories when detected.
+   * @return Information about a file or children of a directory.
+   * @throws FileNotFoundException if the given path does not exist.
+   * @throws IOException
+   */
+  public FileInfoIterator listFileInfoIterator(URI path, boolean enableAutoRepair)
+      throws IOException {
+    log.debug("listFileInfoIterator(%s, %s)", path, enableAutoRepair);
+    Preconditions.checkNotNull(path);
+
+    FileInfo dirInfo = getFileOrDirectoryToList(path, enableAutoRepair);
+    if (!dirInfo.isDirectory()) {
+      return new FileInfoIterator(ImmutableList.of(dirInfo));
+    }
+    if (dirInfo.isGlobalRoot()) {
+      // Buckets are few enough to be listed at once.
+      List<FileInfo> fileInfos = FileInfo.fromItemInfos(gcs.listBucketInfo());
+      Collections.sort(fileInfos, fileInfoPathComparator);
+      return new FileInfoIterator(fileInfos);
+    }
+    return new FileInfoIterator(
+        gcs,
+        dirInfo.getItemInfo().getBucketName(),
+        dirInfo.getItemInfo().getObjectName(),
+        GoogleCloudStorage.PATH_DELIMITER);
+  }
+
+  /**
+   * Same as {@link #listFileInfoIterator(URI, boolean)}, except that a directory is listed
+   * recursively: the returned iterator covers every object under it, however deeply nested, and
+   * is backed by a single listing without delimiter instead of one listing per subdirectory.
+   * Like {@link #listAllFileInfoForPrefix(URI)}, implicit directories below the given path are
+   * neither returned nor repaired, but the files they contain are.
+   *
+   * @param path Given path; must not be the global root.
+   * @param enableAutoRepair if true, attempt to repair the given path if it is an implicit
+   *     directory.
+   * @return Iterator over the information about a file or all descendants of a directory.
+   * @throws FileNotFoundException if the given path does not exist.
+   */
+  public FileInfoIterator listFileInfoRecursivelyIterator(URI path, boolean enableAutoRepair)
+      throws IOException {
+    log.debug("listFileInfoRecursivelyIterator(%s, %s)", path, enableAutoRepair);
+    Preconditions.checkNotNull(path);
+
+    FileInfo dirInfo = getFileOrDirectoryToList(path, enableAutoRepair);
+    if (!dirInfo.isDirectory()) {
+      return new FileInfoIterator(ImmutableList.of(dirInfo));
+    }
+    Preconditions.checkArgument(
+        !dirInfo.isGlobalRoot(), "Path must not be global root, got '%s'", path);
+    // Use 'null' for delimiter to get full 'recursive' listing.
+    return new FileInfoIterator(
+        gcs,
+        dirInfo.getItemInfo().getBucketName(),
+        dirInfo.getItemInfo().getObjectName(),
+        null);
+  }
+
+  /**
+   * Helper for listFileInfo and listFileInfoIterator which returns the info of the given path if
+   * it is an existing file, or else of the directory of the same name, repairing it first if
+   * enableAutoRepair is true and it is an implicit directory.
+   *
+   * @throws FileNotFoundException if neither exists
+   */
+  private FileInfo getFileOrDirectoryToList(URI path, boolean enableAutoRepair)
+      throws IOException {
     URI dirPath = FileInfo.convertToDirectoryPath(path);
     List<FileInfo> baseAndDirInfos = getFileInfosRaw(ImmutableList.of(path, dirPath));
     Preconditions.checkState(
         baseAndDirInfos.size() == 2, "Expected baseAndDirInfos.size() == 2, got %s",
         baseAndDirInfos.size());
 
-    // If the non-directory object exists, return a single-element list directly.
     if (!baseAndDirInfos.get(0).isDirectory() && baseAndDirInfos.get(0).exists()) {
-      List<FileInfo> listedInfo = new ArrayList<>();
-      listedInfo.add(baseAndDirInfos.get(0));
-      return listedInfo;
+      return baseAndDirInfos.get(0);
     }
 
     // The second element is definitely a directory-path FileInfo.
@@ -970,19 +1360,7 @@ public class GoogleCloudStorageFileSystem {
     if (!dirInfo.exists()) {
       throw getFileNotFoundException(path);
     }
-
-    List<GoogleCloudStorageItemInfo> itemInfos;
-    if (dirInfo.isGlobalRoot()) {
-      itemInfos = gcs.listBucketInfo();
-    } else {
-      itemInfos = gcs.listObjectInfo(
-          dirInfo.getItemInfo().getBucketName(),
-          dirInfo.getItemInfo().getObjectName(),
-          GoogleCloudStorage.PATH_DELIMITER);
-    }
-    List<FileInfo> fileInfos = FileInfo.fromItemInfos(itemInfos);
-    Collections.sort(fileInfos, fileInfoPathComparator);
-    return fileInfos;
+    return dirInfo;
   }
 
   /**
@@ -1001,28 +1379,145 @@ public class GoogleCloudStorageFileSystem {
     // One should be able to get info about top level directory (== bucket),
     // therefore we allow object name to be empty.
     StorageResourceId resourceId = validatePathAndGetId(path, true);
-    GoogleCloudStorageItemInfo itemInfo = gcs.getItemInfo(resourceId);
-    // TODO(user): Here and below, just request foo and foo/ simultaneously in the same batch
-    // request and choose the relevant one.
-    if (!itemInfo.exists() && !FileInfo.isDirectory(itemInfo)) {
-      // If the given file does not exist, see if a directory of
-      // the same name exists.
-      resourceId = FileInfo.convertToDirectoryPath(resourceId);
-      log.debug("getFileInfo(%s) : not found. trying: %s", path, resourceId.toString());
-      GoogleCloudStorageItemInfo newItemInfo = gcs.getItemInfo(resourceId);
-      // Only swap out the old not-found itemInfo if the "converted" itemInfo actually exists; if
-      // both forms do not exist, we will just go with the original non-converted itemInfo.
-      if (newItemInfo.exists()) {
-        log.debug("getFileInfo: swapping not-found info: %s for converted info: %s",
-            itemInfo, newItemInfo);
-        itemInfo = newItemInfo;
+
+    long invalidationCount = 0;
+    if (fileInfoCache != null) {
+      FileInfo cachedInfo = fileInfoCache.get(path);
+      if (cachedInfo != null) {
+        log.debug("getFileInfo: cached %s", cachedInfo);
+        return cachedInfo;
+      }
+      invalidationCount = fileInfoCache.getInvalidationCount();
+    }
+
+    GoogleCloudStorageItemInfo itemInfo = null;
+    if (options.getStatProbeStrategy() == StatProbeStrategy.LIST
+        && resourceId.isStorageObject()) {
+      itemInfo = probeWithListing(resourceId);
+    }
+    if (itemInfo == null) {
+      itemInfo = gcs.getItemInfo(resourceId);
+      // TODO(user): Here and below, just request foo and foo/ simultaneously in the same batch
+      // request and choose the relevant one.
+      if (!itemInfo.exists() && !FileInfo.isDirectory(itemInfo)) {
+        // If the given file does not exist, see if a directory of
+        // the same name exists.
+        resourceId = FileInfo.convertToDirectoryPath(resourceId);
+        log.debug("getFileInfo(%s) : not found. trying: %s", path, resourceId.toString());
+        GoogleCloudStorageItemInfo newItemInfo = gcs.getItemInfo(resourceId);
+        // Only swap out the old not-found itemInfo if the "converted" itemInfo actually exists;
+        // if both forms do not exist, we will just go with the original non-converted itemInfo.
+        if (newItemInfo.exists()) {
+          log.debug("getFileInfo: swapping not-found info: %s for converted info: %s",
+              itemInfo, newItemInfo);
+          itemInfo = newItemInfo;
+        }
       }
     }
     FileInfo fileInfo = FileInfo.fromItemInfo(itemInfo);
     log.debug("getFileInfo: %s", fileInfo);
+    if (fileInfoCache != null) {
+      // Infos of paths which don't exist are cached too.
+      fileInfoCache.put(path, fileInfo, invalidationCount);
+    }
     return fileInfo;
   }
 
+  /**
+   * Finds out with a single listing whether the given object is a file, a directory object, an
+   * implicit directory, or doesn't exist; see {@link StatProbeStrategy#LIST}.
+   *
+   * @return the info of the object, or null if the listing was inconclusive
+   */
+  private GoogleCloudStorageItemInfo probeWithListing(StorageResourceId resourceId)
+      throws IOException {
+    String fileName = FileInfo.convertToFilePath(resourceId.getObjectName());
+    if (fileName.isEmpty()) {
+      return null;
+    }
+    String dirName = fileName + GoogleCloudStorage.PATH_DELIMITER;
+    boolean isDirectoryPath = !fileName.equals(resourceId.getObjectName());
+
+    // Names are listed in lexicographical order: the file itself, then any names continuing it
+    // with a character which sorts before the delimiter, then the directory object, then the
+    // objects under the directory.
+    ListPage<GoogleCloudStorageItemInfo> page = gcs.listObjectInfoPage(
+        resourceId.getBucketName(), fileName, null, null, STAT_PROBE_MAX_RESULTS);
+    GoogleCloudStorageItemInfo fileInfo = null;
+    GoogleCloudStorageItemInfo dirInfo = null;
+    boolean hasChildren = false;
+    for (GoogleCloudStorageItemInfo itemInfo : page.getItems()) {
+      String objectName = itemInfo.getObjectName();
+      if (objectName.equals(fileName)) {
+        fileInfo = itemInfo;
+      } else if (objectName.equals(dirName)) {
+        dirInfo = itemInfo;
+      } else if (objectName.startsWith(dirName)) {
+        hasChildren = true;
+      }
+    }
+
+    if (fileInfo != null && !isDirectoryPath) {
+      return fileInfo;
+    }
+    if (dirInfo != null) {
+      return dirInfo;
+    }
+    if (hasChildren) {
+      // The directory object would have sorted before its children.
+      return GoogleCloudStorageItemInfo.createInferredDirectory(
+          new StorageResourceId(resourceId.getBucketName(), dirName));
+    }
+    if (page.getNextPageToken() != null) {
+      log.debug("probeWithListing(%s): inconclusive", resourceId);
+      return null;
+    }
+    return GoogleCloudStorageImpl.createItemInfoForNotFound(resourceId);
+  }
+
+  /**
+   * Gets information about each path in the given list like {@link #getFileInfos}, unless
+   * getFileInfo() is configured to probe paths with listings, in which case the paths are probed
+   * concurrently on the rename executor.
+   */
+  private List<FileInfo> probeFileInfos(List<URI> paths)
+      throws IOException {
+    if (options.getStatProbeStrategy() != StatProbeStrategy.LIST) {
+      return getFileInfos(paths);
+    }
+    List<Future<FileInfo>> probes = new ArrayList<>(paths.size());
+    try {
+      for (final URI path : paths) {
+        probes.add(getRenameExecutor().submit(new Callable<FileInfo>() {
+          @Override
+          public FileInfo call()
+              throws IOException {
+            return getFileInfo(path);
+          }
+        }));
+      }
+      List<FileInfo> fileInfos = new ArrayList<>(paths.size());
+      for (Future<FileInfo> probe : probes) {
+        try {
+          fileInfos.add(probe.get());
+        } catch (ExecutionException ee) {
+          throw ee.getCause() instanceof IOException
+              ? (IOException) ee.getCause()
+              : new IOException(ee.getCause());
+        }
+      }
+      return fileInfos;
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(String.format("Interrupted probing %s", paths));
+    } finally {
+      // Don't leave probes running if this call is abandoned.
+      for (Future<FileInfo> probe : probes) {
+        probe.cancel(true);
+      }
+    }
+  }
+
   /**
    * Gets information about each path in the given list; more efficient than calling getFileInfo()
    * on each path individually in a loop.
@@ -1111,10 +1606,45 @@ public class GoogleCloudStorageFileSystem {
     return FileInfo.fromItemInfos(itemInfos);
   }
 
+  /**
+   * Invalidates the cached info of the given path, if any; to be called after changing the item
+   * at that path.
+   */
+  private void invalidateFileInfo(URI path) {
+    if (fileInfoCache != null) {
+      fileInfoCache.invalidate(path);
+    }
+  }
+
+  /**
+   * Invalidates the cached infos of the given paths, if any.
+   */
+  private void invalidateFileInfos(List<URI> paths) {
+    if (fileInfoCache != null) {
+      for (URI path : paths) {
+        fileInfoCache.invalidate(path);
+      }
+    }
+  }
+
+  /**
+   * Invalidates the cached infos of the given directory and of every path under it, if any.
+   */
+  private void invalidateDirectoryFileInfos(URI dirPath) {
+    if (fileInfoCache != null) {
+      fileInfoCache.invalidateDirectory(dirPath);
+    }
+  }
+
   /**
    * Releases resources used by this instance.
    */
   public void close() {
+    if (timestampUpdateCoalescer != null) {
+      // Makes the pending updates while gcs is still open.
+      timestampUpdateCoalescer.close();
+    }
+
     if (gcs != null) {
       log.debug("close()");
       try {
@@ -1136,6 +1666,17 @@ public class GoogleCloudStorageFileSystem {
       }
       updateTimestampsExecutor = null;
     }
+
+    synchronized (this) {
+      if (renameExecutor != null) {
+        renameExecutor.shutdown();
+        renameExecutor = null;
+      }
+      if (listExecutor != null) {
+        listExecutor.shutdown();
+        listExecutor = null;
+      }
+    }
   }
 
   /**
@@ -1167,6 +1708,7 @@ public class GoogleCloudStorageFileSystem {
     // If this is a top level directory, create the corresponding bucket.
     if (resourceId.isBucket()) {
       gcs.create(resourceId.getBucketName());
+      invalidateFileInfo(path);
       return;
     }
 
@@ -1175,6 +1717,7 @@ public class GoogleCloudStorageFileSystem {
 
     // Not a top-level directory, create 0 sized object.
     gcs.createEmptyObject(resourceId);
+    invalidateFileInfo(path);
 
     tryUpdateTimestampsForParentDirectories(ImmutableList.of(path), ImmutableList.<URI>of());
   }
@@ -1188,7 +1731,14 @@ public class GoogleCloudStorageFileSystem {
   protected void updateTimestampsForParentDirectories(
       List<URI> modifiedObjects, List<URI> excludedParents) throws IOException {
     log.debug("updateTimestampsForParentDirectories(%s, %s)", modifiedObjects, excludedParents);
+    updateDirectoryTimestamps(getParentsToUpdate(modifiedObjects, excludedParents));
+  }
 
+  /**
+   * Returns the parent directories of the given modified objects whose timestamps are to be
+   * updated.
+   */
+  private Set<URI> getParentsToUpdate(List<URI> modifiedObjects, List<URI> excludedParents) {
     Predicate<String> shouldIncludeInTimestampUpdatesPredicate =
         options.getShouldIncludeInTimestampUpdatesPredicate();
     Set<URI> excludedParentPathsSet = new HashSet<>(excludedParents);
@@ -1201,7 +1751,14 @@ public class GoogleCloudStorageFileSystem {
         parentUrisToUpdate.add(parentPathUri);
       }
     }
+    return parentUrisToUpdate;
+  }
 
+  /**
+   * Sets the modification time of the given directories to now, in a single batch.
+   */
+  private void updateDirectoryTimestamps(Set<URI> parentUrisToUpdate)
+      throws IOException {
     Map<String, byte[]> modificationAttributes = new HashMap<>();
     FileInfo.addModificationTimeToAttributes(modificationAttributes, Clock.SYSTEM);
 
@@ -1215,7 +1772,14 @@ public class GoogleCloudStorageFileSystem {
     }
 
     if (!itemUpdates.isEmpty()) {
-      gcs.updateItems(itemUpdates);
+      try {
+        gcs.updateItems(itemUpdates);
+      } finally {
+        for (UpdatableItemInfo itemUpdate : itemUpdates) {
+          StorageResourceId resourceId = itemUpdate.getStorageResourceId();
+          invalidateFileInfo(getPath(resourceId.getBucketName(), resourceId.getObjectName()));
+        }
+      }
     } else {
       log.debug("All paths were excluded from directory timestamp updating.");
     }
@@ -1233,6 +1797,12 @@ public class GoogleCloudStorageFileSystem {
       final List<URI> modifiedObjects, final List<URI> excludedParents) {
     log.debug("tryUpdateTimestampsForParentDirectories(%s, %s)", modifiedObjects, excludedParents);
 
+    if (timestampUpdateCoalescer != null) {
+      // Updated along with the other parents modified in the same window.
+      timestampUpdateCoalescer.add(getParentsToUpdate(modifiedObjects, excludedParents));
+      return;
+    }
+
     // If we're calling tryUpdateTimestamps, we don't actually care about the results. Submit
     // these requests via a background thread and continue on.
     updateTimestampsExecutor.submit(new Runnable() {
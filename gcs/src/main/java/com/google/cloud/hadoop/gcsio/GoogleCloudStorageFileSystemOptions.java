@@ -24,6 +24,63 @@ import com.google.common.base.Predicates;
  */
 public class GoogleCloudStorageFileSystemOptions {
 
+  /**
+   * How getFileInfo() finds out whether a path is a file, a directory, or doesn't exist.
+   */
+  public enum StatProbeStrategy {
+    /**
+     * Fetches the object named like the path and, if there is none, the directory object of the
+     * path; two requests for paths which are directories or don't exist. A directory without a
+     * directory object (an implicit directory) is reported as not existing.
+     */
+    GET,
+
+    /**
+     * Lists the first objects whose names start with the path in a single request, which finds
+     * files, directory objects and implicit directories alike. Falls back to GET if other names
+     * sort between the path and its directory form, e.g. "foo.txt" for "foo". Listings may lag
+     * behind object creation, unless supplemented by the metadata cache.
+     */
+    LIST
+  }
+
+  /**
+   * Default strategy of getFileInfo().
+   */
+  public static final StatProbeStrategy STAT_PROBE_STRATEGY_DEFAULT = StatProbeStrategy.GET;
+
+  /**
+   * Default time for which parent directories are collected before their timestamps are updated
+   * together; 0 updates them after every change.
+   */
+  public static final long TIMESTAMP_UPDATE_WINDOW_MILLIS_DEFAULT = 0;
+
+  /**
+   * Default maximum number of objects copied, then deleted, by each batch of a directory rename.
+   */
+  public static final int RENAME_BATCH_SIZE_DEFAULT = 1000;
+
+  /**
+   * Default maximum number of batches of a directory rename in flight at once.
+   */
+  public static final int RENAME_PARALLELISM_DEFAULT = 8;
+
+  /**
+   * Default maximum number of ranges of a recursive prefix listing listed at once; 1 lists
+   * prefixes sequentially.
+   */
+  public static final int LIST_PARALLELISM_DEFAULT = 1;
+
+  /**
+   * Default maximum number of paths whose getFileInfo() results are cached; 0 disables the cache.
+   */
+  public static final int STAT_CACHE_MAX_ENTRIES_DEFAULT = 0;
+
+  /**
+   * Default time after which a cached getFileInfo() result expires.
+   */
+  public static final long STAT_CACHE_TTL_MILLIS_DEFAULT = 2000;
+
   /**
    * Mutable builder for GoogleCloudStorageFileSystemOptions.
    */
@@ -32,6 +89,16 @@ public class GoogleCloudStorageFileSystemOptions {
     protected DirectoryListCache.Type cacheType = DirectoryListCache.Type.IN_MEMORY;
     protected String cacheBasePath = null;
     protected Predicate<String> shouldIncludeInTimestampUpdatesPredicate = Predicates.alwaysTrue();
+    protected int renameBatchSize = RENAME_BATCH_SIZE_DEFAULT;
+    protected int renameParallelism = RENAME_PARALLELISM_DEFAULT;
+    protected int listParallelism = LIST_PARALLELISM_DEFAULT;
+    protected int statCacheMaxEntries = STAT_CACHE_MAX_ENTRIES_DEFAULT;
+    protected long statCacheTtlMillis = STAT_CACHE_TTL_MILLIS_DEFAULT;
+    protected StatProbeStrategy statProbeStrategy = STAT_PROBE_STRATEGY_DEFAULT;
+    protected long timestampUpdateWindowMillis = TIMESTAMP_UPDATE_WINDOW_MILLIS_DEFAULT;
+    protected DirectoryListCache.Config metadataCacheConfig = null;
+    protected String cacheServiceAddress = null;
+    protected String cacheServiceSecret = null;
 
     private GoogleCloudStorageOptions.Builder cloudStorageOptionsBuilder =
         new GoogleCloudStorageOptions.Builder();
@@ -61,13 +128,73 @@ public class GoogleCloudStorageFileSystemOptions {
       return this;
     }
 
+    public Builder setRenameBatchSize(int renameBatchSize) {
+      this.renameBatchSize = renameBatchSize;
+      return this;
+    }
+
+    public Builder setRenameParallelism(int renameParallelism) {
+      this.renameParallelism = renameParallelism;
+      return this;
+    }
+
+    public Builder setListParallelism(int listParallelism) {
+      this.listParallelism = listParallelism;
+      return this;
+    }
+
+    public Builder setStatCacheMaxEntries(int statCacheMaxEntries) {
+      this.statCacheMaxEntries = statCacheMaxEntries;
+      return this;
+    }
+
+    public Builder setStatCacheTtlMillis(long statCacheTtlMillis) {
+      this.statCacheTtlMillis = statCacheTtlMillis;
+      return this;
+    }
+
+    public Builder setStatProbeStrategy(StatProbeStrategy statProbeStrategy) {
+      this.statProbeStrategy = statProbeStrategy;
+      return this;
+    }
+
+    public Builder setTimestampUpdateWindowMillis(long timestampUpdateWindowMillis) {
+      this.timestampUpdateWindowMillis = timestampUpdateWindowMillis;
+      return this;
+    }
+
+    public Builder setMetadataCacheConfig(DirectoryListCache.Config metadataCacheConfig) {
+      this.metadataCacheConfig = metadataCacheConfig;
+      return this;
+    }
+
+    public Builder setCacheServiceAddress(String cacheServiceAddress) {
+      this.cacheServiceAddress = cacheServiceAddress;
+      return this;
+    }
+
+    public Builder setCacheServiceSecret(String cacheServiceSecret) {
+      this.cacheServiceSecret = cacheServiceSecret;
+      return this;
+    }
+
     public GoogleCloudStorageFileSystemOptions build() {
       return new GoogleCloudStorageFileSystemOptions(
           cloudStorageOptionsBuilder.build(),
           metadataCacheEnabled,
           cacheType,
           cacheBasePath,
-          shouldIncludeInTimestampUpdatesPredicate);
+          shouldIncludeInTimestampUpdatesPredicate,
+          renameBatchSize,
+          renameParallelism,
+          listParallelism,
+          statCacheMaxEntries,
+          statCacheTtlMillis,
+          statProbeStrategy,
+          timestampUpdateWindowMillis,
+          metadataCacheConfig,
+          cacheServiceAddress,
+          cacheServiceSecret);
     }
   }
 
@@ -78,8 +205,18 @@ public class GoogleCloudStorageFileSystemOptions {
   private final GoogleCloudStorageOptions cloudStorageOptions;
   private final boolean metadataCacheEnabled;
   private final DirectoryListCache.Type cacheType;
-  private final String cacheBasePath;  // Only used if cacheType == FILESYSTEM_BACKED.
+  private final String cacheBasePath;  // Only used if cacheType is FILESYSTEM_BACKED/LOG_BACKED.
   private final Predicate<String> shouldIncludeInTimestampUpdatesPredicate;
+  private final int renameBatchSize;
+  private final int renameParallelism;
+  private final int listParallelism;
+  private final int statCacheMaxEntries;
+  private final long statCacheTtlMillis;
+  private final StatProbeStrategy statProbeStrategy;
+  private final long timestampUpdateWindowMillis;
+  private final DirectoryListCache.Config metadataCacheConfig;
+  private final String cacheServiceAddress;  // Only used if cacheType is SERVICE_BACKED.
+  private final String cacheServiceSecret;  // Only used if cacheType is SERVICE_BACKED.
 
   public GoogleCloudStorageFileSystemOptions(
       GoogleCloudStorageOptions cloudStorageOptions,
@@ -87,11 +224,44 @@ public class GoogleCloudStorageFileSystemOptions {
       DirectoryListCache.Type cacheType,
       String cacheBasePath,
       Predicate<String> shouldIncludeInTimestampUpdatesPredicate) {
+    this(cloudStorageOptions, metadataCacheEnabled, cacheType, cacheBasePath,
+        shouldIncludeInTimestampUpdatesPredicate, RENAME_BATCH_SIZE_DEFAULT,
+        RENAME_PARALLELISM_DEFAULT, LIST_PARALLELISM_DEFAULT, STAT_CACHE_MAX_ENTRIES_DEFAULT,
+        STAT_CACHE_TTL_MILLIS_DEFAULT, STAT_PROBE_STRATEGY_DEFAULT,
+        TIMESTAMP_UPDATE_WINDOW_MILLIS_DEFAULT, null, null, null);
+  }
+
+  private GoogleCloudStorageFileSystemOptions(
+      GoogleCloudStorageOptions cloudStorageOptions,
+      boolean metadataCacheEnabled,
+      DirectoryListCache.Type cacheType,
+      String cacheBasePath,
+      Predicate<String> shouldIncludeInTimestampUpdatesPredicate,
+      int renameBatchSize,
+      int renameParallelism,
+      int listParallelism,
+      int statCacheMaxEntries,
+      long statCacheTtlMillis,
+      StatProbeStrategy statProbeStrategy,
+      long timestampUpdateWindowMillis,
+      DirectoryListCache.Config metadataCacheConfig,
+      String cacheServiceAddress,
+      String cacheServiceSecret) {
     this.cloudStorageOptions = cloudStorageOptions;
     this.metadataCacheEnabled = metadataCacheEnabled;
     this.cacheType = cacheType;
     this.cacheBasePath = cacheBasePath;
     this.shouldIncludeInTimestampUpdatesPredicate = shouldIncludeInTimestampUpdatesPredicate;
+    this.renameBatchSize = renameBatchSize;
+    this.renameParallelism = renameParallelism;
+    this.listParallelism = listParallelism;
+    this.statCacheMaxEntries = statCacheMaxEntries;
+    this.statCacheTtlMillis = statCacheTtlMillis;
+    this.statProbeStrategy = statProbeStrategy;
+    this.timestampUpdateWindowMillis = timestampUpdateWindowMillis;
+    this.metadataCacheConfig = metadataCacheConfig;
+    this.cacheServiceAddress = cacheServiceAddress;
+    this.cacheServiceSecret = cacheServiceSecret;
   }
 
   public GoogleCloudStorageOptions getCloudStorageOptions() {
@@ -114,7 +284,98 @@ public class GoogleCloudStorageFileSystemOptions {
     return shouldIncludeInTimestampUpdatesPredicate;
   }
 
+  /**
+   * Returns the maximum number of objects copied, then deleted, by each batch of a directory
+   * rename.
+   */
+  public int getRenameBatchSize() {
+    return renameBatchSize;
+  }
+
+  /**
+   * Returns the maximum number of batches of a directory rename in flight at once.
+   */
+  public int getRenameParallelism() {
+    return renameParallelism;
+  }
+
+  /**
+   * Returns the maximum number of ranges of a recursive prefix listing listed at once; see
+   * {@link ParallelPrefixLister}.
+   */
+  public int getListParallelism() {
+    return listParallelism;
+  }
+
+  /**
+   * Returns the maximum number of paths whose getFileInfo() results are cached; 0 if the cache
+   * is disabled. See {@link FileInfoCache}.
+   */
+  public int getStatCacheMaxEntries() {
+    return statCacheMaxEntries;
+  }
+
+  /**
+   * Returns the time after which a cached getFileInfo() result expires.
+   */
+  public long getStatCacheTtlMillis() {
+    return statCacheTtlMillis;
+  }
+
+  /**
+   * Returns how getFileInfo() finds out whether a path is a file, a directory, or doesn't exist.
+   */
+  public StatProbeStrategy getStatProbeStrategy() {
+    return statProbeStrategy;
+  }
+
+  /**
+   * Returns the time for which parent directories are collected before their timestamps are
+   * updated together; 0 if they are updated after every change. See
+   * {@link TimestampUpdateCoalescer}.
+   */
+  public long getTimestampUpdateWindowMillis() {
+    return timestampUpdateWindowMillis;
+  }
+
+  /**
+   * Returns the settings applied to the DirectoryListCache when the metadata cache is enabled,
+   * or null to leave the cache's settings as they are.
+   */
+  public DirectoryListCache.Config getMetadataCacheConfig() {
+    return metadataCacheConfig;
+  }
+
+  /**
+   * Returns the host:port of the DirectoryListCacheServer used by a SERVICE_BACKED metadata cache.
+   */
+  public String getCacheServiceAddress() {
+    return cacheServiceAddress;
+  }
+
+  /**
+   * Returns the secret shared with the DirectoryListCacheServer used by a SERVICE_BACKED metadata
+   * cache.
+   */
+  public String getCacheServiceSecret() {
+    return cacheServiceSecret;
+  }
+
   public void throwIfNotValid() {
+    Preconditions.checkArgument(
+        renameBatchSize > 0, "renameBatchSize must be positive: %s", renameBatchSize);
+    Preconditions.checkArgument(
+        renameParallelism > 0, "renameParallelism must be positive: %s", renameParallelism);
+    Preconditions.checkArgument(
+        listParallelism > 0, "listParallelism must be positive: %s", listParallelism);
+    Preconditions.checkArgument(statCacheMaxEntries >= 0,
+        "statCacheMaxEntries must not be negative: %s", statCacheMaxEntries);
+    Preconditions.checkArgument(
+        statCacheTtlMillis > 0, "statCacheTtlMillis must be positive: %s", statCacheTtlMillis);
+    Preconditions.checkArgument(
+        statProbeStrategy != null, "statProbeStrategy must not be null");
+    Preconditions.checkArgument(timestampUpdateWindowMillis >= 0,
+        "timestampUpdateWindowMillis must not be negative: %s", timestampUpdateWindowMillis);
     Preconditions.checkArgument(
         shouldIncludeInTimestampUpdatesPredicate != null,
         "Predicate for ignored directory updates should not be null. "
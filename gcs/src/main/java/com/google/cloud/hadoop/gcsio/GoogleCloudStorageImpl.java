@@ -33,34 +33,42 @@ import com.google.api.client.util.Sleeper;
 import com.google.api.services.storage.Storage;
 import com.google.api.services.storage.model.Bucket;
 import com.google.api.services.storage.model.Buckets;
+import com.google.api.services.storage.model.ComposeRequest;
 import com.google.api.services.storage.model.Objects;
 import com.google.api.services.storage.model.StorageObject;
 import com.google.cloud.hadoop.util.ApiErrorExtractor;
+import com.google.cloud.hadoop.util.AsyncWriteChannelOptions;
 import com.google.cloud.hadoop.util.ClientRequestHelper;
 import com.google.cloud.hadoop.util.LogUtil;
 import com.google.cloud.hadoop.util.RetryHttpInitializer;
+import com.google.cloud.hadoop.util.UploadBudget;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.common.io.BaseEncoding;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -152,10 +160,16 @@ public class GoogleCloudStorageImpl
   // GCS access instance.
   private Storage gcs;
 
-  // Thread-pool used for background tasks.
-  private ExecutorService threadPool = Executors.newCachedThreadPool(
+  // Thread-pool on which write channels and composite upload parts upload, bounded like
+  // uploadBudget.
+  private ExecutorService threadPool;
+
+  // Thread-pool on which PrefetchingReadChannels fetch chunks and VectoredReaders fetch ranges;
+  // the number of requests in flight is bounded per channel or per call by
+  // GoogleCloudStorageReadOptions.
+  private ExecutorService prefetchThreadPool = Executors.newCachedThreadPool(
       new ThreadFactoryBuilder()
-          .setNameFormat("gcs-async-channel-pool-%d")
+          .setNameFormat("gcs-prefetch-pool-%d")
           .setDaemon(true)
           .build());
 
@@ -176,8 +190,12 @@ public class GoogleCloudStorageImpl
   private ClientRequestHelper<StorageObject> clientRequestHelper =
       new ClientRequestHelper<>();
 
+  // Thread-pool on which concurrent batches of bulk operations are sent. It doesn't queue tasks:
+  // when all of its threads are busy, a batch is sent on the thread flushing it instead.
+  private final ExecutorService batchThreadPool;
+
   // Factory for BatchHelpers setting up BatchRequests; can be swapped out for testing purposes.
-  private BatchHelper.Factory batchFactory = new BatchHelper.Factory();
+  private BatchHelper.Factory batchFactory;
 
   // Request initializer to use for batch and non-batch requests.
   private HttpRequestInitializer httpRequestInitializer;
@@ -185,6 +203,9 @@ public class GoogleCloudStorageImpl
   // Configuration values for this instance
   private final GoogleCloudStorageOptions storageOptions;
 
+  // Memory and concurrency budget shared by all uploads started through this instance.
+  private final UploadBudget uploadBudget;
+
   // Object to use to perform sleep operations
   private Sleeper sleeper = Sleeper.DEFAULT;
 
@@ -206,6 +227,11 @@ public class GoogleCloudStorageImpl
     options.throwIfNotValid();
 
     this.storageOptions = options;
+    this.uploadBudget = createUploadBudget(options);
+    this.threadPool = createUploadThreadPool(options);
+    this.batchThreadPool = createBatchThreadPool(options);
+    this.batchFactory =
+        new BatchHelper.Factory(batchThreadPool, options.getMaxConcurrentBatches());
 
     Preconditions.checkArgument(credential != null, "credential must not be null");
 
@@ -231,6 +257,11 @@ public class GoogleCloudStorageImpl
     options.throwIfNotValid();
 
     this.storageOptions = options;
+    this.uploadBudget = createUploadBudget(options);
+    this.threadPool = createUploadThreadPool(options);
+    this.batchThreadPool = createBatchThreadPool(options);
+    this.batchFactory =
+        new BatchHelper.Factory(batchThreadPool, options.getMaxConcurrentBatches());
 
     Preconditions.checkArgument(gcs != null, "gcs must not be null");
 
@@ -244,6 +275,56 @@ public class GoogleCloudStorageImpl
   @VisibleForTesting
   protected GoogleCloudStorageImpl() {
     this.storageOptions = GoogleCloudStorageOptions.newBuilder().build();
+    this.uploadBudget = createUploadBudget(storageOptions);
+    this.threadPool = createUploadThreadPool(storageOptions);
+    this.batchThreadPool = createBatchThreadPool(storageOptions);
+    this.batchFactory =
+        new BatchHelper.Factory(batchThreadPool, storageOptions.getMaxConcurrentBatches());
+  }
+
+  private static ExecutorService createBatchThreadPool(GoogleCloudStorageOptions options) {
+    // Enough threads for a few bulk operations at once; further batches are sent by the callers.
+    return new ThreadPoolExecutor(
+        0 /* base num threads */, 4 * options.getMaxConcurrentBatches() /* max num threads */,
+        10L /* keepalive time */, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new ThreadFactoryBuilder()
+            .setNameFormat("gcs-batch-pool-%d")
+            .setDaemon(true)
+            .build());
+  }
+
+  private static ExecutorService createUploadThreadPool(GoogleCloudStorageOptions options) {
+    ThreadFactory threadFactory = new ThreadFactoryBuilder()
+        .setNameFormat("gcs-async-channel-pool-%d")
+        .setDaemon(true)
+        .build();
+    int maxConcurrentUploads = options.getWriteChannelOptions().getMaxConcurrentUploads();
+    if (maxConcurrentUploads == 0) {
+      return Executors.newCachedThreadPool(threadFactory);
+    }
+    // Every upload reserves from uploadBudget before it is submitted, so at most this many run at
+    // once; a task only queues briefly behind an upload which released its reservation but has
+    // yet to return its thread.
+    ThreadPoolExecutor uploadThreadPool = new ThreadPoolExecutor(
+        maxConcurrentUploads /* base num threads */, maxConcurrentUploads /* max num threads */,
+        10L /* keepalive time */, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        threadFactory);
+    uploadThreadPool.allowCoreThreadTimeOut(true);
+    return uploadThreadPool;
+  }
+
+  private static UploadBudget createUploadBudget(GoogleCloudStorageOptions options) {
+    AsyncWriteChannelOptions writeOptions = options.getWriteChannelOptions();
+    return new UploadBudget(
+        writeOptions.getUploadMaxMemory(), writeOptions.getMaxConcurrentUploads());
+  }
+
+  /**
+   * Returns the budget shared by all uploads started through this instance, e.g. to report how
+   * many bytes are in flight or waiting.
+   */
+  public UploadBudget getUploadBudget() {
+    return uploadBudget;
   }
 
   @VisibleForTesting
@@ -251,6 +332,11 @@ public class GoogleCloudStorageImpl
     this.threadPool = threadPool;
   }
 
+  @VisibleForTesting
+  void setPrefetchThreadPool(ExecutorService prefetchThreadPool) {
+    this.prefetchThreadPool = prefetchThreadPool;
+  }
+
   @VisibleForTesting
   void setManualBatchingThreadPool(ExecutorService manualBatchingThreadPool) {
     this.manualBatchingThreadPool = manualBatchingThreadPool;
@@ -363,6 +449,22 @@ public class GoogleCloudStorageImpl
               "Retries exhausted while attempting to create marker file for %s", resourceId));
     }
 
+    CompositeUploadOptions compositeUploadOptions = storageOptions.getCompositeUploadOptions();
+    if (compositeUploadOptions.isEnabled()
+        && !CompositeUploadWriteChannel.isTemporaryObject(resourceId.getObjectName())) {
+      // The marker object now exists, so composing over it must be allowed, but only as long as
+      // it is still the marker we just created.
+      log.debug("create(%s): using a composite upload", resourceId);
+      ImplCompositeUploadWriteChannel compositeChannel = new ImplCompositeUploadWriteChannel(
+          resourceId,
+          new CreateObjectOptions(true, options.getMetadata()),
+          compositeUploadOptions,
+          markerGeneration.get());
+      // Part buffers are the bulk of a composite upload's memory.
+      compositeChannel.setUploadBudget(uploadBudget);
+      return compositeChannel;
+    }
+
     ObjectWriteConditions writeConditions =
         new ObjectWriteConditions(markerGeneration, Optional.<Long>absent());
 
@@ -379,6 +481,7 @@ public class GoogleCloudStorageImpl
         writeConditions,
         rewrittenMetadata);
 
+    channel.setUploadBudget(uploadBudget);
     channel.initialize();
 
     return channel;
@@ -485,7 +588,18 @@ public class GoogleCloudStorageImpl
   @Override
   public SeekableReadableByteChannel open(StorageResourceId resourceId)
       throws IOException {
-    log.debug("open(%s)", resourceId);
+    return open(resourceId, storageOptions.getReadChannelOptions());
+  }
+
+  /**
+   * See {@link GoogleCloudStorage#open(StorageResourceId, GoogleCloudStorageReadOptions)} for
+   * details about expected behavior.
+   */
+  @Override
+  public SeekableReadableByteChannel open(
+      StorageResourceId resourceId, final GoogleCloudStorageReadOptions readOptions)
+      throws IOException {
+    log.debug("open(%s, %s)", resourceId, readOptions.getFadvise());
     Preconditions.checkArgument(resourceId.isStorageObject(),
         "Expected full StorageObject id, got " + resourceId);
 
@@ -493,17 +607,106 @@ public class GoogleCloudStorageImpl
     // FileNotFoundException until read is called. As a result, in order to find out if the object
     // exists, we'll need to do an RPC (metadata or data). A metadata check should be a less
     // expensive operation than a read data operation.
-    if (!getItemInfo(resourceId).exists()) {
+    GoogleCloudStorageItemInfo itemInfo = getItemInfo(resourceId);
+    if (!itemInfo.exists()) {
       throw GoogleCloudStorageExceptions.getFileNotFoundException(
           resourceId.getBucketName(), resourceId.getObjectName());
     }
 
-    return new GoogleCloudStorageReadChannel(
+    if (readOptions.isPrefetchEnabled()) {
+      PrefetchingReadChannel channel =
+          openPrefetchingChannel(resourceId, itemInfo.getSize(), readOptions);
+      channel.setItemInfo(itemInfo);
+      return channel;
+    }
+
+    GoogleCloudStorageReadChannel channel = new GoogleCloudStorageReadChannel(
         gcs,
         resourceId.getBucketName(),
         resourceId.getObjectName(),
         errorExtractor,
-        clientRequestHelper);
+        clientRequestHelper,
+        readOptions);
+    channel.setItemInfo(itemInfo);
+    if (readOptions.getFadvise() != GoogleCloudStorageReadOptions.Fadvise.SEQUENTIAL
+        && itemInfo.getSize() > 0) {
+      // Bounded range requests can't always derive the object size from the response, so seed
+      // it from the metadata we just fetched. Empty objects are left alone so that reads go
+      // through the usual 'range not satisfiable' handling.
+      channel.setSize(itemInfo.getSize());
+    }
+    return channel;
+  }
+
+  /**
+   * Returns a PrefetchingReadChannel over the given object which fetches each chunk through its
+   * own GoogleCloudStorageReadChannel issuing a single bounded range request.
+   */
+  private PrefetchingReadChannel openPrefetchingChannel(
+      final StorageResourceId resourceId, final long size,
+      GoogleCloudStorageReadOptions readOptions) {
+    final GoogleCloudStorageReadOptions chunkReadOptions = GoogleCloudStorageReadOptions
+        .newBuilder()
+        .setFadvise(GoogleCloudStorageReadOptions.Fadvise.RANDOM)
+        .setMinRangeRequestSize(readOptions.getPrefetchChunkSize())
+        .build();
+    PrefetchingReadChannel.ChannelFactory channelFactory =
+        new PrefetchingReadChannel.ChannelFactory() {
+          @Override
+          public SeekableReadableByteChannel open()
+              throws IOException {
+            GoogleCloudStorageReadChannel channel = new GoogleCloudStorageReadChannel(
+                gcs,
+                resourceId.getBucketName(),
+                resourceId.getObjectName(),
+                errorExtractor,
+                clientRequestHelper,
+                chunkReadOptions);
+            if (size > 0) {
+              channel.setSize(size);
+            }
+            return channel;
+          }
+        };
+    return new PrefetchingReadChannel(
+        channelFactory, prefetchThreadPool, size, readOptions, resourceId.toString());
+  }
+
+  /**
+   * See {@link GoogleCloudStorage#readVectored(StorageResourceId, List)} for details about
+   * expected behavior.
+   */
+  @Override
+  public List<Future<ByteBuffer>> readVectored(
+      final StorageResourceId resourceId, List<ReadRange> ranges)
+      throws IOException {
+    log.debug("readVectored(%s, %d ranges)", resourceId, ranges.size());
+    Preconditions.checkArgument(resourceId.isStorageObject(),
+        "Expected full StorageObject id, got " + resourceId);
+
+    // Each merged range is fetched by a single bounded request covering exactly its bytes. No
+    // metadata request is made up front; a missing object fails the futures instead.
+    final GoogleCloudStorageReadOptions rangeReadOptions = GoogleCloudStorageReadOptions
+        .newBuilder()
+        .setFadvise(GoogleCloudStorageReadOptions.Fadvise.RANDOM)
+        .setMinRangeRequestSize(1)
+        .build();
+    PrefetchingReadChannel.ChannelFactory channelFactory =
+        new PrefetchingReadChannel.ChannelFactory() {
+          @Override
+          public SeekableReadableByteChannel open()
+              throws IOException {
+            return new GoogleCloudStorageReadChannel(
+                gcs,
+                resourceId.getBucketName(),
+                resourceId.getObjectName(),
+                errorExtractor,
+                clientRequestHelper,
+                rangeReadOptions);
+          }
+        };
+    return new VectoredReader(channelFactory, prefetchThreadPool,
+        storageOptions.getReadChannelOptions(), resourceId.toString()).read(ranges);
   }
 
   /**
@@ -593,7 +796,8 @@ public class GoogleCloudStorageImpl
     }
 
     // Gather exceptions to wrap in a composite exception at the end.
-    final List<IOException> innerExceptions = new ArrayList<>();
+    final List<IOException> innerExceptions =
+        Collections.synchronizedList(new ArrayList<IOException>());
     BatchHelper batchHelper = batchFactory.newBatchHelper(
         httpRequestInitializer,
         gcs,
@@ -612,6 +816,99 @@ public class GoogleCloudStorageImpl
     }
   }
 
+  /**
+   * See {@link GoogleCloudStorage#deleteObjects(List<StorageResourceId>, List<Long>)} for details
+   * about expected behavior.
+   */
+  @Override
+  public void deleteObjects(List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException {
+    log.debug("deleteObjects(%s, %s)", fullObjectNames, generations);
+    Preconditions.checkArgument(fullObjectNames.size() == generations.size(),
+        "Must supply the same number of elements in fullObjectNames and generations.");
+
+    // Validate that all the elements represent StorageObjects.
+    for (StorageResourceId fullObjectName : fullObjectNames) {
+      Preconditions.checkArgument(fullObjectName.isStorageObject(),
+          "Expected full StorageObject names only, got: " + fullObjectName.toString());
+    }
+
+    // Gather exceptions to wrap in a composite exception at the end.
+    final List<IOException> innerExceptions =
+        Collections.synchronizedList(new ArrayList<IOException>());
+    BatchHelper batchHelper = batchFactory.newBatchHelper(
+        httpRequestInitializer,
+        gcs,
+        storageOptions.getMaxRequestsPerBatch());
+
+    for (int i = 0; i < fullObjectNames.size(); ++i) {
+      Long generation = generations.get(i);
+      if (generation != null && generation > 0) {
+        queueSingleObjectDelete(
+            fullObjectNames.get(i), generation, innerExceptions, batchHelper, 1);
+      } else {
+        queueSingleObjectDelete(fullObjectNames.get(i), innerExceptions, batchHelper, 1);
+      }
+    }
+
+    do {
+      batchHelper.flush();
+    } while (!batchHelper.isEmpty());
+
+    if (innerExceptions.size() > 0) {
+      throw GoogleCloudStorageExceptions.createCompositeException(innerExceptions);
+    }
+  }
+
+  /**
+   * Queues the deletion of the given object conditional on the given generation. If the object
+   * has changed since, falls back to looking up its current generation like
+   * {@link #queueSingleObjectDelete(StorageResourceId, List, BatchHelper, int)}.
+   */
+  private void queueSingleObjectDelete(
+      final StorageResourceId fullObjectName,
+      final long generation,
+      final List<IOException> innerExceptions,
+      final BatchHelper batchHelper,
+      final int attempt) throws IOException {
+    final String bucketName = fullObjectName.getBucketName();
+    final String objectName = fullObjectName.getObjectName();
+
+    Storage.Objects.Delete deleteObject =
+        gcs.objects().delete(bucketName, objectName)
+            .setIfGenerationMatch(generation);
+
+    batchHelper.queue(deleteObject, new JsonBatchCallback<Void>() {
+      @Override
+      public void onSuccess(Void obj, HttpHeaders responseHeaders) {
+        log.debug(
+            "Successfully deleted %s at generation %s", fullObjectName.toString(), generation);
+      }
+
+      @Override
+      public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) throws IOException {
+        if (errorExtractor.itemNotFound(e)) {
+          // Ignore item-not-found errors, like for deletes of a looked up generation.
+          log.debug("deleteObjects(%s) : delete not found", fullObjectName.toString());
+        } else if (errorExtractor.preconditionNotMet(e)
+            && attempt <= MAXIMUM_PRECONDITION_FAILURES_IN_DELETE) {
+          // The object was replaced after the caller saw it; delete whatever is there now.
+          log.debug(
+              "Precondition not met while deleting %s at known generation %s, looking it up.",
+              fullObjectName.toString(),
+              generation);
+          queueSingleObjectDelete(fullObjectName, innerExceptions, batchHelper, attempt + 1);
+        } else {
+          innerExceptions.add(wrapException(
+              new IOException(e.toString()),
+              String.format("Error deleting with known generation %s", generation),
+              bucketName,
+              objectName));
+        }
+      }
+    });
+  }
+
   private void queueSingleObjectDelete(
       final StorageResourceId fullObjectName,
       final List<IOException> innerExceptions,
@@ -760,7 +1057,8 @@ public class GoogleCloudStorageImpl
 
     // Gather FileNotFoundExceptions for individual objects, but only throw a single combined
     // exception at the end.
-    final List<IOException> innerExceptions = new ArrayList<>();
+    final List<IOException> innerExceptions =
+        Collections.synchronizedList(new ArrayList<IOException>());
 
     // Perform the copy operations.
     BatchHelper batchHelper = batchFactory.newBatchHelper(
@@ -805,6 +1103,157 @@ public class GoogleCloudStorageImpl
     }
   }
 
+  /**
+   * See {@link GoogleCloudStorage#composeObjects(List, StorageResourceId, CreateObjectOptions)}
+   * for details about expected behavior.
+   */
+  @Override
+  public GoogleCloudStorageItemInfo composeObjects(List<StorageResourceId> sources,
+      StorageResourceId destination, CreateObjectOptions options)
+      throws IOException {
+    log.debug("composeObjects(%s, %s)", sources, destination);
+    Preconditions.checkArgument(sources != null && !sources.isEmpty(),
+        "sources must not be null or empty");
+    Preconditions.checkArgument(sources.size() <= CompositeUploadWriteChannel.MAX_COMPOSE_OBJECTS,
+        "Cannot compose more than %s objects at once, got %s",
+        CompositeUploadWriteChannel.MAX_COMPOSE_OBJECTS, sources.size());
+    Preconditions.checkArgument(destination.isStorageObject(),
+        "Expected full StorageObject id, got " + destination);
+
+    // As in create(), always attach a precondition on the current generation of the destination.
+    GoogleCloudStorageItemInfo destinationInfo = getItemInfo(destination);
+    long generation = 0L;
+    if (destinationInfo.exists()) {
+      if (!options.overwriteExisting()) {
+        throw new IOException(String.format("Object %s already exists", destination));
+      }
+      generation = destinationInfo.getContentGeneration();
+    }
+    return composeObjectsInternal(sources, destination, options, generation);
+  }
+
+  /**
+   * Composes the given objects into destination if its current generation is generationMatch,
+   * 0 meaning that it must not exist.
+   */
+  private GoogleCloudStorageItemInfo composeObjectsInternal(List<StorageResourceId> sources,
+      StorageResourceId destination, CreateObjectOptions options, long generationMatch)
+      throws IOException {
+    List<ComposeRequest.SourceObjects> sourceObjects = new ArrayList<>(sources.size());
+    for (StorageResourceId source : sources) {
+      Preconditions.checkArgument(source.isStorageObject(),
+          "Expected full StorageObject id, got " + source);
+      Preconditions.checkArgument(source.getBucketName().equals(destination.getBucketName()),
+          "Cannot compose %s into %s across buckets", source, destination);
+      sourceObjects.add(new ComposeRequest.SourceObjects().setName(source.getObjectName()));
+    }
+
+    StorageObject destinationObject = new StorageObject()
+        .setName(destination.getObjectName())
+        .setContentType(OCTECT_STREAM_MEDIA_TYPE)
+        .setMetadata(Maps.transformValues(options.getMetadata(), ENCODE_METADATA_VALUES));
+    Storage.Objects.Compose compose = gcs.objects().compose(
+        destination.getBucketName(),
+        destination.getObjectName(),
+        new ComposeRequest()
+            .setSourceObjects(sourceObjects)
+            .setDestination(destinationObject));
+    compose.setIfGenerationMatch(generationMatch);
+
+    try {
+      StorageObject result = compose.execute();
+      return createItemInfoForStorageObject(destination, result);
+    } catch (IOException ioe) {
+      if (errorExtractor.itemNotFound(ioe)) {
+        FileNotFoundException fnfe = new FileNotFoundException(
+            String.format("Some of the sources of %s were not found: %s", destination, sources));
+        fnfe.initCause(ioe);
+        throw fnfe;
+      }
+      throw wrapException(ioe, "Error composing",
+          destination.getBucketName(), destination.getObjectName());
+    }
+  }
+
+  /**
+   * Uploads the first length bytes of contents as the whole contents of the given object, in a
+   * single request, with the given metadata and only if the object's current generation is
+   * generationMatch, if present.
+   *
+   * @return the content generation of the created object
+   */
+  private long insertObject(StorageResourceId resourceId, byte[] contents, int length,
+      Map<String, byte[]> metadata, Optional<Long> generationMatch)
+      throws IOException {
+    StorageObject object = new StorageObject()
+        .setName(resourceId.getObjectName())
+        .setMetadata(Maps.transformValues(metadata, ENCODE_METADATA_VALUES));
+    Storage.Objects.Insert insertObject = gcs.objects().insert(
+        resourceId.getBucketName(),
+        object,
+        new ByteArrayContent(OCTECT_STREAM_MEDIA_TYPE, contents, 0, length));
+    if (generationMatch.isPresent()) {
+      insertObject.setIfGenerationMatch(generationMatch.get());
+    }
+    insertObject.setDisableGZipContent(true);
+    clientRequestHelper.setDirectUploadEnabled(insertObject, true);
+    try {
+      Long generation = insertObject.execute().getGeneration();
+      return generation == null ? 0L : generation;
+    } catch (IOException ioe) {
+      throw wrapException(ioe, "Error inserting",
+          resourceId.getBucketName(), resourceId.getObjectName());
+    }
+  }
+
+  /**
+   * CompositeUploadWriteChannel which uploads each part from its buffer with a single insert
+   * request, and composes the parts over the marker object created by create() only if that
+   * marker is still the current generation of the destination. An object which fits in a single
+   * part replaces the marker with a single insert request under the same condition.
+   */
+  private class ImplCompositeUploadWriteChannel
+      extends CompositeUploadWriteChannel {
+    // Generation of the marker object the parts are composed over.
+    private final long markerGeneration;
+
+    ImplCompositeUploadWriteChannel(
+        StorageResourceId resourceId,
+        CreateObjectOptions createOptions,
+        CompositeUploadOptions uploadOptions,
+        long markerGeneration) {
+      super(GoogleCloudStorageImpl.this, threadPool, resourceId, createOptions, uploadOptions);
+      this.markerGeneration = markerGeneration;
+    }
+
+    @Override
+    protected long uploadPart(StorageResourceId partId, byte[] contents, int length)
+        throws IOException {
+      // Part names are unique to this channel, so no precondition is needed.
+      return insertObject(partId, contents, length, ImmutableMap.<String, byte[]>of(),
+          Optional.<Long>absent());
+    }
+
+    @Override
+    protected boolean uploadObject(byte[] contents, int length, CreateObjectOptions options)
+        throws IOException {
+      // Like compose, replace the marker only if it is still the current generation.
+      insertObject(getResourceId(), contents, length, options.getMetadata(),
+          Optional.of(markerGeneration));
+      return true;
+    }
+
+    @Override
+    protected long composeObjects(List<StorageResourceId> sources,
+        StorageResourceId destination, CreateObjectOptions options)
+        throws IOException {
+      // Intermediate composite objects are new; the destination must still be our marker.
+      long generationMatch = destination.equals(getResourceId()) ? markerGeneration : 0L;
+      return composeObjectsInternal(sources, destination, options, generationMatch)
+          .getContentGeneration();
+    }
+  }
+
   /**
    * Shared helper for actually dispatching buckets().list() API calls and accumulating paginated
    * results; these can then be used to either extract just their names, or to parse into full
@@ -918,12 +1367,29 @@ public class GoogleCloudStorageImpl
       List<StorageObject> listedObjects, List<String> listedPrefixes)
       throws IOException {
     log.debug("listStorageObjectsAndPrefixes(%s, %s, %s)", bucketName, objectNamePrefix, delimiter);
-    Preconditions.checkArgument(!Strings.isNullOrEmpty(bucketName),
-        "bucketName must not be null or empty");
     Preconditions.checkArgument(listedObjects != null,
         "Must provide a non-null container for listedObjects.");
     Preconditions.checkArgument(listedPrefixes != null,
         "Must provide a non-null container for listedPrefixes.");
+    Storage.Objects.List listObject = createListRequest(bucketName, objectNamePrefix, delimiter);
+
+    // Loop till we fetch all items.
+    String pageToken = null;
+    do {
+      pageToken = listStorageObjectsAndPrefixesPage(listObject, bucketName, objectNamePrefix,
+          delimiter, pageToken, listedObjects, listedPrefixes);
+    } while (pageToken != null);
+  }
+
+  /**
+   * Helper for listStorageObjectsAndPrefixes and listObjectInfoPage which creates the list request
+   * for all of their pages.
+   */
+  private Storage.Objects.List createListRequest(
+      String bucketName, String objectNamePrefix, String delimiter)
+      throws IOException {
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(bucketName),
+        "bucketName must not be null or empty");
     Storage.Objects.List listObject = gcs.objects().list(bucketName);
 
     // Set delimiter if supplied.
@@ -938,66 +1404,75 @@ public class GoogleCloudStorageImpl
     if (!Strings.isNullOrEmpty(objectNamePrefix)) {
       listObject.setPrefix(objectNamePrefix);
     }
+    return listObject;
+  }
 
-    // Loop till we fetch all items.
-    String pageToken = null;
-    Objects items;
-
-    do {
-      if (pageToken != null) {
-        log.debug("listObjectNames: next page %s", pageToken);
-        listObject.setPageToken(pageToken);
-      }
+  /**
+   * Helper for listStorageObjectsAndPrefixes and listObjectInfoPage which fetches a single page of
+   * the listing of {@code listObject}, starting at {@code pageToken}, or at the first page if it is
+   * null.
+   *
+   * @return the token of the next page, or null if this was the last page
+   */
+  private String listStorageObjectsAndPrefixesPage(
+      Storage.Objects.List listObject, String bucketName, String objectNamePrefix,
+      String delimiter, String pageToken,
+      List<StorageObject> listedObjects, List<String> listedPrefixes)
+      throws IOException {
+    if (pageToken != null) {
+      log.debug("listObjectNames: next page %s", pageToken);
+      listObject.setPageToken(pageToken);
+    }
 
-      try {
-        items = listObject.execute();
-      } catch (IOException e) {
-        if (errorExtractor.itemNotFound(e)) {
-          log.debug("listObjectNames(%s, %s, %s): not found",
-              bucketName, objectNamePrefix, delimiter);
-          break;
-        } else {
-          throw wrapException(e, "Error listing", bucketName, objectNamePrefix);
-        }
+    Objects items;
+    try {
+      items = listObject.execute();
+    } catch (IOException e) {
+      if (errorExtractor.itemNotFound(e)) {
+        log.debug("listObjectNames(%s, %s, %s): not found",
+            bucketName, objectNamePrefix, delimiter);
+        return null;
+      } else {
+        throw wrapException(e, "Error listing", bucketName, objectNamePrefix);
       }
+    }
 
-      // Add prefixes (if any).
-      List<String> prefixes = items.getPrefixes();
-      if (prefixes != null) {
-        log.debug("listed %d prefixes", prefixes.size());
-        listedPrefixes.addAll(prefixes);
-      }
+    // Add prefixes (if any).
+    List<String> prefixes = items.getPrefixes();
+    if (prefixes != null) {
+      log.debug("listed %d prefixes", prefixes.size());
+      listedPrefixes.addAll(prefixes);
+    }
 
-      // Add object names (if any).
-      List<StorageObject> objects = items.getItems();
-      if (objects != null) {
-        log.debug("listed %d objects", objects.size());
-
-        // Although GCS does not implement a file system, it treats objects that end
-        // in delimiter as different from other objects when listing objects.
-        //
-        // If caller sends foo/ as the prefix, foo/ is returned as an object name.
-        // That is inconsistent with listing items in a directory.
-        // Not sure if that is a bug in GCS or the intended behavior.
-        //
-        // In this case, we do not want foo/ in the returned list because we want to
-        // keep the behavior more like a file system without calling it as such.
-        // Therefore, we filter out such entry.
-
-        // Determine if the caller sent a directory name as a prefix.
-        boolean objectPrefixEndsWithDelimiter =
-            !Strings.isNullOrEmpty(objectNamePrefix) && objectNamePrefix.endsWith(PATH_DELIMITER);
-
-        for (StorageObject object : objects) {
-          String objectName = object.getName();
-          if (!objectPrefixEndsWithDelimiter
-              || (objectPrefixEndsWithDelimiter && !objectName.equals(objectNamePrefix))) {
-            listedObjects.add(object);
-          }
+    // Add object names (if any).
+    List<StorageObject> objects = items.getItems();
+    if (objects != null) {
+      log.debug("listed %d objects", objects.size());
+
+      // Although GCS does not implement a file system, it treats objects that end
+      // in delimiter as different from other objects when listing objects.
+      //
+      // If caller sends foo/ as the prefix, foo/ is returned as an object name.
+      // That is inconsistent with listing items in a directory.
+      // Not sure if that is a bug in GCS or the intended behavior.
+      //
+      // In this case, we do not want foo/ in the returned list because we want to
+      // keep the behavior more like a file system without calling it as such.
+      // Therefore, we filter out such entry.
+
+      // Determine if the caller sent a directory name as a prefix.
+      boolean objectPrefixEndsWithDelimiter =
+          !Strings.isNullOrEmpty(objectNamePrefix) && objectNamePrefix.endsWith(PATH_DELIMITER);
+
+      for (StorageObject object : objects) {
+        String objectName = object.getName();
+        if (!objectPrefixEndsWithDelimiter
+            || (objectPrefixEndsWithDelimiter && !objectName.equals(objectNamePrefix))) {
+          listedObjects.add(object);
         }
       }
-      pageToken = items.getNextPageToken();
-    } while (pageToken != null);
+    }
+    return items.getNextPageToken();
   }
 
   /**
@@ -1042,6 +1517,84 @@ public class GoogleCloudStorageImpl
     listStorageObjectsAndPrefixes(
         bucketName, objectNamePrefix, delimiter, listedObjects, listedPrefixes);
 
+    return getItemInfosForListing(bucketName, listedObjects, listedPrefixes);
+  }
+
+  /**
+   * See {@link GoogleCloudStorage#listObjectInfoPage(String, String, String, String)} for details
+   * about expected behavior.
+   */
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken)
+      throws IOException {
+    return listObjectInfoPage(bucketName, objectNamePrefix, delimiter, pageToken,
+        storageOptions.getMaxListItemsPerCall());
+  }
+
+  /**
+   * See {@link GoogleCloudStorage#listObjectInfoPage(String, String, String, String, long)} for
+   * details about expected behavior.
+   */
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken,
+      long maxResults)
+      throws IOException {
+    log.debug("listObjectInfoPage(%s, %s, %s, %s, %d)",
+        bucketName, objectNamePrefix, delimiter, pageToken, maxResults);
+    Preconditions.checkArgument(maxResults > 0, "maxResults must be positive: %s", maxResults);
+
+    List<StorageObject> listedObjects = new ArrayList<>();
+    List<String> listedPrefixes = new ArrayList<>();
+    Storage.Objects.List listObject = createListRequest(bucketName, objectNamePrefix, delimiter);
+    listObject.setMaxResults(maxResults);
+    String nextPageToken = listStorageObjectsAndPrefixesPage(listObject, bucketName,
+        objectNamePrefix, delimiter, pageToken, listedObjects, listedPrefixes);
+    return new ListPage<>(
+        getItemInfosForListing(bucketName, listedObjects, listedPrefixes), nextPageToken,
+        listedPrefixes);
+  }
+
+  /**
+   * See {@link GoogleCloudStorage#listObjectInfoPageInRange} for details about expected behavior.
+   */
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPageInRange(
+      String bucketName, String objectNamePrefix, String startOffset, String endOffset,
+      String pageToken, long maxResults)
+      throws IOException {
+    log.debug("listObjectInfoPageInRange(%s, %s, %s, %s, %s, %d)",
+        bucketName, objectNamePrefix, startOffset, endOffset, pageToken, maxResults);
+    Preconditions.checkArgument(maxResults > 0, "maxResults must be positive: %s", maxResults);
+
+    List<StorageObject> listedObjects = new ArrayList<>();
+    List<String> listedPrefixes = new ArrayList<>();
+    Storage.Objects.List listObject = createListRequest(bucketName, objectNamePrefix, null);
+    listObject.setMaxResults(maxResults);
+    // This version of the client library predates the offset parameters, so they are set as
+    // plain query parameters.
+    if (startOffset != null) {
+      listObject.set("startOffset", startOffset);
+    }
+    if (endOffset != null) {
+      listObject.set("endOffset", endOffset);
+    }
+    String nextPageToken = listStorageObjectsAndPrefixesPage(listObject, bucketName,
+        objectNamePrefix, null, pageToken, listedObjects, listedPrefixes);
+    return new ListPage<>(
+        getItemInfosForListing(bucketName, listedObjects, listedPrefixes), nextPageToken,
+        listedPrefixes);
+  }
+
+  /**
+   * Helper for listObjectInfo and listObjectInfoPage which converts listed objects into
+   * GoogleCloudStorageItemInfos and fetches the info of the directories of listed prefixes,
+   * repairing missing ones if so configured.
+   */
+  private List<GoogleCloudStorageItemInfo> getItemInfosForListing(
+      String bucketName, List<StorageObject> listedObjects, List<String> listedPrefixes)
+      throws IOException {
     // For the listedObjects, we simply parse each item into a GoogleCloudStorageItemInfo without
     // further work.
     List<GoogleCloudStorageItemInfo> objectInfos = new ArrayList<>();
@@ -1050,7 +1603,14 @@ public class GoogleCloudStorageImpl
           new StorageResourceId(bucketName, obj.getName()), obj));
     }
 
-    if (listedPrefixes.size() > 0) {
+    if (listedPrefixes.size() > 0 && storageOptions.isInferDirectoriesFromPrefixesEnabled()) {
+      // The prefixes are enough to know that the directories exist; their placeholder objects
+      // are only fetched by callers which need more than that.
+      for (String prefix : listedPrefixes) {
+        objectInfos.add(GoogleCloudStorageItemInfo.createInferredDirectory(
+            new StorageResourceId(bucketName, prefix)));
+      }
+    } else if (listedPrefixes.size() > 0) {
       // Send requests to fetch info about the directories associated with each prefix in batch
       // requests, maxRequestsPerBatch at a time.
       List<StorageResourceId> resourceIdsForPrefixes = new ArrayList<>();
@@ -1185,8 +1745,10 @@ public class GoogleCloudStorageImpl
       throws IOException {
     log.debug("getItemInfos(%s)", resourceIds.toString());
 
-    final Map<StorageResourceId, GoogleCloudStorageItemInfo> itemInfos = new HashMap<>();
-    final List<IOException> innerExceptions = new ArrayList<>();
+    final Map<StorageResourceId, GoogleCloudStorageItemInfo> itemInfos =
+        new ConcurrentHashMap<>();
+    final List<IOException> innerExceptions =
+        Collections.synchronizedList(new ArrayList<IOException>());
     BatchHelper batchHelper = batchFactory.newBatchHelper(
         httpRequestInitializer,
         gcs,
@@ -1271,8 +1833,10 @@ public class GoogleCloudStorageImpl
       throws IOException {
     log.debug("updateItems(%s)", itemInfoList.toString());
 
-    final Map<StorageResourceId, GoogleCloudStorageItemInfo> resultItemInfos = new HashMap<>();
-    final List<IOException> innerExceptions = new ArrayList<>();
+    final Map<StorageResourceId, GoogleCloudStorageItemInfo> resultItemInfos =
+        new ConcurrentHashMap<>();
+    final List<IOException> innerExceptions =
+        Collections.synchronizedList(new ArrayList<IOException>());
     BatchHelper batchHelper = batchFactory.newBatchHelper(
         httpRequestInitializer,
         gcs,
@@ -1393,7 +1957,9 @@ public class GoogleCloudStorageImpl
     // therefore no need to guard against that by setting threadPool to null.
     log.debug("close()");
     threadPool.shutdown();
+    prefetchThreadPool.shutdown();
     manualBatchingThreadPool.shutdown();
+    batchThreadPool.shutdown();
   }
 
   /**
@@ -56,6 +56,10 @@ public class GoogleCloudStorageItemInfo {
   private final long contentGeneration;
   private final long metaGeneration;
 
+  // True if this info was synthesized from a prefix returned by a listing instead of fetched;
+  // see createInferredDirectory().
+  private final boolean inferredDirectory;
+
   /**
    * Constructs an instance of GoogleCloudStorageItemInfo.
    *
@@ -93,6 +97,20 @@ public class GoogleCloudStorageItemInfo {
       Map<String, byte[]> metadata,
       long contentGeneration,
       long metaGeneration) {
+    this(resourceId, creationTime, size, location, storageClass, metadata, contentGeneration,
+        metaGeneration, false);
+  }
+
+  private GoogleCloudStorageItemInfo(
+      StorageResourceId resourceId,
+      long creationTime,
+      long size,
+      String location,
+      String storageClass,
+      Map<String, byte[]> metadata,
+      long contentGeneration,
+      long metaGeneration,
+      boolean inferredDirectory) {
     Preconditions.checkArgument(resourceId != null,
         "resourceId must not be null! Use StorageResourceId.ROOT to represent GCS root.");
     this.resourceId = resourceId;
@@ -107,6 +125,24 @@ public class GoogleCloudStorageItemInfo {
     }
     this.contentGeneration = contentGeneration;
     this.metaGeneration = metaGeneration;
+    this.inferredDirectory = inferredDirectory;
+  }
+
+  /**
+   * Creates the info of a directory which a listing returned as a prefix, without fetching its
+   * placeholder object. The directory exists, but its creation time is unknown and reported as
+   * 0, and it has no metadata; its placeholder object may not even exist if the directory is
+   * implicit. Callers which need these details must fetch the directory with getItemInfo().
+   *
+   * @param resourceId identifies the directory placeholder object; must end with
+   *     {@link GoogleCloudStorage#PATH_DELIMITER}
+   */
+  public static GoogleCloudStorageItemInfo createInferredDirectory(StorageResourceId resourceId) {
+    Preconditions.checkArgument(resourceId.isStorageObject()
+        && resourceId.getObjectName().endsWith(GoogleCloudStorage.PATH_DELIMITER),
+        "resourceId must be a directory object, got '%s'", resourceId);
+    return new GoogleCloudStorageItemInfo(
+        resourceId, 0, 0, null, null, EMPTY_METADATA, 0, 0, true);
   }
 
   /**
@@ -209,6 +245,14 @@ public class GoogleCloudStorageItemInfo {
     return metaGeneration;
   }
 
+  /**
+   * Indicates whether this info was synthesized from a listed prefix by
+   * {@link #createInferredDirectory}, so that its creation time and metadata are unknown.
+   */
+  public boolean isInferredDirectory() {
+    return inferredDirectory;
+  }
+
   /**
    * Gets string representation of this instance.
    */
@@ -232,7 +276,8 @@ public class GoogleCloudStorageItemInfo {
           && Objects.equals(location, other.location) 
           && Objects.equals(storageClass, other.storageClass)
           && metaGeneration == other.metaGeneration
-          && contentGeneration == other.contentGeneration;
+          && contentGeneration == other.contentGeneration
+          && inferredDirectory == other.inferredDirectory;
     }
     return false;
   }
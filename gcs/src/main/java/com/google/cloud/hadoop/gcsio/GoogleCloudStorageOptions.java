@@ -38,6 +38,16 @@ public class GoogleCloudStorageOptions {
    */
   public static final long MAX_REQUESTS_PER_BATCH_DEFAULT = 1000;
 
+  /**
+   * Default setting for maximum number of GCS batches of a single operation sent concurrently.
+   */
+  public static final int MAX_CONCURRENT_BATCHES_DEFAULT = 4;
+
+  /**
+   * Default setting for inferring the infos of listed directories from their prefixes.
+   */
+  public static final boolean INFER_DIRECTORIES_FROM_PREFIXES_DEFAULT = false;
+
   /**
    * Mutable builder for the GoogleCloudStorageOptions class.
    */
@@ -53,9 +63,19 @@ public class GoogleCloudStorageOptions {
     // manually, except possibly for testing purposes.
     private long maxRequestsPerBatch = MAX_REQUESTS_PER_BATCH_DEFAULT;
 
+    private int maxConcurrentBatches = MAX_CONCURRENT_BATCHES_DEFAULT;
+
+    private boolean inferDirectoriesFromPrefixesEnabled = INFER_DIRECTORIES_FROM_PREFIXES_DEFAULT;
+
     private AsyncWriteChannelOptions.Builder writeChannelOptionsBuilder =
         new AsyncWriteChannelOptions.Builder();
 
+    private GoogleCloudStorageReadOptions.Builder readChannelOptionsBuilder =
+        new GoogleCloudStorageReadOptions.Builder();
+
+    private CompositeUploadOptions.Builder compositeUploadOptionsBuilder =
+        new CompositeUploadOptions.Builder();
+
     public Builder setAutoRepairImplicitDirectoriesEnabled(
         boolean autoRepairImplicitDirectoriesEnabled) {
       this.autoRepairImplicitDirectoriesEnabled = autoRepairImplicitDirectoriesEnabled;
@@ -82,6 +102,17 @@ public class GoogleCloudStorageOptions {
       return this;
     }
 
+    public Builder setMaxConcurrentBatches(int maxConcurrentBatches) {
+      this.maxConcurrentBatches = maxConcurrentBatches;
+      return this;
+    }
+
+    public Builder setInferDirectoriesFromPrefixesEnabled(
+        boolean inferDirectoriesFromPrefixesEnabled) {
+      this.inferDirectoriesFromPrefixesEnabled = inferDirectoriesFromPrefixesEnabled;
+      return this;
+    }
+
     public Builder setWriteChannelOptionsBuilder(
         AsyncWriteChannelOptions.Builder builder) {
       writeChannelOptionsBuilder = builder;
@@ -92,6 +123,26 @@ public class GoogleCloudStorageOptions {
       return writeChannelOptionsBuilder;
     }
 
+    public Builder setReadChannelOptionsBuilder(
+        GoogleCloudStorageReadOptions.Builder builder) {
+      readChannelOptionsBuilder = builder;
+      return this;
+    }
+
+    public GoogleCloudStorageReadOptions.Builder getReadChannelOptionsBuilder() {
+      return readChannelOptionsBuilder;
+    }
+
+    public Builder setCompositeUploadOptionsBuilder(
+        CompositeUploadOptions.Builder builder) {
+      compositeUploadOptionsBuilder = builder;
+      return this;
+    }
+
+    public CompositeUploadOptions.Builder getCompositeUploadOptionsBuilder() {
+      return compositeUploadOptionsBuilder;
+    }
+
     public GoogleCloudStorageOptions build() {
       return new GoogleCloudStorageOptions(
           autoRepairImplicitDirectoriesEnabled,
@@ -99,7 +150,11 @@ public class GoogleCloudStorageOptions {
           appName,
           maxListItemsPerCall,
           maxRequestsPerBatch,
-          writeChannelOptionsBuilder.build());
+          writeChannelOptionsBuilder.build(),
+          readChannelOptionsBuilder.build(),
+          compositeUploadOptionsBuilder.build(),
+          maxConcurrentBatches,
+          inferDirectoriesFromPrefixesEnabled);
     }
   }
 
@@ -111,18 +166,39 @@ public class GoogleCloudStorageOptions {
   private final String projectId;
   private final String appName;
   private final AsyncWriteChannelOptions writeChannelOptions;
+  private final GoogleCloudStorageReadOptions readChannelOptions;
+  private final CompositeUploadOptions compositeUploadOptions;
   private final long maxListItemsPerCall;
   private final long maxRequestsPerBatch;
+  private final int maxConcurrentBatches;
+  private final boolean inferDirectoriesFromPrefixesEnabled;
 
   public GoogleCloudStorageOptions(boolean autoRepairImplicitDirectoriesEnabled,
       String projectId, String appName, long maxListItemsPerCall, long maxRequestsPerBatch,
       AsyncWriteChannelOptions writeChannelOptions) {
+    this(autoRepairImplicitDirectoriesEnabled, projectId, appName, maxListItemsPerCall,
+        maxRequestsPerBatch, writeChannelOptions, GoogleCloudStorageReadOptions.DEFAULT,
+        CompositeUploadOptions.DEFAULT, MAX_CONCURRENT_BATCHES_DEFAULT,
+        INFER_DIRECTORIES_FROM_PREFIXES_DEFAULT);
+  }
+
+  private GoogleCloudStorageOptions(boolean autoRepairImplicitDirectoriesEnabled,
+      String projectId, String appName, long maxListItemsPerCall, long maxRequestsPerBatch,
+      AsyncWriteChannelOptions writeChannelOptions,
+      GoogleCloudStorageReadOptions readChannelOptions,
+      CompositeUploadOptions compositeUploadOptions,
+      int maxConcurrentBatches,
+      boolean inferDirectoriesFromPrefixesEnabled) {
     this.autoRepairImplicitDirectoriesEnabled = autoRepairImplicitDirectoriesEnabled;
     this.projectId = projectId;
     this.appName = appName;
     this.writeChannelOptions = writeChannelOptions;
+    this.readChannelOptions = readChannelOptions;
+    this.compositeUploadOptions = compositeUploadOptions;
     this.maxListItemsPerCall = maxListItemsPerCall;
     this.maxRequestsPerBatch = maxRequestsPerBatch;
+    this.maxConcurrentBatches = maxConcurrentBatches;
+    this.inferDirectoriesFromPrefixesEnabled = inferDirectoriesFromPrefixesEnabled;
   }
 
   public boolean isAutoRepairImplicitDirectoriesEnabled() {
@@ -145,14 +221,41 @@ public class GoogleCloudStorageOptions {
     return writeChannelOptions;
   }
 
+  public GoogleCloudStorageReadOptions getReadChannelOptions() {
+    return readChannelOptions;
+  }
+
+  public CompositeUploadOptions getCompositeUploadOptions() {
+    return compositeUploadOptions;
+  }
+
   public long getMaxRequestsPerBatch() {
     return maxRequestsPerBatch;
   }
 
+  /**
+   * Returns the maximum number of batches of a single bulk operation, such as deleteObjects() or
+   * getItemInfos(), which are sent concurrently.
+   */
+  public int getMaxConcurrentBatches() {
+    return maxConcurrentBatches;
+  }
+
+  /**
+   * Returns whether listings with a delimiter return the directories they find as infos
+   * synthesized from the listed prefixes, instead of fetching (and possibly repairing) the
+   * directory placeholder objects; see {@link GoogleCloudStorageItemInfo#createInferredDirectory}.
+   */
+  public boolean isInferDirectoriesFromPrefixesEnabled() {
+    return inferDirectoriesFromPrefixesEnabled;
+  }
+
   public void throwIfNotValid() {
     Preconditions.checkArgument(!Strings.isNullOrEmpty(projectId),
         "projectId must not be null or empty");
     Preconditions.checkArgument(!Strings.isNullOrEmpty(appName),
         "appName must not be null or empty");
+    Preconditions.checkArgument(maxConcurrentBatches > 0,
+        "maxConcurrentBatches must be positive: %s", maxConcurrentBatches);
   }
 }
@@ -24,6 +24,7 @@ import com.google.api.client.util.NanoClock;
 import com.google.api.client.util.Sleeper;
 import com.google.api.services.storage.Storage;
 import com.google.api.services.storage.model.StorageObject;
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageReadOptions.Fadvise;
 import com.google.cloud.hadoop.util.ApiErrorExtractor;
 import com.google.cloud.hadoop.util.ClientRequestHelper;
 import com.google.cloud.hadoop.util.LogUtil;
@@ -43,7 +44,7 @@ import java.util.regex.Pattern;
  * Provides seekable read access to GCS.
  */
 public class GoogleCloudStorageReadChannel
-    implements SeekableReadableByteChannel {
+    implements SeekableReadableByteChannel, ItemInfoProvider {
   // Logger.
   private static LogUtil log = new LogUtil(GoogleCloudStorageReadChannel.class);
 
@@ -79,6 +80,50 @@ public class GoogleCloudStorageReadChannel
   // Size of the object being read.
   private long size = -1;
 
+  // Metadata of the object fetched when this channel was opened, or null.
+  private GoogleCloudStorageItemInfo itemInfo;
+
+  // Options controlling whether open-ended or bounded range requests are issued.
+  private final GoogleCloudStorageReadOptions readOptions;
+
+  // True if the channel currently issues bounded range requests ("bytes=N-M") sized to the read
+  // plus a readahead, false if it issues open-ended "bytes=N-" requests. Fixed for SEQUENTIAL and
+  // RANDOM; toggled based on the observed access pattern for AUTO.
+  private boolean randomAccess;
+
+  // Exclusive end offset of the range covered by the currently open readChannel, or -1 if the
+  // underlying stream was opened with an open-ended range.
+  private long contentChannelEnd = -1;
+
+  // Offset within the object of the next byte readChannel will return, or -1 if readChannel is
+  // not usable for an in-place forward seek. Differs from currentPosition only while a lazy seek
+  // is pending.
+  private long contentChannelPosition = -1;
+
+  // Scratch buffer into which bytes are drained when seeking forward in place; allocated lazily.
+  private ByteBuffer skipBuffer;
+
+  // Size of skipBuffer.
+  private static final int SKIP_BUFFER_SIZE = 8 * 1024;
+
+  // Number of lazy seeks served by draining the open stream, and the time spent doing so.
+  private long inplaceSeekCount;
+  private long inplaceSeekTimeNanos;
+
+  // Number of lazy seeks which closed an open stream and issued a new request, and the time
+  // spent doing so.
+  private long reopenCount;
+  private long reopenTimeNanos;
+
+  // Number of bounded ranges consumed back-to-back without an intervening seek. In AUTO mode,
+  // once this reaches SEQUENTIAL_RANGE_READS_BEFORE_SWITCH we go back to open-ended requests.
+  private int sequentialRangeReads;
+
+  // Number of bounded ranges which must be read back-to-back in AUTO mode before the channel
+  // decides that the access pattern is sequential again.
+  @VisibleForTesting
+  static final int SEQUENTIAL_RANGE_READS_BEFORE_SWITCH = 2;
+
   // Maximum number of automatic retries when reading from the underlying channel without making
   // progress; each time at least one byte is successfully read, the counter of attempted retries
   // is reset.
@@ -144,11 +189,37 @@ public class GoogleCloudStorageReadChannel
       ApiErrorExtractor errorExtractor,
       ClientRequestHelper<StorageObject> requestHelper)
       throws IOException {
+    this(gcs, bucketName, objectName, errorExtractor, requestHelper,
+        GoogleCloudStorageReadOptions.DEFAULT);
+  }
+
+  /**
+   * Constructs an instance of GoogleCloudStorageReadChannel.
+   *
+   * @param gcs storage object instance
+   * @param bucketName name of the bucket containing the object to read
+   * @param objectName name of the object to read
+   * @param requestHelper a ClientRequestHelper used to set any extra headers
+   * @param readOptions options controlling the range requests issued by this channel
+   * @throws FileNotFoundException if the given object does not exist
+   * @throws IOException on IO error
+   */
+  GoogleCloudStorageReadChannel(
+      Storage gcs,
+      String bucketName,
+      String objectName,
+      ApiErrorExtractor errorExtractor,
+      ClientRequestHelper<StorageObject> requestHelper,
+      GoogleCloudStorageReadOptions readOptions)
+      throws IOException {
+    Preconditions.checkArgument(readOptions != null, "readOptions must not be null");
     this.gcs = gcs;
     this.clientRequestHelper = requestHelper;
     this.bucketName = bucketName;
     this.objectName = objectName;
     this.errorExtractor = errorExtractor;
+    this.readOptions = readOptions;
+    this.randomAccess = readOptions.getFadvise() == Fadvise.RANDOM;
     channelIsOpen = true;
     position(0);
   }
@@ -162,8 +233,22 @@ public class GoogleCloudStorageReadChannel
   @VisibleForTesting
   GoogleCloudStorageReadChannel()
       throws IOException {
+    this(GoogleCloudStorageReadOptions.DEFAULT);
+  }
+
+  /**
+   * Constructs an instance of GoogleCloudStorageReadChannel with the given read options.
+   * Used for unit testing only. Do not use elsewhere.
+   *
+   * @throws IOException on IO error
+   */
+  @VisibleForTesting
+  GoogleCloudStorageReadChannel(GoogleCloudStorageReadOptions readOptions)
+      throws IOException {
     this.clientRequestHelper = null;
     this.errorExtractor = null;
+    this.readOptions = readOptions;
+    this.randomAccess = readOptions.getFadvise() == Fadvise.RANDOM;
     channelIsOpen = true;
     position(0);
   }
@@ -205,6 +290,42 @@ public class GoogleCloudStorageReadChannel
     return backOff;
   }
 
+  /**
+   * Returns the number of seeks served by draining bytes from the open stream.
+   */
+  public long getInplaceSeekCount() {
+    return inplaceSeekCount;
+  }
+
+  /**
+   * Returns the total time in nanoseconds spent on seeks served in place.
+   */
+  public long getInplaceSeekTimeNanos() {
+    return inplaceSeekTimeNanos;
+  }
+
+  /**
+   * Returns the number of seeks which closed the open stream and issued a new request.
+   */
+  public long getReopenCount() {
+    return reopenCount;
+  }
+
+  /**
+   * Returns the total time in nanoseconds spent on seeks which reopened the stream.
+   */
+  public long getReopenTimeNanos() {
+    return reopenTimeNanos;
+  }
+
+  /**
+   * Returns true if the channel is currently issuing bounded range requests.
+   */
+  @VisibleForTesting
+  boolean isRandomAccess() {
+    return randomAccess;
+  }
+
   /**
    * Helper for initializing the BackOff used for retries.
    */
@@ -247,7 +368,7 @@ public class GoogleCloudStorageReadChannel
     }
 
     // Perform a lazy seek if not done already.
-    performLazySeek();
+    performLazySeek(buffer.remaining());
 
     int totalBytesRead = 0;
     int retriesAttempted = 0;
@@ -261,10 +382,14 @@ public class GoogleCloudStorageReadChannel
         int numBytesRead = readChannel.read(buffer);
         Preconditions.checkState(numBytesRead != 0, "Read 0 bytes without blocking!");
         if (numBytesRead < 0) {
-          break;
+          if (!openNextRangeIfNeeded(buffer.remaining())) {
+            break;
+          }
+          continue;
         }
         totalBytesRead += numBytesRead;
         currentPosition += numBytesRead;
+        contentChannelPosition += numBytesRead;
 
         // The count of retriesAttempted is per low-level readChannel.read call; each time we make
         // progress we reset the retry counter.
@@ -322,8 +447,9 @@ public class GoogleCloudStorageReadChannel
           // Force the stream to be reopened by seeking to the current position.
           long newPosition = currentPosition;
           currentPosition = -1;
+          contentChannelPosition = -1;
           position(newPosition);
-          performLazySeek();
+          performLazySeek(buffer.remaining());
         }
       }
     } while (buffer.remaining() > 0);
@@ -390,6 +516,7 @@ public class GoogleCloudStorageReadChannel
     }
 
     validatePosition(newPosition);
+    detectAccessPattern(newPosition);
     currentPosition = newPosition;
     lazySeekPending = true;
     return this;
@@ -406,7 +533,10 @@ public class GoogleCloudStorageReadChannel
       throws IOException {
     throwIfNotOpen();
     // Perform a lazy seek if not done already so that size of this channel is set correctly.
-    performLazySeek();
+    // There is no need to open a stream if the size is already known.
+    if (size < 0) {
+      performLazySeek(0);
+    }
     return size;
   }
 
@@ -417,6 +547,18 @@ public class GoogleCloudStorageReadChannel
     this.size = size;
   }
 
+  /**
+   * Sets the metadata of the object fetched when this channel was opened.
+   */
+  protected void setItemInfo(GoogleCloudStorageItemInfo itemInfo) {
+    this.itemInfo = itemInfo;
+  }
+
+  @Override
+  public GoogleCloudStorageItemInfo getItemInfo() {
+    return itemInfo;
+  }
+
   /**
    * Validates that the given position is valid for this channel.
    */
@@ -441,15 +583,117 @@ public class GoogleCloudStorageReadChannel
     }
   }
 
+  /**
+   * Updates the access pattern of an AUTO channel given a pending move from currentPosition to
+   * {@code newPosition}. A backward seek, or a forward seek past the readahead, switches the
+   * channel to bounded range requests; any seek resets the count of back-to-back range reads.
+   */
+  private void detectAccessPattern(long newPosition) {
+    if (readOptions.getFadvise() != Fadvise.AUTO) {
+      return;
+    }
+    sequentialRangeReads = 0;
+
+    // Nothing has been read yet (or we are in the middle of re-opening after an error).
+    if (randomAccess || readChannel == null || currentPosition < 0) {
+      return;
+    }
+
+    // Forward seeks short enough to be served in place don't indicate random access.
+    long seekDistance = newPosition - currentPosition;
+    long maxSequentialSeek =
+        Math.max(readOptions.getMinRangeRequestSize(), readOptions.getInplaceSeekLimit());
+    if (seekDistance < 0 || seekDistance > maxSequentialSeek) {
+      log.debug("Detected seek of %d bytes in '%s'; switching to bounded range requests.",
+          seekDistance, StorageResourceId.createReadableString(bucketName, objectName));
+      randomAccess = true;
+    }
+  }
+
+  /**
+   * Called when the underlying stream reports end-of-stream. If the stream only covered a bounded
+   * range which ends before the end of the object, opens the next range at currentPosition.
+   *
+   * @param bytesToRead number of bytes the caller still wants to read.
+   * @return true if a new range was opened, false if the end of the object has been reached.
+   * @throws IOException on IO error
+   */
+  private boolean openNextRangeIfNeeded(long bytesToRead)
+      throws IOException {
+    if (contentChannelEnd < 0 || size < 0 || currentPosition >= size) {
+      return false;
+    }
+
+    if (readOptions.getFadvise() == Fadvise.AUTO
+        && ++sequentialRangeReads >= SEQUENTIAL_RANGE_READS_BEFORE_SWITCH) {
+      log.debug("Read %d ranges back-to-back from '%s'; switching to open-ended requests.",
+          sequentialRangeReads, StorageResourceId.createReadableString(bucketName, objectName));
+      randomAccess = false;
+      sequentialRangeReads = 0;
+    }
+
+    lazySeekPending = true;
+    contentChannelPosition = -1;
+    performLazySeek(bytesToRead);
+    return true;
+  }
+
+  /**
+   * Returns true if the pending seek can be served by draining bytes from the open stream rather
+   * than by opening a new one: the seek must be forward, no further than the in-place seek limit,
+   * and within the range covered by the open stream.
+   */
+  private boolean canSeekInPlace() {
+    if (readChannel == null || contentChannelPosition < 0) {
+      return false;
+    }
+    long seekDistance = currentPosition - contentChannelPosition;
+    return seekDistance >= 0
+        && seekDistance <= readOptions.getInplaceSeekLimit()
+        && (contentChannelEnd < 0 || currentPosition < contentChannelEnd);
+  }
+
+  /**
+   * Reads and discards bytes from the open stream until it is positioned at currentPosition.
+   *
+   * @return true if the stream is now at currentPosition, false if the stream ended or failed
+   *     first and must be reopened.
+   */
+  private boolean seekInPlace() {
+    if (skipBuffer == null) {
+      skipBuffer = ByteBuffer.allocate(SKIP_BUFFER_SIZE);
+    }
+    try {
+      while (contentChannelPosition < currentPosition) {
+        skipBuffer.clear();
+        skipBuffer.limit(
+            (int) Math.min(skipBuffer.capacity(), currentPosition - contentChannelPosition));
+        int numBytesSkipped = readChannel.read(skipBuffer);
+        if (numBytesSkipped < 0) {
+          return false;
+        }
+        contentChannelPosition += numBytesSkipped;
+      }
+    } catch (IOException e) {
+      log.debug("Failed to seek in place in '%s', will reopen: %s",
+          StorageResourceId.createReadableString(bucketName, objectName), e.getMessage());
+      return false;
+    }
+    return true;
+  }
+
   /**
    * Seeks to the given position in the underlying stream.
    *
-   * Note: Seek is an expensive operation because a new stream is opened each time.
+   * Note: Seek is an expensive operation when a new stream has to be opened; short forward seeks
+   * within the open stream are served by draining the bytes in between instead.
    *
+   * @param bytesToRead number of bytes the caller is about to read; used to size bounded range
+   *     requests, ignored for open-ended requests.
    * @throws FileNotFoundException if the underlying object does not exist.
    * @throws IOException on IO error
    */
-  private void performLazySeek()
+  private void performLazySeek(long bytesToRead)
       throws IOException {
 
     // Return quickly if there is no pending seek operation.
@@ -457,14 +701,45 @@ public class GoogleCloudStorageReadChannel
       return;
     }
 
+    long startTime = System.nanoTime();
+    if (canSeekInPlace()) {
+      long seekDistance = currentPosition - contentChannelPosition;
+      if (seekInPlace()) {
+        log.debug("Skipped %d bytes in place in '%s'", seekDistance,
+            StorageResourceId.createReadableString(bucketName, objectName));
+        inplaceSeekCount++;
+        inplaceSeekTimeNanos += System.nanoTime() - startTime;
+        lazySeekPending = false;
+        return;
+      }
+    }
+
     // Close the underlying channel if it is open.
+    boolean reopen = readChannel != null;
     if (readChannel != null) {
       readChannel.close();
+      contentChannelPosition = -1;
+    }
+
+    // Positioned at (or past) the known end of the object there is nothing to bound; keep the
+    // historical open-ended request so the server reports the usual end-of-object condition.
+    long rangeEnd = -1;
+    if (randomAccess && (size < 0 || currentPosition < size)) {
+      rangeEnd = currentPosition + Math.max(bytesToRead, readOptions.getMinRangeRequestSize());
+      if (size >= 0) {
+        rangeEnd = Math.min(rangeEnd, size);
+      }
     }
 
-    InputStream objectContentStream = openStreamAndSetSize(currentPosition);
+    InputStream objectContentStream = openStreamAndSetSize(currentPosition, rangeEnd);
     readChannel = Channels.newChannel(objectContentStream);
+    contentChannelEnd = rangeEnd;
+    contentChannelPosition = currentPosition;
     lazySeekPending = false;
+    if (reopen) {
+      reopenCount++;
+      reopenTimeNanos += System.nanoTime() - startTime;
+    }
   }
 
   /**
@@ -472,16 +747,20 @@ public class GoogleCloudStorageReadChannel
    * stream content size.
    *
    * @param newPosition position to seek into the new stream.
+   * @param rangeEnd exclusive end of the range to request, or -1 to request everything up to the
+   *     end of the object.
    * @throws IOException on IO error
    */
-  protected InputStream openStreamAndSetSize(long newPosition)
+  protected InputStream openStreamAndSetSize(long newPosition, long rangeEnd)
       throws IOException {
     validatePosition(newPosition);
     Storage.Objects.Get getObject = gcs.objects().get(bucketName, objectName);
     // Set the range on the existing request headers which may have been initialized with things
     // like user-agent already.
-    clientRequestHelper.getRequestHeaders(getObject)
-        .setRange(String.format("bytes=%d-", newPosition));
+    String range = rangeEnd < 0
+        ? String.format("bytes=%d-", newPosition)
+        : String.format("bytes=%d-%d", newPosition, rangeEnd - 1);
+    clientRequestHelper.getRequestHeaders(getObject).setRange(range);
     HttpResponse response;
     try {
       response = getObject.executeMedia();
@@ -504,22 +783,41 @@ public class GoogleCloudStorageReadChannel
       }
     }
     String contentRange = response.getHeaders().getContentRange();
-    if (response.getHeaders().getContentLength() != null) {
-      size = response.getHeaders().getContentLength() + newPosition;
-    } else if (contentRange != null) {
-      String sizeStr = SLASH.split(contentRange)[1];
-      try {
-        size = Long.parseLong(sizeStr);
-      } catch (NumberFormatException e) {
-        throw new IOException(
-            "Could not determine size from response from Content-Range: " + contentRange, e);
+    Long contentLength = response.getHeaders().getContentLength();
+    if (rangeEnd >= 0) {
+      // For bounded ranges Content-Length only covers the requested range, so we can only derive
+      // the object size from it if the range was cut short by the end of the object.
+      if (contentRange != null) {
+        size = parseSizeFromContentRange(contentRange);
+      } else if (contentLength != null && contentLength < rangeEnd - newPosition) {
+        size = contentLength + newPosition;
+      } else if (size < 0) {
+        throw new IOException("Could not determine size of response");
       }
+    } else if (contentLength != null) {
+      size = contentLength + newPosition;
+    } else if (contentRange != null) {
+      size = parseSizeFromContentRange(contentRange);
     } else {
       throw new IOException("Could not determine size of response");
     }
     return response.getContent();
   }
 
+  /**
+   * Extracts the total object size from a Content-Range header of the form "bytes N-M/SIZE".
+   */
+  private static long parseSizeFromContentRange(String contentRange)
+      throws IOException {
+    String[] parts = SLASH.split(contentRange);
+    try {
+      return Long.parseLong(parts[parts.length - 1]);
+    } catch (NumberFormatException e) {
+      throw new IOException(
+          "Could not determine size from response from Content-Range: " + contentRange, e);
+    }
+  }
+
   /**
    * Throws if this channel is not currently open.
    */
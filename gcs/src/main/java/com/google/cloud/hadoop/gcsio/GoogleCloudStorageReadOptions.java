@@ -0,0 +1,275 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Options for the GoogleCloudStorageReadChannel.
+ */
+public class GoogleCloudStorageReadOptions {
+
+  /**
+   * Hint describing the expected access pattern of a read channel; determines whether the
+   * channel requests open-ended ranges ("bytes=N-") or bounded ranges from GCS.
+   */
+  public static enum Fadvise {
+    /**
+     * Always request everything from the current position to the end of the object. Best for
+     * whole-file scans.
+     */
+    SEQUENTIAL,
+
+    /**
+     * Always request bounded ranges covering the read plus a readahead of
+     * {@link #getMinRangeRequestSize()} bytes. Best for columnar formats which mostly seek to
+     * and read small footers and stripes.
+     */
+    RANDOM,
+
+    /**
+     * Start out SEQUENTIAL, switch to RANDOM as soon as a backward seek or a forward seek larger
+     * than the readahead is detected, and switch back to SEQUENTIAL if bounded ranges end up
+     * being consumed back-to-back without seeks.
+     */
+    AUTO,
+  }
+
+  /**
+   * Default access pattern hint; matches the historical behavior of the read channel.
+   */
+  public static final Fadvise FADVISE_DEFAULT = Fadvise.SEQUENTIAL;
+
+  /**
+   * Default minimum size of a bounded range request, i.e. the readahead used in RANDOM mode.
+   */
+  public static final long MIN_RANGE_REQUEST_SIZE_DEFAULT = 1 * 1024 * 1024;
+
+  /**
+   * Default maximum distance of a forward seek which is served by reading and discarding bytes
+   * from the open stream instead of issuing a new request.
+   */
+  public static final long INPLACE_SEEK_LIMIT_DEFAULT = 8 * 1024 * 1024;
+
+  /**
+   * Default number of chunks fetched concurrently ahead of the reader; 0 disables prefetching.
+   */
+  public static final int PREFETCH_PARALLELISM_DEFAULT = 0;
+
+  /**
+   * Default size of each chunk fetched by the prefetcher.
+   */
+  public static final int PREFETCH_CHUNK_SIZE_DEFAULT = 8 * 1024 * 1024;
+
+  /**
+   * Default upper bound on the memory a single channel may use for prefetched chunks.
+   */
+  public static final long PREFETCH_MAX_MEMORY_DEFAULT = 64 * 1024 * 1024;
+
+  /**
+   * Default maximum distance between two ranges of a vectored read which are fetched with a
+   * single request.
+   */
+  public static final long VECTORED_READ_MERGE_GAP_DEFAULT = 256 * 1024;
+
+  /**
+   * Default upper bound on the size of a single request covering several ranges of a vectored
+   * read.
+   */
+  public static final int VECTORED_READ_MAX_MERGED_SIZE_DEFAULT = 8 * 1024 * 1024;
+
+  /**
+   * Default maximum number of concurrent requests issued by a single vectored read.
+   */
+  public static final int VECTORED_READ_PARALLELISM_DEFAULT = 8;
+
+  /**
+   * Default read options.
+   */
+  public static final GoogleCloudStorageReadOptions DEFAULT = newBuilder().build();
+
+  /**
+   * Mutable builder for the GoogleCloudStorageReadOptions class.
+   */
+  public static class Builder {
+    private Fadvise fadvise = FADVISE_DEFAULT;
+    private long minRangeRequestSize = MIN_RANGE_REQUEST_SIZE_DEFAULT;
+    private long inplaceSeekLimit = INPLACE_SEEK_LIMIT_DEFAULT;
+    private int prefetchParallelism = PREFETCH_PARALLELISM_DEFAULT;
+    private int prefetchChunkSize = PREFETCH_CHUNK_SIZE_DEFAULT;
+    private long prefetchMaxMemory = PREFETCH_MAX_MEMORY_DEFAULT;
+    private long vectoredReadMergeGap = VECTORED_READ_MERGE_GAP_DEFAULT;
+    private int vectoredReadMaxMergedSize = VECTORED_READ_MAX_MERGED_SIZE_DEFAULT;
+    private int vectoredReadParallelism = VECTORED_READ_PARALLELISM_DEFAULT;
+
+    public Builder setFadvise(Fadvise fadvise) {
+      this.fadvise = fadvise;
+      return this;
+    }
+
+    public Builder setMinRangeRequestSize(long minRangeRequestSize) {
+      this.minRangeRequestSize = minRangeRequestSize;
+      return this;
+    }
+
+    public Builder setInplaceSeekLimit(long inplaceSeekLimit) {
+      this.inplaceSeekLimit = inplaceSeekLimit;
+      return this;
+    }
+
+    public Builder setPrefetchParallelism(int prefetchParallelism) {
+      this.prefetchParallelism = prefetchParallelism;
+      return this;
+    }
+
+    public Builder setPrefetchChunkSize(int prefetchChunkSize) {
+      this.prefetchChunkSize = prefetchChunkSize;
+      return this;
+    }
+
+    public Builder setPrefetchMaxMemory(long prefetchMaxMemory) {
+      this.prefetchMaxMemory = prefetchMaxMemory;
+      return this;
+    }
+
+    public Builder setVectoredReadMergeGap(long vectoredReadMergeGap) {
+      this.vectoredReadMergeGap = vectoredReadMergeGap;
+      return this;
+    }
+
+    public Builder setVectoredReadMaxMergedSize(int vectoredReadMaxMergedSize) {
+      this.vectoredReadMaxMergedSize = vectoredReadMaxMergedSize;
+      return this;
+    }
+
+    public Builder setVectoredReadParallelism(int vectoredReadParallelism) {
+      this.vectoredReadParallelism = vectoredReadParallelism;
+      return this;
+    }
+
+    public GoogleCloudStorageReadOptions build() {
+      return new GoogleCloudStorageReadOptions(fadvise, minRangeRequestSize, inplaceSeekLimit,
+          prefetchParallelism, prefetchChunkSize, prefetchMaxMemory, vectoredReadMergeGap,
+          vectoredReadMaxMergedSize, vectoredReadParallelism);
+    }
+  }
+
+  /**
+   * Create a new builder with default values.
+   */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  private final Fadvise fadvise;
+  private final long minRangeRequestSize;
+  private final long inplaceSeekLimit;
+  private final int prefetchParallelism;
+  private final int prefetchChunkSize;
+  private final long prefetchMaxMemory;
+  private final long vectoredReadMergeGap;
+  private final int vectoredReadMaxMergedSize;
+  private final int vectoredReadParallelism;
+
+  public GoogleCloudStorageReadOptions(Fadvise fadvise, long minRangeRequestSize) {
+    this(fadvise, minRangeRequestSize, INPLACE_SEEK_LIMIT_DEFAULT, PREFETCH_PARALLELISM_DEFAULT,
+        PREFETCH_CHUNK_SIZE_DEFAULT, PREFETCH_MAX_MEMORY_DEFAULT, VECTORED_READ_MERGE_GAP_DEFAULT,
+        VECTORED_READ_MAX_MERGED_SIZE_DEFAULT, VECTORED_READ_PARALLELISM_DEFAULT);
+  }
+
+  private GoogleCloudStorageReadOptions(Fadvise fadvise, long minRangeRequestSize,
+      long inplaceSeekLimit, int prefetchParallelism, int prefetchChunkSize,
+      long prefetchMaxMemory, long vectoredReadMergeGap, int vectoredReadMaxMergedSize,
+      int vectoredReadParallelism) {
+    Preconditions.checkArgument(fadvise != null, "fadvise must not be null");
+    Preconditions.checkArgument(minRangeRequestSize > 0,
+        "minRangeRequestSize must be a positive integer: %s", minRangeRequestSize);
+    Preconditions.checkArgument(inplaceSeekLimit >= 0,
+        "inplaceSeekLimit must not be negative: %s", inplaceSeekLimit);
+    Preconditions.checkArgument(prefetchParallelism >= 0,
+        "prefetchParallelism must not be negative: %s", prefetchParallelism);
+    Preconditions.checkArgument(prefetchChunkSize > 0,
+        "prefetchChunkSize must be a positive integer: %s", prefetchChunkSize);
+    Preconditions.checkArgument(prefetchMaxMemory >= prefetchChunkSize,
+        "prefetchMaxMemory (%s) must be at least prefetchChunkSize (%s)",
+        prefetchMaxMemory, prefetchChunkSize);
+    Preconditions.checkArgument(vectoredReadMergeGap >= 0,
+        "vectoredReadMergeGap must not be negative: %s", vectoredReadMergeGap);
+    Preconditions.checkArgument(vectoredReadMaxMergedSize > 0,
+        "vectoredReadMaxMergedSize must be a positive integer: %s", vectoredReadMaxMergedSize);
+    Preconditions.checkArgument(vectoredReadParallelism > 0,
+        "vectoredReadParallelism must be a positive integer: %s", vectoredReadParallelism);
+    this.fadvise = fadvise;
+    this.minRangeRequestSize = minRangeRequestSize;
+    this.inplaceSeekLimit = inplaceSeekLimit;
+    this.prefetchParallelism = prefetchParallelism;
+    this.prefetchChunkSize = prefetchChunkSize;
+    this.prefetchMaxMemory = prefetchMaxMemory;
+    this.vectoredReadMergeGap = vectoredReadMergeGap;
+    this.vectoredReadMaxMergedSize = vectoredReadMaxMergedSize;
+    this.vectoredReadParallelism = vectoredReadParallelism;
+  }
+
+  public Fadvise getFadvise() {
+    return fadvise;
+  }
+
+  public long getMinRangeRequestSize() {
+    return minRangeRequestSize;
+  }
+
+  public long getInplaceSeekLimit() {
+    return inplaceSeekLimit;
+  }
+
+  /**
+   * Returns true if reads should be served by a {@link PrefetchingReadChannel}.
+   */
+  public boolean isPrefetchEnabled() {
+    return prefetchParallelism > 0;
+  }
+
+  public int getPrefetchParallelism() {
+    return prefetchParallelism;
+  }
+
+  public int getPrefetchChunkSize() {
+    return prefetchChunkSize;
+  }
+
+  public long getPrefetchMaxMemory() {
+    return prefetchMaxMemory;
+  }
+
+  /**
+   * Returns the maximum number of chunks which may be in flight or buffered at the same time,
+   * bounded both by the configured parallelism and by the memory cap.
+   */
+  public int getMaxPrefetchedChunks() {
+    return (int) Math.max(1, Math.min(prefetchParallelism, prefetchMaxMemory / prefetchChunkSize));
+  }
+
+  public long getVectoredReadMergeGap() {
+    return vectoredReadMergeGap;
+  }
+
+  public int getVectoredReadMaxMergedSize() {
+    return vectoredReadMaxMergedSize;
+  }
+
+  public int getVectoredReadParallelism() {
+    return vectoredReadParallelism;
+  }
+}
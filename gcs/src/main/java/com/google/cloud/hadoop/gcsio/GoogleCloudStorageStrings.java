@@ -70,4 +70,18 @@ public class GoogleCloudStorageStrings {
     }
     return objectName;
   }
+
+  /**
+   * Returns the least name which is greater than every name starting with {@code prefix}, or
+   * null if there is none; lets a sorted listing skip past all names sharing a prefix.
+   */
+  public static String getFirstNameAfterPrefix(String prefix) {
+    for (int i = prefix.length() - 1; i >= 0; --i) {
+      char c = prefix.charAt(i);
+      if (c != Character.MAX_VALUE) {
+        return prefix.substring(0, i) + (char) (c + 1);
+      }
+    }
+    return null;
+  }
 }
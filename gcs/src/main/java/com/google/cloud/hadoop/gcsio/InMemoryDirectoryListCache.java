@@ -17,12 +17,26 @@
 package com.google.cloud.hadoop.gcsio;
 
 import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * InMemoryDirectoryListCache provides in-memory accounting of full paths for directories and files
@@ -46,22 +60,104 @@ import java.util.Set;
  * 2. Cross-client 'delete' followed by 'list' will be worse than pure-GCS.
  * 3. Same-client 'delete' followed by 'list' is unchanged with respect to eventual consistency.
  * <p>
- * This class is thread-safe.
+ * Listing a prefix only visits the cached objects under that prefix, and with a delimiter, only
+ * the first live object under each implied sub-prefix; expired objects encountered on the way are
+ * removed. The remaining expired objects are removed a few at a time whenever an object is added
+ * to the bucket, so that no single call pays for expiring the whole bucket.
+ * <p>
+ * The number of cached objects can be bounded with {@link Config#setMaxEntries}: once it is
+ * exceeded, the least recently added or looked up objects are evicted, which lets a same-client
+ * 'list' miss an evicted object just as if it had expired. Objects are kept in access order while
+ * the bound is set, so that evicting one takes constant time; objects added while it was unset are
+ * only removed by expiry. The singleton's limits are set by the first caller of
+ * {@link #getInstance(Config)}, since it is shared by every user in the process. Expired
+ * objects can also be removed periodically by a background thread, see
+ * {@link Config#setBackgroundExpiryIntervalMillis}, so that a cache which stops being written to
+ * doesn't keep them until the next listing. The counts of hits, misses, evictions and expirations
+ * are exposed as gauges, e.g. {@link #getHitRate()}.
+ * <p>
+ * This class is thread-safe. Lookups and listings take no locks, and objects are added to and
+ * removed from different buckets, or the same bucket, without blocking each other; only removing
+ * a whole bucket excludes concurrent additions to that bucket.
  */
 public class InMemoryDirectoryListCache extends DirectoryListCache {
   private static final LogUtil log = new LogUtil(InMemoryDirectoryListCache.class);
 
+  // Number of objects checked for expiration each time an object is added to a bucket. Greater
+  // than one so that the sweep covers the whole bucket faster than the bucket grows.
+  private static final int EXPIRY_SWEEP_BATCH_SIZE = 8;
+
+  // Number of locks which bucketNames are spread over in bucketLocks.
+  private static final int NUM_BUCKET_LOCK_STRIPES = 64;
+
+  // Number of buffered lookups at which a lookup applies them to lruOrder itself rather than
+  // leaving them to the next addition, so that the buffer stays small when few objects are added.
+  private static final int ACCESS_BUFFER_DRAIN_THRESHOLD = 64;
+
+  // Time after which the idle background expiry thread exits.
+  private static final long EXPIRY_THREAD_KEEP_ALIVE_MILLIS = 60 * 1000L;
+
   // The shared singleton instance of DirectoryListCache.
   private static final InMemoryDirectoryListCache singletonInstance =
       new InMemoryDirectoryListCache();
 
+  // Whether a Config has been applied to singletonInstance by getInstance(Config).
+  // Guarded by InMemoryDirectoryListCache.class.
+  private static boolean singletonConfigured = false;
+
   // Mapping from bucketName to data structure which holds both the CacheEntry corresponding to
   // the bucket itself as well as mappings to CacheEntry values for StorageObjects residing in
-  // the bucket. Existence of CacheEntrys is solely handled through synchronized methods of
-  // DirectoryListCache. However, the handling of GoogleCloudStorageItemInfos within each CacheEntry
-  // is synchronized only by the CacheEntry itself; therefore inner itemInfos may change outside
-  // of a DirectoryListCache method.
-  private final Map<String, CachedBucket> bucketLookup = new HashMap<>();
+  // the bucket. Existence of CacheEntrys is solely handled through methods of DirectoryListCache.
+  // However, the GoogleCloudStorageItemInfos within each CacheEntry are updated atomically by the
+  // CacheEntry itself; therefore inner itemInfos may change outside of a DirectoryListCache method.
+  private final ConcurrentMap<String, CachedBucket> bucketLookup = new ConcurrentHashMap<>();
+
+  // Per-bucketName locks ensuring that no object is added to a CachedBucket which has been removed
+  // from bucketLookup; adding objects holds the read lock, while removing a CachedBucket holds the
+  // write lock.
+  private final Striped<ReadWriteLock> bucketLocks =
+      Striped.readWriteLock(NUM_BUCKET_LOCK_STRIPES);
+
+  // The cached objects from least to most recently added or looked up, while maxEntries is set;
+  // used as a set of CacheEntrys, which compare by identity. Guarded by lruLock.
+  private final LinkedHashMap<CacheEntry, Boolean> lruOrder = new LinkedHashMap<>(16, 0.75f, true);
+  private final Lock lruLock = new ReentrantLock();
+
+  // Whether lruOrder may hold any objects; read without locking so that removals needn't take
+  // lruLock while maxEntries is unset.
+  private volatile boolean lruOrderInUse = false;
+
+  // Lookups yet to be applied to lruOrder, recorded without locking so that concurrent lookups
+  // don't contend with each other.
+  private final Queue<CacheEntry> accessBuffer = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger accessBufferSize = new AtomicInteger();
+
+  // Counters backing the gauges.
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+  private final AtomicLong expirationCount = new AtomicLong();
+
+  // Runs the background expiry; created when it is first enabled. Guarded by this.
+  private ScheduledThreadPoolExecutor expiryExecutor;
+
+  // Whether a run of the background expiry is scheduled. Guarded by this, but read without
+  // locking to cheaply check whether to schedule one.
+  private volatile boolean backgroundExpiryScheduled;
+
+  // Removes expired entries, then schedules itself again as long as background expiry is enabled.
+  private final Runnable backgroundExpiry = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        removeExpiredEntries();
+      } catch (RuntimeException re) {
+        log.warn("Failed to remove expired entries", re);
+      } finally {
+        scheduleBackgroundExpiry();
+      }
+    }
+  };
 
   /**
    * Callers should usually only obtain an instance via {@link #getInstance()} so that cache
@@ -77,6 +173,21 @@ public class InMemoryDirectoryListCache extends DirectoryListCache {
     return singletonInstance;
   }
 
+  /**
+   * Accessor for shared singleton instance of DirectoryListCache, applying {@code config} to it
+   * if it is the first Config given; the singleton is shared by every user in the process, so
+   * later callers can't change its limits from under the earlier ones.
+   */
+  public static synchronized DirectoryListCache getInstance(Config config) {
+    if (!singletonConfigured) {
+      singletonInstance.getMutableConfig().copyFrom(config);
+      singletonConfigured = true;
+    } else {
+      log.debug("Shared InMemoryDirectoryListCache is already configured, ignoring new Config");
+    }
+    return singletonInstance;
+  }
+
   /**
    * We use in-memory data structures to hold CacheEntry items, and thus manage them in a shared
    * manner; returned CacheEntry items are shared references, and updating their cached info
@@ -98,26 +209,47 @@ public class InMemoryDirectoryListCache extends DirectoryListCache {
   }
 
   @Override
-  public synchronized CacheEntry putResourceId(StorageResourceId resourceId) {
+  public CacheEntry putResourceId(StorageResourceId resourceId) {
     validateResourceId(resourceId);
 
     // Whether the resourceId is a Bucket or StorageObject, there will be a bucketName to cache.
-    CachedBucket resourceBucket = bucketLookup.get(resourceId.getBucketName());
-    if (resourceBucket == null) {
-      // TODO(user): Maybe invalidate any existing Bucket entry's info.
-      resourceBucket = new CachedBucket(resourceId.getBucketName());
-      bucketLookup.put(resourceId.getBucketName(), resourceBucket);
+    String bucketName = resourceId.getBucketName();
+    CacheEntry returnEntry;
+    Lock bucketLock = bucketLocks.get(bucketName).readLock();
+    bucketLock.lock();
+    try {
+      CachedBucket resourceBucket = bucketLookup.get(bucketName);
+      if (resourceBucket == null) {
+        // TODO(user): Maybe invalidate any existing Bucket entry's info.
+        CachedBucket newBucket = new CachedBucket(bucketName);
+        resourceBucket = bucketLookup.putIfAbsent(bucketName, newBucket);
+        if (resourceBucket == null) {
+          resourceBucket = newBucket;
+        }
+      }
+
+      if (resourceId.isStorageObject()) {
+        removeSomeExpiredObjects(resourceBucket);
+        returnEntry = resourceBucket.put(resourceId);
+      } else {
+        returnEntry = resourceBucket;
+      }
+    } finally {
+      bucketLock.unlock();
     }
 
     if (resourceId.isStorageObject()) {
-      return resourceBucket.put(resourceId);
-    } else {
-      return resourceBucket;
+      recordAddition(returnEntry);
+      evictIfOverMaxEntries();
+    }
+    if (!backgroundExpiryScheduled && cacheConfig.getBackgroundExpiryIntervalMillis() > 0) {
+      startBackgroundExpiry();
     }
+    return returnEntry;
   }
 
   @Override
-  public synchronized CacheEntry getCacheEntry(StorageResourceId resourceId) {
+  public CacheEntry getCacheEntry(StorageResourceId resourceId) {
     validateResourceId(resourceId);
 
     CachedBucket bucket = bucketLookup.get(resourceId.getBucketName());
@@ -126,14 +258,21 @@ public class InMemoryDirectoryListCache extends DirectoryListCache {
     }
 
     if (resourceId.isStorageObject()) {
-      return bucket.get(resourceId);
+      CacheEntry objectEntry = bucket.get(resourceId);
+      if (objectEntry == null) {
+        missCount.incrementAndGet();
+      } else {
+        hitCount.incrementAndGet();
+        recordAccess(objectEntry);
+      }
+      return objectEntry;
     } else {
       return bucket;
     }
   }
 
   @Override
-  public synchronized void removeResourceId(StorageResourceId resourceId) {
+  public void removeResourceId(StorageResourceId resourceId) {
     validateResourceId(resourceId);
 
     CachedBucket bucket = bucketLookup.get(resourceId.getBucketName());
@@ -145,30 +284,43 @@ public class InMemoryDirectoryListCache extends DirectoryListCache {
 
     if (resourceId.isStorageObject()) {
       log.debug("Explicitly removing StorageObject from CachedBucket: '%s'", resourceId);
-      bucket.remove(resourceId);
+      CacheEntry objectEntry = bucket.get(resourceId);
+      if (objectEntry != null && bucket.removeEntry(objectEntry)) {
+        recordRemoval(objectEntry);
+      }
 
       // TODO(user): Maybe proactively check for whether this removal now lets us fully remove
       // an expired CachedBucket.
     } else {
-      if (bucket.getNumObjects() > 0) {
-        log.warn("Explicitly removing non-empty Bucket: '%s' which contains %d items",
-            resourceId, bucket.getNumObjects());
-      } else {
-        log.debug("Explicitly removing empty Bucket: '%s'", resourceId);
+      Lock bucketLock = bucketLocks.get(resourceId.getBucketName()).writeLock();
+      bucketLock.lock();
+      try {
+        if (!bucket.isEmpty()) {
+          log.warn("Explicitly removing non-empty Bucket: '%s' which contains %d items",
+              resourceId, bucket.getNumObjects());
+          for (CacheEntry objectEntry : bucket.getObjectsFrom("")) {
+            recordRemoval(objectEntry);
+          }
+        } else {
+          log.debug("Explicitly removing empty Bucket: '%s'", resourceId);
+        }
+        bucketLookup.remove(resourceId.getBucketName());
+      } finally {
+        bucketLock.unlock();
       }
-      bucketLookup.remove(resourceId.getBucketName());
     }
   }
 
   @Override
-  public synchronized List<CacheEntry> getBucketList() {
+  public List<CacheEntry> getBucketList() {
     log.debug("getBucketList()");
     List<CacheEntry> bucketEntries = new ArrayList<>();
     List<CachedBucket> expiredBuckets = new ArrayList<>();
+    long currentTimeMillis = clock.currentTimeMillis();
     for (CachedBucket bucket : bucketLookup.values()) {
-      maybeInvalidateExpiredInfo(bucket);
+      maybeInvalidateExpiredInfo(bucket, currentTimeMillis);
 
-      if (isCacheEntryExpired(bucket)) {
+      if (isCacheEntryExpired(bucket, currentTimeMillis)) {
         // Keep a list of expired buckets to handle after the loop. We may not be able to garbage-
         // collect it because of inner StorageObjects, but we at least won't list it anymore.
         expiredBuckets.add(bucket);
@@ -177,83 +329,365 @@ public class InMemoryDirectoryListCache extends DirectoryListCache {
       }
     }
 
-    // Handle bucket expiration; we'll only remove the bucket if it's empty. Since each
-    // CachedBucket is only modified within synchronized methods of DirectoryListCache, we are
-    // certain the CachedBucket is still empty when we remove it from the bucketLookup if it
-    // returns getNumObjects() == 0 immediately prior.
+    // Handle bucket expiration; we'll only remove the bucket if it's empty.
     for (CachedBucket expiredBucket : expiredBuckets) {
-      if (expiredBucket.getNumObjects() == 0) {
-        log.debug("Removing empty expired CachedBucket: '%s'", expiredBucket.getName());
-        bucketLookup.remove(expiredBucket.getName());
-      }
+      removeBucketIfEmpty(expiredBucket);
     }
 
     return bucketEntries;
   }
 
   @Override
-  public synchronized List<CacheEntry> getRawBucketList() {
+  public List<CacheEntry> getRawBucketList() {
     log.debug("getRawBucketList()");
     return new ArrayList<CacheEntry>(bucketLookup.values());
   }
 
   @Override
-  public synchronized List<CacheEntry> getObjectList(
+  public List<CacheEntry> getObjectList(
       String bucketName, String objectNamePrefix, String delimiter, Set<String> returnedPrefixes) {
     log.debug("getObjectList(%s, %s, %s)", bucketName, objectNamePrefix, delimiter);
+    return listObjects(bucketName, objectNamePrefix, delimiter, returnedPrefixes, null, null);
+  }
+
+  /**
+   * Visits only the objects of the range, starting from its lower bound in the sorted bucket.
+   */
+  @Override
+  public List<CacheEntry> getObjectListInRange(
+      String bucketName, String objectNamePrefix, String delimiter, String startAfterName,
+      String endName) {
+    log.debug("getObjectListInRange(%s, %s, %s, %s, %s)",
+        bucketName, objectNamePrefix, delimiter, startAfterName, endName);
+    return listObjects(bucketName, objectNamePrefix, delimiter, null, startAfterName, endName);
+  }
+
+  /**
+   * Helper for getObjectList and getObjectListInRange; {@code startAfterName} and
+   * {@code endName} are null if the range is unbounded on that side.
+   */
+  private List<CacheEntry> listObjects(
+      String bucketName, String objectNamePrefix, String delimiter, Set<String> returnedPrefixes,
+      String startAfterName, String endName) {
     CachedBucket bucket = bucketLookup.get(bucketName);
     if (bucket == null) {
       return null;
     }
 
+    String prefix = (objectNamePrefix == null) ? "" : objectNamePrefix;
+    String fromName = (startAfterName != null && startAfterName.compareTo(prefix) > 0)
+        ? startAfterName
+        : prefix;
+    // Read once, since a listing may visit many entries.
+    long currentTimeMillis = clock.currentTimeMillis();
     List<CacheEntry> matchingObjectEntries = new ArrayList<>();
     boolean removedExpiredEntries = false;
-    for (CacheEntry objectEntry : bucket.getObjectList()) {
-      maybeInvalidateExpiredInfo(objectEntry);
-
-      if (isCacheEntryExpired(objectEntry)) {
-        // We can remove items from the bucket mid-iteration because we are iterating over a
-        // *copy* of the bucket contents.
-        log.debug("Removing expired CacheEntry: '%s'", objectEntry.getResourceId());
-        bucket.remove(objectEntry.getResourceId());
+    Iterator<CacheEntry> objectEntries = bucket.getObjectsFrom(fromName).iterator();
+    while (objectEntries.hasNext()) {
+      CacheEntry objectEntry = objectEntries.next();
+      String objectName = objectEntry.getResourceId().getObjectName();
+      if (!objectName.startsWith(prefix)
+          || (endName != null && objectName.compareTo(endName) > 0)) {
+        // Past the last object under the prefix, or in the range.
+        break;
+      }
+      if (!isInRange(objectName, startAfterName, endName)) {
+        // Only startAfterName itself, since iteration starts from it.
+        continue;
+      }
+
+      maybeInvalidateExpiredInfo(objectEntry, currentTimeMillis);
+      if (isCacheEntryExpired(objectEntry, currentTimeMillis)) {
+        // Removing items mid-iteration is safe; the iterator is weakly consistent.
+        removeExpiredObject(bucket, objectEntry);
         removedExpiredEntries = true;
+        continue;
+      }
+
+      String matchedName = GoogleCloudStorageStrings.matchListPrefix(
+          objectNamePrefix, delimiter, objectName);
+      // We get a non-null matchedName if either an implicit 'prefix' matches or if it's an
+      // exact match.
+      if (matchedName == null) {
+        continue;
+      }
+      if (objectName.equals(matchedName)) {
+        // Exact match.
+        recordAccess(objectEntry);
+        matchingObjectEntries.add(objectEntry);
       } else {
-        String objectName = objectEntry.getResourceId().getObjectName();
-        String matchedName = GoogleCloudStorageStrings.matchListPrefix(
-            objectNamePrefix, delimiter, objectName);
-        // We get a non-null matchedName if either an implicit 'prefix' matches or if it's an
-        // exact match.
-        if (matchedName != null) {
-          if (objectName.equals(matchedName)) {
-            // Exact match.
-            matchingObjectEntries.add(objectEntry);
-          } else if (returnedPrefixes != null) {
-            // Prefix match; only need to populate the container if the caller actually provided
-            // a non-null container.
-            returnedPrefixes.add(matchedName);
-          }
+        // Prefix match; only need to populate the container if the caller actually provided
+        // a non-null container.
+        if (returnedPrefixes != null) {
+          returnedPrefixes.add(matchedName);
+        }
+        // Every other object under matchedName yields the same prefix, so skip past them.
+        String nextName = GoogleCloudStorageStrings.getFirstNameAfterPrefix(matchedName);
+        if (nextName != null) {
+          objectEntries = bucket.getObjectsFrom(nextName).iterator();
         }
       }
     }
 
     // Proactively remove the entire entry for the bucket if our iteration caused it to be empty
     // and the CachedBucket is itself expired.
-    if (removedExpiredEntries
-        && bucket.getNumObjects() == 0
-        && isCacheEntryExpired(bucket)) {
-      log.debug("Removing empty expired CachedBucket: '%s'", bucket.getName());
-      bucketLookup.remove(bucket.getName());
+    if (removedExpiredEntries && isCacheEntryExpired(bucket, currentTimeMillis)) {
+      removeBucketIfEmpty(bucket);
     }
     return matchingObjectEntries;
   }
 
+  /**
+   * Removes {@code bucket} from bucketLookup if it contains no objects; holding the bucket's write
+   * lock guarantees that it is still empty when removed.
+   */
+  private void removeBucketIfEmpty(CachedBucket bucket) {
+    Lock bucketLock = bucketLocks.get(bucket.getName()).writeLock();
+    bucketLock.lock();
+    try {
+      if (bucket.isEmpty() && bucketLookup.remove(bucket.getName(), bucket)) {
+        log.debug("Removed empty expired CachedBucket: '%s'", bucket.getName());
+      }
+    } finally {
+      bucketLock.unlock();
+    }
+  }
+
+  /**
+   * Checks the next few objects of {@code bucket} in turn for expiration, removing the expired
+   * ones.
+   */
+  private void removeSomeExpiredObjects(CachedBucket bucket) {
+    long currentTimeMillis = clock.currentTimeMillis();
+    for (CacheEntry objectEntry : bucket.getNextObjectsToSweep(EXPIRY_SWEEP_BATCH_SIZE)) {
+      if (isCacheEntryExpired(objectEntry, currentTimeMillis)) {
+        removeExpiredObject(bucket, objectEntry);
+      }
+    }
+  }
+
+  /**
+   * Removes the expired {@code objectEntry} from {@code bucket}.
+   */
+  private void removeExpiredObject(CachedBucket bucket, CacheEntry objectEntry) {
+    log.debug("Removing expired CacheEntry: '%s'", objectEntry.getResourceId());
+    if (bucket.removeEntry(objectEntry)) {
+      recordRemoval(objectEntry);
+      expirationCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Removes all expired objects, and the expired buckets left empty, then evicts objects if
+   * the cache is still over its maximum number of entries. Run periodically by the background
+   * expiry if enabled.
+   */
+  @VisibleForTesting
+  void removeExpiredEntries() {
+    long startExpirationCount = expirationCount.get();
+    long currentTimeMillis = clock.currentTimeMillis();
+    for (CachedBucket bucket : bucketLookup.values()) {
+      for (CacheEntry objectEntry : bucket.getObjectsFrom("")) {
+        maybeInvalidateExpiredInfo(objectEntry, currentTimeMillis);
+        if (isCacheEntryExpired(objectEntry, currentTimeMillis)) {
+          removeExpiredObject(bucket, objectEntry);
+        }
+      }
+      maybeInvalidateExpiredInfo(bucket, currentTimeMillis);
+      if (isCacheEntryExpired(bucket, currentTimeMillis)) {
+        removeBucketIfEmpty(bucket);
+      }
+    }
+    evictIfOverMaxEntries();
+    log.debug("removeExpiredEntries(): removed %d, now caching %d objects in %d buckets; "
+        + "hit rate %f, %d evictions, %d expirations",
+        expirationCount.get() - startExpirationCount, getInternalNumObjects(),
+        getInternalNumBuckets(), getHitRate(), getEvictionCount(), getExpirationCount());
+  }
+
+  /**
+   * Schedules the first run of the background expiry unless one is already scheduled.
+   */
+  private synchronized void startBackgroundExpiry() {
+    if (!backgroundExpiryScheduled) {
+      scheduleBackgroundExpiry();
+    }
+  }
+
+  /**
+   * Schedules the next run of the background expiry if it is enabled, creating its thread if
+   * needed.
+   */
+  private synchronized void scheduleBackgroundExpiry() {
+    long intervalMillis = cacheConfig.getBackgroundExpiryIntervalMillis();
+    if (intervalMillis <= 0) {
+      backgroundExpiryScheduled = false;
+      return;
+    }
+    if (expiryExecutor == null) {
+      expiryExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+          .setNameFormat("gcs-metadata-cache-expiry-%d")
+          .setDaemon(true)
+          .build());
+      expiryExecutor.setKeepAliveTime(EXPIRY_THREAD_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
+      expiryExecutor.allowCoreThreadTimeOut(true);
+    }
+    expiryExecutor.schedule(backgroundExpiry, intervalMillis, TimeUnit.MILLISECONDS);
+    backgroundExpiryScheduled = true;
+  }
+
+  /**
+   * Records that {@code objectEntry} was added to the cache, or returned as already present, as
+   * the most recently used object while maxEntries is set. Otherwise forgets the access order,
+   * which would go stale.
+   */
+  private void recordAddition(CacheEntry objectEntry) {
+    boolean bounded = cacheConfig.getMaxEntries() > 0;
+    if (!bounded && !lruOrderInUse) {
+      return;
+    }
+    lruLock.lock();
+    try {
+      if (bounded) {
+        drainAccessBuffer();
+        lruOrder.put(objectEntry, Boolean.TRUE);
+        lruOrderInUse = true;
+      } else {
+        lruOrder.clear();
+        accessBuffer.clear();
+        accessBufferSize.set(0);
+        lruOrderInUse = false;
+      }
+    } finally {
+      lruLock.unlock();
+    }
+  }
+
+  /**
+   * Records that {@code objectEntry} was returned by a lookup, while maxEntries is set. The
+   * lookup is buffered and applied to lruOrder by whichever thread next holds lruLock.
+   */
+  private void recordAccess(CacheEntry objectEntry) {
+    if (!lruOrderInUse) {
+      return;
+    }
+    accessBuffer.offer(objectEntry);
+    if (accessBufferSize.incrementAndGet() >= ACCESS_BUFFER_DRAIN_THRESHOLD
+        && lruLock.tryLock()) {
+      try {
+        drainAccessBuffer();
+      } finally {
+        lruLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Records that {@code objectEntry} was removed from its bucket.
+   */
+  private void recordRemoval(CacheEntry objectEntry) {
+    if (!lruOrderInUse) {
+      return;
+    }
+    lruLock.lock();
+    try {
+      lruOrder.remove(objectEntry);
+    } finally {
+      lruLock.unlock();
+    }
+  }
+
+  /**
+   * Moves the objects in accessBuffer to the most recently used end of lruOrder, unless they have
+   * been removed meanwhile. Must be called with lruLock held.
+   */
+  private void drainAccessBuffer() {
+    CacheEntry objectEntry;
+    while ((objectEntry = accessBuffer.poll()) != null) {
+      accessBufferSize.decrementAndGet();
+      // An access-ordered LinkedHashMap moves the entry on lookup.
+      lruOrder.get(objectEntry);
+    }
+  }
+
+  /**
+   * If the cache holds more objects than its maximum number of entries, evicts the least
+   * recently used ones until it no longer does. Each eviction takes constant time, so the thread
+   * adding an object only pays for the objects it evicts.
+   */
+  private void evictIfOverMaxEntries() {
+    int maxEntries = cacheConfig.getMaxEntries();
+    if (maxEntries <= 0 || getInternalNumObjects() <= maxEntries) {
+      return;
+    }
+    lruLock.lock();
+    try {
+      drainAccessBuffer();
+      int numToEvict = getInternalNumObjects() - maxEntries;
+      int numEvicted = 0;
+      Iterator<CacheEntry> leastRecentlyUsed = lruOrder.keySet().iterator();
+      while (numEvicted < numToEvict && leastRecentlyUsed.hasNext()) {
+        CacheEntry objectEntry = leastRecentlyUsed.next();
+        leastRecentlyUsed.remove();
+        // The object may have been removed from its bucket while its removal wasn't yet recorded.
+        CachedBucket bucket = bucketLookup.get(objectEntry.getResourceId().getBucketName());
+        if (bucket != null && bucket.removeEntry(objectEntry)) {
+          ++numEvicted;
+        }
+      }
+      if (numEvicted > 0) {
+        evictionCount.addAndGet(numEvicted);
+        log.debug("Evicted %d objects to stay within %d entries", numEvicted, maxEntries);
+      }
+    } finally {
+      lruLock.unlock();
+    }
+  }
+
+  /**
+   * Gauge of the number of object lookups which found a cached entry.
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Gauge of the number of object lookups which found no cached entry.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Gauge of the fraction of object lookups which found a cached entry; 1.0 if there were none.
+   */
+  public double getHitRate() {
+    long hits = hitCount.get();
+    long requests = hits + missCount.get();
+    return (requests == 0) ? 1.0 : (double) hits / requests;
+  }
+
+  /**
+   * Gauge of the number of objects evicted to stay within the maximum number of entries.
+   */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /**
+   * Gauge of the number of objects removed because they expired.
+   */
+  public long getExpirationCount() {
+    return expirationCount.get();
+  }
+
   @Override
-  public synchronized int getInternalNumBuckets() {
+  public int getInternalNumBuckets() {
     return bucketLookup.size();
   }
 
   @Override
-  public synchronized int getInternalNumObjects() {
+  public int getInternalNumObjects() {
     int objectCount = 0;
     for (CachedBucket bucket : bucketLookup.values()) {
       objectCount += bucket.getNumObjects();
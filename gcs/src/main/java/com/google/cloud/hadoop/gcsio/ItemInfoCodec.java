@@ -0,0 +1,129 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes and reads StorageResourceIds and GoogleCloudStorageItemInfos in a compact binary form,
+ * for the metadata caches which store them outside of the JVM or send them to another one.
+ */
+final class ItemInfoCodec {
+  private ItemInfoCodec() {
+  }
+
+  /**
+   * Writes a Bucket or StorageObject {@code resourceId}.
+   */
+  static void writeResourceId(StorageResourceId resourceId, DataOutput out) throws IOException {
+    out.writeUTF(resourceId.getBucketName());
+    out.writeUTF(resourceId.isStorageObject() ? resourceId.getObjectName() : "");
+  }
+
+  /**
+   * Reads a StorageResourceId written by writeResourceId().
+   */
+  static StorageResourceId readResourceId(DataInput in) throws IOException {
+    String bucketName = in.readUTF();
+    String objectName = in.readUTF();
+    return objectName.isEmpty()
+        ? new StorageResourceId(bucketName)
+        : new StorageResourceId(bucketName, objectName);
+  }
+
+  /**
+   * Writes all fields of {@code itemInfo} except its StorageResourceId, which callers write
+   * separately.
+   */
+  static void writeItemInfo(GoogleCloudStorageItemInfo itemInfo, DataOutput out)
+      throws IOException {
+    out.writeBoolean(itemInfo.isInferredDirectory());
+    out.writeLong(itemInfo.getCreationTime());
+    out.writeLong(itemInfo.getSize());
+    writeNullableString(itemInfo.getLocation(), out);
+    writeNullableString(itemInfo.getStorageClass(), out);
+    Map<String, byte[]> metadata = itemInfo.getMetadata();
+    out.writeInt(metadata.size());
+    for (Map.Entry<String, byte[]> metadataEntry : metadata.entrySet()) {
+      out.writeUTF(metadataEntry.getKey());
+      writeNullableBytes(metadataEntry.getValue(), out);
+    }
+    out.writeLong(itemInfo.getContentGeneration());
+    out.writeLong(itemInfo.getMetaGeneration());
+  }
+
+  /**
+   * Reads the info of {@code resourceId} written by writeItemInfo().
+   */
+  static GoogleCloudStorageItemInfo readItemInfo(StorageResourceId resourceId, DataInput in)
+      throws IOException {
+    boolean inferredDirectory = in.readBoolean();
+    long creationTime = in.readLong();
+    long size = in.readLong();
+    String location = readNullableString(in);
+    String storageClass = readNullableString(in);
+    int numMetadataEntries = in.readInt();
+    Map<String, byte[]> metadata = new HashMap<>();
+    for (int i = 0; i < numMetadataEntries; ++i) {
+      String key = in.readUTF();
+      metadata.put(key, readNullableBytes(in));
+    }
+    long contentGeneration = in.readLong();
+    long metaGeneration = in.readLong();
+    if (inferredDirectory) {
+      return GoogleCloudStorageItemInfo.createInferredDirectory(resourceId);
+    }
+    return new GoogleCloudStorageItemInfo(resourceId, creationTime, size, location, storageClass,
+        metadata, contentGeneration, metaGeneration);
+  }
+
+  /**
+   * Writes {@code value}, which may be null.
+   */
+  static void writeNullableString(String value, DataOutput out) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  /**
+   * Reads a value written by writeNullableString().
+   */
+  static String readNullableString(DataInput in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void writeNullableBytes(byte[] value, DataOutput out) throws IOException {
+    out.writeInt(value == null ? -1 : value.length);
+    if (value != null) {
+      out.write(value);
+    }
+  }
+
+  private static byte[] readNullableBytes(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] value = new byte[length];
+    in.readFully(value);
+    return value;
+  }
+}
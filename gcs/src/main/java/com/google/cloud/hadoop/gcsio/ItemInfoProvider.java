@@ -0,0 +1,28 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+/**
+ * Implemented by read channels which fetch the metadata of their object when they are opened,
+ * so that callers can use it without another request.
+ */
+public interface ItemInfoProvider {
+
+  /**
+   * Returns the metadata of the object as of when the channel was opened, or null if it is not
+   * known.
+   */
+  GoogleCloudStorageItemInfo getItemInfo();
+}
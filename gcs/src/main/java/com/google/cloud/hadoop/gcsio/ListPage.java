@@ -0,0 +1,83 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.common.base.Preconditions;
+
+import java.util.List;
+
+/**
+ * One page of the results of a listing, along with the token which requests the next page and,
+ * for listings with a delimiter, the prefixes listed on this page.
+ *
+ * @param <T> type of the listed items
+ */
+public class ListPage<T> {
+
+  // Items of this page.
+  private final List<T> items;
+
+  // Token to pass to get the next page, or null if this is the last page.
+  private final String nextPageToken;
+
+  // Prefixes listed on this page, or null if not known.
+  private final List<String> prefixes;
+
+  /**
+   * Constructs an instance of ListPage which doesn't report the listed prefixes.
+   *
+   * @param items items of this page
+   * @param nextPageToken token to pass to get the next page, or null if this is the last page
+   */
+  public ListPage(List<T> items, String nextPageToken) {
+    this(items, nextPageToken, null);
+  }
+
+  /**
+   * Constructs an instance of ListPage.
+   *
+   * @param items items of this page
+   * @param nextPageToken token to pass to get the next page, or null if this is the last page
+   * @param prefixes prefixes listed on this page, or null if not known
+   */
+  public ListPage(List<T> items, String nextPageToken, List<String> prefixes) {
+    Preconditions.checkArgument(items != null, "items must not be null");
+    this.items = items;
+    this.nextPageToken = nextPageToken;
+    this.prefixes = prefixes;
+  }
+
+  /**
+   * Returns the items of this page.
+   */
+  public List<T> getItems() {
+    return items;
+  }
+
+  /**
+   * Returns the token to pass to get the next page, or null if this is the last page.
+   */
+  public String getNextPageToken() {
+    return nextPageToken;
+  }
+
+  /**
+   * Returns the prefixes listed on this page with a delimiter, each ending with the delimiter,
+   * whether or not the items include a directory object for them; null if not known.
+   */
+  public List<String> getPrefixes() {
+    return prefixes;
+  }
+}
@@ -0,0 +1,837 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+/**
+ * LogBackedDirectoryListCache keeps all cache entries in a single append-only log file of
+ * checksummed records, located under a base directory configured at construction-time, so that
+ * all processes on the same machine which are configured with the same directory share one cache.
+ * Each instance replays the records appended since its previous operation into an in-memory index
+ * holding the objects of each bucket sorted by name, so that lookups are map lookups and listings
+ * are range scans over just the objects under the listed prefix.
+ * <p>
+ * Unlike FileSystemBackedDirectoryListCache, the log stores the GoogleCloudStorageItemInfo of each
+ * entry alongside its name: an info set on a returned CacheEntry is appended to the log, and is
+ * returned with the entry by every instance until it expires. Returned CacheEntries are not shared
+ * references, however; each call returns new instances holding the stored state.
+ * <p>
+ * Processes serialize their access through file locks on the log; appends hold an exclusive lock
+ * and reads a shared one. A record left incomplete by a process dying mid-append fails its checksum
+ * and is overwritten by the next append. Once most of its records are superseded, the log is
+ * rewritten in place with just the records of its live entries.
+ * <p>
+ * Each instance keeps the log open until it is closed.
+ * <p>
+ * This class is thread-safe.
+ */
+public class LogBackedDirectoryListCache extends DirectoryListCache implements Closeable {
+  // Logger.
+  private static final LogUtil log = new LogUtil(LogBackedDirectoryListCache.class);
+
+  // Name of the log file under the base directory.
+  @VisibleForTesting
+  static final String LOG_FILE_NAME = "gcs_metadata.log";
+
+  // Identifies a log file and the version of its format at the start of its header.
+  private static final int LOG_MAGIC = 0x4743534c;
+  private static final int LOG_VERSION = 1;
+
+  // The header holds LOG_MAGIC, LOG_VERSION, and the generation of the log, which each compaction
+  // increments so that other instances know to replay the log from the start.
+  private static final int HEADER_LENGTH = 16;
+
+  // Each record is framed by the length of its payload and the CRC32 of the payload.
+  private static final int RECORD_FRAMING_LENGTH = 8;
+
+  // Adds an entry unless it already exists; adding an object also adds its bucket.
+  private static final byte PUT_RECORD = 1;
+
+  // Sets the GoogleCloudStorageItemInfo of an existing entry.
+  private static final byte INFO_RECORD = 2;
+
+  // Removes an entry; removing a bucket also removes its objects.
+  private static final byte REMOVE_RECORD = 3;
+
+  // The log is compacted once it holds at least COMPACTION_MIN_RECORDS records, and more than
+  // COMPACTION_RATIO times as many records as a compacted log would.
+  private static final int COMPACTION_MIN_RECORDS = 10000;
+  private static final int COMPACTION_RATIO = 4;
+
+  // Serializes the access of all instances in this process to each log file, since file locks are
+  // held on behalf of the whole process and the same process cannot take overlapping ones.
+  private static final ConcurrentMap<Path, Object> processLocks = new ConcurrentHashMap<>();
+
+  /**
+   * The stored state of a cache entry.
+   */
+  private static class StoredEntry {
+    final long creationTimeMillis;
+    GoogleCloudStorageItemInfo itemInfo;
+    long itemInfoUpdateTimeMillis;
+
+    StoredEntry(long creationTimeMillis) {
+      this.creationTimeMillis = creationTimeMillis;
+    }
+  }
+
+  /**
+   * The stored state of a bucket, holding its objects sorted by name.
+   */
+  private static class StoredBucket extends StoredEntry {
+    final NavigableMap<String, StoredEntry> objects = new TreeMap<>();
+
+    StoredBucket(long creationTimeMillis) {
+      super(creationTimeMillis);
+    }
+  }
+
+  /**
+   * CacheEntry whose infos are also appended to the log, so that they are stored alongside the
+   * entry's name.
+   */
+  private class LogBackedCacheEntry extends CacheEntry {
+    LogBackedCacheEntry(StorageResourceId resourceId, StoredEntry storedEntry) {
+      super(resourceId, storedEntry.creationTimeMillis, storedEntry.itemInfo,
+          storedEntry.itemInfoUpdateTimeMillis);
+    }
+
+    @Override
+    public GoogleCloudStorageItemInfo setItemInfo(GoogleCloudStorageItemInfo newItemInfo) {
+      GoogleCloudStorageItemInfo oldInfo = super.setItemInfo(newItemInfo);
+      try {
+        putItemInfo(newItemInfo, getItemInfoUpdateTimeMillis());
+      } catch (IOException ioe) {
+        // The info is fetched again when it is next needed; the cache is strictly supplemental.
+        log.warn(String.format("Failed to store itemInfo for '%s'", getResourceId()), ioe);
+      }
+      return oldInfo;
+    }
+  }
+
+  // The log file.
+  private final Path logPath;
+
+  // Open for reading and writing until this instance is closed.
+  private final FileChannel logChannel;
+
+  // Guards all access to logChannel and to the index below; shared by all instances of this
+  // process using the same log file.
+  private final Object processLock;
+
+  // The index replayed from the log, by bucket name.
+  private final SortedMap<String, StoredBucket> buckets = new TreeMap<>();
+
+  // Generation of the log from which the index was replayed; -1 before the first replay.
+  private long replayedGeneration = -1;
+
+  // Offset in the log up to which records were replayed into the index.
+  private long replayedOffset = HEADER_LENGTH;
+
+  // Number of records replayed into the index.
+  private long numReplayedRecords = 0;
+
+  /**
+   * @param basePathStr The absolute path of the directory in which to place the log; created if it
+   *     doesn't exist yet.
+   */
+  public LogBackedDirectoryListCache(String basePathStr) throws IOException {
+    Preconditions.checkArgument(
+        !Strings.isNullOrEmpty(basePathStr), "basePathStr '%s' can't be null/empty!", basePathStr);
+    Path basePath = Paths.get(basePathStr);
+    Preconditions.checkArgument(
+        basePath.isAbsolute(), "basePathStr '%s' must be absolute!", basePathStr);
+
+    if (!Files.exists(basePath)) {
+      log.info("Creating '%s' with createDirectories()...", basePath);
+      Files.createDirectories(basePath);
+    }
+
+    this.logPath = basePath.resolve(LOG_FILE_NAME).normalize();
+    this.logChannel = FileChannel.open(logPath,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    Object newLock = new Object();
+    Object existingLock = processLocks.putIfAbsent(logPath, newLock);
+    this.processLock = (existingLock == null) ? newLock : existingLock;
+  }
+
+  /**
+   * Stored infos persist beyond any CacheEntry instance, but CacheEntries are not shared
+   * references.
+   */
+  @Override
+  public boolean supportsCacheEntryByReference() {
+    return false;
+  }
+
+  /**
+   * Like InMemoryDirectoryListCache, we only store entries for the names actually added.
+   */
+  @Override
+  public boolean containsEntriesForImplicitDirectories() {
+    return false;
+  }
+
+  @Override
+  public CacheEntry putResourceId(StorageResourceId resourceId) throws IOException {
+    log.debug("putResourceId(%s)", resourceId);
+    validateResourceId(resourceId);
+
+    synchronized (processLock) {
+      try (FileLock fileLock = lockLog(false)) {
+        replayLog();
+        StoredEntry storedEntry = getStoredEntry(resourceId);
+        if (storedEntry == null) {
+          List<byte[]> records = new ArrayList<>();
+          records.add(encodePutRecord(resourceId, clock.currentTimeMillis()));
+          appendRecords(records);
+          storedEntry = getStoredEntry(resourceId);
+        }
+        return new LogBackedCacheEntry(resourceId, storedEntry);
+      }
+    }
+  }
+
+  @Override
+  public CacheEntry getCacheEntry(StorageResourceId resourceId) throws IOException {
+    log.debug("getCacheEntry(%s)", resourceId);
+    validateResourceId(resourceId);
+
+    synchronized (processLock) {
+      try (FileLock fileLock = lockLog(true)) {
+        replayLog();
+        StoredEntry storedEntry = getStoredEntry(resourceId);
+        if (storedEntry == null) {
+          return null;
+        }
+        return new LogBackedCacheEntry(resourceId, storedEntry);
+      }
+    }
+  }
+
+  @Override
+  public void removeResourceId(StorageResourceId resourceId) throws IOException {
+    log.debug("removeResourceId(%s)", resourceId);
+    validateResourceId(resourceId);
+
+    synchronized (processLock) {
+      try (FileLock fileLock = lockLog(false)) {
+        replayLog();
+        StoredEntry storedEntry = getStoredEntry(resourceId);
+        if (storedEntry == null) {
+          log.debug("Tried to remove nonexistent resourceId '%s'", resourceId);
+          return;
+        }
+        if (resourceId.isBucket() && !((StoredBucket) storedEntry).objects.isEmpty()) {
+          log.warn("Explicitly removing non-empty Bucket: '%s' which contains %d items",
+              resourceId, ((StoredBucket) storedEntry).objects.size());
+        }
+        List<byte[]> records = new ArrayList<>();
+        records.add(encodeRemoveRecord(resourceId));
+        appendRecords(records);
+        maybeCompactLog();
+      }
+    }
+  }
+
+  @Override
+  public List<CacheEntry> getBucketList() throws IOException {
+    log.debug("getBucketList()");
+    List<CacheEntry> bucketEntries = new ArrayList<>();
+    List<StorageResourceId> expiredBucketIds = new ArrayList<>();
+    synchronized (processLock) {
+      try (FileLock fileLock = lockLog(true)) {
+        replayLog();
+        for (Map.Entry<String, StoredBucket> bucket : buckets.entrySet()) {
+          StorageResourceId bucketId = new StorageResourceId(bucket.getKey());
+          CacheEntry bucketEntry = new LogBackedCacheEntry(bucketId, bucket.getValue());
+          maybeInvalidateExpiredInfo(bucketEntry);
+          if (isCacheEntryExpired(bucketEntry)) {
+            // We may not be able to remove the bucket because of inner StorageObjects, but we at
+            // least won't list it anymore.
+            expiredBucketIds.add(bucketId);
+          } else {
+            bucketEntries.add(bucketEntry);
+          }
+        }
+      }
+
+      // Removing takes the exclusive lock, which we only take when there is something to remove.
+      if (!expiredBucketIds.isEmpty()) {
+        removeExpiredEntries(expiredBucketIds);
+      }
+    }
+    return bucketEntries;
+  }
+
+  @Override
+  public List<CacheEntry> getRawBucketList() throws IOException {
+    log.debug("getRawBucketList()");
+    List<CacheEntry> bucketEntries = new ArrayList<>();
+    synchronized (processLock) {
+      try (FileLock fileLock = lockLog(true)) {
+        replayLog();
+        for (Map.Entry<String, StoredBucket> bucket : buckets.entrySet()) {
+          bucketEntries.add(new LogBackedCacheEntry(
+              new StorageResourceId(bucket.getKey()), bucket.getValue()));
+        }
+      }
+    }
+    return bucketEntries;
+  }
+
+  @Override
+  public List<CacheEntry> getObjectList(
+      String bucketName, String objectNamePrefix, String delimiter, Set<String> returnedPrefixes)
+      throws IOException {
+    log.debug("getObjectList(%s, %s, %s)", bucketName, objectNamePrefix, delimiter);
+    String prefix = (objectNamePrefix == null) ? "" : objectNamePrefix;
+    List<CacheEntry> matchingObjectEntries = new ArrayList<>();
+    List<StorageResourceId> expiredIds = new ArrayList<>();
+    synchronized (processLock) {
+      try (FileLock fileLock = lockLog(true)) {
+        replayLog();
+        StoredBucket bucket = buckets.get(bucketName);
+        if (bucket == null) {
+          return null;
+        }
+
+        Iterator<Map.Entry<String, StoredEntry>> objects =
+            bucket.objects.tailMap(prefix, true).entrySet().iterator();
+        while (objects.hasNext()) {
+          Map.Entry<String, StoredEntry> object = objects.next();
+          String objectName = object.getKey();
+          if (!objectName.startsWith(prefix)) {
+            // Past the last object under the prefix.
+            break;
+          }
+
+          StorageResourceId objectId = new StorageResourceId(bucketName, objectName);
+          CacheEntry objectEntry = new LogBackedCacheEntry(objectId, object.getValue());
+          maybeInvalidateExpiredInfo(objectEntry);
+          if (isCacheEntryExpired(objectEntry)) {
+            expiredIds.add(objectId);
+            continue;
+          }
+
+          String matchedName = GoogleCloudStorageStrings.matchListPrefix(
+              objectNamePrefix, delimiter, objectName);
+          // We get a non-null matchedName if either an implicit 'prefix' matches or if it's an
+          // exact match.
+          if (matchedName == null) {
+            continue;
+          }
+          if (objectName.equals(matchedName)) {
+            matchingObjectEntries.add(objectEntry);
+          } else {
+            if (returnedPrefixes != null) {
+              returnedPrefixes.add(matchedName);
+            }
+            // Every other object under matchedName yields the same prefix, so skip past them.
+            String nextName = GoogleCloudStorageStrings.getFirstNameAfterPrefix(matchedName);
+            if (nextName != null) {
+              objects = bucket.objects.tailMap(nextName, true).entrySet().iterator();
+            }
+          }
+        }
+
+        // Also remove the bucket itself if it is expired and removing the expired objects might
+        // leave it empty.
+        StorageResourceId bucketId = new StorageResourceId(bucketName);
+        if (!expiredIds.isEmpty()
+            && isCacheEntryExpired(new CacheEntry(bucketId, bucket.creationTimeMillis))) {
+          expiredIds.add(bucketId);
+        }
+      }
+
+      if (!expiredIds.isEmpty()) {
+        removeExpiredEntries(expiredIds);
+      }
+    }
+    return matchingObjectEntries;
+  }
+
+  @Override
+  public int getInternalNumBuckets() throws IOException {
+    synchronized (processLock) {
+      try (FileLock fileLock = lockLog(true)) {
+        replayLog();
+        return buckets.size();
+      }
+    }
+  }
+
+  @Override
+  public int getInternalNumObjects() throws IOException {
+    synchronized (processLock) {
+      try (FileLock fileLock = lockLog(true)) {
+        replayLog();
+        int objectCount = 0;
+        for (StoredBucket bucket : buckets.values()) {
+          objectCount += bucket.objects.size();
+        }
+        return objectCount;
+      }
+    }
+  }
+
+  /**
+   * Rewrites the log with just the records of its live entries, dropping expired entries and
+   * infos along the way. This happens automatically as the log grows, but may also be triggered
+   * by a periodic cleanup.
+   */
+  public void compact() throws IOException {
+    synchronized (processLock) {
+      try (FileLock fileLock = lockLog(false)) {
+        replayLog();
+        compactLog();
+      }
+    }
+  }
+
+  /**
+   * Closes the log, releasing any file lock this instance holds on it; other instances using the
+   * same log are unaffected. Later calls of the other methods fail.
+   */
+  @Override
+  public void close() throws IOException {
+    // Wait for any operation of this process on the log to finish, so that it doesn't fail
+    // halfway through an append.
+    synchronized (processLock) {
+      logChannel.close();
+    }
+  }
+
+  /**
+   * Returns the log file in which this cache is stored.
+   */
+  @VisibleForTesting
+  Path getLogPath() {
+    return logPath;
+  }
+
+  /**
+   * Returns the length of the log file in bytes.
+   */
+  @VisibleForTesting
+  long getLogLength() throws IOException {
+    synchronized (processLock) {
+      return logChannel.size();
+    }
+  }
+
+  /**
+   * Appends a record setting {@code itemInfo} on its entry, if the entry still exists.
+   */
+  private void putItemInfo(GoogleCloudStorageItemInfo itemInfo, long itemInfoUpdateTimeMillis)
+      throws IOException {
+    synchronized (processLock) {
+      try (FileLock fileLock = lockLog(false)) {
+        replayLog();
+        if (getStoredEntry(itemInfo.getResourceId()) == null) {
+          log.debug("Not storing itemInfo of removed entry '%s'", itemInfo.getResourceId());
+          return;
+        }
+        List<byte[]> records = new ArrayList<>();
+        records.add(encodeInfoRecord(itemInfo, itemInfoUpdateTimeMillis));
+        appendRecords(records);
+        maybeCompactLog();
+      }
+    }
+  }
+
+  /**
+   * Removes the entries of {@code resourceIds} which are still expired once we hold the
+   * exclusive lock, objects first, then the buckets which are left empty. The caller must hold
+   * processLock, but no file lock.
+   */
+  private void removeExpiredEntries(List<StorageResourceId> resourceIds) throws IOException {
+    try (FileLock fileLock = lockLog(false)) {
+      replayLog();
+      List<byte[]> objectRecords = new ArrayList<>();
+      for (StorageResourceId resourceId : resourceIds) {
+        if (resourceId.isStorageObject() && isStoredEntryExpired(resourceId)) {
+          log.debug("About to delete expired entry for resourceId '%s'", resourceId);
+          objectRecords.add(encodeRemoveRecord(resourceId));
+        }
+      }
+      appendRecords(objectRecords);
+
+      List<byte[]> bucketRecords = new ArrayList<>();
+      for (StorageResourceId resourceId : resourceIds) {
+        if (resourceId.isBucket() && isStoredEntryExpired(resourceId)
+            && ((StoredBucket) getStoredEntry(resourceId)).objects.isEmpty()) {
+          log.debug("About to delete expired entry for resourceId '%s'", resourceId);
+          bucketRecords.add(encodeRemoveRecord(resourceId));
+        }
+      }
+      appendRecords(bucketRecords);
+      maybeCompactLog();
+    }
+  }
+
+  /**
+   * Returns the indexed state of {@code resourceId}, or null if it isn't cached.
+   */
+  private StoredEntry getStoredEntry(StorageResourceId resourceId) {
+    StoredBucket bucket = buckets.get(resourceId.getBucketName());
+    if (bucket == null || resourceId.isBucket()) {
+      return bucket;
+    }
+    return bucket.objects.get(resourceId.getObjectName());
+  }
+
+  /**
+   * Returns true if {@code resourceId} is cached, and its entry is expired; entries may have been
+   * removed and added again since they were found expired.
+   */
+  private boolean isStoredEntryExpired(StorageResourceId resourceId) {
+    StoredEntry storedEntry = getStoredEntry(resourceId);
+    return storedEntry != null
+        && isCacheEntryExpired(new CacheEntry(resourceId, storedEntry.creationTimeMillis));
+  }
+
+  /**
+   * Locks the whole log file, on behalf of this process.
+   */
+  private FileLock lockLog(boolean shared) throws IOException {
+    return logChannel.lock(0, Long.MAX_VALUE, shared);
+  }
+
+  /**
+   * Brings the index up to date with the log, replaying it from the start if it was compacted
+   * since the previous replay. The caller must hold a file lock.
+   */
+  private void replayLog() throws IOException {
+    long logLength = logChannel.size();
+    long logGeneration = (logLength < HEADER_LENGTH) ? 0 : readLogGeneration();
+    if (logGeneration != replayedGeneration || logLength < replayedOffset) {
+      log.debug("Replaying log '%s' of generation %d from the start", logPath, logGeneration);
+      buckets.clear();
+      replayedGeneration = logGeneration;
+      replayedOffset = HEADER_LENGTH;
+      numReplayedRecords = 0;
+    }
+    if (logLength <= replayedOffset) {
+      return;
+    }
+
+    Preconditions.checkState(logLength - replayedOffset <= Integer.MAX_VALUE,
+        "Unreplayed part of log '%s' is too long: %d bytes", logPath, logLength - replayedOffset);
+    ByteBuffer buffer = ByteBuffer.allocate((int) (logLength - replayedOffset));
+    readFully(buffer, replayedOffset);
+    buffer.flip();
+
+    CRC32 crc = new CRC32();
+    while (buffer.remaining() >= RECORD_FRAMING_LENGTH) {
+      int payloadLength = buffer.getInt(buffer.position());
+      int checksum = buffer.getInt(buffer.position() + 4);
+      if (payloadLength <= 0 || payloadLength > buffer.remaining() - RECORD_FRAMING_LENGTH) {
+        break;
+      }
+      byte[] payload = new byte[payloadLength];
+      buffer.position(buffer.position() + RECORD_FRAMING_LENGTH);
+      buffer.get(payload);
+      crc.reset();
+      crc.update(payload);
+      if ((int) crc.getValue() != checksum) {
+        break;
+      }
+      applyRecord(payload);
+      replayedOffset += RECORD_FRAMING_LENGTH + payloadLength;
+      ++numReplayedRecords;
+    }
+    if (buffer.hasRemaining()) {
+      // Left by a writer which died mid-append; the next append overwrites it.
+      log.debug("Ignoring incomplete record at offset %d of log '%s'", replayedOffset, logPath);
+    }
+  }
+
+  /**
+   * Reads the generation from the header of the log, verifying that it is a log at all.
+   */
+  private long readLogGeneration() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    readFully(header, 0);
+    header.flip();
+    int magic = header.getInt();
+    int version = header.getInt();
+    if (magic != LOG_MAGIC || version != LOG_VERSION) {
+      throw new IOException(String.format(
+          "File '%s' is not a metadata cache log of version %d (magic %x, version %d)",
+          logPath, LOG_VERSION, magic, version));
+    }
+    return header.getLong();
+  }
+
+  /**
+   * Appends {@code records} to the log, overwriting any incomplete record at its end, and
+   * replays them into the index. The caller must hold the exclusive file lock, and have replayed
+   * the log.
+   */
+  private void appendRecords(List<byte[]> records) throws IOException {
+    if (records.isEmpty()) {
+      return;
+    }
+    long logLength = logChannel.size();
+    if (logLength < HEADER_LENGTH) {
+      writeFully(encodeHeader(replayedGeneration), 0);
+    } else if (logLength > replayedOffset) {
+      log.info("Truncating incomplete record at offset %d of log '%s'", replayedOffset, logPath);
+      logChannel.truncate(replayedOffset);
+    }
+    writeFully(encodeRecords(records), replayedOffset);
+    replayLog();
+  }
+
+  /**
+   * Compacts the log if it holds many more records than a compacted log would. The caller must
+   * hold the exclusive file lock, and have replayed the log.
+   */
+  private void maybeCompactLog() throws IOException {
+    if (numReplayedRecords < COMPACTION_MIN_RECORDS) {
+      return;
+    }
+    // A compacted log holds at most a put and an info record per live entry.
+    long numLiveRecords = 0;
+    for (StoredBucket bucket : buckets.values()) {
+      numLiveRecords += 2 * (1 + bucket.objects.size());
+    }
+    if (numReplayedRecords > COMPACTION_RATIO * numLiveRecords) {
+      compactLog();
+    }
+  }
+
+  /**
+   * Rewrites the log in place with the records of its live entries, under a new generation. The
+   * caller must hold the exclusive file lock, and have replayed the log.
+   */
+  private void compactLog() throws IOException {
+    List<byte[]> records = new ArrayList<>();
+    for (Map.Entry<String, StoredBucket> bucket : buckets.entrySet()) {
+      StorageResourceId bucketId = new StorageResourceId(bucket.getKey());
+      List<byte[]> objectRecords = new ArrayList<>();
+      for (Map.Entry<String, StoredEntry> object : bucket.getValue().objects.entrySet()) {
+        addLiveRecords(new StorageResourceId(bucket.getKey(), object.getKey()),
+            object.getValue(), objectRecords);
+      }
+      if (objectRecords.isEmpty()
+          && isCacheEntryExpired(new CacheEntry(bucketId, bucket.getValue().creationTimeMillis))) {
+        continue;
+      }
+      // The bucket must come first, so that adding its objects doesn't add it.
+      if (!addLiveRecords(bucketId, bucket.getValue(), records)) {
+        records.add(encodePutRecord(bucketId, bucket.getValue().creationTimeMillis));
+      }
+      records.addAll(objectRecords);
+    }
+
+    long logLengthBefore = logChannel.size();
+    long generation = replayedGeneration + 1;
+    // The new header goes in before anything is dropped, so that the generation on disk only
+    // ever increases and other processes always replay from the start. A writer dying
+    // mid-compaction leaves either the old records, which still replay to the same index, or a
+    // truncated log; the records are only written after truncating, so that old records never
+    // follow new ones. Either way, the cache is strictly supplemental.
+    writeFully(encodeHeader(generation), 0);
+    logChannel.truncate(HEADER_LENGTH);
+    writeFully(encodeRecords(records), HEADER_LENGTH);
+    log.debug("Compacted log '%s' of generation %d from %d to %d bytes",
+        logPath, generation, logLengthBefore, logChannel.size());
+    replayLog();
+  }
+
+  /**
+   * Adds to {@code records} the records for {@code storedEntry} to be kept by a compaction; none
+   * if it is expired.
+   *
+   * @return true if records were added.
+   */
+  private boolean addLiveRecords(
+      StorageResourceId resourceId, StoredEntry storedEntry, List<byte[]> records)
+      throws IOException {
+    CacheEntry entry = new CacheEntry(resourceId, storedEntry.creationTimeMillis,
+        storedEntry.itemInfo, storedEntry.itemInfoUpdateTimeMillis);
+    if (isCacheEntryExpired(entry)) {
+      return false;
+    }
+    records.add(encodePutRecord(resourceId, storedEntry.creationTimeMillis));
+    maybeInvalidateExpiredInfo(entry);
+    if (entry.getItemInfo() != null) {
+      records.add(encodeInfoRecord(entry.getItemInfo(), entry.getItemInfoUpdateTimeMillis()));
+    }
+    return true;
+  }
+
+  /**
+   * Applies the record with the given {@code payload} to the index.
+   */
+  private void applyRecord(byte[] payload) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+    byte recordType = in.readByte();
+    StorageResourceId resourceId = ItemInfoCodec.readResourceId(in);
+    String bucketName = resourceId.getBucketName();
+    StoredBucket bucket = buckets.get(bucketName);
+    switch (recordType) {
+      case PUT_RECORD: {
+        long creationTimeMillis = in.readLong();
+        if (bucket == null) {
+          bucket = new StoredBucket(creationTimeMillis);
+          buckets.put(bucketName, bucket);
+        }
+        if (resourceId.isStorageObject()
+            && !bucket.objects.containsKey(resourceId.getObjectName())) {
+          bucket.objects.put(resourceId.getObjectName(), new StoredEntry(creationTimeMillis));
+        }
+        break;
+      }
+      case INFO_RECORD: {
+        long itemInfoUpdateTimeMillis = in.readLong();
+        GoogleCloudStorageItemInfo itemInfo = ItemInfoCodec.readItemInfo(resourceId, in);
+        StoredEntry storedEntry = getStoredEntry(resourceId);
+        if (storedEntry != null) {
+          storedEntry.itemInfo = itemInfo;
+          storedEntry.itemInfoUpdateTimeMillis = itemInfoUpdateTimeMillis;
+        }
+        break;
+      }
+      case REMOVE_RECORD: {
+        if (resourceId.isBucket()) {
+          buckets.remove(bucketName);
+        } else if (bucket != null) {
+          bucket.objects.remove(resourceId.getObjectName());
+        }
+        break;
+      }
+      default:
+        throw new IOException(String.format(
+            "Unknown record type %d in log '%s'", recordType, logPath));
+    }
+  }
+
+  private static DataOutputStream startRecord(
+      ByteArrayOutputStream bytes, byte recordType, StorageResourceId resourceId)
+      throws IOException {
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(recordType);
+    ItemInfoCodec.writeResourceId(resourceId, out);
+    return out;
+  }
+
+  private static byte[] encodePutRecord(StorageResourceId resourceId, long creationTimeMillis)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = startRecord(bytes, PUT_RECORD, resourceId);
+    out.writeLong(creationTimeMillis);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static byte[] encodeInfoRecord(
+      GoogleCloudStorageItemInfo itemInfo, long itemInfoUpdateTimeMillis)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = startRecord(bytes, INFO_RECORD, itemInfo.getResourceId());
+    out.writeLong(itemInfoUpdateTimeMillis);
+    ItemInfoCodec.writeItemInfo(itemInfo, out);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static byte[] encodeRemoveRecord(StorageResourceId resourceId) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = startRecord(bytes, REMOVE_RECORD, resourceId);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static ByteBuffer encodeHeader(long generation) {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    header.putInt(LOG_MAGIC);
+    header.putInt(LOG_VERSION);
+    header.putLong(generation);
+    header.flip();
+    return header;
+  }
+
+  /**
+   * Frames each of {@code records} with its length and checksum into a single buffer, so that
+   * they are appended with as few writes as possible.
+   */
+  private static ByteBuffer encodeRecords(List<byte[]> records) {
+    int totalLength = 0;
+    for (byte[] record : records) {
+      totalLength += RECORD_FRAMING_LENGTH + record.length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(totalLength);
+    CRC32 crc = new CRC32();
+    for (byte[] record : records) {
+      crc.reset();
+      crc.update(record);
+      buffer.putInt(record.length);
+      buffer.putInt((int) crc.getValue());
+      buffer.put(record);
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int bytesRead = logChannel.read(buffer, position);
+      if (bytesRead < 0) {
+        throw new EOFException(String.format(
+            "Unexpected end of log '%s' at offset %d", logPath, position));
+      }
+      position += bytesRead;
+    }
+  }
+
+  private void writeFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      position += logChannel.write(buffer, position);
+    }
+  }
+}
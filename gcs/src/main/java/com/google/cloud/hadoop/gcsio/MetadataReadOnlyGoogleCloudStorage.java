@@ -22,12 +22,14 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 /**
  * MetadataReadOnlyGoogleCloudStorage holds a collection of Storage object/bucket metadata entries
@@ -118,6 +120,20 @@ public class MetadataReadOnlyGoogleCloudStorage
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public SeekableReadableByteChannel open(
+      StorageResourceId resourceId, GoogleCloudStorageReadOptions readOptions)
+      throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public List<Future<ByteBuffer>> readVectored(
+      StorageResourceId resourceId, List<ReadRange> ranges)
+      throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public void create(String bucketName)
       throws IOException {
@@ -136,6 +152,12 @@ public class MetadataReadOnlyGoogleCloudStorage
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public void deleteObjects(List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public void copy(String srcBucketName, List<String> srcObjectNames,
       String dstBucketName, List<String> dstObjectNames)
@@ -143,6 +165,13 @@ public class MetadataReadOnlyGoogleCloudStorage
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public GoogleCloudStorageItemInfo composeObjects(List<StorageResourceId> sources,
+      StorageResourceId destination, CreateObjectOptions options)
+      throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public List<String> listBucketNames()
       throws IOException {
@@ -210,6 +239,51 @@ public class MetadataReadOnlyGoogleCloudStorage
     return allObjectInfos;
   }
 
+  /**
+   * Returns the whole listing of the cache as a single page.
+   */
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken)
+      throws IOException {
+    log.debug("listObjectInfoPage(%s, %s, %s, %s)",
+        bucketName, objectNamePrefix, delimiter, pageToken);
+    return new ListPage<>(listObjectInfo(bucketName, objectNamePrefix, delimiter), null);
+  }
+
+  /**
+   * Like the listing without maxResults, returns all matching entries at once; there is no
+   * request whose size maxResults could bound.
+   */
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken,
+      long maxResults)
+      throws IOException {
+    return listObjectInfoPage(bucketName, objectNamePrefix, delimiter, pageToken);
+  }
+
+  /**
+   * Returns the entries of the listing of the cache which fall into the range as a single page.
+   */
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPageInRange(
+      String bucketName, String objectNamePrefix, String startOffset, String endOffset,
+      String pageToken, long maxResults)
+      throws IOException {
+    log.debug("listObjectInfoPageInRange(%s, %s, %s, %s, %s, %d)",
+        bucketName, objectNamePrefix, startOffset, endOffset, pageToken, maxResults);
+    List<GoogleCloudStorageItemInfo> rangeInfos = new ArrayList<>();
+    for (GoogleCloudStorageItemInfo itemInfo : listObjectInfo(bucketName, objectNamePrefix, null)) {
+      String objectName = itemInfo.getObjectName();
+      if ((startOffset == null || objectName.compareTo(startOffset) >= 0)
+          && (endOffset == null || objectName.compareTo(endOffset) < 0)) {
+        rangeInfos.add(itemInfo);
+      }
+    }
+    return new ListPage<>(rangeInfos, null);
+  }
+
   /**
    * Pure fetch from cache.
    */
@@ -0,0 +1,394 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists all objects whose names start with a given prefix, like
+ * {@code listObjectInfo(bucketName, prefix, null)}, but with several listings running
+ * concurrently. A listing without delimiter can only be paged through sequentially, so a prefix
+ * with millions of objects takes as many sequential round trips as it has pages.
+ *
+ * The first page of the listing serves as a sample of the names under the prefix. If it is the
+ * only page, it is the whole result. Otherwise the names after the first page are split into
+ * lexicographic ranges, which are listed independently by start and end offset, up to
+ * {@code maxConcurrentListings} at a time, and the results are merged and sorted by name.
+ *
+ * The split points are actual object names, found by probing: a probe lists a single name at an
+ * offset built from the characters of the sampled names, and the first name at or after the
+ * offset becomes a split point. A probe which finds nothing before the end of its range shrinks
+ * the range instead. Probes run in rounds, each refining every range, until there are enough
+ * ranges to keep the listings busy, or no more probes can help; since ranges only need to be
+ * disjoint and cover all names, the quality of the split only affects the speed of the listing.
+ * No listing uses a delimiter, so no implicit directories are returned or repaired.
+ */
+public class ParallelPrefixLister {
+
+  // Logging helper.
+  private static final LogUtil log = new LogUtil(ParallelPrefixLister.class);
+
+  // Default maximum number of names of each page, including the first page, which decides
+  // whether the prefix is split at all.
+  public static final long PAGE_SIZE_DEFAULT =
+      GoogleCloudStorageOptions.MAX_LIST_ITEMS_PER_CALL_DEFAULT;
+
+  // Number of ranges to aim for per concurrent listing, so that ranges of uneven sizes still keep
+  // all listings busy.
+  private static final int RANGES_PER_LISTING = 4;
+
+  // Maximum number of rounds of probes; each round resolves about one more character of the
+  // split points.
+  private static final int MAX_PROBE_ROUNDS = 16;
+
+  // Maximum number of probes of a single range in a round.
+  private static final int MAX_PROBES_PER_RANGE = 8;
+
+  // Orders item infos of the same bucket by object name.
+  private static final Comparator<GoogleCloudStorageItemInfo> ITEM_INFO_NAME_COMPARATOR =
+      new Comparator<GoogleCloudStorageItemInfo>() {
+        @Override
+        public int compare(GoogleCloudStorageItemInfo info1, GoogleCloudStorageItemInfo info2) {
+          return info1.getObjectName().compareTo(info2.getObjectName());
+        }
+      };
+
+  /**
+   * A range of names from {@code start}, inclusive, to {@code end}, exclusive or null for the
+   * end of the prefix.
+   */
+  private static class NameRange {
+    final String start;
+    String end;
+
+    NameRange(String start, String end) {
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  // Storage to list; must allow concurrent calls.
+  private final GoogleCloudStorage gcs;
+
+  // Executor on which the ranges are probed and listed.
+  private final ExecutorService threadPool;
+
+  // Maximum number of probes or range listings running at once.
+  private final int maxConcurrentListings;
+
+  // Maximum number of names of each page.
+  private final long pageSize;
+
+  /**
+   * Constructs an instance of ParallelPrefixLister.
+   *
+   * @param gcs storage to list; must allow concurrent calls
+   * @param threadPool executor on which the ranges are probed and listed
+   * @param maxConcurrentListings maximum number of probes or range listings running at once
+   */
+  public ParallelPrefixLister(
+      GoogleCloudStorage gcs, ExecutorService threadPool, int maxConcurrentListings) {
+    this(gcs, threadPool, maxConcurrentListings, PAGE_SIZE_DEFAULT);
+  }
+
+  @VisibleForTesting
+  ParallelPrefixLister(GoogleCloudStorage gcs, ExecutorService threadPool,
+      int maxConcurrentListings, long pageSize) {
+    Preconditions.checkArgument(maxConcurrentListings > 0,
+        "maxConcurrentListings must be positive: %s", maxConcurrentListings);
+    Preconditions.checkArgument(pageSize > 0, "pageSize must be positive: %s", pageSize);
+    this.gcs = gcs;
+    this.threadPool = threadPool;
+    this.maxConcurrentListings = maxConcurrentListings;
+    this.pageSize = pageSize;
+  }
+
+  /**
+   * Returns the info of every object in the given bucket whose name starts with the given
+   * prefix, sorted by name. Like a listing without delimiter, no implicit directories are
+   * returned or repaired.
+   *
+   * @param bucketName bucket name
+   * @param objectNamePrefix object name prefix, or null for all objects in the bucket
+   * @throws IOException if any of the listings failed
+   */
+  public List<GoogleCloudStorageItemInfo> listObjectInfo(
+      final String bucketName, final String objectNamePrefix)
+      throws IOException {
+    log.debug("listObjectInfo(%s, %s)", bucketName, objectNamePrefix);
+
+    ListPage<GoogleCloudStorageItemInfo> firstPage = gcs.listObjectInfoPageInRange(
+        bucketName, objectNamePrefix, null, null, null, pageSize);
+    List<GoogleCloudStorageItemInfo> itemInfos = new ArrayList<>(firstPage.getItems());
+    if (firstPage.getNextPageToken() == null || itemInfos.isEmpty()) {
+      Collections.sort(itemInfos, ITEM_INFO_NAME_COMPARATOR);
+      return itemInfos;
+    }
+
+    // The rest of the names follow the last name of the first page, which starts the first range
+    // and is dropped from its listing.
+    Collections.sort(itemInfos, ITEM_INFO_NAME_COMPARATOR);
+    final String firstPageLastName = itemInfos.get(itemInfos.size() - 1).getObjectName();
+    String prefix = Strings.nullToEmpty(objectNamePrefix);
+    SortedSet<Character> alphabet = new TreeSet<>();
+    for (GoogleCloudStorageItemInfo itemInfo : itemInfos) {
+      String objectName = itemInfo.getObjectName();
+      for (int i = prefix.length(); i < objectName.length(); ++i) {
+        alphabet.add(objectName.charAt(i));
+      }
+    }
+    final List<NameRange> ranges =
+        splitRange(bucketName, prefix, new NameRange(firstPageLastName, null), alphabet);
+    log.debug("listObjectInfo(%s, %s): listing %d ranges after the first page",
+        bucketName, objectNamePrefix, ranges.size());
+
+    List<Callable<List<GoogleCloudStorageItemInfo>>> rangeListings = new ArrayList<>();
+    for (final NameRange range : ranges) {
+      rangeListings.add(new Callable<List<GoogleCloudStorageItemInfo>>() {
+        @Override
+        public List<GoogleCloudStorageItemInfo> call()
+            throws IOException {
+          return listRange(bucketName, objectNamePrefix, range, firstPageLastName);
+        }
+      });
+    }
+    for (List<GoogleCloudStorageItemInfo> rangeInfos :
+        callConcurrently(rangeListings, bucketName, objectNamePrefix)) {
+      itemInfos.addAll(rangeInfos);
+    }
+    Collections.sort(itemInfos, ITEM_INFO_NAME_COMPARATOR);
+    return itemInfos;
+  }
+
+  /**
+   * Splits {@code initialRange} into ranges starting at the names found by rounds of probes.
+   *
+   * @param prefix object name prefix which all names in the range start with
+   * @param alphabet characters which probe offsets are built from
+   * @return the ranges, which are disjoint and cover {@code initialRange}, in order
+   */
+  private List<NameRange> splitRange(final String bucketName, final String prefix,
+      NameRange initialRange, SortedSet<Character> alphabet)
+      throws IOException {
+    int targetRangeCount = maxConcurrentListings * RANGES_PER_LISTING;
+    List<NameRange> ranges = new ArrayList<>();
+    ranges.add(initialRange);
+    for (int round = 0; round < MAX_PROBE_ROUNDS && ranges.size() < targetRangeCount; ++round) {
+      // Probe each range at offsets within it, in order.
+      List<List<String>> rangeOffsets = new ArrayList<>();
+      List<Callable<String>> probes = new ArrayList<>();
+      for (final NameRange range : ranges) {
+        List<String> offsets = getProbeOffsets(prefix, range, alphabet);
+        rangeOffsets.add(offsets);
+        for (final String offset : offsets) {
+          probes.add(new Callable<String>() {
+            @Override
+            public String call()
+                throws IOException {
+              return probe(bucketName, prefix, offset, range.end);
+            }
+          });
+        }
+      }
+      if (probes.isEmpty()) {
+        break;
+      }
+      List<String> probeResults = callConcurrently(probes, bucketName, prefix);
+
+      // Split each range at the names found; the first offset at which nothing was found ends it.
+      List<NameRange> splitRanges = new ArrayList<>();
+      int probeIndex = 0;
+      for (int i = 0; i < ranges.size(); ++i) {
+        NameRange range = ranges.get(i);
+        NameRange current = new NameRange(range.start, range.end);
+        splitRanges.add(current);
+        List<String> offsets = rangeOffsets.get(i);
+        for (int j = 0; j < offsets.size(); ++j) {
+          String foundName = probeResults.get(probeIndex + j);
+          if (foundName == null) {
+            current.end = offsets.get(j);
+            break;
+          }
+          if (foundName.compareTo(current.start) > 0) {
+            current.end = foundName;
+            current = new NameRange(foundName, range.end);
+            splitRanges.add(current);
+          }
+        }
+        probeIndex += offsets.size();
+      }
+      ranges = splitRanges;
+    }
+    return ranges;
+  }
+
+  /**
+   * Returns up to MAX_PROBES_PER_RANGE offsets within {@code range}, in increasing order, each
+   * made of the common start of the range's bounds followed by a character of the alphabet
+   * between them, at the first position where there is such a character.
+   */
+  private static List<String> getProbeOffsets(
+      String prefix, NameRange range, SortedSet<Character> alphabet) {
+    String start = range.start;
+    String end = range.end;
+    int position = prefix.length();
+    // Skip the characters which the bounds have in common.
+    while (end != null && position < start.length() && position < end.length()
+        && start.charAt(position) == end.charAt(position)) {
+      ++position;
+    }
+    List<Character> candidates = new ArrayList<>();
+    while (true) {
+      SortedSet<Character> between = alphabet;
+      if (position < start.length()) {
+        // Successors of a character which ends the range's start are still within the range.
+        between = between.tailSet((char) (start.charAt(position) + 1));
+      }
+      if (end != null && position < end.length()) {
+        between = between.headSet(end.charAt(position));
+      }
+      if (!between.isEmpty() || position >= start.length()) {
+        candidates.addAll(between);
+        break;
+      }
+      // No character fits at this position; names which share the start's character here are
+      // bounded by the end no further.
+      if (end != null && position < end.length()) {
+        end = null;
+      }
+      ++position;
+    }
+
+    String offsetBase = start.substring(0, Math.min(position, start.length()));
+    int probeCount = Math.min(candidates.size(), MAX_PROBES_PER_RANGE);
+    List<String> offsets = new ArrayList<>(probeCount);
+    for (int i = 0; i < probeCount; ++i) {
+      // Spread the probes evenly over the candidates.
+      offsets.add(offsetBase + candidates.get(i * candidates.size() / probeCount));
+    }
+    return offsets;
+  }
+
+  /**
+   * Returns the first name at or after {@code offset} and before {@code end}, or null if none.
+   */
+  private String probe(String bucketName, String prefix, String offset, String end)
+      throws IOException {
+    ListPage<GoogleCloudStorageItemInfo> page =
+        gcs.listObjectInfoPageInRange(bucketName, prefix, offset, end, null, 1);
+    String firstName = null;
+    for (GoogleCloudStorageItemInfo itemInfo : page.getItems()) {
+      if (firstName == null || itemInfo.getObjectName().compareTo(firstName) < 0) {
+        firstName = itemInfo.getObjectName();
+      }
+    }
+    return firstName;
+  }
+
+  /**
+   * Lists all names within {@code range}, except {@code excludedName}.
+   */
+  private List<GoogleCloudStorageItemInfo> listRange(
+      String bucketName, String objectNamePrefix, NameRange range, String excludedName)
+      throws IOException {
+    List<GoogleCloudStorageItemInfo> rangeInfos = new ArrayList<>();
+    String pageToken = null;
+    do {
+      ListPage<GoogleCloudStorageItemInfo> page = gcs.listObjectInfoPageInRange(
+          bucketName, objectNamePrefix, range.start, range.end, pageToken, pageSize);
+      for (GoogleCloudStorageItemInfo itemInfo : page.getItems()) {
+        if (!itemInfo.getObjectName().equals(excludedName)) {
+          rangeInfos.add(itemInfo);
+        }
+      }
+      pageToken = page.getNextPageToken();
+    } while (pageToken != null);
+    return rangeInfos;
+  }
+
+  /**
+   * Runs {@code tasks} on up to maxConcurrentListings threads of the threadPool, and returns
+   * their results in order.
+   *
+   * @throws IOException if any of the tasks failed
+   */
+  private <T> List<T> callConcurrently(final List<? extends Callable<T>> tasks,
+      String bucketName, String objectNamePrefix)
+      throws IOException {
+    // Each worker runs the next task not taken yet until none are left.
+    final AtomicInteger nextTask = new AtomicInteger();
+    final List<T> results = new ArrayList<>(Collections.<T>nCopies(tasks.size(), null));
+    int workerCount = Math.min(maxConcurrentListings, tasks.size());
+    List<Future<Void>> workers = new ArrayList<>(workerCount);
+    IOException failure = null;
+    try {
+      for (int i = 0; i < workerCount; ++i) {
+        workers.add(threadPool.submit(new Callable<Void>() {
+          @Override
+          public Void call()
+              throws Exception {
+            for (int task = nextTask.getAndIncrement(); task < tasks.size();
+                task = nextTask.getAndIncrement()) {
+              // Each task has its own slot; Future.get() publishes it to the caller.
+              results.set(task, tasks.get(task).call());
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> worker : workers) {
+        try {
+          worker.get();
+        } catch (ExecutionException ee) {
+          if (failure == null) {
+            failure = ee.getCause() instanceof IOException
+                ? (IOException) ee.getCause()
+                : new IOException(ee.getCause());
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return results;
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(String.format(
+          "Interrupted listing gs://%s/%s", bucketName, Strings.nullToEmpty(objectNamePrefix)));
+    } finally {
+      // Don't leave listings running if this one is abandoned.
+      for (Future<Void> worker : workers) {
+        worker.cancel(true);
+      }
+    }
+  }
+}
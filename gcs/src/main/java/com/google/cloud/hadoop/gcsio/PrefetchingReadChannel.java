@@ -0,0 +1,451 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A SeekableReadableByteChannel which reads an object by fetching the chunks following the
+ * current position concurrently, each through its own bounded range request, and serving bytes
+ * in order from completed chunks. This lets a single sequential reader use several connections
+ * instead of being capped by the throughput of a single HTTP stream.
+ *
+ * The number of chunks in flight or buffered at any time is bounded by
+ * {@link GoogleCloudStorageReadOptions#getMaxPrefetchedChunks()}. A seek within the prefetched
+ * window reuses the chunks already fetched; any other seek discards them and restarts
+ * prefetching at the new position.
+ *
+ * Chunk buffers are recycled through a free list of at most that many buffers: a buffer is
+ * returned when the reader moves past its chunk or when the chunk is discarded, and reused by
+ * the next fetch instead of allocating a new one.
+ */
+public class PrefetchingReadChannel
+    implements SeekableReadableByteChannel, ItemInfoProvider {
+
+  // Logging helper.
+  private static final LogUtil log = new LogUtil(PrefetchingReadChannel.class);
+
+  /**
+   * Opens independent channels over the object being read; each prefetched chunk is read through
+   * a freshly opened channel so that chunks can be fetched concurrently.
+   */
+  public static interface ChannelFactory {
+    /**
+     * Returns a new channel positioned at the start of the object.
+     */
+    SeekableReadableByteChannel open()
+        throws IOException;
+  }
+
+  /**
+   * A chunk of the object being fetched or already fetched.
+   */
+  private static class Chunk {
+    // Offset of the first byte of this chunk within the object.
+    final long start;
+
+    // Requested length of this chunk.
+    final int length;
+
+    // Completes with the chunk contents, flipped for reading.
+    final Future<ByteBuffer> contents;
+
+    Chunk(long start, int length, Future<ByteBuffer> contents) {
+      this.start = start;
+      this.length = length;
+      this.contents = contents;
+    }
+
+    long end() {
+      return start + length;
+    }
+  }
+
+  // Opens the channels used to fetch individual chunks.
+  private final ChannelFactory channelFactory;
+
+  // Executor on which chunks are fetched.
+  private final ExecutorService executor;
+
+  // Size of each chunk.
+  private final int chunkSize;
+
+  // Maximum number of chunks in flight or buffered, including the one being consumed.
+  private final int maxPrefetchedChunks;
+
+  // Size of the object being read.
+  private final long size;
+
+  // Name of the object being read, for logging.
+  private final String resourceString;
+
+  // Metadata of the object fetched when this channel was opened, or null.
+  private GoogleCloudStorageItemInfo itemInfo;
+
+  // Chunks requested ahead of the reader, in object order and contiguous.
+  private final Deque<Chunk> prefetchedChunks = new ArrayDeque<>();
+
+  // Buffers of consumed or discarded chunks, available for reuse by later fetches. Guarded by
+  // itself since fetch tasks take buffers from it on executor threads.
+  private final Deque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+
+  // Contents of the chunk currently being consumed, or null if none.
+  private ByteBuffer currentBuffer;
+
+  // Offset within the object of the first byte of currentBuffer.
+  private long currentBufferStart;
+
+  // Offset within the object of the next chunk to request.
+  private long nextChunkStart;
+
+  // Current read position in the object.
+  private long position;
+
+  // True if this channel is open, false otherwise.
+  private boolean channelIsOpen = true;
+
+  /**
+   * Constructs an instance of PrefetchingReadChannel.
+   *
+   * @param channelFactory opens the channels used to fetch individual chunks
+   * @param executor executor on which chunks are fetched
+   * @param size size of the object being read
+   * @param readOptions options supplying chunk size, parallelism and memory cap
+   * @param resourceString human readable name of the object, used for logging
+   */
+  public PrefetchingReadChannel(
+      ChannelFactory channelFactory,
+      ExecutorService executor,
+      long size,
+      GoogleCloudStorageReadOptions readOptions,
+      String resourceString) {
+    Preconditions.checkArgument(channelFactory != null, "channelFactory must not be null");
+    Preconditions.checkArgument(executor != null, "executor must not be null");
+    Preconditions.checkArgument(size >= 0, "size must not be negative: %s", size);
+    this.channelFactory = channelFactory;
+    this.executor = executor;
+    this.size = size;
+    this.chunkSize = readOptions.getPrefetchChunkSize();
+    this.maxPrefetchedChunks = readOptions.getMaxPrefetchedChunks();
+    this.resourceString = resourceString;
+  }
+
+  @Override
+  public int read(ByteBuffer buffer)
+      throws IOException {
+    throwIfNotOpen();
+
+    if (buffer.remaining() == 0) {
+      return 0;
+    }
+
+    int totalBytesRead = 0;
+    while (buffer.hasRemaining() && position < size) {
+      if (!ensureCurrentBuffer()) {
+        break;
+      }
+      int bytesToCopy = Math.min(buffer.remaining(), currentBuffer.remaining());
+      ByteBuffer slice = currentBuffer.duplicate();
+      slice.limit(slice.position() + bytesToCopy);
+      buffer.put(slice);
+      currentBuffer.position(currentBuffer.position() + bytesToCopy);
+      position += bytesToCopy;
+      totalBytesRead += bytesToCopy;
+    }
+
+    return totalBytesRead == 0 ? -1 : totalBytesRead;
+  }
+
+  @Override
+  public long position()
+      throws IOException {
+    throwIfNotOpen();
+    return position;
+  }
+
+  @Override
+  public SeekableReadableByteChannel position(long newPosition)
+      throws IOException {
+    throwIfNotOpen();
+    Preconditions.checkArgument(newPosition >= 0,
+        "Invalid seek offset: position value (%s) must be >= 0", newPosition);
+    Preconditions.checkArgument(newPosition < size || (size == 0 && newPosition == 0),
+        "Invalid seek offset: position value (%s) must be between 0 and %s", newPosition, size);
+
+    if (currentBuffer != null) {
+      long offsetInBuffer = newPosition - currentBufferStart;
+      if (offsetInBuffer >= 0 && offsetInBuffer < currentBuffer.limit()) {
+        currentBuffer.position((int) offsetInBuffer);
+      } else {
+        recycleBuffer(currentBuffer);
+        currentBuffer = null;
+      }
+    }
+    position = newPosition;
+    return this;
+  }
+
+  @Override
+  public long size()
+      throws IOException {
+    throwIfNotOpen();
+    return size;
+  }
+
+  /**
+   * Sets the metadata of the object fetched when this channel was opened.
+   */
+  void setItemInfo(GoogleCloudStorageItemInfo itemInfo) {
+    this.itemInfo = itemInfo;
+  }
+
+  @Override
+  public GoogleCloudStorageItemInfo getItemInfo() {
+    return itemInfo;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return channelIsOpen;
+  }
+
+  @Override
+  public void close()
+      throws IOException {
+    throwIfNotOpen();
+    channelIsOpen = false;
+    if (currentBuffer != null) {
+      recycleBuffer(currentBuffer);
+      currentBuffer = null;
+    }
+    cancelPrefetchedChunks();
+  }
+
+  /**
+   * Returns the number of chunks currently in flight or buffered ahead of the reader.
+   */
+  @VisibleForTesting
+  int getPrefetchedChunkCount() {
+    return prefetchedChunks.size();
+  }
+
+  /**
+   * Returns the number of chunk buffers currently available for reuse.
+   */
+  @VisibleForTesting
+  int getFreeBufferCount() {
+    synchronized (freeBuffers) {
+      return freeBuffers.size();
+    }
+  }
+
+  /**
+   * Makes currentBuffer hold the bytes at the current position, waiting for the chunk covering
+   * it to complete and topping up the prefetch window.
+   *
+   * @return false if the chunk covering the current position came back empty.
+   */
+  private boolean ensureCurrentBuffer()
+      throws IOException {
+    if (currentBuffer != null && currentBuffer.hasRemaining()) {
+      return true;
+    }
+    if (currentBuffer != null) {
+      recycleBuffer(currentBuffer);
+      currentBuffer = null;
+    }
+
+    // Drop chunks the reader has already moved past; if the position is not covered by the head
+    // of the window (backward seek or a seek past the window), start over from the position.
+    while (!prefetchedChunks.isEmpty() && prefetchedChunks.peekFirst().end() <= position) {
+      discardChunk(prefetchedChunks.removeFirst());
+    }
+    if (prefetchedChunks.isEmpty() || prefetchedChunks.peekFirst().start > position) {
+      if (!prefetchedChunks.isEmpty()) {
+        log.debug("Position %d of '%s' is outside the prefetched window; restarting.",
+            position, resourceString);
+      }
+      cancelPrefetchedChunks();
+      nextChunkStart = position;
+    }
+
+    // Keep the window full; the chunk being consumed counts against the limit.
+    while (prefetchedChunks.size() < maxPrefetchedChunks && nextChunkStart < size) {
+      int length = (int) Math.min(chunkSize, size - nextChunkStart);
+      prefetchedChunks.addLast(
+          new Chunk(nextChunkStart, length, executor.submit(newFetchTask(nextChunkStart, length))));
+      nextChunkStart += length;
+    }
+
+    Chunk chunk = prefetchedChunks.removeFirst();
+    ByteBuffer contents = awaitChunk(chunk);
+    int offsetInChunk = (int) (position - chunk.start);
+    if (offsetInChunk >= contents.limit()) {
+      // The chunk was cut short, most likely because the object shrank while we were reading it.
+      log.debug("Chunk at %d of '%s' returned only %d bytes; stopping.",
+          chunk.start, resourceString, contents.limit());
+      recycleBuffer(contents);
+      cancelPrefetchedChunks();
+      return false;
+    }
+    contents.position(offsetInChunk);
+    currentBuffer = contents;
+    currentBufferStart = chunk.start;
+    if (contents.limit() < chunk.length) {
+      // Force subsequent reads to start a new window right after the short chunk.
+      cancelPrefetchedChunks();
+      nextChunkStart = chunk.start + contents.limit();
+    }
+    return true;
+  }
+
+  /**
+   * Waits for the given chunk to be fetched, translating failures into IOExceptions.
+   */
+  private ByteBuffer awaitChunk(Chunk chunk)
+      throws IOException {
+    try {
+      return chunk.contents.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      cancelPrefetchedChunks();
+      InterruptedIOException iioe =
+          new InterruptedIOException("Interrupted while waiting for prefetched chunk");
+      iioe.initCause(e);
+      throw iioe;
+    } catch (ExecutionException e) {
+      cancelPrefetchedChunks();
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(
+          String.format("Failed to fetch chunk at %d of '%s'", chunk.start, resourceString),
+          e.getCause());
+    }
+  }
+
+  /**
+   * Cancels and discards all chunks requested ahead of the reader.
+   */
+  private void cancelPrefetchedChunks() {
+    for (Chunk chunk : prefetchedChunks) {
+      discardChunk(chunk);
+    }
+    prefetchedChunks.clear();
+  }
+
+  /**
+   * Cancels the given chunk and, if it had already been fetched, recycles its buffer. A fetch
+   * which fails or is interrupted recycles its own buffer.
+   */
+  private void discardChunk(Chunk chunk) {
+    if (chunk.contents.cancel(true) || chunk.contents.isCancelled()) {
+      return;
+    }
+    try {
+      recycleBuffer(chunk.contents.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      // The failed fetch has already recycled its buffer.
+    }
+  }
+
+  /**
+   * Returns an empty buffer with {@code length} bytes remaining, reusing a free buffer if one is
+   * large enough.
+   */
+  private ByteBuffer takeBuffer(int length) {
+    ByteBuffer buffer;
+    synchronized (freeBuffers) {
+      buffer = freeBuffers.pollFirst();
+    }
+    if (buffer == null || buffer.capacity() < length) {
+      return ByteBuffer.allocate(length);
+    }
+    buffer.clear();
+    buffer.limit(length);
+    return buffer;
+  }
+
+  /**
+   * Makes the given buffer available for reuse unless the free list is already full.
+   */
+  private void recycleBuffer(ByteBuffer buffer) {
+    synchronized (freeBuffers) {
+      if (freeBuffers.size() < maxPrefetchedChunks) {
+        freeBuffers.addLast(buffer);
+      }
+    }
+  }
+
+  /**
+   * Returns a task which reads {@code length} bytes starting at {@code start} through a newly
+   * opened channel.
+   */
+  private Callable<ByteBuffer> newFetchTask(final long start, final int length) {
+    return new Callable<ByteBuffer>() {
+      @Override
+      public ByteBuffer call()
+          throws IOException {
+        ByteBuffer contents = takeBuffer(length);
+        boolean fetched = false;
+        try {
+          SeekableReadableByteChannel channel = channelFactory.open();
+          try {
+            channel.position(start);
+            while (contents.hasRemaining()) {
+              if (channel.read(contents) < 0) {
+                break;
+              }
+            }
+          } finally {
+            channel.close();
+          }
+          contents.flip();
+          fetched = true;
+          return contents;
+        } finally {
+          if (!fetched) {
+            recycleBuffer(contents);
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Throws if this channel is not currently open.
+   */
+  private void throwIfNotOpen()
+      throws IOException {
+    if (!isOpen()) {
+      throw new ClosedChannelException();
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A contiguous range of bytes within an object, as requested from
+ * {@link GoogleCloudStorage#readVectored(StorageResourceId, java.util.List)}.
+ */
+public class ReadRange {
+  // Offset of the first byte of the range within the object.
+  private final long offset;
+
+  // Number of bytes in the range.
+  private final int length;
+
+  /**
+   * Constructs an instance of ReadRange.
+   *
+   * @param offset offset of the first byte of the range within the object
+   * @param length number of bytes in the range
+   */
+  public ReadRange(long offset, int length) {
+    Preconditions.checkArgument(offset >= 0, "offset must not be negative: %s", offset);
+    Preconditions.checkArgument(length >= 0, "length must not be negative: %s", length);
+    this.offset = offset;
+    this.length = length;
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Returns the offset just past the last byte of the range.
+   */
+  public long getEnd() {
+    return offset + length;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof ReadRange)) {
+      return false;
+    }
+    ReadRange other = (ReadRange) obj;
+    return offset == other.offset && length == other.length;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Long.valueOf(offset).hashCode() + length;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("[%d, %d)", offset, getEnd());
+  }
+}
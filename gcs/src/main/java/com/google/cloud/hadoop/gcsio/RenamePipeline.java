@@ -0,0 +1,352 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves the objects under one directory prefix to another by copying them in batches of up to
+ * {@code batchSize} objects, with up to {@code maxConcurrentBatches} batches in flight at once.
+ * The sources of a batch are deleted as soon as all of its copies succeed, so copying and
+ * deleting overlap instead of running as two sequential phases, and sources are consumed from a
+ * {@link FileInfoIterator} as batches are started, so that a large directory is moved page by page
+ * of its listing rather than listed in full up front. Sources are deleted conditional on the
+ * generations returned by the listing, which saves looking up the generation of each object.
+ *
+ * Directory placeholder objects (names ending in "/") are copied along with the other objects,
+ * but their sources are not deleted by the pipeline: as long as the rename has not completed,
+ * the source directory structure stays intact. {@link #getSourceDirectoryNames()} returns them
+ * for the caller to delete, children before parents, once {@link #run} succeeds.
+ *
+ * If a batch fails no further batches are started; run() waits for those in flight and throws.
+ * Objects of batches which completed have then been moved, the remaining ones have not.
+ *
+ * An instance performs a single rename and is not reusable.
+ */
+public class RenamePipeline {
+
+  // Logging helper.
+  private static final LogUtil log = new LogUtil(RenamePipeline.class);
+
+  // Minimum number of objects moved between two progress log messages.
+  private static final long PROGRESS_LOG_INTERVAL = 10000;
+
+  // Storage used to copy and delete objects; must allow concurrent calls.
+  private final GoogleCloudStorage gcs;
+
+  // Executor on which batches run.
+  private final ExecutorService threadPool;
+
+  // Maximum number of objects per batch.
+  private final int batchSize;
+
+  // Limits the number of batches in flight.
+  private final Semaphore batchPermits;
+  private final int maxConcurrentBatches;
+
+  // Source and destination buckets, and object name prefixes of the two directories. The
+  // prefixes are empty if a directory is a bucket, otherwise they end with "/".
+  private final String srcBucketName;
+  private final String srcPrefix;
+  private final String dstBucketName;
+  private final String dstPrefix;
+
+  // Progress counters.
+  private final AtomicLong listedCount = new AtomicLong();
+  private final AtomicLong copiedCount = new AtomicLong();
+  private final AtomicLong deletedCount = new AtomicLong();
+  private final AtomicLong completedBatchCount = new AtomicLong();
+
+  // Value of copiedCount when progress was last logged.
+  private final AtomicLong lastLoggedCount = new AtomicLong();
+
+  // Source directory placeholders whose deletion is left to the caller, with their generations.
+  private final Map<String, Long> srcDirectoryGenerations = new HashMap<>();
+
+  // For each parent directory of a copied object, the name of one of its copied children, and
+  // the destination directory placeholders which were copied; see
+  // getDestinationChildPerParent().
+  private final Map<String, String> dstChildPerParent = new HashMap<>();
+  private final Set<String> dstDirectoryNames = new HashSet<>();
+
+  // First failure of any batch, or null.
+  private volatile IOException failure;
+
+  /**
+   * Constructs an instance of RenamePipeline.
+   *
+   * @param gcs storage used to copy and delete objects; must allow concurrent calls
+   * @param threadPool executor on which batches run
+   * @param batchSize maximum number of objects per batch
+   * @param maxConcurrentBatches maximum number of batches in flight
+   * @param srcBucketName bucket of the source directory
+   * @param srcPrefix object name prefix of the source directory, empty for a bucket
+   * @param dstBucketName bucket of the destination directory
+   * @param dstPrefix object name prefix of the destination directory, empty for a bucket
+   */
+  public RenamePipeline(
+      GoogleCloudStorage gcs,
+      ExecutorService threadPool,
+      int batchSize,
+      int maxConcurrentBatches,
+      String srcBucketName,
+      String srcPrefix,
+      String dstBucketName,
+      String dstPrefix) {
+    Preconditions.checkArgument(batchSize > 0, "batchSize must be positive: %s", batchSize);
+    Preconditions.checkArgument(maxConcurrentBatches > 0,
+        "maxConcurrentBatches must be positive: %s", maxConcurrentBatches);
+    this.gcs = gcs;
+    this.threadPool = threadPool;
+    this.batchSize = batchSize;
+    this.maxConcurrentBatches = maxConcurrentBatches;
+    this.batchPermits = new Semaphore(maxConcurrentBatches);
+    this.srcBucketName = srcBucketName;
+    this.srcPrefix = srcPrefix;
+    this.dstBucketName = dstBucketName;
+    this.dstPrefix = dstPrefix;
+  }
+
+  /**
+   * Moves every object returned by {@code srcInfos}, each of which must be in the source bucket
+   * and start with the source prefix, to the same relative name under the destination prefix.
+   * Pages of the listing are fetched as batches are started. Blocks until every batch has
+   * completed.
+   *
+   * @throws IOException if listing, or any copy or delete, failed
+   */
+  public void run(FileInfoIterator srcInfos)
+      throws IOException {
+    log.debug("run(gs://%s/%s -> gs://%s/%s)", srcBucketName, srcPrefix, dstBucketName, dstPrefix);
+    try {
+      while (failure == null && srcInfos.hasNext()) {
+        List<String> batchSrcNames = new ArrayList<>(batchSize);
+        List<String> batchDstNames = new ArrayList<>(batchSize);
+        List<Long> batchSrcGenerations = new ArrayList<>(batchSize);
+        while (batchSrcNames.size() < batchSize && srcInfos.hasNext()) {
+          GoogleCloudStorageItemInfo srcItemInfo = srcInfos.next().getItemInfo();
+          Preconditions.checkArgument(srcItemInfo.getBucketName().equals(srcBucketName),
+              "Object %s is not in bucket %s", srcItemInfo.getResourceId(), srcBucketName);
+          String srcObjectName = srcItemInfo.getObjectName();
+          Preconditions.checkArgument(srcObjectName.startsWith(srcPrefix),
+              "Object %s is not under %s", srcObjectName, srcPrefix);
+          String dstObjectName = dstPrefix + srcObjectName.substring(srcPrefix.length());
+          batchSrcNames.add(srcObjectName);
+          batchDstNames.add(dstObjectName);
+          batchSrcGenerations.add(srcItemInfo.getContentGeneration());
+          recordDestination(dstObjectName, srcItemInfo.getContentGeneration());
+        }
+        listedCount.addAndGet(batchSrcNames.size());
+        startBatch(batchSrcNames, batchDstNames, batchSrcGenerations);
+      }
+    } finally {
+      // Wait for all batches in flight, whether or not starting more failed.
+      batchPermits.acquireUninterruptibly(maxConcurrentBatches);
+      batchPermits.release(maxConcurrentBatches);
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+    log.debug("run(gs://%s/%s -> gs://%s/%s): done, %s",
+        srcBucketName, srcPrefix, dstBucketName, dstPrefix, this);
+  }
+
+  /**
+   * Returns the names of the source directory placeholders which were copied but not deleted,
+   * sorted so that children appear before their parents.
+   */
+  public List<String> getSourceDirectoryNames() {
+    List<String> names = new ArrayList<>(srcDirectoryGenerations.keySet());
+    Collections.sort(names, Collections.reverseOrder());
+    return names;
+  }
+
+  /**
+   * Returns the generation, as listed, of each name returned by getSourceDirectoryNames(), so that
+   * the caller can delete them without looking their generations up again.
+   */
+  public Map<String, Long> getSourceDirectoryGenerations() {
+    return Collections.unmodifiableMap(srcDirectoryGenerations);
+  }
+
+  /**
+   * Returns, for each parent directory of the copied objects which was not itself copied, the
+   * name of one of its copied children, e.g. to update the modification time of the parent.
+   */
+  public List<String> getDestinationChildPerParent() {
+    List<String> childNames = new ArrayList<>();
+    for (Map.Entry<String, String> entry : dstChildPerParent.entrySet()) {
+      if (!dstDirectoryNames.contains(entry.getKey())) {
+        childNames.add(entry.getValue());
+      }
+    }
+    return childNames;
+  }
+
+  /**
+   * Returns the number of objects taken from the source listing so far.
+   */
+  public long getListedCount() {
+    return listedCount.get();
+  }
+
+  /**
+   * Returns the number of objects copied so far.
+   */
+  public long getCopiedCount() {
+    return copiedCount.get();
+  }
+
+  /**
+   * Returns the number of source objects deleted so far.
+   */
+  public long getDeletedCount() {
+    return deletedCount.get();
+  }
+
+  /**
+   * Returns the number of batches completed so far, successfully or not.
+   */
+  public long getCompletedBatchCount() {
+    return completedBatchCount.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("RenamePipeline{listed=%d, copied=%d, deleted=%d, batches=%d}",
+        listedCount.get(), copiedCount.get(), deletedCount.get(), completedBatchCount.get());
+  }
+
+  /**
+   * Remembers a destination name, and the generation of its source, for
+   * getSourceDirectoryNames() and getDestinationChildPerParent(); called on the thread calling
+   * run().
+   */
+  private void recordDestination(String dstObjectName, long srcGeneration) {
+    if (dstObjectName.endsWith(GoogleCloudStorage.PATH_DELIMITER)) {
+      srcDirectoryGenerations.put(
+          srcPrefix + dstObjectName.substring(dstPrefix.length()), srcGeneration);
+      dstDirectoryNames.add(dstObjectName);
+    }
+    String parentName = getParentName(dstObjectName);
+    if (!dstChildPerParent.containsKey(parentName)) {
+      dstChildPerParent.put(parentName, dstObjectName);
+    }
+  }
+
+  /**
+   * Starts copying, and then deleting, a batch once fewer than maxConcurrentBatches are in
+   * flight.
+   */
+  private void startBatch(final List<String> batchSrcNames, final List<String> batchDstNames,
+      final List<Long> batchSrcGenerations)
+      throws IOException {
+    try {
+      batchPermits.acquire();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(String.format(
+          "Interrupted renaming gs://%s/%s to gs://%s/%s",
+          srcBucketName, srcPrefix, dstBucketName, dstPrefix));
+    }
+    if (failure != null) {
+      // A batch failed while this one waited; don't move anything more.
+      batchPermits.release();
+      return;
+    }
+    try {
+      threadPool.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            runBatch(batchSrcNames, batchDstNames, batchSrcGenerations);
+          } catch (IOException ioe) {
+            if (failure == null) {
+              failure = ioe;
+            }
+          } catch (RuntimeException re) {
+            if (failure == null) {
+              failure = new IOException(re);
+            }
+          } finally {
+            completedBatchCount.incrementAndGet();
+            batchPermits.release();
+          }
+        }
+      });
+    } catch (RuntimeException re) {
+      batchPermits.release();
+      throw re;
+    }
+  }
+
+  private void runBatch(List<String> batchSrcNames, List<String> batchDstNames,
+      List<Long> batchSrcGenerations)
+      throws IOException {
+    gcs.copy(srcBucketName, batchSrcNames, dstBucketName, batchDstNames);
+    copiedCount.addAndGet(batchSrcNames.size());
+
+    List<StorageResourceId> objectsToDelete = new ArrayList<>(batchSrcNames.size());
+    List<Long> objectGenerations = new ArrayList<>(batchSrcNames.size());
+    for (int i = 0; i < batchSrcNames.size(); ++i) {
+      String srcObjectName = batchSrcNames.get(i);
+      if (!srcObjectName.endsWith(GoogleCloudStorage.PATH_DELIMITER)) {
+        objectsToDelete.add(new StorageResourceId(srcBucketName, srcObjectName));
+        objectGenerations.add(batchSrcGenerations.get(i));
+      }
+    }
+    if (!objectsToDelete.isEmpty()) {
+      gcs.deleteObjects(objectsToDelete, objectGenerations);
+      deletedCount.addAndGet(objectsToDelete.size());
+    }
+    maybeLogProgress();
+  }
+
+  private void maybeLogProgress() {
+    long copied = copiedCount.get();
+    long lastLogged = lastLoggedCount.get();
+    if (copied - lastLogged >= PROGRESS_LOG_INTERVAL
+        && lastLoggedCount.compareAndSet(lastLogged, copied)) {
+      log.info("Renaming gs://%s/%s to gs://%s/%s: %s",
+          srcBucketName, srcPrefix, dstBucketName, dstPrefix, this);
+    }
+  }
+
+  /**
+   * Returns the name of the directory containing the given object, or "" for the bucket.
+   */
+  private static String getParentName(String objectName) {
+    int end = objectName.endsWith(GoogleCloudStorage.PATH_DELIMITER)
+        ? objectName.length() - 1
+        : objectName.length();
+    int index = objectName.lastIndexOf(GoogleCloudStorage.PATH_DELIMITER, end - 1);
+    return index < 0 ? "" : objectName.substring(0, index + 1);
+  }
+}
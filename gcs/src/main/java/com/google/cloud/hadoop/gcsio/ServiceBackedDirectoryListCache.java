@@ -0,0 +1,552 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ServiceBackedDirectoryListCache is a client of a DirectoryListCacheServer, which holds the cache
+ * entries of all connector instances configured with the server's address, typically those of a
+ * whole cluster or job. An object added by any node is then immediately listed on every node, and
+ * an item info fetched by any node is returned to every node until it expires.
+ * <p>
+ * Additions and removals are sent to the server before returning, since other nodes rely on them
+ * for list consistency. Infos set on returned CacheEntries are only an optimization, and are sent
+ * in batches instead: when INFO_BATCH_WINDOW_MILLIS has passed since the first unsent one was set,
+ * when MAX_INFO_BATCH_SIZE of them are pending, and before any other request of this instance.
+ * <p>
+ * Expiration is governed by the server's Config and clock; the Config of this instance is unused.
+ * Returned CacheEntries are not shared references; each call returns new instances holding the
+ * state on the server.
+ * <p>
+ * If the server can't be reached, this instance degrades to a pass-through cache for
+ * UNAVAILABLE_RETRY_INTERVAL_MILLIS before trying again: additions are not recorded, lookups and
+ * listings find nothing, and removals are dropped, so that file system operations go on, without
+ * the consistency the cache adds, rather than fail. Errors reported by a reachable server are
+ * still thrown.
+ * <p>
+ * This class is thread-safe; requests of concurrent threads are sent over up to MAX_CONNECTIONS
+ * connections to the server, which are kept open for later requests.
+ */
+public class ServiceBackedDirectoryListCache extends DirectoryListCache implements Closeable {
+  // Logger.
+  private static final LogUtil log = new LogUtil(ServiceBackedDirectoryListCache.class);
+
+  // Timeouts for connecting to the server and for awaiting its responses.
+  private static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+  private static final int READ_TIMEOUT_MILLIS = 60 * 1000;
+
+  // Time for which infos set on returned CacheEntries are collected before being sent.
+  @VisibleForTesting
+  static final long INFO_BATCH_WINDOW_MILLIS = 100;
+
+  // Number of pending infos at which they are sent without waiting for the window to end.
+  @VisibleForTesting
+  static final int MAX_INFO_BATCH_SIZE = 256;
+
+  // How long the idle batching thread is kept alive.
+  private static final long BATCH_THREAD_KEEP_ALIVE_MILLIS = 60 * 1000;
+
+  // Maximum number of connections to the server, i.e. of requests in flight.
+  @VisibleForTesting
+  static final int MAX_CONNECTIONS = 4;
+
+  // How long requests pass through without trying the server once it couldn't be reached.
+  @VisibleForTesting
+  static final long UNAVAILABLE_RETRY_INTERVAL_MILLIS = 30 * 1000;
+
+  /**
+   * An open, authenticated connection to the server; used by one request at a time.
+   */
+  private static class Connection {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    Connection(Socket socket, DataInputStream in, DataOutputStream out) {
+      this.socket = socket;
+      this.in = in;
+      this.out = out;
+    }
+
+    /**
+     * Sends {@code request} and returns the response.
+     */
+    byte[] sendAndReceive(byte[] request) throws IOException {
+      DirectoryListCacheServer.writeMessage(request, out);
+      return DirectoryListCacheServer.readMessage(in);
+    }
+
+    void close() {
+      try {
+        socket.close();
+      } catch (IOException ioe) {
+        log.debug("Failed to close connection to metadata cache service", ioe);
+      }
+    }
+  }
+
+  /**
+   * CacheEntry whose infos are also sent to the server.
+   */
+  private class ServiceBackedCacheEntry extends CacheEntry {
+    ServiceBackedCacheEntry(StorageResourceId resourceId, long creationTimeMillis,
+        GoogleCloudStorageItemInfo itemInfo, long itemInfoUpdateTimeMillis) {
+      super(resourceId, creationTimeMillis, itemInfo, itemInfoUpdateTimeMillis);
+    }
+
+    @Override
+    public GoogleCloudStorageItemInfo setItemInfo(GoogleCloudStorageItemInfo newItemInfo) {
+      GoogleCloudStorageItemInfo oldInfo = super.setItemInfo(newItemInfo);
+      addPendingItemInfo(newItemInfo);
+      return oldInfo;
+    }
+  }
+
+  // The address of the server, as host:port, and its parts.
+  private final String serverAddress;
+  private final String serverHost;
+  private final int serverPort;
+
+  // Secret shared with the server.
+  private final byte[] secret;
+
+  // Open connections not used by a request; most recently used first.
+  private final BlockingDeque<Connection> idleConnections = new LinkedBlockingDeque<>();
+
+  // Limits the number of connections, idle or in use.
+  private final Semaphore connectionPermits = new Semaphore(MAX_CONNECTIONS);
+
+  // Time until which requests pass through because the server couldn't be reached, or 0.
+  private volatile long unavailableUntilMillis = 0;
+
+  // Infos not sent yet, by resourceId, so that only the latest info of each entry is sent. Guarded
+  // by itself.
+  private final Map<StorageResourceId, GoogleCloudStorageItemInfo> pendingItemInfos =
+      new LinkedHashMap<>();
+
+  // Whether sending the pending infos is scheduled. Guarded by pendingItemInfos.
+  private boolean itemInfoSendScheduled;
+
+  // Sends pending infos at the end of a window; created when first needed. Guarded by
+  // pendingItemInfos.
+  private ScheduledThreadPoolExecutor batchExecutor;
+
+  // Sends the pending infos.
+  private final Runnable scheduledItemInfoSend = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        flush();
+      } catch (IOException ioe) {
+        // The infos are fetched again when they are next needed.
+        log.warn("Failed to send itemInfos to metadata cache service", ioe);
+      }
+    }
+  };
+
+  /**
+   * @param serverAddress The address of the DirectoryListCacheServer, as host:port.
+   * @param secret The secret shared with the server.
+   */
+  public ServiceBackedDirectoryListCache(String serverAddress, String secret) {
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(serverAddress),
+        "serverAddress '%s' can't be null/empty!", serverAddress);
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(secret), "secret can't be null/empty!");
+    int portIndex = serverAddress.lastIndexOf(':');
+    Preconditions.checkArgument(portIndex > 0 && portIndex < serverAddress.length() - 1,
+        "serverAddress '%s' must be of the form host:port", serverAddress);
+    this.serverAddress = serverAddress;
+    this.serverHost = serverAddress.substring(0, portIndex);
+    this.serverPort = Integer.parseInt(serverAddress.substring(portIndex + 1));
+    this.secret = secret.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Stored infos are shared through the server, but CacheEntries are not shared references.
+   */
+  @Override
+  public boolean supportsCacheEntryByReference() {
+    return false;
+  }
+
+  /**
+   * The server holds an InMemoryDirectoryListCache, which only holds the names actually added.
+   */
+  @Override
+  public boolean containsEntriesForImplicitDirectories() {
+    return false;
+  }
+
+  @Override
+  public CacheEntry putResourceId(StorageResourceId resourceId) throws IOException {
+    log.debug("putResourceId(%s)", resourceId);
+    validateResourceId(resourceId);
+    DataInputStream response = call(encodeRequest(DirectoryListCacheServer.PUT_RESOURCE_ID,
+        resourceId));
+    if (response == null) {
+      return new CacheEntry(resourceId, clock.currentTimeMillis());
+    }
+    return readCacheEntry(response);
+  }
+
+  @Override
+  public CacheEntry getCacheEntry(StorageResourceId resourceId) throws IOException {
+    log.debug("getCacheEntry(%s)", resourceId);
+    validateResourceId(resourceId);
+    DataInputStream response = call(encodeRequest(DirectoryListCacheServer.GET_CACHE_ENTRY,
+        resourceId));
+    return response != null && response.readBoolean() ? readCacheEntry(response) : null;
+  }
+
+  @Override
+  public void removeResourceId(StorageResourceId resourceId) throws IOException {
+    log.debug("removeResourceId(%s)", resourceId);
+    validateResourceId(resourceId);
+    call(encodeRequest(DirectoryListCacheServer.REMOVE_RESOURCE_ID, resourceId));
+  }
+
+  @Override
+  public List<CacheEntry> getBucketList() throws IOException {
+    log.debug("getBucketList()");
+    return readCacheEntries(call(encodeRequest(DirectoryListCacheServer.GET_BUCKET_LIST, null)));
+  }
+
+  @Override
+  public List<CacheEntry> getRawBucketList() throws IOException {
+    log.debug("getRawBucketList()");
+    return readCacheEntries(
+        call(encodeRequest(DirectoryListCacheServer.GET_RAW_BUCKET_LIST, null)));
+  }
+
+  @Override
+  public List<CacheEntry> getObjectList(
+      String bucketName, String objectNamePrefix, String delimiter, Set<String> returnedPrefixes)
+      throws IOException {
+    log.debug("getObjectList(%s, %s, %s)", bucketName, objectNamePrefix, delimiter);
+    ByteArrayOutputStream requestBytes = new ByteArrayOutputStream();
+    DataOutputStream request = new DataOutputStream(requestBytes);
+    request.writeByte(DirectoryListCacheServer.GET_OBJECT_LIST);
+    request.writeUTF(bucketName);
+    ItemInfoCodec.writeNullableString(objectNamePrefix, request);
+    ItemInfoCodec.writeNullableString(delimiter, request);
+    request.writeBoolean(returnedPrefixes != null);
+    request.flush();
+
+    DataInputStream response = call(requestBytes.toByteArray());
+    if (response == null || !response.readBoolean()) {
+      return null;
+    }
+    List<CacheEntry> entries = readCacheEntries(response);
+    if (returnedPrefixes != null) {
+      int numPrefixes = response.readInt();
+      for (int i = 0; i < numPrefixes; ++i) {
+        returnedPrefixes.add(response.readUTF());
+      }
+    }
+    return entries;
+  }
+
+  @Override
+  public int getInternalNumBuckets() throws IOException {
+    DataInputStream response =
+        call(encodeRequest(DirectoryListCacheServer.GET_INTERNAL_NUM_BUCKETS, null));
+    return response == null ? 0 : response.readInt();
+  }
+
+  @Override
+  public int getInternalNumObjects() throws IOException {
+    DataInputStream response =
+        call(encodeRequest(DirectoryListCacheServer.GET_INTERNAL_NUM_OBJECTS, null));
+    return response == null ? 0 : response.readInt();
+  }
+
+  /**
+   * Sends the pending infos now rather than at the end of the current window. If the server
+   * can't be reached, the infos are dropped; they are fetched again when next needed.
+   */
+  public void flush() throws IOException {
+    List<GoogleCloudStorageItemInfo> itemInfos;
+    synchronized (pendingItemInfos) {
+      itemInfos = new ArrayList<>(pendingItemInfos.values());
+      pendingItemInfos.clear();
+      itemInfoSendScheduled = false;
+    }
+    if (itemInfos.isEmpty()) {
+      return;
+    }
+
+    log.debug("flush(): sending %d itemInfos", itemInfos.size());
+    ByteArrayOutputStream requestBytes = new ByteArrayOutputStream();
+    DataOutputStream request = new DataOutputStream(requestBytes);
+    request.writeByte(DirectoryListCacheServer.SET_ITEM_INFOS);
+    request.writeInt(itemInfos.size());
+    for (GoogleCloudStorageItemInfo itemInfo : itemInfos) {
+      ItemInfoCodec.writeResourceId(itemInfo.getResourceId(), request);
+      ItemInfoCodec.writeItemInfo(itemInfo, request);
+    }
+    request.flush();
+    send(requestBytes.toByteArray());
+  }
+
+  /**
+   * Sends the pending infos and closes the idle connections to the server; a later request opens
+   * new ones.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      closeIdleConnections();
+    }
+  }
+
+  /**
+   * Adds {@code itemInfo} to the infos to send, and schedules sending them if needed.
+   */
+  private void addPendingItemInfo(GoogleCloudStorageItemInfo itemInfo) {
+    synchronized (pendingItemInfos) {
+      pendingItemInfos.put(itemInfo.getResourceId(), itemInfo);
+      boolean batchFull = pendingItemInfos.size() >= MAX_INFO_BATCH_SIZE;
+      if (itemInfoSendScheduled && !batchFull) {
+        return;
+      }
+      if (batchExecutor == null) {
+        batchExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+            .setNameFormat("gcs-metadata-cache-client-%d")
+            .setDaemon(true)
+            .build());
+        batchExecutor.setKeepAliveTime(BATCH_THREAD_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
+        batchExecutor.allowCoreThreadTimeOut(true);
+      }
+      batchExecutor.schedule(scheduledItemInfoSend,
+          batchFull ? 0 : INFO_BATCH_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+      itemInfoSendScheduled = true;
+    }
+  }
+
+  /**
+   * Sends the pending infos, then {@code request}, and returns the response to the latter, or null
+   * if the server can't be reached.
+   */
+  private DataInputStream call(byte[] request) throws IOException {
+    if (isUnavailable()) {
+      return null;
+    }
+    // Sending the pending infos first lets this instance read its own infos.
+    flush();
+    return send(request);
+  }
+
+  /**
+   * Sends {@code request} and returns its response, positioned after the status, or null if the
+   * server can't be reached, in which case requests pass through for a while.
+   */
+  private DataInputStream send(byte[] request) throws IOException {
+    if (isUnavailable()) {
+      return null;
+    }
+    byte[] response;
+    try {
+      response = roundTrip(request);
+    } catch (InterruptedIOException iioe) {
+      throw iioe;
+    } catch (IOException ioe) {
+      unavailableUntilMillis = clock.currentTimeMillis() + UNAVAILABLE_RETRY_INTERVAL_MILLIS;
+      log.warn(String.format("Metadata cache service at %s is unavailable; passing requests "
+          + "through for %d ms", serverAddress, UNAVAILABLE_RETRY_INTERVAL_MILLIS), ioe);
+      return null;
+    }
+    return checkStatus(response);
+  }
+
+  /**
+   * Returns whether requests currently pass through because the server couldn't be reached.
+   */
+  private boolean isUnavailable() {
+    long until = unavailableUntilMillis;
+    if (until == 0) {
+      return false;
+    }
+    if (clock.currentTimeMillis() < until) {
+      return true;
+    }
+    log.info("Trying metadata cache service at %s again", serverAddress);
+    unavailableUntilMillis = 0;
+    return false;
+  }
+
+  /**
+   * Sends {@code request} over an idle connection, or a new one if there is none, and returns the
+   * response. A request which fails on an idle connection is retried once on a new one, since the
+   * server may have restarted in the meantime; all requests are safe to repeat.
+   */
+  private byte[] roundTrip(byte[] request) throws IOException {
+    try {
+      connectionPermits.acquire();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a connection to " + serverAddress);
+    }
+    try {
+      Connection connection = idleConnections.pollFirst();
+      if (connection != null) {
+        try {
+          byte[] response = connection.sendAndReceive(request);
+          idleConnections.offerFirst(connection);
+          return response;
+        } catch (IOException ioe) {
+          connection.close();
+          // If the server restarted, the other idle connections are stale as well.
+          closeIdleConnections();
+          log.info(String.format(
+              "Retrying request to metadata cache service at %s", serverAddress), ioe);
+        }
+      }
+      connection = connect();
+      try {
+        byte[] response = connection.sendAndReceive(request);
+        idleConnections.offerFirst(connection);
+        return response;
+      } catch (IOException ioe) {
+        connection.close();
+        throw ioe;
+      }
+    } finally {
+      connectionPermits.release();
+    }
+  }
+
+  /**
+   * Opens a new connection to the server and authenticates it.
+   */
+  private Connection connect() throws IOException {
+    log.debug("Connecting to metadata cache service at %s", serverAddress);
+    Socket newSocket = new Socket();
+    try {
+      newSocket.setTcpNoDelay(true);
+      newSocket.setSoTimeout(READ_TIMEOUT_MILLIS);
+      newSocket.connect(new InetSocketAddress(serverHost, serverPort), CONNECT_TIMEOUT_MILLIS);
+      DataInputStream newIn =
+          new DataInputStream(new BufferedInputStream(newSocket.getInputStream()));
+      DataOutputStream newOut =
+          new DataOutputStream(new BufferedOutputStream(newSocket.getOutputStream()));
+      newOut.writeInt(DirectoryListCacheServer.PROTOCOL_VERSION);
+      newOut.flush();
+      DataInputStream challengeIn = checkStatus(DirectoryListCacheServer.readMessage(newIn));
+      byte[] challenge = new byte[DirectoryListCacheServer.CHALLENGE_LENGTH];
+      challengeIn.readFully(challenge);
+      // The answer is sent raw, since the server reads exactly the MAC's length.
+      newOut.write(DirectoryListCacheServer.computeHandshakeMac(secret, challenge));
+      newOut.flush();
+      checkStatus(DirectoryListCacheServer.readMessage(newIn));
+      return new Connection(newSocket, newIn, newOut);
+    } catch (IOException ioe) {
+      newSocket.close();
+      throw ioe;
+    }
+  }
+
+  private void closeIdleConnections() {
+    Connection connection;
+    while ((connection = idleConnections.pollFirst()) != null) {
+      connection.close();
+    }
+  }
+
+  /**
+   * Returns {@code response} positioned after its status, or throws the error it holds.
+   */
+  private DataInputStream checkStatus(byte[] response) throws IOException {
+    DataInputStream responseIn = new DataInputStream(new ByteArrayInputStream(response));
+    if (responseIn.readByte() != DirectoryListCacheServer.STATUS_OK) {
+      throw new IOException(String.format(
+          "Metadata cache service at %s failed: %s", serverAddress, responseIn.readUTF()));
+    }
+    return responseIn;
+  }
+
+  /**
+   * Encodes a request of {@code operation} with a single {@code resourceId} argument, or none if
+   * it is null.
+   */
+  private static byte[] encodeRequest(byte operation, StorageResourceId resourceId)
+      throws IOException {
+    ByteArrayOutputStream requestBytes = new ByteArrayOutputStream();
+    DataOutputStream request = new DataOutputStream(requestBytes);
+    request.writeByte(operation);
+    if (resourceId != null) {
+      ItemInfoCodec.writeResourceId(resourceId, request);
+    }
+    request.flush();
+    return requestBytes.toByteArray();
+  }
+
+  private CacheEntry readCacheEntry(DataInputStream response) throws IOException {
+    StorageResourceId resourceId = ItemInfoCodec.readResourceId(response);
+    long creationTimeMillis = response.readLong();
+    GoogleCloudStorageItemInfo itemInfo = null;
+    long itemInfoUpdateTimeMillis = 0;
+    if (response.readBoolean()) {
+      itemInfoUpdateTimeMillis = response.readLong();
+      itemInfo = ItemInfoCodec.readItemInfo(resourceId, response);
+    }
+    return new ServiceBackedCacheEntry(
+        resourceId, creationTimeMillis, itemInfo, itemInfoUpdateTimeMillis);
+  }
+
+  /**
+   * Reads the entries of {@code response}, or returns an empty list if it is null.
+   */
+  private List<CacheEntry> readCacheEntries(DataInputStream response) throws IOException {
+    if (response == null) {
+      return new ArrayList<>();
+    }
+    int numEntries = response.readInt();
+    List<CacheEntry> entries = new ArrayList<>(numEntries);
+    for (int i = 0; i < numEntries; ++i) {
+      entries.add(readCacheEntry(response));
+    }
+    return entries;
+  }
+}
@@ -17,9 +17,11 @@ package com.google.cloud.hadoop.gcsio;
 import com.google.common.util.concurrent.RateLimiter;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * Throttled GCS implementation that will limit our bucket creation and delete operations
@@ -37,6 +39,7 @@ public class ThrottledGoogleCloudStorage implements GoogleCloudStorage {
     DELETE_OBJECTS,
     OPEN_OBJECT,
     COPY_OBJECT,
+    COMPOSE_OBJECTS,
     LIST_BUCKETS,
     LIST_OBJECTS,
     GET_ITEMINFO,
@@ -137,6 +140,22 @@ public class ThrottledGoogleCloudStorage implements GoogleCloudStorage {
     return wrappedGcs.open(resourceId);
   }
 
+  @Override
+  public SeekableReadableByteChannel open(
+      StorageResourceId resourceId, GoogleCloudStorageReadOptions readOptions)
+      throws IOException {
+    throttle(StorageOperation.OPEN_OBJECT);
+    return wrappedGcs.open(resourceId, readOptions);
+  }
+
+  @Override
+  public List<Future<ByteBuffer>> readVectored(
+      StorageResourceId resourceId, List<ReadRange> ranges)
+      throws IOException {
+    throttle(StorageOperation.OPEN_OBJECT);
+    return wrappedGcs.readVectored(resourceId, ranges);
+  }
+
   @Override
   public void create(String bucketName) throws IOException {
     throttle(StorageOperation.CREATE_BUCKET);
@@ -159,6 +178,13 @@ public class ThrottledGoogleCloudStorage implements GoogleCloudStorage {
     wrappedGcs.deleteObjects(fullObjectNames);
   }
 
+  @Override
+  public void deleteObjects(List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException {
+    throttle(StorageOperation.DELETE_OBJECTS, fullObjectNames.size());
+    wrappedGcs.deleteObjects(fullObjectNames, generations);
+  }
+
   @Override
   public void copy(String srcBucketName, List<String> srcObjectNames,
       String dstBucketName, List<String> dstObjectNames) throws IOException {
@@ -166,6 +192,13 @@ public class ThrottledGoogleCloudStorage implements GoogleCloudStorage {
     wrappedGcs.copy(srcBucketName, srcObjectNames, dstBucketName, dstObjectNames);
   }
 
+  @Override
+  public GoogleCloudStorageItemInfo composeObjects(List<StorageResourceId> sources,
+      StorageResourceId destination, CreateObjectOptions options) throws IOException {
+    throttle(StorageOperation.COMPOSE_OBJECTS);
+    return wrappedGcs.composeObjects(sources, destination, options);
+  }
+
   @Override
   public List<String> listBucketNames() throws IOException {
     throttle(StorageOperation.LIST_BUCKETS);
@@ -192,6 +225,32 @@ public class ThrottledGoogleCloudStorage implements GoogleCloudStorage {
     return wrappedGcs.listObjectInfo(bucketName, objectNamePrefix, delimiter);
   }
 
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(String bucketName,
+      String objectNamePrefix, String delimiter, String pageToken) throws IOException {
+    throttle(StorageOperation.LIST_OBJECTS);
+    return wrappedGcs.listObjectInfoPage(bucketName, objectNamePrefix, delimiter, pageToken);
+  }
+
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(String bucketName,
+      String objectNamePrefix, String delimiter, String pageToken, long maxResults)
+      throws IOException {
+    throttle(StorageOperation.LIST_OBJECTS);
+    return wrappedGcs.listObjectInfoPage(
+        bucketName, objectNamePrefix, delimiter, pageToken, maxResults);
+  }
+
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPageInRange(String bucketName,
+      String objectNamePrefix, String startOffset, String endOffset, String pageToken,
+      long maxResults)
+      throws IOException {
+    throttle(StorageOperation.LIST_OBJECTS);
+    return wrappedGcs.listObjectInfoPageInRange(
+        bucketName, objectNamePrefix, startOffset, endOffset, pageToken, maxResults);
+  }
+
   @Override
   public GoogleCloudStorageItemInfo getItemInfo(
       StorageResourceId resourceId) throws IOException {
@@ -0,0 +1,164 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the directories whose modification timestamps are to be updated and updates them
+ * together once per window, instead of once per modified child. A job writing thousands of files
+ * into one directory then updates that directory once per window rather than once per file,
+ * which also keeps it clear of the per-object mutation rate limit.
+ *
+ * The window starts with the first directory added after the previous update; directories added
+ * until it ends are updated by a single call of the {@link Updater}, each directory once. Pending
+ * updates are made when the instance is closed, after any update already running finishes.
+ */
+class TimestampUpdateCoalescer {
+
+  /**
+   * Updates the timestamps of a set of directories.
+   */
+  interface Updater {
+    void updateTimestamps(Set<URI> dirPaths)
+        throws IOException;
+  }
+
+  // Logging helper.
+  private static final LogUtil log = new LogUtil(TimestampUpdateCoalescer.class);
+
+  // How long close() waits for an update already running to finish.
+  private static final long CLOSE_TIMEOUT_MILLIS = 10 * 1000;
+
+  // Makes the updates.
+  private final Updater updater;
+
+  // Length of each window.
+  private final long windowMillis;
+
+  // Runs the update at the end of each window.
+  private final ScheduledThreadPoolExecutor scheduler;
+
+  // Directories added in the current window; guarded by this.
+  private Set<URI> pendingDirPaths = new HashSet<>();
+
+  // Whether the update of the current window is scheduled; guarded by this.
+  private boolean updateScheduled;
+
+  // Whether close() was called; guarded by this.
+  private boolean closed;
+
+  // Updates the pending directories at the end of a window.
+  private final Runnable scheduledUpdate = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        flush();
+      } catch (IOException ioe) {
+        log.debug("Exception caught when trying to update parent directory timestamps.", ioe);
+      }
+    }
+  };
+
+  /**
+   * Constructs an instance of TimestampUpdateCoalescer.
+   *
+   * @param updater makes the updates
+   * @param windowMillis time for which added directories are collected before being updated
+   */
+  TimestampUpdateCoalescer(Updater updater, long windowMillis) {
+    Preconditions.checkArgument(updater != null, "updater must not be null");
+    Preconditions.checkArgument(
+        windowMillis > 0, "windowMillis must be positive: %s", windowMillis);
+    this.updater = updater;
+    this.windowMillis = windowMillis;
+    this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+        .setNameFormat("gcsfs-timestamp-coalescer-%d")
+        .setDaemon(true)
+        .build());
+    // close() makes the update of a window which hasn't ended yet itself.
+    this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+  }
+
+  /**
+   * Adds directories to update at the end of the current window, starting a window if none is
+   * running. Directories added after close() are ignored.
+   */
+  synchronized void add(Collection<URI> dirPaths) {
+    if (dirPaths.isEmpty()) {
+      return;
+    }
+    if (closed) {
+      log.debug("add(%s): already closed, not updating", dirPaths);
+      return;
+    }
+    pendingDirPaths.addAll(dirPaths);
+    if (!updateScheduled) {
+      scheduler.schedule(scheduledUpdate, windowMillis, TimeUnit.MILLISECONDS);
+      updateScheduled = true;
+    }
+  }
+
+  /**
+   * Updates the pending directories now rather than at the end of the current window.
+   *
+   * @throws IOException if the update failed
+   */
+  void flush()
+      throws IOException {
+    Set<URI> dirPaths;
+    synchronized (this) {
+      dirPaths = pendingDirPaths;
+      pendingDirPaths = new HashSet<>();
+      updateScheduled = false;
+    }
+    if (!dirPaths.isEmpty()) {
+      log.debug("flush(): updating %d directories", dirPaths.size());
+      updater.updateTimestamps(dirPaths);
+    }
+  }
+
+  /**
+   * Stops collecting new directories, waits for up to CLOSE_TIMEOUT_MILLIS for an update already
+   * running to finish, and updates the remaining pending directories.
+   */
+  void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    // Drops the update of the current window, which the final flush below makes instead, but
+    // lets a running update finish so that it doesn't race with the final flush.
+    scheduler.shutdown();
+    try {
+      if (!scheduler.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        log.warn("Timed out waiting for a running timestamp update to finish");
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      log.warn("Interrupted waiting for a running timestamp update to finish");
+    }
+    scheduledUpdate.run();
+  }
+}
@@ -0,0 +1,293 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import com.google.cloud.hadoop.util.LogUtil;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Reads many disjoint ranges of a single object at once. Ranges which lie within
+ * {@link GoogleCloudStorageReadOptions#getVectoredReadMergeGap()} bytes of each other are
+ * coalesced into a single request of at most
+ * {@link GoogleCloudStorageReadOptions#getVectoredReadMaxMergedSize()} bytes, and the resulting
+ * requests are fetched concurrently, at most
+ * {@link GoogleCloudStorageReadOptions#getVectoredReadParallelism()} at a time, each through its
+ * own channel.
+ *
+ * This is meant for columnar formats which know up front all the column chunks they need from a
+ * file; fetching them through a single seekable channel would turn every chunk into a serial
+ * seek and read.
+ */
+public class VectoredReader {
+
+  // Logging helper.
+  private static final LogUtil log = new LogUtil(VectoredReader.class);
+
+  /**
+   * One or more requested ranges fetched with a single request.
+   */
+  @VisibleForTesting
+  static class MergedRange {
+    // Offset of the first byte fetched.
+    final long start;
+
+    // Offset just past the last byte fetched.
+    long end;
+
+    // Completes with the fetched bytes, flipped for reading; set once the range is final.
+    FutureTask<ByteBuffer> contents;
+
+    MergedRange(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    int length() {
+      return (int) (end - start);
+    }
+  }
+
+  /**
+   * The future for a single requested range; completes with a slice of the contents of the
+   * merged range covering it. Since the underlying request is shared with other ranges, it
+   * cannot be cancelled individually.
+   */
+  private static class RangeFuture
+      implements Future<ByteBuffer> {
+    private final MergedRange mergedRange;
+    private final ReadRange range;
+    private final String resourceString;
+
+    RangeFuture(MergedRange mergedRange, ReadRange range, String resourceString) {
+      this.mergedRange = mergedRange;
+      this.range = range;
+      this.resourceString = resourceString;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public boolean isDone() {
+      return mergedRange.contents.isDone();
+    }
+
+    @Override
+    public ByteBuffer get()
+        throws InterruptedException, ExecutionException {
+      return slice(mergedRange.contents.get());
+    }
+
+    @Override
+    public ByteBuffer get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      return slice(mergedRange.contents.get(timeout, unit));
+    }
+
+    private ByteBuffer slice(ByteBuffer contents)
+        throws ExecutionException {
+      int offset = (int) (range.getOffset() - mergedRange.start);
+      if (offset + range.getLength() > contents.limit()) {
+        throw new ExecutionException(new EOFException(String.format(
+            "Range %s is past the end of '%s'", range, resourceString)));
+      }
+      ByteBuffer slice = contents.duplicate();
+      slice.position(offset);
+      slice.limit(offset + range.getLength());
+      return slice.slice();
+    }
+  }
+
+  // Opens the channels used to fetch merged ranges.
+  private final PrefetchingReadChannel.ChannelFactory channelFactory;
+
+  // Executor on which merged ranges are fetched.
+  private final ExecutorService executor;
+
+  // Ranges separated by at most this many bytes are fetched with a single request.
+  private final long mergeGap;
+
+  // Upper bound on the size of a request covering more than one range.
+  private final int maxMergedSize;
+
+  // Maximum number of requests in flight for a single call to read().
+  private final int parallelism;
+
+  // Name of the object being read, for logging.
+  private final String resourceString;
+
+  /**
+   * Constructs an instance of VectoredReader.
+   *
+   * @param channelFactory opens the channels used to fetch merged ranges
+   * @param executor executor on which merged ranges are fetched
+   * @param readOptions options supplying the merge gap, merged size and parallelism
+   * @param resourceString human readable name of the object, used for logging
+   */
+  public VectoredReader(
+      PrefetchingReadChannel.ChannelFactory channelFactory,
+      ExecutorService executor,
+      GoogleCloudStorageReadOptions readOptions,
+      String resourceString) {
+    Preconditions.checkArgument(channelFactory != null, "channelFactory must not be null");
+    Preconditions.checkArgument(executor != null, "executor must not be null");
+    this.channelFactory = channelFactory;
+    this.executor = executor;
+    this.mergeGap = readOptions.getVectoredReadMergeGap();
+    this.maxMergedSize = readOptions.getVectoredReadMaxMergedSize();
+    this.parallelism = readOptions.getVectoredReadParallelism();
+    this.resourceString = resourceString;
+  }
+
+  /**
+   * Starts fetching the given ranges and returns immediately.
+   *
+   * @param ranges ranges to read; may overlap and need not be sorted
+   * @return futures completing with the contents of each range, in the order of {@code ranges}.
+   *     A future fails with an EOFException if its range extends past the end of the object, or
+   *     with the IOException raised while fetching it.
+   */
+  public List<Future<ByteBuffer>> read(List<ReadRange> ranges) {
+    Preconditions.checkArgument(ranges != null, "ranges must not be null");
+
+    @SuppressWarnings("unchecked")
+    Future<ByteBuffer>[] results = new Future[ranges.size()];
+    List<MergedRange> mergedRanges = mergeRanges(ranges, results);
+    log.debug("Reading %d ranges of '%s' with %d requests",
+        ranges.size(), resourceString, mergedRanges.size());
+
+    final Queue<FutureTask<ByteBuffer>> pendingFetches = new ConcurrentLinkedQueue<>();
+    for (MergedRange mergedRange : mergedRanges) {
+      mergedRange.contents =
+          new FutureTask<>(newFetchTask(mergedRange.start, mergedRange.length()));
+      pendingFetches.add(mergedRange.contents);
+    }
+
+    // Rather than submitting every fetch, run a bounded number of workers which drain the queue.
+    int numWorkers = Math.min(parallelism, mergedRanges.size());
+    for (int i = 0; i < numWorkers; ++i) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          FutureTask<ByteBuffer> fetch;
+          while ((fetch = pendingFetches.poll()) != null) {
+            fetch.run();
+          }
+        }
+      });
+    }
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Groups the given ranges into the requests that fetch them, filling in the future of each
+   * non-empty range; empty ranges complete immediately.
+   */
+  @VisibleForTesting
+  List<MergedRange> mergeRanges(List<ReadRange> ranges, Future<ByteBuffer>[] results) {
+    List<Integer> order = new ArrayList<>(ranges.size());
+    for (int i = 0; i < ranges.size(); ++i) {
+      Preconditions.checkArgument(ranges.get(i) != null, "ranges must not contain null");
+      order.add(i);
+    }
+    final List<ReadRange> rangesToSort = ranges;
+    Collections.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Long.compare(rangesToSort.get(a).getOffset(), rangesToSort.get(b).getOffset());
+      }
+    });
+
+    List<MergedRange> mergedRanges = new ArrayList<>();
+    MergedRange current = null;
+    for (int index : order) {
+      ReadRange range = ranges.get(index);
+      if (range.getLength() == 0) {
+        FutureTask<ByteBuffer> empty = new FutureTask<>(new Callable<ByteBuffer>() {
+          @Override
+          public ByteBuffer call() {
+            return ByteBuffer.allocate(0);
+          }
+        });
+        empty.run();
+        results[index] = empty;
+        continue;
+      }
+      if (current == null
+          || range.getOffset() > current.end + mergeGap
+          || Math.max(current.end, range.getEnd()) - current.start > maxMergedSize) {
+        current = new MergedRange(range.getOffset(), range.getEnd());
+        mergedRanges.add(current);
+      } else {
+        current.end = Math.max(current.end, range.getEnd());
+      }
+      results[index] = new RangeFuture(current, range, resourceString);
+    }
+    return mergedRanges;
+  }
+
+  /**
+   * Returns a task which reads {@code length} bytes starting at {@code start} through a newly
+   * opened channel; the returned buffer is shorter if the object ends first.
+   */
+  private Callable<ByteBuffer> newFetchTask(final long start, final int length) {
+    return new Callable<ByteBuffer>() {
+      @Override
+      public ByteBuffer call()
+          throws IOException {
+        ByteBuffer contents = ByteBuffer.allocate(length);
+        SeekableReadableByteChannel channel = channelFactory.open();
+        try {
+          channel.position(start);
+          while (contents.hasRemaining()) {
+            if (channel.read(contents) < 0) {
+              break;
+            }
+          }
+        } finally {
+          channel.close();
+        }
+        contents.flip();
+        return contents;
+      }
+    };
+  }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.fs.gcs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * UnitTests for FileTailCache class.
+ */
+@RunWith(JUnit4.class)
+public class FileTailCacheTest {
+
+  @Test
+  public void testEntriesAreKeyedByGeneration() {
+    FileTailCache cache = new FileTailCache(1024);
+    byte[] tail = { 0x01, 0x02, 0x03 };
+    cache.put(new FileTailCache.Key("foo-bucket", "bar-object", 1L), tail);
+
+    assertArrayEquals(tail, cache.get(new FileTailCache.Key("foo-bucket", "bar-object", 1L)));
+    assertNull(cache.get(new FileTailCache.Key("foo-bucket", "bar-object", 2L)));
+    assertNull(cache.get(new FileTailCache.Key("foo-bucket", "baz-object", 1L)));
+    assertNull(cache.get(new FileTailCache.Key("other-bucket", "bar-object", 1L)));
+  }
+
+  @Test
+  public void testEvictsWhenFull() {
+    FileTailCache cache = new FileTailCache(1000);
+    for (int i = 0; i < 100; ++i) {
+      cache.put(new FileTailCache.Key("foo-bucket", "object-" + i, 1L), new byte[100]);
+    }
+    assertTrue("Expected at most 10 entries, got " + cache.size(), cache.size() <= 10);
+
+    // The most recently added entry is never the one evicted.
+    assertEquals(100, cache.get(new FileTailCache.Key("foo-bucket", "object-99", 1L)).length);
+  }
+
+  @Test
+  public void testGetInstanceReturnsSharedInstance() {
+    assertSame(FileTailCache.getInstance(1024), FileTailCache.getInstance(2048));
+  }
+}
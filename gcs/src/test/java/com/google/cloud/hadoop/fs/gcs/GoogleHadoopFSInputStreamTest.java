@@ -0,0 +1,160 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.fs.gcs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageFileSystem;
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageItemInfo;
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageReadOptions;
+import com.google.cloud.hadoop.gcsio.InMemoryGoogleCloudStorage;
+import com.google.cloud.hadoop.gcsio.SeekableReadableByteChannel;
+import com.google.cloud.hadoop.gcsio.StorageResourceId;
+import com.google.cloud.hadoop.gcsio.integration.GoogleCloudStorageTestHelper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * UnitTests for GoogleHadoopFSInputStream class, counting the requests made to an in-memory
+ * GoogleCloudStorage.
+ */
+@RunWith(JUnit4.class)
+public class GoogleHadoopFSInputStreamTest {
+  @Rule
+  public Timeout timeout = new Timeout(30 * 1000);
+
+  private static final String BUCKET_NAME = "test-bucket";
+
+  /**
+   * InMemoryGoogleCloudStorage which counts metadata lookups and opened channels.
+   */
+  private static class CountingGoogleCloudStorage extends InMemoryGoogleCloudStorage {
+    final AtomicInteger metadataRequests = new AtomicInteger();
+    final AtomicInteger opens = new AtomicInteger();
+
+    @Override
+    public synchronized GoogleCloudStorageItemInfo getItemInfo(StorageResourceId resourceId)
+        throws IOException {
+      metadataRequests.incrementAndGet();
+      return super.getItemInfo(resourceId);
+    }
+
+    @Override
+    public synchronized List<GoogleCloudStorageItemInfo> getItemInfos(
+        List<StorageResourceId> resourceIds)
+        throws IOException {
+      metadataRequests.incrementAndGet();
+      return super.getItemInfos(resourceIds);
+    }
+
+    @Override
+    public synchronized SeekableReadableByteChannel open(
+        StorageResourceId resourceId, GoogleCloudStorageReadOptions readOptions)
+        throws IOException {
+      opens.incrementAndGet();
+      return super.open(resourceId, readOptions);
+    }
+  }
+
+  private CountingGoogleCloudStorage gcs;
+  private GoogleHadoopFileSystem ghfs;
+
+  @Before
+  public void setUp()
+      throws IOException {
+    gcs = new CountingGoogleCloudStorage();
+    ghfs = new GoogleHadoopFileSystem(new GoogleCloudStorageFileSystem(gcs));
+    Configuration config = new Configuration();
+    config.set(GoogleHadoopFileSystemBase.GCS_SYSTEM_BUCKET_KEY, BUCKET_NAME);
+    config.setBoolean(GoogleHadoopFileSystemBase.GCS_CREATE_SYSTEM_BUCKET_KEY, true);
+    config.setBoolean(GoogleHadoopFileSystemBase.GCS_INPUTSTREAM_TAIL_CACHE_ENABLE_KEY, true);
+    config.setInt(GoogleHadoopFileSystemBase.GCS_INPUTSTREAM_TAIL_CACHE_TAIL_SIZE_KEY, 16);
+    ghfs.initialize(URI.create("gs://" + BUCKET_NAME + "/"), config);
+  }
+
+  @After
+  public void tearDown()
+      throws IOException {
+    ghfs.close();
+  }
+
+  private Path createFile(String name, byte[] data)
+      throws IOException {
+    Path path = new Path("/" + name);
+    FSDataOutputStream out = ghfs.create(path);
+    out.write(data);
+    out.close();
+    return path;
+  }
+
+  @Test
+  public void testTailCacheHitMakesNoRequests()
+      throws IOException {
+    byte[] data = new byte[100];
+    GoogleCloudStorageTestHelper.fillBytes(data);
+    Path path = createFile("testTailCacheHitMakesNoRequests", data);
+
+    // The first stream fetches the tail into the shared cache.
+    FSDataInputStream in = ghfs.open(path);
+    byte[] buf = new byte[10];
+    assertEquals(10, in.read(90, buf, 0, 10));
+    in.close();
+
+    // Another stream finds it there using the size and generation learned when it was opened.
+    in = ghfs.open(path);
+    int metadataRequests = gcs.metadataRequests.get();
+    int opens = gcs.opens.get();
+    buf = new byte[16];
+    assertEquals(16, in.read(84, buf, 0, 16));
+    assertArrayEquals(Arrays.copyOfRange(data, 84, 100), buf);
+    assertEquals(metadataRequests, gcs.metadataRequests.get());
+    assertEquals(opens, gcs.opens.get());
+    in.close();
+  }
+
+  @Test
+  public void testTailCacheMissFetchesNoMetadata()
+      throws IOException {
+    byte[] data = new byte[100];
+    GoogleCloudStorageTestHelper.fillBytes(data);
+    Path path = createFile("testTailCacheMissFetchesNoMetadata", data);
+
+    FSDataInputStream in = ghfs.open(path);
+    int opens = gcs.opens.get();
+    byte[] buf = new byte[10];
+    assertEquals(10, in.read(90, buf, 0, 10));
+    assertArrayEquals(Arrays.copyOfRange(data, 90, 100), buf);
+    // Only the channel fetching the tail is opened; the stream asks for no metadata of its own.
+    assertEquals(opens + 1, gcs.opens.get());
+    in.close();
+  }
+}
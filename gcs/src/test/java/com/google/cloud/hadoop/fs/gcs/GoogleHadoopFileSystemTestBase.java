@@ -20,8 +20,10 @@ import com.google.cloud.hadoop.gcsio.GoogleCloudStorageIntegrationTest;
 import com.google.cloud.hadoop.util.HadoopVersionInfo;
 import com.google.common.base.Predicate;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.junit.AfterClass;
@@ -36,7 +38,9 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Abstract base class for test suites targeting variants of GoogleHadoopFileSystem via the
@@ -261,6 +265,53 @@ public abstract class GoogleHadoopFileSystemTestBase
     clearBucket(bucketName);
   }
 
+  /**
+   * Validates that listFilesIncrementally() skips directories and, if recursive, lists the files
+   * of every subdirectory.
+   */
+  @Test
+  public void testListFilesIncrementally()
+      throws IOException {
+    GoogleHadoopFileSystemBase myghfs = (GoogleHadoopFileSystemBase) ghfs;
+    URI seedUri = GoogleCloudStorageFileSystemIntegrationTest.getTempFilePath();
+    Path dirPath = castAsHadoopPath(seedUri);
+    Path filePath = new Path(dirPath, "file");
+    Path subdirPath = new Path(dirPath, "subdir");
+    Path subdirFilePath = new Path(subdirPath, "file");
+    Path nestedFilePath = new Path(new Path(subdirPath, "nested-subdir"), "file");
+
+    ghfs.mkdirs(new Path(subdirPath, "empty-subdir"));
+    ghfs.create(filePath).close();
+    ghfs.create(subdirFilePath).close();
+    ghfs.create(nestedFilePath).close();
+
+    Assert.assertEquals(
+        ImmutableSet.of(ghfs.makeQualified(filePath)),
+        listFilePaths(myghfs.listFilesIncrementally(dirPath, false)));
+    Assert.assertEquals(
+        ImmutableSet.of(
+            ghfs.makeQualified(filePath),
+            ghfs.makeQualified(subdirFilePath),
+            ghfs.makeQualified(nestedFilePath)),
+        listFilePaths(myghfs.listFilesIncrementally(dirPath, true)));
+    Assert.assertEquals(
+        ImmutableSet.of(ghfs.makeQualified(filePath)),
+        listFilePaths(myghfs.listFilesIncrementally(filePath, true)));
+
+    clearBucket(bucketName);
+  }
+
+  private static Set<Path> listFilePaths(GoogleHadoopFileSystemBase.FileStatusIterator statuses)
+      throws IOException {
+    Set<Path> paths = new HashSet<>();
+    while (statuses.hasNext()) {
+      FileStatus status = statuses.next();
+      Assert.assertFalse("Expected a file: " + status.getPath(), status.isDir());
+      paths.add(status.getPath());
+    }
+    return paths;
+  }
+
  /**
    * Validates makeQualified() when working directory is not root.
    */
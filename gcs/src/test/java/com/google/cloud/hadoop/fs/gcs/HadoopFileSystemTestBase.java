@@ -856,6 +856,37 @@ public abstract class HadoopFileSystemTestBase
     }
   }
 
+  /**
+   * Validates that positional reads return the requested bytes without moving the sequential
+   * position of the stream.
+   */
+  @Test
+  public void testPositionalReadDoesNotMoveStream()
+      throws IOException {
+    URI path = GoogleCloudStorageFileSystemIntegrationTest.getTempFilePath();
+    Path hadoopPath = castAsHadoopPath(path);
+    String text = "Hello World!";
+    int numBytesWritten = writeFile(hadoopPath, text, 1, false);
+
+    try (FSDataInputStream readStream =
+        ghfs.open(hadoopPath, GoogleHadoopFileSystemBase.BUFFERSIZE_DEFAULT)) {
+      Assert.assertEquals(readStream.read(), (int) 'H');
+      Assert.assertEquals(1, readStream.getPos());
+
+      byte[] world = new byte[5];
+      readStream.readFully(6, world);
+      Assert.assertEquals("World", new String(world, StandardCharsets.UTF_8));
+      Assert.assertEquals(1, readStream.getPos());
+
+      // Reads at or past the end of the file return -1 and leave the stream alone.
+      Assert.assertEquals(-1, readStream.read(numBytesWritten, new byte[1], 0, 1));
+      Assert.assertEquals(1, readStream.getPos());
+
+      Assert.assertEquals(readStream.read(), (int) 'e');
+      Assert.assertEquals(2, readStream.getPos());
+    }
+  }
+
   /**
    * More comprehensive testing of various "seek" calls backwards and forwards and around
    * the edge cases related to buffer sizes.
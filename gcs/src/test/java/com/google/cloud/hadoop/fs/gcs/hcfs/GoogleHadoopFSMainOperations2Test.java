@@ -17,17 +17,22 @@ package com.google.cloud.hadoop.fs.gcs.hcfs;
 import static org.apache.hadoop.fs.FileSystemTestHelper.exists;
 
 import com.google.cloud.hadoop.fs.gcs.GoogleHadoopFileSystemTestHelper;
+import com.google.common.collect.ImmutableSet;
 
 import org.apache.hadoop.fs.FSMainOperationsBaseTest;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileSystemTestHelper;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Runs the Hadoop tests in FSMainOperationsBaseTest over the GoogleHadoopFileSystem.
@@ -85,6 +90,72 @@ public class GoogleHadoopFSMainOperations2Test
     Assert.assertFalse(exists(fSys, testDeepSubDir));
   }
 
+  /**
+   * Validates that listFiles() skips directories and, if recursive, lists the files of every
+   * subdirectory, with block locations attached.
+   */
+  @Test
+  public void testListFiles() throws Exception {
+    Path dir = helper.getTestRootPath(fSys, "test/hadoop/listFiles");
+    Path file = new Path(dir, "file");
+    Path subdirFile = new Path(dir, "subdir/file");
+    Path nestedFile = new Path(dir, "subdir/nested/file");
+    fSys.mkdirs(new Path(dir, "subdir/empty"));
+    createFile(file);
+    createFile(subdirFile);
+    createFile(nestedFile);
+
+    Assert.assertEquals(
+        ImmutableSet.of(fSys.makeQualified(file)),
+        listPaths(fSys.listFiles(dir, false), true));
+    Assert.assertEquals(
+        ImmutableSet.of(
+            fSys.makeQualified(file),
+            fSys.makeQualified(subdirFile),
+            fSys.makeQualified(nestedFile)),
+        listPaths(fSys.listFiles(dir, true), true));
+    Assert.assertEquals(
+        ImmutableSet.of(fSys.makeQualified(file)),
+        listPaths(fSys.listFiles(file, true), true));
+  }
+
+  /**
+   * Validates that listLocatedStatus() lists the children of a directory, including
+   * subdirectories.
+   */
+  @Test
+  public void testListLocatedStatus() throws Exception {
+    Path dir = helper.getTestRootPath(fSys, "test/hadoop/listLocatedStatus");
+    Path file = new Path(dir, "file");
+    Path subdir = new Path(dir, "subdir");
+    fSys.mkdirs(subdir);
+    createFile(file);
+    createFile(new Path(subdir, "file"));
+
+    Assert.assertEquals(
+        ImmutableSet.of(fSys.makeQualified(file), fSys.makeQualified(subdir)),
+        listPaths(fSys.listLocatedStatus(dir), false));
+  }
+
+  /**
+   * Returns the paths of the given statuses, checking that files come with block locations and,
+   * if filesOnly, that there are no directories.
+   */
+  private static Set<Path> listPaths(
+      RemoteIterator<LocatedFileStatus> statuses, boolean filesOnly) throws IOException {
+    Set<Path> paths = new HashSet<>();
+    while (statuses.hasNext()) {
+      LocatedFileStatus status = statuses.next();
+      if (status.isFile()) {
+        Assert.assertTrue(status.getBlockLocations().length > 0);
+      } else {
+        Assert.assertFalse("Expected a file: " + status.getPath(), filesOnly);
+      }
+      paths.add(status.getPath());
+    }
+    return paths;
+  }
+
   @Test @Override
   public void testListStatusThrowsExceptionForNonExistentFile() throws Exception {
   }
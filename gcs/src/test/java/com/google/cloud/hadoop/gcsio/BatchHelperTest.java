@@ -0,0 +1,295 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.storage.Storage;
+import com.google.api.services.storage.model.StorageObject;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * UnitTests for BatchHelper class, sending its batches to a fake batch endpoint.
+ */
+@RunWith(JUnit4.class)
+public class BatchHelperTest {
+  @Rule
+  public Timeout timeout = new Timeout(30 * 1000);
+
+  private static final String BUCKET_NAME = "foo-bucket";
+
+  private static final String BOUNDARY = "batch_boundary";
+
+  // Request line of each request of a batch, e.g. "GET .../b/foo-bucket/o/object-1", followed by
+  // " HTTP/1.1" depending on the client version.
+  private static final Pattern REQUEST_LINE = Pattern.compile("GET \\S*/o/([^\\s?]+)");
+
+  /**
+   * Answers batch requests of object gets, one part per request, with the status returned by
+   * getStatus() for each object.
+   */
+  private static class FakeBatchTransport extends MockHttpTransport {
+    // Number of batches sent so far.
+    final AtomicInteger batchCount = new AtomicInteger();
+
+    // Names of the threads which sent batches.
+    final Set<String> sendingThreads = Collections.synchronizedSet(new HashSet<String>());
+
+    /**
+     * Called on the thread sending each batch before it is answered.
+     */
+    void beforeBatch() throws IOException {
+    }
+
+    /**
+     * Returns the HTTP status of the response to a get of the given object.
+     */
+    int getStatus(String objectName) {
+      return 200;
+    }
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, String url) {
+      return new MockLowLevelHttpRequest() {
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+          batchCount.incrementAndGet();
+          sendingThreads.add(Thread.currentThread().getName());
+          beforeBatch();
+          StringBuilder content = new StringBuilder();
+          Matcher matcher = REQUEST_LINE.matcher(getContentAsString());
+          int partCount = 0;
+          while (matcher.find()) {
+            String objectName = matcher.group(1);
+            int status = getStatus(objectName);
+            String body = status == 200
+                ? String.format("{\"bucket\":\"%s\",\"name\":\"%s\"}", BUCKET_NAME, objectName)
+                : String.format("{\"error\":{\"code\":%d,\"message\":\"Injected\"}}", status);
+            content.append(String.format("--%s\r\n"
+                + "Content-Type: application/http\r\n"
+                + "Content-ID: <response-%d>\r\n"
+                + "\r\n"
+                + "HTTP/1.1 %d %s\r\n"
+                + "Content-Type: application/json; charset=UTF-8\r\n"
+                + "Content-Length: %d\r\n"
+                + "\r\n"
+                + "%s\r\n",
+                BOUNDARY, ++partCount, status, status == 200 ? "OK" : "Error", body.length(),
+                body));
+          }
+          content.append(String.format("--%s--\r\n", BOUNDARY));
+          return new MockLowLevelHttpResponse()
+              .setContentType("multipart/mixed; boundary=" + BOUNDARY)
+              .setContent(content.toString());
+        }
+      };
+    }
+  }
+
+  private ExecutorService executor;
+
+  @After
+  public void tearDown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  private static Storage createStorage(FakeBatchTransport transport) {
+    return new Storage.Builder(transport, new JacksonFactory(), null)
+        .setApplicationName("BatchHelperTest")
+        .build();
+  }
+
+  /**
+   * Queues a get of the given object which records the object in fetched once it succeeds, and
+   * queues the get again each time it fails.
+   */
+  private static void queueGet(final BatchHelper batchHelper, final Storage storage,
+      final String objectName, final Set<String> fetched)
+      throws IOException {
+    batchHelper.queue(storage.objects().get(BUCKET_NAME, objectName),
+        new JsonBatchCallback<StorageObject>() {
+          @Override
+          public void onSuccess(StorageObject object, HttpHeaders responseHeaders) {
+            fetched.add(object.getName());
+          }
+
+          @Override
+          public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders)
+              throws IOException {
+            queueGet(batchHelper, storage, objectName, fetched);
+          }
+        });
+  }
+
+  /**
+   * Queues gets of object-0 to object-(count - 1) and flushes them.
+   */
+  private static Set<String> getObjects(BatchHelper batchHelper, Storage storage, int count)
+      throws IOException {
+    Set<String> fetched = Collections.synchronizedSet(new HashSet<String>());
+    for (int i = 0; i < count; ++i) {
+      queueGet(batchHelper, storage, "object-" + i, fetched);
+    }
+    batchHelper.flush();
+    assertTrue(batchHelper.isEmpty());
+    return fetched;
+  }
+
+  private static Set<String> objectNames(int count) {
+    Set<String> names = new HashSet<>();
+    for (int i = 0; i < count; ++i) {
+      names.add("object-" + i);
+    }
+    return names;
+  }
+
+  @Test
+  public void testRequestsQueuedByCallbacksAreSent()
+      throws IOException {
+    executor = Executors.newCachedThreadPool();
+    for (BatchHelper.Factory factory : new BatchHelper.Factory[] {
+        new BatchHelper.Factory(), new BatchHelper.Factory(executor, 2)}) {
+      // Fail the first attempt of every object.
+      FakeBatchTransport transport = new FakeBatchTransport() {
+        private final Set<String> attempted = Collections.synchronizedSet(new HashSet<String>());
+
+        @Override
+        int getStatus(String objectName) {
+          return attempted.add(objectName) ? 503 : 200;
+        }
+      };
+      Storage storage = createStorage(transport);
+      BatchHelper batchHelper = factory.newBatchHelper(null, storage, 3);
+
+      assertEquals(objectNames(10), getObjects(batchHelper, storage, 10));
+      // 10 first attempts and 10 retries, at most 3 per batch.
+      assertTrue(transport.batchCount.get() >= 7);
+    }
+  }
+
+  @Test
+  public void testFailureOfBatchOnExecutorIsThrownByFlush()
+      throws IOException {
+    executor = Executors.newCachedThreadPool();
+    FakeBatchTransport transport = new FakeBatchTransport() {
+      @Override
+      void beforeBatch() throws IOException {
+        throw new IOException("Injected failure");
+      }
+    };
+    Storage storage = createStorage(transport);
+    BatchHelper batchHelper = new BatchHelper.Factory(executor, 2).newBatchHelper(null, storage, 2);
+
+    try {
+      getObjects(batchHelper, storage, 5);
+      fail("Expected IOException");
+    } catch (IOException ioe) {
+      assertEquals("Injected failure", ioe.getMessage());
+    }
+    assertTrue(transport.batchCount.get() > 0);
+    assertFalse(transport.sendingThreads.contains(Thread.currentThread().getName()));
+  }
+
+  @Test
+  public void testAtMostMaxConcurrentBatchesAreInFlight()
+      throws IOException {
+    executor = Executors.newCachedThreadPool();
+    final AtomicInteger batchesInFlight = new AtomicInteger();
+    final AtomicInteger maxBatchesInFlight = new AtomicInteger();
+    FakeBatchTransport transport = new FakeBatchTransport() {
+      @Override
+      void beforeBatch() {
+        int inFlight = batchesInFlight.incrementAndGet();
+        synchronized (maxBatchesInFlight) {
+          maxBatchesInFlight.set(Math.max(maxBatchesInFlight.get(), inFlight));
+        }
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+        batchesInFlight.decrementAndGet();
+      }
+    };
+    Storage storage = createStorage(transport);
+    BatchHelper batchHelper = new BatchHelper.Factory(executor, 2).newBatchHelper(null, storage, 1);
+
+    assertEquals(objectNames(8), getObjects(batchHelper, storage, 8));
+    assertEquals(8, transport.batchCount.get());
+    assertEquals(2, maxBatchesInFlight.get());
+  }
+
+  @Test
+  public void testBatchesAreSentOnCallingThreadWhenExecutorIsBusy()
+      throws Exception {
+    // An executor whose only thread is busy, and which rejects rather than queues.
+    executor = new ThreadPoolExecutor(
+        1, 1, 0L, TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>());
+    final CountDownLatch release = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    FakeBatchTransport transport = new FakeBatchTransport();
+    Storage storage = createStorage(transport);
+    BatchHelper batchHelper = new BatchHelper.Factory(executor, 4).newBatchHelper(null, storage, 1);
+
+    assertEquals(objectNames(4), getObjects(batchHelper, storage, 4));
+    assertEquals(4, transport.batchCount.get());
+    assertEquals(Collections.singleton(Thread.currentThread().getName()),
+        transport.sendingThreads);
+    release.countDown();
+  }
+}
@@ -15,6 +15,7 @@
 package com.google.cloud.hadoop.gcsio;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
@@ -210,4 +211,23 @@ public class CacheEntryTest {
     expectedException.expect(IllegalArgumentException.class);
     entry.setItemInfo(objectInfo);
   }
+
+  @Test
+  public void testClearItemInfoIfExpired() {
+    when(mockClock.currentTimeMillis()).thenReturn(100L);
+    CacheEntry entry = new CacheEntry(objectResourceId);
+
+    // Never set, so nothing to clear.
+    assertFalse(entry.clearItemInfoIfExpired(10000L, 50L));
+
+    entry.setItemInfo(objectInfo);
+    assertFalse(entry.clearItemInfoIfExpired(150L, 50L));
+    assertEquals(objectInfo, entry.getItemInfo());
+    assertEquals(100L, entry.getItemInfoUpdateTimeMillis());
+
+    assertTrue(entry.clearItemInfoIfExpired(151L, 50L));
+    assertNull(entry.getItemInfo());
+    assertEquals(0L, entry.getItemInfoUpdateTimeMillis());
+    assertFalse(entry.clearItemInfoIfExpired(151L, 50L));
+  }
 }
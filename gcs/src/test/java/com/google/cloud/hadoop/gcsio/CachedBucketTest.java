@@ -22,6 +22,7 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import com.google.api.client.util.Clock;
+import com.google.common.collect.ImmutableList;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -30,6 +31,9 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * UnitTests for CachedBucket class.
  */
@@ -283,4 +287,47 @@ public class CachedBucketTest {
     validateBasicInteractions(
         bucketResourceId, bucketInfo, constructorTime, constructorTime, bucket);
   }
+
+  private static List<String> getObjectNames(Iterable<CacheEntry> entries) {
+    List<String> objectNames = new ArrayList<>();
+    for (CacheEntry entry : entries) {
+      objectNames.add(entry.getResourceId().getObjectName());
+    }
+    return objectNames;
+  }
+
+  private static CachedBucket createBucketWithObjects(String... objectNames) {
+    CachedBucket bucket = new CachedBucket("foo-bucket");
+    for (String objectName : objectNames) {
+      bucket.put(new StorageResourceId("foo-bucket", objectName));
+    }
+    return bucket;
+  }
+
+  @Test
+  public void testObjectsAreSortedByName() {
+    CachedBucket bucket = createBucketWithObjects("foo/b", "foo/", "bar", "foo/a/c");
+
+    assertEquals(
+        ImmutableList.of("bar", "foo/", "foo/a/c", "foo/b"),
+        getObjectNames(bucket.getObjectList()));
+    assertEquals(
+        ImmutableList.of("foo/a/c", "foo/b"), getObjectNames(bucket.getObjectsFrom("foo/a")));
+    assertEquals(ImmutableList.of(), getObjectNames(bucket.getObjectsFrom("g")));
+  }
+
+  @Test
+  public void testSweepVisitsEveryObjectInTurn() {
+    CachedBucket bucket = createBucketWithObjects("a", "b", "c", "d", "e");
+
+    assertEquals(ImmutableList.of("a", "b"), getObjectNames(bucket.getNextObjectsToSweep(2)));
+    assertEquals(ImmutableList.of("c", "d"), getObjectNames(bucket.getNextObjectsToSweep(2)));
+    // Objects removed or added behind the sweep don't affect where it resumes.
+    bucket.remove(new StorageResourceId("foo-bucket", "a"));
+    bucket.put(new StorageResourceId("foo-bucket", "bb"));
+    assertEquals(ImmutableList.of("e"), getObjectNames(bucket.getNextObjectsToSweep(2)));
+    // Then starts over.
+    assertEquals(ImmutableList.of("b", "bb"), getObjectNames(bucket.getNextObjectsToSweep(2)));
+    assertTrue(createBucketWithObjects().getNextObjectsToSweep(2).isEmpty());
+  }
 }
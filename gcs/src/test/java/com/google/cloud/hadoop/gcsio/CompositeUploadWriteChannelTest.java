@@ -0,0 +1,428 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.hadoop.gcsio.integration.GoogleCloudStorageTestHelper;
+import com.google.cloud.hadoop.util.UploadBudget;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UnitTests for CompositeUploadWriteChannel class, using InMemoryGoogleCloudStorage in place of
+ * GCS.
+ */
+@RunWith(JUnit4.class)
+public class CompositeUploadWriteChannelTest {
+  private static final String BUCKET_NAME = "foo-bucket";
+  private static final StorageResourceId OBJECT_ID =
+      new StorageResourceId(BUCKET_NAME, "dir/bar-object");
+
+  private static InMemoryGoogleCloudStorage createStorage(int partSize, long maxMemory)
+      throws IOException {
+    GoogleCloudStorageOptions.Builder optionsBuilder = GoogleCloudStorageOptions.newBuilder();
+    optionsBuilder.getCompositeUploadOptionsBuilder()
+        .setEnabled(true)
+        .setPartSize(partSize)
+        .setConcurrency(3)
+        .setMaxMemory(maxMemory);
+    InMemoryGoogleCloudStorage gcs = new InMemoryGoogleCloudStorage(optionsBuilder.build());
+    gcs.create(BUCKET_NAME);
+    return gcs;
+  }
+
+  private static void assertNoTemporaryObjects(GoogleCloudStorage gcs)
+      throws IOException {
+    for (String objectName : gcs.listObjectNames(BUCKET_NAME, "", null)) {
+      assertFalse(objectName, CompositeUploadWriteChannel.isTemporaryObject(objectName));
+    }
+  }
+
+  @Test
+  public void testIsTemporaryObject() {
+    assertTrue(CompositeUploadWriteChannel.isTemporaryObject(
+        "dir/_bar-object.gcs_composite_upload_tmp.1234.part-00000"));
+    assertTrue(CompositeUploadWriteChannel.isTemporaryObject(
+        "_bar-object.gcs_composite_upload_tmp.1234.composite-00000"));
+    assertFalse(CompositeUploadWriteChannel.isTemporaryObject("dir/bar-object"));
+    assertFalse(CompositeUploadWriteChannel.isTemporaryObject(
+        "_dir.gcs_composite_upload_tmp.1234/bar-object"));
+    assertFalse(CompositeUploadWriteChannel.isTemporaryObject(null));
+  }
+
+  @Test
+  public void testCreateUsesCompositeUploadWhenEnabled()
+      throws IOException {
+    InMemoryGoogleCloudStorage gcs = createStorage(10, 1024);
+    WritableByteChannel channel = gcs.create(OBJECT_ID);
+    assertTrue(channel instanceof CompositeUploadWriteChannel);
+    // The object is visible as soon as it is created, like with a regular upload.
+    assertTrue(gcs.getItemInfo(OBJECT_ID).exists());
+    channel.close();
+  }
+
+  @Test
+  public void testPartsAreComposedInOrder()
+      throws IOException {
+    InMemoryGoogleCloudStorage gcs = createStorage(10, 1024);
+    byte[] data = new byte[95];
+    GoogleCloudStorageTestHelper.fillBytes(data);
+    WritableByteChannel channel = gcs.create(
+        OBJECT_ID, new CreateObjectOptions(true, ImmutableMap.of("key", new byte[] {1})));
+    // Write in pieces which don't line up with part boundaries.
+    for (int offset = 0; offset < data.length; offset += 7) {
+      channel.write(ByteBuffer.wrap(data, offset, Math.min(7, data.length - offset)));
+    }
+    channel.close();
+    assertFalse(channel.isOpen());
+
+    assertEquals(data.length, gcs.getItemInfo(OBJECT_ID).getSize());
+    GoogleCloudStorageTestHelper.assertObjectContent(gcs, OBJECT_ID, data);
+    assertArrayEquals(new byte[] {1}, gcs.getItemInfo(OBJECT_ID).getMetadata().get("key"));
+    assertNoTemporaryObjects(gcs);
+  }
+
+  @Test
+  public void testManyPartsAreComposedInSeveralRounds()
+      throws IOException {
+    // 100 parts need more than one compose request, and with room for just two part buffers the
+    // writer has to wait for uploads to finish.
+    InMemoryGoogleCloudStorage gcs = createStorage(10, 20);
+    byte[] data = new byte[1000];
+    GoogleCloudStorageTestHelper.fillBytes(data);
+    WritableByteChannel channel = gcs.create(OBJECT_ID);
+    assertEquals(data.length, channel.write(ByteBuffer.wrap(data)));
+    channel.close();
+
+    assertEquals(data.length, gcs.getItemInfo(OBJECT_ID).getSize());
+    GoogleCloudStorageTestHelper.assertObjectContent(gcs, OBJECT_ID, data);
+    assertNoTemporaryObjects(gcs);
+  }
+
+  @Test
+  public void testEmptyObject()
+      throws IOException {
+    InMemoryGoogleCloudStorage gcs = createStorage(10, 1024);
+    gcs.create(OBJECT_ID).close();
+
+    assertEquals(0, gcs.getItemInfo(OBJECT_ID).getSize());
+    assertNoTemporaryObjects(gcs);
+  }
+
+  /**
+   * InMemoryGoogleCloudStorage which counts the temporary objects created, the compose requests
+   * and the delete requests it serves.
+   */
+  private static class CountingGoogleCloudStorage extends InMemoryGoogleCloudStorage {
+    private final AtomicInteger temporaryObjectCount = new AtomicInteger();
+    private final AtomicInteger composeCount = new AtomicInteger();
+    private final AtomicInteger deleteCount = new AtomicInteger();
+
+    CountingGoogleCloudStorage(GoogleCloudStorageOptions options) {
+      super(options);
+    }
+
+    @Override
+    public synchronized WritableByteChannel create(
+        StorageResourceId resourceId, CreateObjectOptions options)
+        throws IOException {
+      if (CompositeUploadWriteChannel.isTemporaryObject(resourceId.getObjectName())) {
+        temporaryObjectCount.incrementAndGet();
+      }
+      return super.create(resourceId, options);
+    }
+
+    @Override
+    public synchronized GoogleCloudStorageItemInfo composeObjects(
+        List<StorageResourceId> sources, StorageResourceId destination,
+        CreateObjectOptions options)
+        throws IOException {
+      composeCount.incrementAndGet();
+      return super.composeObjects(sources, destination, options);
+    }
+
+    @Override
+    public synchronized void deleteObjects(
+        List<StorageResourceId> fullObjectNames, List<Long> generations)
+        throws IOException {
+      deleteCount.incrementAndGet();
+      super.deleteObjects(fullObjectNames, generations);
+    }
+  }
+
+  @Test
+  public void testObjectWithinFirstPartIsUploadedDirectly()
+      throws IOException {
+    GoogleCloudStorageOptions.Builder optionsBuilder = GoogleCloudStorageOptions.newBuilder();
+    optionsBuilder.getCompositeUploadOptionsBuilder()
+        .setEnabled(true)
+        .setPartSize(10);
+    CountingGoogleCloudStorage gcs = new CountingGoogleCloudStorage(optionsBuilder.build());
+    gcs.create(BUCKET_NAME);
+
+    // Smaller than a part, and exactly one part, even if written in pieces.
+    for (int length : new int[] {7, 10}) {
+      byte[] data = new byte[length];
+      GoogleCloudStorageTestHelper.fillBytes(data);
+      WritableByteChannel channel = gcs.create(
+          OBJECT_ID, new CreateObjectOptions(true, ImmutableMap.of("key", new byte[] {1})));
+      channel.write(ByteBuffer.wrap(data, 0, 3));
+      channel.write(ByteBuffer.wrap(data, 3, length - 3));
+      channel.close();
+
+      GoogleCloudStorageTestHelper.assertObjectContent(gcs, OBJECT_ID, data);
+      assertArrayEquals(new byte[] {1}, gcs.getItemInfo(OBJECT_ID).getMetadata().get("key"));
+    }
+    // No temporary object was created, composed or deleted.
+    assertEquals(0, gcs.temporaryObjectCount.get());
+    assertEquals(0, gcs.composeCount.get());
+    assertEquals(0, gcs.deleteCount.get());
+
+    // One more byte takes two parts, a compose and a delete.
+    byte[] data = new byte[11];
+    GoogleCloudStorageTestHelper.fillBytes(data);
+    WritableByteChannel channel = gcs.create(OBJECT_ID);
+    channel.write(ByteBuffer.wrap(data));
+    channel.close();
+    GoogleCloudStorageTestHelper.assertObjectContent(gcs, OBJECT_ID, data);
+    assertEquals(2, gcs.temporaryObjectCount.get());
+    assertEquals(1, gcs.composeCount.get());
+    assertEquals(1, gcs.deleteCount.get());
+    assertNoTemporaryObjects(gcs);
+  }
+
+  @Test
+  public void testPartFailureCleansUpTemporaryObjects()
+      throws IOException {
+    GoogleCloudStorageOptions.Builder optionsBuilder = GoogleCloudStorageOptions.newBuilder();
+    optionsBuilder.getCompositeUploadOptionsBuilder()
+        .setEnabled(true)
+        .setPartSize(10);
+    // Fail the upload of the third part.
+    final String failingPartSuffix = "part-00002";
+    InMemoryGoogleCloudStorage gcs = new InMemoryGoogleCloudStorage(optionsBuilder.build()) {
+      @Override
+      public synchronized WritableByteChannel create(
+          StorageResourceId resourceId, CreateObjectOptions options)
+          throws IOException {
+        if (resourceId.getObjectName().endsWith(failingPartSuffix)) {
+          // Parts are created next to the destination.
+          assertTrue(resourceId.getObjectName().startsWith("dir/_bar-object."));
+          throw new IOException("Injected failure");
+        }
+        return super.create(resourceId, options);
+      }
+    };
+    gcs.create(BUCKET_NAME);
+
+    WritableByteChannel channel = gcs.create(OBJECT_ID);
+    try {
+      channel.write(ByteBuffer.wrap(new byte[50]));
+      channel.close();
+      fail("Expected IOException");
+    } catch (IOException ioe) {
+      // Expected, from either write() or close().
+    }
+    if (channel.isOpen()) {
+      try {
+        channel.close();
+        fail("Expected IOException");
+      } catch (IOException ioe) {
+        // Expected.
+      }
+    }
+
+    assertNoTemporaryObjects(gcs);
+    // The destination keeps the empty contents it was created with.
+    assertEquals(0, gcs.getItemInfo(OBJECT_ID).getSize());
+  }
+
+  @Test
+  public void testTemporaryObjectsAreDeletedWithTheirGenerations()
+      throws IOException {
+    final Map<StorageResourceId, Long> deletedGenerations = new ConcurrentHashMap<>();
+    InMemoryGoogleCloudStorage gcs = new InMemoryGoogleCloudStorage() {
+      @Override
+      public synchronized void deleteObjects(
+          List<StorageResourceId> fullObjectNames, List<Long> generations)
+          throws IOException {
+        for (int i = 0; i < fullObjectNames.size(); ++i) {
+          deletedGenerations.put(fullObjectNames.get(i), generations.get(i));
+        }
+        super.deleteObjects(fullObjectNames, generations);
+      }
+    };
+    gcs.create(BUCKET_NAME);
+    gcs.createEmptyObject(OBJECT_ID);
+    GoogleCloudStorageOptions.Builder optionsBuilder = GoogleCloudStorageOptions.newBuilder();
+    optionsBuilder.getCompositeUploadOptionsBuilder()
+        .setPartSize(10)
+        .setMaxMemory(1024);
+
+    // The in-memory storage has no generations; hand out distinct ones for each temporary object.
+    final AtomicLong nextGeneration = new AtomicLong(1);
+    final Map<StorageResourceId, Long> createdGenerations = new ConcurrentHashMap<>();
+    ExecutorService threadPool = Executors.newCachedThreadPool();
+    try {
+      CompositeUploadWriteChannel channel = new CompositeUploadWriteChannel(
+          gcs, threadPool, OBJECT_ID, new CreateObjectOptions(true),
+          optionsBuilder.build().getCompositeUploadOptions()) {
+        @Override
+        protected long uploadPart(StorageResourceId partId, byte[] contents, int length)
+            throws IOException {
+          super.uploadPart(partId, contents, length);
+          long generation = nextGeneration.getAndIncrement();
+          createdGenerations.put(partId, generation);
+          return generation;
+        }
+
+        @Override
+        protected long composeObjects(List<StorageResourceId> sources,
+            StorageResourceId destination, CreateObjectOptions options)
+            throws IOException {
+          super.composeObjects(sources, destination, options);
+          long generation = nextGeneration.getAndIncrement();
+          createdGenerations.put(destination, generation);
+          return generation;
+        }
+      };
+      // 40 parts are composed through one intermediate composite object.
+      channel.write(ByteBuffer.wrap(new byte[400]));
+      channel.close();
+    } finally {
+      threadPool.shutdownNow();
+    }
+
+    createdGenerations.remove(OBJECT_ID);
+    assertEquals(41, createdGenerations.size());
+    assertEquals(createdGenerations, deletedGenerations);
+    assertNoTemporaryObjects(gcs);
+  }
+
+  @Test
+  public void testPartBuffersAreReservedFromUploadBudget()
+      throws IOException {
+    final UploadBudget budget = new UploadBudget(20, 0);
+    final AtomicLong maxInFlightBytes = new AtomicLong();
+    // Composite uploads are disabled, so parts are plain objects created through create().
+    InMemoryGoogleCloudStorage gcs = new InMemoryGoogleCloudStorage() {
+      @Override
+      public synchronized WritableByteChannel create(
+          StorageResourceId resourceId, CreateObjectOptions options)
+          throws IOException {
+        if (CompositeUploadWriteChannel.isTemporaryObject(resourceId.getObjectName())) {
+          // The part being uploaded still holds its reservation.
+          assertTrue(budget.getInFlightBytes() > 0);
+          maxInFlightBytes.set(Math.max(maxInFlightBytes.get(), budget.getInFlightBytes()));
+          if (resourceId.getObjectName().endsWith("part-00005")) {
+            throw new IOException("Injected failure");
+          }
+        }
+        return super.create(resourceId, options);
+      }
+    };
+    gcs.create(BUCKET_NAME);
+    gcs.createEmptyObject(OBJECT_ID);
+    GoogleCloudStorageOptions.Builder optionsBuilder = GoogleCloudStorageOptions.newBuilder();
+    optionsBuilder.getCompositeUploadOptionsBuilder()
+        .setPartSize(10)
+        .setMaxMemory(1024);
+    ExecutorService threadPool = Executors.newCachedThreadPool();
+    try {
+      CompositeUploadWriteChannel channel = new CompositeUploadWriteChannel(
+          gcs, threadPool, OBJECT_ID, new CreateObjectOptions(true),
+          optionsBuilder.build().getCompositeUploadOptions());
+      channel.setUploadBudget(budget);
+      try {
+        channel.write(ByteBuffer.wrap(new byte[95]));
+        channel.close();
+        fail("Expected IOException");
+      } catch (IOException ioe) {
+        // Expected, from either write() or close().
+      }
+      if (channel.isOpen()) {
+        try {
+          channel.close();
+          fail("Expected IOException");
+        } catch (IOException ioe) {
+          // Expected.
+        }
+      }
+    } finally {
+      threadPool.shutdownNow();
+    }
+
+    // At most two parts of 10 bytes were buffered at once, and every reservation was handed back,
+    // including those of the failed part and of parts never uploaded.
+    assertTrue(maxInFlightBytes.get() <= 20);
+    assertEquals(0, budget.getInFlightBytes());
+    assertEquals(0, budget.getInFlightUploads());
+    assertNoTemporaryObjects(gcs);
+  }
+
+  @Test
+  public void testWriteFailsWhenUploadBudgetTimesOut()
+      throws IOException {
+    // Another upload holds the only slot for longer than the budget's maximum wait.
+    UploadBudget budget = new UploadBudget(0, 1, 50);
+    long heldBytes = budget.acquire(1, 1);
+    InMemoryGoogleCloudStorage gcs = new InMemoryGoogleCloudStorage();
+    gcs.create(BUCKET_NAME);
+    gcs.createEmptyObject(OBJECT_ID);
+    GoogleCloudStorageOptions.Builder optionsBuilder = GoogleCloudStorageOptions.newBuilder();
+    optionsBuilder.getCompositeUploadOptionsBuilder()
+        .setPartSize(10)
+        .setMaxMemory(1024);
+    ExecutorService threadPool = Executors.newCachedThreadPool();
+    try {
+      CompositeUploadWriteChannel channel = new CompositeUploadWriteChannel(
+          gcs, threadPool, OBJECT_ID, new CreateObjectOptions(true),
+          optionsBuilder.build().getCompositeUploadOptions());
+      channel.setUploadBudget(budget);
+      try {
+        channel.write(ByteBuffer.wrap(new byte[5]));
+        fail("Expected IOException");
+      } catch (IOException ioe) {
+        // Expected; the part is never buffered outside of the budget.
+      }
+      assertEquals(1, budget.getInFlightUploads());
+      assertEquals(1, budget.getTimedOutUploadCount());
+    } finally {
+      threadPool.shutdownNow();
+    }
+    budget.release(heldBytes);
+    assertEquals(0, budget.getInFlightBytes());
+    assertNoTemporaryObjects(gcs);
+  }
+}
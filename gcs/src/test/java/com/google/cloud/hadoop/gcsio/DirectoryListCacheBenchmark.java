@@ -0,0 +1,169 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of InMemoryDirectoryListCache under concurrent access: adding objects,
+ * looking them up and listing directories, separately and mixed the way a job committing files
+ * while listing its output directories does. Objects are spread over directories of two buckets,
+ * so that threads both share buckets and contend on the same directories.
+ *
+ * This is not run as part of the unit tests; run it at 1 to 64 threads with:
+ *
+ *   java -cp <test classpath> com.google.cloud.hadoop.gcsio.DirectoryListCacheBenchmark
+ *
+ * or at a single thread count with:
+ *
+ *   java -cp <test classpath> org.openjdk.jmh.Main DirectoryListCacheBenchmark -t <threads>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DirectoryListCacheBenchmark {
+
+  // Thread counts run by main().
+  private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+
+  private static final String[] BUCKET_NAMES = {"foo-bucket", "bar-bucket"};
+  private static final int NUM_DIRS_PER_BUCKET = 32;
+
+  // Objects initially cached per directory; puts pick among twice as many names, so that half of
+  // them add an object and the other half find an existing one.
+  private static final int NUM_OBJECTS_PER_DIR = 256;
+
+  // Percentages of puts and lists in the mixed workload; the remaining operations are gets.
+  private static final int MIXED_PUT_PERCENT = 10;
+  private static final int MIXED_LIST_PERCENT = 5;
+
+  private DirectoryListCache cache;
+
+  @Setup
+  public void setUp()
+      throws IOException {
+    cache = new InMemoryDirectoryListCache();
+    // Long enough for nothing to expire during a run.
+    cache.getMutableConfig()
+        .setMaxEntryAgeMillis(TimeUnit.HOURS.toMillis(1))
+        .setMaxInfoAgeMillis(TimeUnit.HOURS.toMillis(1));
+    for (String bucketName : BUCKET_NAMES) {
+      for (int dir = 0; dir < NUM_DIRS_PER_BUCKET; ++dir) {
+        for (int object = 0; object < NUM_OBJECTS_PER_DIR; ++object) {
+          cache.putResourceId(new StorageResourceId(bucketName, getObjectName(dir, object)));
+        }
+      }
+    }
+  }
+
+  private static String getDirName(int dir) {
+    return "dir" + dir + "/";
+  }
+
+  private static String getObjectName(int dir, int object) {
+    return getDirName(dir) + "file" + object;
+  }
+
+  private static String randomBucketName(ThreadLocalRandom random) {
+    return BUCKET_NAMES[random.nextInt(BUCKET_NAMES.length)];
+  }
+
+  private CacheEntry put(ThreadLocalRandom random)
+      throws IOException {
+    return cache.putResourceId(new StorageResourceId(
+        randomBucketName(random),
+        getObjectName(
+            random.nextInt(NUM_DIRS_PER_BUCKET), random.nextInt(2 * NUM_OBJECTS_PER_DIR))));
+  }
+
+  private CacheEntry get(ThreadLocalRandom random)
+      throws IOException {
+    return cache.getCacheEntry(new StorageResourceId(
+        randomBucketName(random),
+        getObjectName(random.nextInt(NUM_DIRS_PER_BUCKET), random.nextInt(NUM_OBJECTS_PER_DIR))));
+  }
+
+  private List<CacheEntry> list(ThreadLocalRandom random)
+      throws IOException {
+    return cache.getObjectList(
+        randomBucketName(random), getDirName(random.nextInt(NUM_DIRS_PER_BUCKET)), "/", null);
+  }
+
+  @Benchmark
+  public CacheEntry putResourceId()
+      throws IOException {
+    return put(ThreadLocalRandom.current());
+  }
+
+  @Benchmark
+  public CacheEntry getCacheEntry()
+      throws IOException {
+    return get(ThreadLocalRandom.current());
+  }
+
+  @Benchmark
+  public List<CacheEntry> getObjectList()
+      throws IOException {
+    return list(ThreadLocalRandom.current());
+  }
+
+  @Benchmark
+  public Object mixed()
+      throws IOException {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int percent = random.nextInt(100);
+    if (percent < MIXED_PUT_PERCENT) {
+      return put(random);
+    } else if (percent < MIXED_PUT_PERCENT + MIXED_LIST_PERCENT) {
+      return list(random);
+    } else {
+      return get(random);
+    }
+  }
+
+  /**
+   * Runs the benchmarks once for each of THREAD_COUNTS.
+   */
+  public static void main(String[] args)
+      throws RunnerException {
+    for (int threads : THREAD_COUNTS) {
+      new Runner(new OptionsBuilder()
+          .include(DirectoryListCacheBenchmark.class.getSimpleName())
+          .threads(threads)
+          .build())
+          .run();
+    }
+  }
+}
@@ -596,6 +596,24 @@ public abstract class DirectoryListCacheTest {
     assertEquals(0, prefixes.size());
   }
 
+  @Test
+  public void testGetObjectListInRange() throws IOException {
+    setupForListTests();
+
+    // Everything under "foo/" after "foo/bar/" up to and including "foo/baz/".
+    List<CacheEntry> listedObjects =
+        cache.getObjectListInRange(BUCKET_NAME, "foo/", null, "foo/bar/", "foo/baz/");
+    Set<StorageResourceId> listedSet = extractResourceIdSet(listedObjects);
+    assertEquals(2, listedObjects.size());
+    assertTrue(listedSet.contains(createId("foo/bar/data1.txt")));
+    assertTrue(listedSet.contains(createId("foo/baz/")));
+
+    // An unbounded range lists the whole prefix.
+    assertEquals(
+        extractResourceIdSet(cache.getObjectList(BUCKET_NAME, "foo/ba", null, null)),
+        extractResourceIdSet(cache.getObjectListInRange(BUCKET_NAME, "foo/ba", null, null, null)));
+  }
+
   @Test
   public void testGetObjectListPartialPrefixWithDelimiter() throws IOException {
     setupForListTests();
@@ -0,0 +1,194 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * UnitTests for FileInfoCache class and its use by GoogleCloudStorageFileSystem, using
+ * InMemoryGoogleCloudStorage in place of GCS.
+ */
+@RunWith(JUnit4.class)
+public class FileInfoCacheTest {
+  private static final String BUCKET_NAME = "foo-bucket";
+  private static final URI FILE_PATH = URI.create("gs://foo-bucket/dir/file");
+  private static final URI DIR_PATH = URI.create("gs://foo-bucket/dir/");
+
+  /**
+   * Ticker whose time only moves when told to.
+   */
+  private static class ManualTicker extends Ticker {
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advance(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+  }
+
+  /**
+   * InMemoryGoogleCloudStorage which counts the metadata GETs it serves.
+   */
+  private static class CountingGoogleCloudStorage extends InMemoryGoogleCloudStorage {
+    private final AtomicInteger getItemInfoCount = new AtomicInteger();
+
+    @Override
+    public GoogleCloudStorageItemInfo getItemInfo(StorageResourceId resourceId)
+        throws IOException {
+      getItemInfoCount.incrementAndGet();
+      return super.getItemInfo(resourceId);
+    }
+  }
+
+  private CountingGoogleCloudStorage gcs;
+  private GoogleCloudStorageFileSystem gcsfs;
+
+  @Before
+  public void setUp()
+      throws IOException {
+    gcs = new CountingGoogleCloudStorage();
+    gcs.create(BUCKET_NAME);
+    gcsfs = new GoogleCloudStorageFileSystem(gcs, GoogleCloudStorageFileSystemOptions.newBuilder()
+        .setStatCacheMaxEntries(100)
+        .setStatCacheTtlMillis(TimeUnit.MINUTES.toMillis(10))
+        .build());
+    // Update parent timestamps inline, so that their GETs are not counted at random times.
+    gcsfs.setUpdateTimestampsExecutor(MoreExecutors.sameThreadExecutor());
+    gcs.getItemInfoCount.set(0);
+  }
+
+  private void createFile(URI path)
+      throws IOException {
+    gcsfs.create(path).close();
+  }
+
+  @Test
+  public void testMissingPathIsCached()
+      throws IOException {
+    assertFalse(gcsfs.exists(FILE_PATH));
+    // The file, then the directory form of the path.
+    assertEquals(2, gcs.getItemInfoCount.get());
+    assertFalse(gcsfs.exists(FILE_PATH));
+    assertFalse(gcsfs.getFileInfo(FILE_PATH).exists());
+    assertEquals(2, gcs.getItemInfoCount.get());
+  }
+
+  @Test
+  public void testCreateAndDeleteInvalidate()
+      throws IOException {
+    gcsfs.mkdirs(DIR_PATH);
+    assertFalse(gcsfs.exists(FILE_PATH));
+
+    createFile(FILE_PATH);
+    assertTrue(gcsfs.exists(FILE_PATH));
+    int count = gcs.getItemInfoCount.get();
+    assertTrue(gcsfs.exists(FILE_PATH));
+    assertEquals(count, gcs.getItemInfoCount.get());
+
+    gcsfs.delete(FILE_PATH, false);
+    assertFalse(gcsfs.exists(FILE_PATH));
+  }
+
+  @Test
+  public void testMkdirsInvalidatesBothForms()
+      throws IOException {
+    URI dirAsFilePath = URI.create("gs://foo-bucket/dir");
+    assertFalse(gcsfs.exists(dirAsFilePath));
+    assertFalse(gcsfs.exists(DIR_PATH));
+
+    gcsfs.mkdirs(DIR_PATH);
+    assertTrue(gcsfs.getFileInfo(dirAsFilePath).isDirectory());
+    assertTrue(gcsfs.exists(DIR_PATH));
+  }
+
+  @Test
+  public void testDirectoryRenameInvalidatesChildren()
+      throws IOException {
+    URI dstDirPath = URI.create("gs://foo-bucket/dst/");
+    URI dstFilePath = URI.create("gs://foo-bucket/dst/file");
+    gcsfs.mkdirs(DIR_PATH);
+    createFile(FILE_PATH);
+    assertTrue(gcsfs.exists(FILE_PATH));
+    assertFalse(gcsfs.exists(dstFilePath));
+
+    gcsfs.rename(DIR_PATH, dstDirPath);
+    assertFalse(gcsfs.exists(FILE_PATH));
+    assertTrue(gcsfs.exists(dstFilePath));
+  }
+
+  @Test
+  public void testEntriesExpire() {
+    ManualTicker ticker = new ManualTicker();
+    FileInfoCache cache = new FileInfoCache(10, 1000, ticker);
+    FileInfo fileInfo = FileInfo.fromItemInfo(
+        GoogleCloudStorageImpl.createItemInfoForNotFound(
+            new StorageResourceId(BUCKET_NAME, "dir/file")));
+    cache.put(FILE_PATH, fileInfo, cache.getInvalidationCount());
+
+    ticker.advance(999);
+    assertSame(fileInfo, cache.get(FILE_PATH));
+    ticker.advance(1);
+    assertNull(cache.get(FILE_PATH));
+  }
+
+  @Test
+  public void testInfoFetchedBeforeInvalidationIsNotCached() {
+    FileInfoCache cache = new FileInfoCache(10, 1000);
+    FileInfo fileInfo = FileInfo.fromItemInfo(
+        GoogleCloudStorageImpl.createItemInfoForNotFound(
+            new StorageResourceId(BUCKET_NAME, "dir/file")));
+    long invalidationCount = cache.getInvalidationCount();
+    // The path changes while its info is being fetched.
+    cache.invalidate(FILE_PATH);
+    cache.put(FILE_PATH, fileInfo, invalidationCount);
+    assertNull(cache.get(FILE_PATH));
+  }
+
+  @Test
+  public void testInvalidateDirectoryRemovesOnlyPathsUnderIt() {
+    FileInfoCache cache = new FileInfoCache(10, 1000);
+    URI siblingPath = URI.create("gs://foo-bucket/dir2");
+    for (URI path : new URI[] {DIR_PATH, FILE_PATH, siblingPath}) {
+      cache.put(path, FileInfo.ROOT_INFO, cache.getInvalidationCount());
+    }
+
+    cache.invalidateDirectory(URI.create("gs://foo-bucket/dir"));
+    assertNull(cache.get(DIR_PATH));
+    assertNull(cache.get(FILE_PATH));
+    assertSame(FileInfo.ROOT_INFO, cache.get(siblingPath));
+    assertEquals(1, cache.size());
+  }
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.client.util.Clock;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * UnitTests for FileInfoIterator class and the paged listings it is built on, using
+ * InMemoryGoogleCloudStorage in place of GCS.
+ */
+@RunWith(JUnit4.class)
+public class FileInfoIteratorTest {
+  private static final String BUCKET_NAME = "foo-bucket";
+  private static final URI DIR_PATH = URI.create("gs://foo-bucket/dir/");
+
+  /**
+   * Returns the names of "dir/", its ten files and its subdirectory "dir/sub/".
+   */
+  private static List<String> getDirObjectNames() {
+    List<String> objectNames = new ArrayList<>();
+    objectNames.add("dir/");
+    for (int i = 0; i < 10; ++i) {
+      objectNames.add(String.format("dir/file-%02d", i));
+    }
+    objectNames.add("dir/sub/");
+    return objectNames;
+  }
+
+  private static InMemoryGoogleCloudStorage createStorage(int maxListItemsPerCall)
+      throws IOException {
+    List<String> objectNames = getDirObjectNames();
+    objectNames.add("dir/sub/file");
+    return GoogleCloudStorageTestUtils.createBucketWithObjects(
+        new InMemoryGoogleCloudStorage(GoogleCloudStorageOptions.newBuilder()
+            .setMaxListItemsPerCall(maxListItemsPerCall)
+            .build()),
+        BUCKET_NAME, objectNames);
+  }
+
+  private static GoogleCloudStorageFileSystem createFileSystem(GoogleCloudStorage gcs)
+      throws IOException {
+    return new GoogleCloudStorageFileSystem(
+        gcs, GoogleCloudStorageFileSystemOptions.newBuilder().build());
+  }
+
+  private static List<URI> getPaths(FileInfoIterator fileInfos)
+      throws IOException {
+    List<URI> paths = new ArrayList<>();
+    while (fileInfos.hasNext()) {
+      paths.add(fileInfos.next().getPath());
+    }
+    return paths;
+  }
+
+  @Test
+  public void testDirectoryIsListedPageByPage()
+      throws IOException {
+    GoogleCloudStorageFileSystem gcsfs = createFileSystem(createStorage(3));
+
+    FileInfoIterator fileInfos = gcsfs.listFileInfoIterator(DIR_PATH, false);
+    // Nothing is listed until the caller asks for it.
+    assertEquals(0, fileInfos.getPageCount());
+    assertTrue(fileInfos.hasNext());
+    assertEquals(1, fileInfos.getPageCount());
+
+    List<URI> paths = getPaths(fileInfos);
+    // 10 files and 1 subdirectory, 3 per page.
+    assertEquals(4, fileInfos.getPageCount());
+    assertEquals(11, paths.size());
+
+    Set<URI> expectedPaths = new HashSet<>();
+    for (FileInfo fileInfo : gcsfs.listFileInfo(DIR_PATH)) {
+      expectedPaths.add(fileInfo.getPath());
+    }
+    assertEquals(expectedPaths, new HashSet<>(paths));
+
+    try {
+      fileInfos.next();
+      fail("Expected NoSuchElementException");
+    } catch (NoSuchElementException nsee) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testDirectoryIsListedRecursivelyWithoutDelimiter()
+      throws IOException {
+    GoogleCloudStorageFileSystem gcsfs = createFileSystem(createStorage(3));
+
+    FileInfoIterator fileInfos = gcsfs.listFileInfoRecursivelyIterator(DIR_PATH, false);
+    Set<URI> filePaths = new HashSet<>();
+    while (fileInfos.hasNext()) {
+      FileInfo fileInfo = fileInfos.next();
+      if (!fileInfo.isDirectory()) {
+        filePaths.add(fileInfo.getPath());
+      }
+    }
+
+    Set<URI> expectedPaths = new HashSet<>();
+    for (int i = 0; i < 10; ++i) {
+      expectedPaths.add(DIR_PATH.resolve(String.format("file-%02d", i)));
+    }
+    // Listed along with the other files rather than by listing dir/sub/ separately.
+    expectedPaths.add(DIR_PATH.resolve("sub/file"));
+    assertEquals(expectedPaths, filePaths);
+    assertEquals(4, fileInfos.getPageCount());
+  }
+
+  @Test
+  public void testFileIsListedWithoutListingDirectory()
+      throws IOException {
+    GoogleCloudStorageFileSystem gcsfs = createFileSystem(createStorage(3));
+
+    FileInfoIterator fileInfos =
+        gcsfs.listFileInfoIterator(URI.create("gs://foo-bucket/dir/file-00"), false);
+    assertEquals(
+        ImmutableSet.of(URI.create("gs://foo-bucket/dir/file-00")),
+        ImmutableSet.copyOf(getPaths(fileInfos)));
+    assertEquals(0, fileInfos.getPageCount());
+  }
+
+  @Test
+  public void testMissingPathThrowsFileNotFound()
+      throws IOException {
+    GoogleCloudStorageFileSystem gcsfs = createFileSystem(createStorage(3));
+    try {
+      gcsfs.listFileInfoIterator(URI.create("gs://foo-bucket/missing"), false);
+      fail("Expected FileNotFoundException");
+    } catch (FileNotFoundException fnfe) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testCachedObjectsSupplementTheirPageOnly()
+      throws IOException {
+    // Objects which were created but don't show up in listings yet.
+    final Set<String> unlistedNames = ImmutableSet.of("dir/file-00", "dir/file-04", "dir/sub/");
+    GoogleCloudStorageOptions options =
+        GoogleCloudStorageOptions.newBuilder().setMaxListItemsPerCall(3).build();
+    InMemoryGoogleCloudStorage inMemoryGcs = new InMemoryGoogleCloudStorage(options) {
+      @Override
+      public synchronized ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+          String bucketName, String objectNamePrefix, String delimiter, String pageToken)
+          throws IOException {
+        ListPage<GoogleCloudStorageItemInfo> page =
+            super.listObjectInfoPage(bucketName, objectNamePrefix, delimiter, pageToken);
+        List<GoogleCloudStorageItemInfo> listedInfos = new ArrayList<>();
+        for (GoogleCloudStorageItemInfo itemInfo : page.getItems()) {
+          if (!unlistedNames.contains(itemInfo.getObjectName())) {
+            listedInfos.add(itemInfo);
+          }
+        }
+        return new ListPage<>(listedInfos, page.getNextPageToken());
+      }
+    };
+    // Other tests may have left a mock clock in CacheEntry, which would make every entry look
+    // expired to a cache on the system clock.
+    CacheEntry.setClock(Clock.SYSTEM);
+    GoogleCloudStorage gcs = new CacheSupplementedGoogleCloudStorage(
+        inMemoryGcs, new InMemoryDirectoryListCache());
+    GoogleCloudStorageTestUtils.createBucketWithObjects(gcs, BUCKET_NAME, getDirObjectNames());
+
+    List<URI> paths = getPaths(new FileInfoIterator(gcs, BUCKET_NAME, "dir/", "/"));
+    assertEquals(11, paths.size());
+    assertEquals(11, new HashSet<>(paths).size());
+  }
+}
@@ -17,6 +17,7 @@ package com.google.cloud.hadoop.gcsio;
 import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
 import com.google.cloud.hadoop.fs.gcs.GoogleHadoopFileSystemBase;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.MoreExecutors;
 
 import org.apache.log4j.Level;
@@ -34,6 +35,7 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The unittest version of {@code GoogleCloudStorageFileSystemIntegrationTest}; the external
@@ -454,4 +456,83 @@ public class GoogleCloudStorageFileSystemTest
       // Expected.
     }
   }
+
+  /**
+   * Verify that renaming a file deletes the source in a single request conditional on the
+   * generation it was copied from.
+   */
+  @Test
+  public void testFileRenameDeletesSourceWithItsGeneration()
+      throws IOException {
+    final long sourceGeneration = 7;
+    final List<Long> deletedGenerations = new ArrayList<>();
+    final AtomicInteger unconditionalDeleteCount = new AtomicInteger();
+    InMemoryGoogleCloudStorage inMemoryGcs = new InMemoryGoogleCloudStorage() {
+      // Set while the conditional overload delegates to the unconditional one.
+      private boolean deletingConditionally = false;
+
+      // Objects kept in memory have no generations; report one for every object.
+      private GoogleCloudStorageItemInfo withGeneration(GoogleCloudStorageItemInfo itemInfo) {
+        if (!itemInfo.exists() || !itemInfo.getResourceId().isStorageObject()) {
+          return itemInfo;
+        }
+        return new GoogleCloudStorageItemInfo(itemInfo.getResourceId(),
+            itemInfo.getCreationTime(), itemInfo.getSize(), itemInfo.getLocation(),
+            itemInfo.getStorageClass(), itemInfo.getMetadata(), sourceGeneration,
+            itemInfo.getMetaGeneration());
+      }
+
+      @Override
+      public synchronized GoogleCloudStorageItemInfo getItemInfo(StorageResourceId resourceId)
+          throws IOException {
+        return withGeneration(super.getItemInfo(resourceId));
+      }
+
+      @Override
+      public synchronized List<GoogleCloudStorageItemInfo> getItemInfos(
+          List<StorageResourceId> resourceIds)
+          throws IOException {
+        List<GoogleCloudStorageItemInfo> itemInfos = new ArrayList<>();
+        for (GoogleCloudStorageItemInfo itemInfo : super.getItemInfos(resourceIds)) {
+          itemInfos.add(withGeneration(itemInfo));
+        }
+        return itemInfos;
+      }
+
+      @Override
+      public synchronized void deleteObjects(List<StorageResourceId> fullObjectNames)
+          throws IOException {
+        if (!deletingConditionally) {
+          unconditionalDeleteCount.addAndGet(fullObjectNames.size());
+        }
+        super.deleteObjects(fullObjectNames);
+      }
+
+      @Override
+      public synchronized void deleteObjects(
+          List<StorageResourceId> fullObjectNames, List<Long> generations)
+          throws IOException {
+        deletedGenerations.addAll(generations);
+        deletingConditionally = true;
+        try {
+          super.deleteObjects(fullObjectNames, generations);
+        } finally {
+          deletingConditionally = false;
+        }
+      }
+    };
+    GoogleCloudStorageTestUtils.createBucketWithObjects(
+        inMemoryGcs, "foo-bucket", ImmutableList.of("dir/", "dir/src-file", "other/"));
+    GoogleCloudStorageFileSystem renameGcsfs = new GoogleCloudStorageFileSystem(
+        inMemoryGcs, GoogleCloudStorageFileSystemOptions.newBuilder().build());
+
+    URI srcPath = URI.create("gs://foo-bucket/dir/src-file");
+    URI dstPath = URI.create("gs://foo-bucket/other/dst-file");
+    renameGcsfs.rename(srcPath, dstPath);
+
+    Assert.assertFalse(renameGcsfs.exists(srcPath));
+    Assert.assertTrue(renameGcsfs.exists(dstPath));
+    Assert.assertEquals(ImmutableList.of(sourceGeneration), deletedGenerations);
+    Assert.assertEquals(0, unconditionalDeleteCount.get());
+  }
 }
@@ -65,6 +65,7 @@ import com.google.api.services.storage.model.StorageObject;
 import com.google.cloud.hadoop.gcsio.GoogleCloudStorageImpl.BackOffFactory;
 import com.google.cloud.hadoop.util.ApiErrorExtractor;
 import com.google.cloud.hadoop.util.ClientRequestHelper;
+import com.google.cloud.hadoop.util.UploadBudget;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
@@ -166,7 +167,14 @@ public class GoogleCloudStorageTest {
    * and setting up the proper mocks.
    */
   protected GoogleCloudStorage createTestInstance() {
-    GoogleCloudStorageOptions.Builder optionsBuilder = GoogleCloudStorageOptions.newBuilder();
+    return createTestInstance(GoogleCloudStorageOptions.newBuilder());
+  }
+
+  /**
+   * Same as {@link #createTestInstance()}, but starting from the given options builder.
+   */
+  protected GoogleCloudStorage createTestInstance(
+      GoogleCloudStorageOptions.Builder optionsBuilder) {
     optionsBuilder.setAppName(APP_NAME);
     optionsBuilder.setProjectId(PROJECT_ID);
 
@@ -366,6 +374,100 @@ public class GoogleCloudStorageTest {
     }
   }
 
+  /**
+   * Test that GoogleCloudStorage.create(2) returns without waiting for an exhausted upload
+   * budget, which the channel only reserves from on its first write.
+   */
+  @Test
+  public void testCreateObjectDoesNotWaitForUploadBudget()
+      throws IOException {
+    GoogleCloudStorageOptions.Builder optionsBuilder = GoogleCloudStorageOptions.newBuilder();
+    optionsBuilder.getWriteChannelOptionsBuilder().setMaxConcurrentUploads(1);
+    gcs = createTestInstance(optionsBuilder);
+    UploadBudget uploadBudget = ((GoogleCloudStorageImpl) gcs).getUploadBudget();
+    long reservedBytes = uploadBudget.acquire(1, 1);
+
+    when(mockStorage.objects()).thenReturn(mockStorageObjects);
+    setupNonConflictedSuccessfulWrite();
+    when(mockStorageObjects.insert(
+        eq(BUCKET_NAME), any(StorageObject.class), any(AbstractInputStreamContent.class)))
+        .thenReturn(mockStorageObjectsInsert);
+    when(mockClientRequestHelper.getRequestHeaders(eq(mockStorageObjectsInsert)))
+        .thenReturn(mockHeaders);
+
+    // Only the marker object is inserted.
+    WritableByteChannel writeChannel = gcs.create(new StorageResourceId(BUCKET_NAME, OBJECT_NAME));
+    assertTrue(writeChannel.isOpen());
+    assertEquals(0, uploadBudget.getQueuedUploads());
+    verify(mockStorage, times(2)).objects();
+    verify(mockStorageObjects, times(1)).insert(
+        eq(BUCKET_NAME), any(StorageObject.class), any(AbstractInputStreamContent.class));
+    verify(mockStorageObjects, times(1)).get(eq(BUCKET_NAME), eq(OBJECT_NAME));
+    verify(mockStorageObjectsGet, times(1)).execute();
+    verify(mockStorageObjectsInsert, times(1)).setDisableGZipContent(eq(true));
+    verify(mockStorageObjectsInsert, times(1)).setIfGenerationMatch(eq(0L));
+    verify(mockStorageObjectsInsert, times(1)).execute();
+    verify(mockErrorExtractor).itemNotFound(any(IOException.class));
+    verify(mockBackOffFactory).newBackOff();
+    verify(mockBackOff).nextBackOffMillis();
+
+    // Once the budget is available again, the first write starts the upload.
+    uploadBudget.release(reservedBytes);
+    writeChannel.write(ByteBuffer.wrap(new byte[] { 0x01, 0x02, 0x03 }));
+    assertEquals(1, uploadBudget.getInFlightUploads());
+    verify(mockStorage, times(3)).objects();
+    verify(mockStorageObjects, times(2)).insert(
+        eq(BUCKET_NAME), any(StorageObject.class), any(AbstractInputStreamContent.class));
+    verify(mockStorageObjectsInsert, times(2)).setDisableGZipContent(eq(true));
+    verify(mockStorageObjectsInsert, times(1)).setIfGenerationMatch(eq(1L));
+    verify(mockHeaders, times(2)).set(startsWith("X-Goog-Upload-"), anyInt());
+    verify(mockClientRequestHelper).getRequestHeaders(any(Storage.Objects.Insert.class));
+    verify(mockClientRequestHelper).setChunkSize(any(Storage.Objects.Insert.class), anyInt());
+    verify(mockClientRequestHelper).setDirectUploadEnabled(eq(mockStorageObjectsInsert), eq(true));
+    verify(mockExecutorService).execute(any(Runnable.class));
+  }
+
+  /**
+   * Test that a composite upload of an object smaller than a part replaces the marker object with
+   * a single insert request, without any temporary part, compose or delete.
+   */
+  @Test
+  public void testCompositeUploadOfObjectWithinFirstPart()
+      throws IOException {
+    GoogleCloudStorageOptions.Builder optionsBuilder = GoogleCloudStorageOptions.newBuilder();
+    optionsBuilder.getCompositeUploadOptionsBuilder()
+        .setEnabled(true)
+        .setPartSize(1024);
+    gcs = createTestInstance(optionsBuilder);
+
+    when(mockStorage.objects()).thenReturn(mockStorageObjects);
+    setupNonConflictedSuccessfulWrite();
+    when(mockStorageObjects.insert(
+        eq(BUCKET_NAME), any(StorageObject.class), any(AbstractInputStreamContent.class)))
+        .thenReturn(mockStorageObjectsInsert);
+
+    WritableByteChannel writeChannel = gcs.create(new StorageResourceId(BUCKET_NAME, OBJECT_NAME));
+    assertTrue(writeChannel instanceof CompositeUploadWriteChannel);
+    writeChannel.write(ByteBuffer.wrap(new byte[] { 0x01, 0x02, 0x03 }));
+    writeChannel.close();
+
+    // One insert of the marker object, and one of the contents over it.
+    verify(mockStorage, times(3)).objects();
+    verify(mockStorageObjects, times(2)).insert(
+        eq(BUCKET_NAME), any(StorageObject.class), any(AbstractInputStreamContent.class));
+    verify(mockStorageObjects, times(1)).get(eq(BUCKET_NAME), eq(OBJECT_NAME));
+    verify(mockStorageObjectsGet, times(1)).execute();
+    verify(mockStorageObjectsInsert, times(2)).setDisableGZipContent(eq(true));
+    verify(mockStorageObjectsInsert, times(1)).setIfGenerationMatch(eq(0L));
+    verify(mockStorageObjectsInsert, times(1)).setIfGenerationMatch(eq(1L));
+    verify(mockStorageObjectsInsert, times(2)).execute();
+    verify(mockClientRequestHelper, times(2))
+        .setDirectUploadEnabled(eq(mockStorageObjectsInsert), eq(true));
+    verify(mockErrorExtractor).itemNotFound(any(IOException.class));
+    verify(mockBackOffFactory).newBackOff();
+    verify(mockBackOff).nextBackOffMillis();
+  }
+
   /**
    * Test handling of various types of exceptions thrown during JSON API call for
    * GoogleCloudStorage.create(2).
@@ -1022,6 +1124,134 @@ public class GoogleCloudStorageTest {
     }
   }
 
+  /**
+   * Test that GoogleCloudStorage.open(2) issues bounded range requests when configured with
+   * Fadvise.RANDOM, continuing with the next range instead of returning a short read.
+   */
+  @Test
+  public void testOpenObjectRandomAccess()
+      throws IOException {
+    GoogleCloudStorageOptions.Builder optionsBuilder = GoogleCloudStorageOptions.newBuilder();
+    optionsBuilder.getReadChannelOptionsBuilder()
+        .setFadvise(GoogleCloudStorageReadOptions.Fadvise.RANDOM)
+        .setMinRangeRequestSize(2);
+    gcs = createTestInstance(optionsBuilder);
+
+    when(mockStorage.objects()).thenReturn(mockStorageObjects);
+    when(mockStorageObjects.get(eq(BUCKET_NAME), eq(OBJECT_NAME)))
+        .thenReturn(mockStorageObjectsGet);
+    when(mockClientRequestHelper.getRequestHeaders(eq(mockStorageObjectsGet)))
+        .thenReturn(mockHeaders);
+    when(mockStorageObjectsGet.execute())
+        .thenReturn(new StorageObject()
+            .setBucket(BUCKET_NAME)
+            .setName(OBJECT_NAME)
+            .setUpdated(new DateTime(11L))
+            .setSize(BigInteger.valueOf(5L))
+            .setGeneration(1L)
+            .setMetageneration(1L));
+
+    byte[] testData = { 0x01, 0x02, 0x03, 0x05, 0x08 };
+    when(mockStorageObjectsGet.executeMedia())
+        .thenReturn(createFakeResponse(3, new ByteArrayInputStream(testData, 0, 3)))
+        .thenReturn(createFakeResponse(2, new ByteArrayInputStream(testData, 3, 2)))
+        .thenReturn(createFakeResponse(2, new ByteArrayInputStream(testData, 1, 2)));
+
+    SeekableReadableByteChannel readChannel =
+        gcs.open(new StorageResourceId(BUCKET_NAME, OBJECT_NAME));
+    assertEquals(5, readChannel.size());
+
+    // The first read is larger than the minimum range request size, so it is requested exactly.
+    byte[] actualData = new byte[3];
+    assertEquals(3, readChannel.read(ByteBuffer.wrap(actualData)));
+    assertArrayEquals(new byte[] { 0x01, 0x02, 0x03 }, actualData);
+
+    // Continuing past the end of the range opens the next range, capped at the object size.
+    actualData = new byte[2];
+    assertEquals(2, readChannel.read(ByteBuffer.wrap(actualData)));
+    assertArrayEquals(new byte[] { 0x05, 0x08 }, actualData);
+    assertEquals(5, readChannel.position());
+
+    // Small reads after a seek still request at least the minimum range request size.
+    readChannel.position(1);
+    actualData = new byte[1];
+    assertEquals(1, readChannel.read(ByteBuffer.wrap(actualData)));
+    assertArrayEquals(new byte[] { 0x02 }, actualData);
+    assertEquals(2, readChannel.position());
+
+    verify(mockStorage, atLeastOnce()).objects();
+    verify(mockStorageObjects, atLeastOnce()).get(eq(BUCKET_NAME), eq(OBJECT_NAME));
+    verify(mockClientRequestHelper, times(3)).getRequestHeaders(any(Storage.Objects.Get.class));
+    verify(mockHeaders).setRange(eq("bytes=0-2"));
+    verify(mockHeaders).setRange(eq("bytes=3-4"));
+    verify(mockHeaders).setRange(eq("bytes=1-2"));
+    verify(mockStorageObjectsGet, times(3)).executeMedia();
+    verify(mockStorageObjectsGet).execute();
+
+    readChannel.close();
+  }
+
+  /**
+   * Test that short forward seeks are served by skipping bytes in the open stream, while backward
+   * seeks reopen it.
+   */
+  @Test
+  public void testOpenObjectForwardSeekInPlace()
+      throws IOException {
+    when(mockStorage.objects()).thenReturn(mockStorageObjects);
+    when(mockStorageObjects.get(eq(BUCKET_NAME), eq(OBJECT_NAME)))
+        .thenReturn(mockStorageObjectsGet);
+    when(mockClientRequestHelper.getRequestHeaders(eq(mockStorageObjectsGet)))
+        .thenReturn(mockHeaders);
+    when(mockStorageObjectsGet.execute())
+        .thenReturn(new StorageObject()
+            .setBucket(BUCKET_NAME)
+            .setName(OBJECT_NAME)
+            .setUpdated(new DateTime(11L))
+            .setSize(BigInteger.valueOf(5L))
+            .setGeneration(1L)
+            .setMetageneration(1L));
+
+    byte[] testData = { 0x01, 0x02, 0x03, 0x05, 0x08 };
+    byte[] testData2 = { 0x02, 0x03, 0x05, 0x08 };
+    when(mockStorageObjectsGet.executeMedia())
+        .thenReturn(createFakeResponse(testData.length, new ByteArrayInputStream(testData)))
+        .thenReturn(createFakeResponseForRange(
+            testData.length, new ByteArrayInputStream(testData2)));
+
+    GoogleCloudStorageReadChannel readChannel = (GoogleCloudStorageReadChannel)
+        gcs.open(new StorageResourceId(BUCKET_NAME, OBJECT_NAME));
+    byte[] actualData = new byte[2];
+    assertEquals(2, readChannel.read(ByteBuffer.wrap(actualData)));
+    assertArrayEquals(new byte[] { 0x01, 0x02 }, actualData);
+
+    // Skip over 0x03 and 0x05 without a new request.
+    readChannel.position(4);
+    actualData = new byte[1];
+    assertEquals(1, readChannel.read(ByteBuffer.wrap(actualData)));
+    assertArrayEquals(new byte[] { 0x08 }, actualData);
+    assertEquals(1, readChannel.getInplaceSeekCount());
+    assertEquals(0, readChannel.getReopenCount());
+
+    // Seeking backwards has to reopen the stream.
+    readChannel.position(1);
+    actualData = new byte[1];
+    assertEquals(1, readChannel.read(ByteBuffer.wrap(actualData)));
+    assertArrayEquals(new byte[] { 0x02 }, actualData);
+    assertEquals(1, readChannel.getInplaceSeekCount());
+    assertEquals(1, readChannel.getReopenCount());
+
+    verify(mockStorage, atLeastOnce()).objects();
+    verify(mockStorageObjects, atLeastOnce()).get(eq(BUCKET_NAME), eq(OBJECT_NAME));
+    verify(mockClientRequestHelper, times(2)).getRequestHeaders(any(Storage.Objects.Get.class));
+    verify(mockHeaders).setRange(eq("bytes=0-"));
+    verify(mockHeaders).setRange(eq("bytes=1-"));
+    verify(mockStorageObjectsGet, times(2)).executeMedia();
+    verify(mockStorageObjectsGet).execute();
+
+    readChannel.close();
+  }
+
   /**
    * Test handling of various types of exceptions thrown during JSON API call for
    * GoogleCloudStorage.open(2).
@@ -1393,6 +1623,133 @@ public class GoogleCloudStorageTest {
             Matchers.<JsonBatchCallback<Object>>anyObject());
   }
 
+  /**
+   * Test that GoogleCloudStorage.deleteObjects with a known generation deletes without looking
+   * the generation up first.
+   */
+  @Test
+  public void testDeleteObjectWithKnownGeneration()
+      throws IOException {
+    when(mockBatchFactory.newBatchHelper(any(HttpRequestInitializer.class),
+        any(Storage.class), any(Long.class))).thenReturn(mockBatchHelper);
+    when(mockStorage.objects()).thenReturn(mockStorageObjects);
+    when(mockStorageObjects.delete(eq(BUCKET_NAME), eq(OBJECT_NAME)))
+        .thenReturn(mockStorageObjectsDelete);
+
+    doAnswer(new Answer() {
+      @Override
+      public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+        JsonBatchCallback<Void> callback =
+            (JsonBatchCallback<Void>) invocationOnMock.getArguments()[1];
+        callback.onSuccess(null, new HttpHeaders());
+        return null;
+      }
+    }).when(mockBatchHelper).queue(
+        Matchers.<StorageRequest<Object>>anyObject(),
+        Matchers.<JsonBatchCallback<Object>>anyObject());
+
+    when(mockBatchHelper.isEmpty())
+        .thenReturn(true);
+
+    gcs.deleteObjects(
+        Lists.newArrayList(new StorageResourceId(BUCKET_NAME, OBJECT_NAME)),
+        Lists.newArrayList(7L));
+
+    verify(mockBatchFactory).newBatchHelper(any(HttpRequestInitializer.class),
+        eq(mockStorage), any(Long.class));
+    verify(mockStorage).objects();
+    verify(mockStorageObjects).delete(eq(BUCKET_NAME), eq(OBJECT_NAME));
+    verify(mockStorageObjectsDelete).setIfGenerationMatch(eq(7L));
+    verify(mockBatchHelper).isEmpty();
+    verify(mockBatchHelper).flush();
+    verify(mockBatchHelper)
+        .queue(
+            Matchers.<StorageRequest<Object>>anyObject(),
+            Matchers.<JsonBatchCallback<Object>>anyObject());
+  }
+
+  /**
+   * Test that GoogleCloudStorage.deleteObjects looks up the current generation of an object
+   * which has changed since the generation it was given.
+   */
+  @Test
+  public void testDeleteObjectWithStaleGeneration()
+      throws IOException {
+    when(mockBatchFactory.newBatchHelper(any(HttpRequestInitializer.class),
+        any(Storage.class), any(Long.class))).thenReturn(mockBatchHelper);
+    when(mockStorage.objects()).thenReturn(mockStorageObjects);
+    when(mockStorageObjects.get(eq(BUCKET_NAME), eq(OBJECT_NAME)))
+        .thenReturn(mockStorageObjectsGet);
+    when(mockStorageObjects.delete(eq(BUCKET_NAME), eq(OBJECT_NAME)))
+        .thenReturn(mockStorageObjectsDelete);
+
+    final GoogleJsonError preconditionError = new GoogleJsonError();
+    preconditionError.setMessage("Fake precondition-not-met exception");
+
+    doAnswer(new Answer() {
+      @Override
+      public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+        JsonBatchCallback<Void> callback =
+            (JsonBatchCallback<Void>) invocationOnMock.getArguments()[1];
+        callback.onFailure(preconditionError, new HttpHeaders());
+        return null;
+      }
+    }).doAnswer(new Answer() {
+      @Override
+      public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+        JsonBatchCallback<StorageObject> getCallback =
+            (JsonBatchCallback<StorageObject>) invocationOnMock.getArguments()[1];
+        getCallback.onSuccess(
+            new StorageObject()
+                .setBucket(BUCKET_NAME)
+                .setName(OBJECT_NAME)
+                .setUpdated(new DateTime(11L))
+                .setSize(BigInteger.valueOf(111L))
+                .setGeneration(2L)
+                .setMetageneration(1L),
+            new HttpHeaders());
+        return null;
+      }
+    }).doAnswer(new Answer() {
+      @Override
+      public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+        JsonBatchCallback<Void> callback =
+            (JsonBatchCallback<Void>) invocationOnMock.getArguments()[1];
+        callback.onSuccess(null, new HttpHeaders());
+        return null;
+      }
+    }).when(mockBatchHelper).queue(
+        Matchers.<StorageRequest<Object>>anyObject(),
+        Matchers.<JsonBatchCallback<Object>>anyObject());
+
+    when(mockErrorExtractor.itemNotFound(eq(preconditionError)))
+        .thenReturn(false);
+    when(mockErrorExtractor.preconditionNotMet(eq(preconditionError)))
+        .thenReturn(true);
+    when(mockBatchHelper.isEmpty())
+        .thenReturn(true);
+
+    gcs.deleteObjects(
+        Lists.newArrayList(new StorageResourceId(BUCKET_NAME, OBJECT_NAME)),
+        Lists.newArrayList(1L));
+
+    verify(mockBatchFactory).newBatchHelper(any(HttpRequestInitializer.class),
+        eq(mockStorage), any(Long.class));
+    verify(mockStorage, times(3)).objects();
+    verify(mockStorageObjects, times(2)).delete(eq(BUCKET_NAME), eq(OBJECT_NAME));
+    verify(mockStorageObjects).get(eq(BUCKET_NAME), eq(OBJECT_NAME));
+    verify(mockStorageObjectsDelete).setIfGenerationMatch(eq(1L));
+    verify(mockStorageObjectsDelete).setIfGenerationMatch(eq(2L));
+    verify(mockErrorExtractor).itemNotFound(any(GoogleJsonError.class));
+    verify(mockErrorExtractor).preconditionNotMet(any(GoogleJsonError.class));
+    verify(mockBatchHelper).isEmpty();
+    verify(mockBatchHelper).flush();
+    verify(mockBatchHelper, times(3))
+        .queue(
+            Matchers.<StorageRequest<Object>>anyObject(),
+            Matchers.<JsonBatchCallback<Object>>anyObject());
+  }
+
   /**
    * Test handling of various types of exceptions thrown during JSON API call for
    * GoogleCloudStorage.delete(2).
@@ -2214,6 +2571,46 @@ public class GoogleCloudStorageTest {
     verify(mockBatchHelper).flush();
   }
 
+  @Test
+  public void testListObjectInfoInfersDirectoriesFromPrefixes()
+      throws IOException {
+    gcs = createTestInstance(
+        GoogleCloudStorageOptions.newBuilder().setInferDirectoriesFromPrefixesEnabled(true));
+    String objectPrefix = "foo/bar/baz/";
+    String delimiter = "/";
+    when(mockStorage.objects()).thenReturn(mockStorageObjects);
+    when(mockStorageObjects.list(eq(BUCKET_NAME)))
+        .thenReturn(mockStorageObjectsList);
+    when(mockStorageObjectsList.execute())
+        .thenReturn(new Objects()
+            .setPrefixes(ImmutableList.of(
+                "foo/bar/baz/dir0/",
+                "foo/bar/baz/dir1/"))
+            .setNextPageToken(null));
+
+    List<GoogleCloudStorageItemInfo> objectInfos =
+        gcs.listObjectInfo(BUCKET_NAME, objectPrefix, delimiter);
+
+    // The directories are returned without fetching their placeholder objects.
+    assertEquals(2, objectInfos.size());
+    for (int i = 0; i < objectInfos.size(); ++i) {
+      GoogleCloudStorageItemInfo objectInfo = objectInfos.get(i);
+      assertEquals("foo/bar/baz/dir" + i + "/", objectInfo.getObjectName());
+      assertTrue(objectInfo.exists());
+      assertTrue(objectInfo.isInferredDirectory());
+      assertEquals(0, objectInfo.getCreationTime());
+      assertEquals(0, objectInfo.getSize());
+    }
+
+    verify(mockStorage).objects();
+    verify(mockStorageObjects).list(eq(BUCKET_NAME));
+    verify(mockStorageObjectsList)
+        .setMaxResults(eq(GoogleCloudStorageOptions.MAX_LIST_ITEMS_PER_CALL_DEFAULT));
+    verify(mockStorageObjectsList).setDelimiter(eq(delimiter));
+    verify(mockStorageObjectsList).setPrefix(eq(objectPrefix));
+    verify(mockStorageObjectsList).execute();
+  }
+
   @Test
   public void testListObjectInfoReturnPrefixesNotFound()
       throws IOException {
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Misc helpers for populating a GoogleCloudStorage, typically an InMemoryGoogleCloudStorage, in
+ * tests.
+ */
+public class GoogleCloudStorageTestUtils {
+  /**
+   * Creates the bucket {@code bucketName} in {@code gcs}, and an empty object in it for each of
+   * {@code objectNames}.
+   *
+   * @return {@code gcs}, so that tests can populate a storage subclass as they create it.
+   */
+  public static <T extends GoogleCloudStorage> T createBucketWithObjects(
+      T gcs, String bucketName, List<String> objectNames)
+      throws IOException {
+    gcs.create(bucketName);
+    for (String objectName : objectNames) {
+      gcs.createEmptyObject(new StorageResourceId(bucketName, objectName));
+    }
+    return gcs;
+  }
+}
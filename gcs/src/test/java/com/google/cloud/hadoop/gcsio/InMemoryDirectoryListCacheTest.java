@@ -19,12 +19,25 @@ package com.google.cloud.hadoop.gcsio;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import com.google.api.client.util.Clock;
+import com.google.common.collect.ImmutableSet;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * UnitTests for InMemoryDirectoryListCache class.
@@ -65,4 +78,197 @@ public class InMemoryDirectoryListCacheTest extends DirectoryListCacheTest {
     assertEquals(0, cache.getBucketList().size());
     assertNull(cache.getObjectList(BUCKET_NAME, "", null, null));
   }
+
+  @Test
+  public void testDelimiterListingSkipsExpiredFirstObjectOfPrefix() throws IOException {
+    cache.putResourceId(createId("foo/bar/data1.txt"));
+    cache.putResourceId(createId("foo/baz/data1.txt"));
+    long nextTime = BASE_TIME + MAX_ENTRY_AGE / 2;
+    when(mockClock.currentTimeMillis()).thenReturn(nextTime);
+    cache.putResourceId(createId("foo/baz/data2.txt"));
+    cache.putResourceId(createId("foo/data3.txt"));
+
+    // Only the objects added first have expired.
+    when(mockClock.currentTimeMillis()).thenReturn(BASE_TIME + MAX_ENTRY_AGE + 1);
+    Set<String> prefixes = new HashSet<>();
+    List<CacheEntry> listedObjects = cache.getObjectList(BUCKET_NAME, "foo/", "/", prefixes);
+
+    assertEquals(1, listedObjects.size());
+    assertEquals(createId("foo/data3.txt"), listedObjects.get(0).getResourceId());
+    // foo/bar/ has no live object left, while foo/baz/ still has data2.txt.
+    assertEquals(ImmutableSet.of("foo/baz/"), prefixes);
+    assertEquals(2, cache.getInternalNumObjects());
+  }
+
+  @Test
+  public void testPutRemovesExpiredObjectsOutsideListedPrefixes() throws IOException {
+    for (int i = 0; i < 10; ++i) {
+      cache.putResourceId(createId("old/file" + i));
+    }
+    when(mockClock.currentTimeMillis()).thenReturn(BASE_TIME + MAX_ENTRY_AGE + 1);
+
+    // Listing another prefix doesn't visit the expired objects.
+    assertTrue(cache.getObjectList(BUCKET_NAME, "new/", "/", null).isEmpty());
+    assertEquals(10, cache.getInternalNumObjects());
+
+    // Adding objects removes them a few at a time, carrying on from wherever the sweeps made while
+    // adding the old objects stopped.
+    cache.putResourceId(createId("new/file0"));
+    assertTrue(cache.getInternalNumObjects() < 10);
+    cache.putResourceId(createId("new/file1"));
+    cache.putResourceId(createId("new/file2"));
+    assertEquals(3, cache.getInternalNumObjects());
+  }
+
+  @Test
+  public void testConcurrentPutsListsAndBucketRemovals() throws Exception {
+    final int numThreads = 8;
+    final int numObjectsPerThread = 500;
+    // An expired bucket, which is removed whenever it is found empty.
+    cache.putResourceId(bucketResourceId);
+    // A plain fake rather than the mock, which would record each of the many calls made below.
+    Clock expiredClock = new Clock() {
+      @Override
+      public long currentTimeMillis() {
+        return BASE_TIME + MAX_ENTRY_AGE + 1;
+      }
+    };
+    cache.setClock(expiredClock);
+    CacheEntry.setClock(expiredClock);
+
+    ExecutorService threadPool = Executors.newFixedThreadPool(numThreads + 1);
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int t = 0; t < numThreads; ++t) {
+        final String dir = "dir" + t + "/";
+        futures.add(threadPool.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            for (int i = 0; i < numObjectsPerThread; ++i) {
+              cache.putResourceId(createId(dir + "file" + i));
+              // Every object added so far is listed, however the other threads interleave.
+              assertEquals(i + 1, cache.getObjectList(BUCKET_NAME, dir, "/", null).size());
+            }
+            return null;
+          }
+        }));
+      }
+      // Keeps trying to remove the expired bucket, which must never drop added objects.
+      Future<Void> remover = threadPool.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          for (int i = 0; i < numObjectsPerThread; ++i) {
+            cache.getObjectList(BUCKET_NAME, "", null, null);
+            cache.getBucketList();
+          }
+          return null;
+        }
+      });
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+      remover.get();
+    } finally {
+      threadPool.shutdownNow();
+    }
+    assertEquals(numThreads * numObjectsPerThread, cache.getInternalNumObjects());
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsedObjects() throws IOException {
+    InMemoryDirectoryListCache inMemoryCache = (InMemoryDirectoryListCache) cache;
+    cache.getMutableConfig().setMaxEntries(10);
+    for (int i = 0; i < 10; ++i) {
+      when(mockClock.currentTimeMillis()).thenReturn(BASE_TIME + i);
+      cache.putResourceId(createId("file" + i));
+    }
+    assertEquals(0, inMemoryCache.getEvictionCount());
+
+    // Looking up file0 makes file1 the least recently used.
+    when(mockClock.currentTimeMillis()).thenReturn(BASE_TIME + 10);
+    assertNotNull(cache.getCacheEntry(createId("file0")));
+    when(mockClock.currentTimeMillis()).thenReturn(BASE_TIME + 11);
+    cache.putResourceId(createId("file10"));
+
+    // Evicted down to the bound.
+    assertEquals(1, inMemoryCache.getEvictionCount());
+    assertEquals(10, cache.getInternalNumObjects());
+    assertNull(cache.getCacheEntry(createId("file1")));
+    assertNotNull(cache.getCacheEntry(createId("file2")));
+    assertNotNull(cache.getCacheEntry(createId("file0")));
+    assertNotNull(cache.getCacheEntry(createId("file10")));
+  }
+
+  @Test
+  public void testEvictionSkipsRemovedObjects() throws IOException {
+    InMemoryDirectoryListCache inMemoryCache = (InMemoryDirectoryListCache) cache;
+    cache.getMutableConfig().setMaxEntries(3);
+    cache.putResourceId(createId("file0"));
+    cache.putResourceId(createId("dir/file1"));
+    cache.putResourceId(createId("file2"));
+    cache.removeResourceId(createId("file0"));
+    cache.putResourceId(createId("file3"));
+    assertEquals(0, inMemoryCache.getEvictionCount());
+
+    // Listing dir/file1 makes file2 the least recently used.
+    assertEquals(1, cache.getObjectList(BUCKET_NAME, "dir/", null, null).size());
+    cache.putResourceId(createId("file4"));
+    assertEquals(1, inMemoryCache.getEvictionCount());
+    assertEquals(3, cache.getInternalNumObjects());
+    assertNull(cache.getCacheEntry(createId("file2")));
+    assertNotNull(cache.getCacheEntry(createId("dir/file1")));
+  }
+
+  @Test
+  public void testHitRate() throws IOException {
+    InMemoryDirectoryListCache inMemoryCache = (InMemoryDirectoryListCache) cache;
+    assertEquals(1.0, inMemoryCache.getHitRate(), 0.0);
+
+    cache.putResourceId(objectResourceId);
+    assertNotNull(cache.getCacheEntry(objectResourceId));
+    assertNull(cache.getCacheEntry(createId("missing")));
+    assertNotNull(cache.getCacheEntry(objectResourceId));
+    assertNotNull(cache.getCacheEntry(bucketResourceId));
+
+    // Bucket lookups aren't counted.
+    assertEquals(2, inMemoryCache.getHitCount());
+    assertEquals(1, inMemoryCache.getMissCount());
+    assertEquals(2.0 / 3, inMemoryCache.getHitRate(), 0.0);
+  }
+
+  @Test
+  public void testRemoveExpiredEntries() throws IOException {
+    InMemoryDirectoryListCache inMemoryCache = (InMemoryDirectoryListCache) cache;
+    cache.putResourceId(createId("foo/file"));
+    cache.putResourceId(new StorageResourceId("other-bucket", "bar/file"));
+    when(mockClock.currentTimeMillis()).thenReturn(BASE_TIME + MAX_ENTRY_AGE / 2);
+    cache.putResourceId(createId("foo/newer-file"));
+
+    when(mockClock.currentTimeMillis()).thenReturn(BASE_TIME + MAX_ENTRY_AGE + 1);
+    inMemoryCache.removeExpiredEntries();
+    assertEquals(1, cache.getInternalNumObjects());
+    assertNotNull(cache.getCacheEntry(createId("foo/newer-file")));
+    // The emptied expired bucket is removed as well.
+    assertEquals(1, cache.getInternalNumBuckets());
+    assertEquals(2, inMemoryCache.getExpirationCount());
+  }
+
+  @Test
+  public void testBackgroundExpiry() throws Exception {
+    cache.putResourceId(createId("foo/file"));
+    when(mockClock.currentTimeMillis()).thenReturn(BASE_TIME + MAX_ENTRY_AGE + 1);
+
+    // Enabled once the next object is added; the sweep of its own bucket doesn't reach foo-bucket.
+    cache.getMutableConfig().setBackgroundExpiryIntervalMillis(10);
+    try {
+      cache.putResourceId(new StorageResourceId("other-bucket", "bar/file"));
+      for (int i = 0; i < 1000 && cache.getInternalNumObjects() > 1; ++i) {
+        Thread.sleep(10);
+      }
+      assertEquals(1, cache.getInternalNumObjects());
+      assertNull(cache.getCacheEntry(createId("foo/file")));
+    } finally {
+      cache.getMutableConfig().setBackgroundExpiryIntervalMillis(0);
+    }
+  }
 }
@@ -17,16 +17,23 @@ package com.google.cloud.hadoop.gcsio;
 import com.google.api.client.util.Clock;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * InMemoryGoogleCloudStorage overrides the public methods of GoogleCloudStorage by implementing
@@ -40,6 +47,20 @@ public class InMemoryGoogleCloudStorage
   private final GoogleCloudStorageOptions storageOptions;
   private final Clock clock;
 
+  // Thread-pool on which vectored reads fetch ranges.
+  private static final ExecutorService vectoredReadThreadPool = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setNameFormat("in-memory-vectored-read-pool-%d")
+          .setDaemon(true)
+          .build());
+
+  // Thread-pool on which composite uploads upload their parts.
+  private static final ExecutorService compositeUploadThreadPool = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setNameFormat("in-memory-composite-upload-pool-%d")
+          .setDaemon(true)
+          .build());
+
   public InMemoryGoogleCloudStorage() {
     storageOptions = GoogleCloudStorageOptions.newBuilder().build();
     clock = Clock.SYSTEM;
@@ -97,6 +118,44 @@ public class InMemoryGoogleCloudStorage
       StorageResourceId resourceId,
       final CreateObjectOptions options)
       throws IOException {
+    WritableByteChannel channel = createEntry(resourceId, options);
+    CompositeUploadOptions compositeUploadOptions = storageOptions.getCompositeUploadOptions();
+    if (compositeUploadOptions.isEnabled()
+        && !CompositeUploadWriteChannel.isTemporaryObject(resourceId.getObjectName())) {
+      // Like GoogleCloudStorageImpl, commit an empty object right away and compose over it, or
+      // replace it directly if the object fits in a single part.
+      channel.close();
+      final StorageResourceId objectId = resourceId;
+      return new CompositeUploadWriteChannel(
+          this,
+          compositeUploadThreadPool,
+          resourceId,
+          new CreateObjectOptions(true, options.getMetadata()),
+          compositeUploadOptions) {
+        @Override
+        protected boolean uploadObject(
+            byte[] contents, int length, CreateObjectOptions objectOptions)
+            throws IOException {
+          WritableByteChannel objectChannel = createEntry(objectId, objectOptions);
+          ByteBuffer buffer = ByteBuffer.wrap(contents, 0, length);
+          while (buffer.hasRemaining()) {
+            objectChannel.write(buffer);
+          }
+          objectChannel.close();
+          return true;
+        }
+      };
+    }
+    return channel;
+  }
+
+  /**
+   * Adds a new entry for the given object and returns the channel through which its contents
+   * are written.
+   */
+  private synchronized WritableByteChannel createEntry(
+      StorageResourceId resourceId, CreateObjectOptions options)
+      throws IOException {
     if (!bucketLookup.containsKey(resourceId.getBucketName())) {
       throw new IOException(String.format(
           "Tried to insert object '%s' into nonexistent bucket '%s'",
@@ -128,7 +187,7 @@ public class InMemoryGoogleCloudStorage
       StorageResourceId resourceId, CreateObjectOptions options) throws IOException {
     // TODO(user): Since this class is not performance-tuned, we'll just delegate to the
     // write-channel version of the method.
-    create(resourceId, options).close();
+    createEntry(resourceId, options).close();
   }
 
   @Override
@@ -150,6 +209,13 @@ public class InMemoryGoogleCloudStorage
   @Override
   public synchronized SeekableReadableByteChannel open(StorageResourceId resourceId)
       throws IOException {
+    return open(resourceId, storageOptions.getReadChannelOptions());
+  }
+
+  @Override
+  public synchronized SeekableReadableByteChannel open(
+      StorageResourceId resourceId, GoogleCloudStorageReadOptions readOptions)
+      throws IOException {
     if (!getItemInfo(resourceId).exists()) {
       throw GoogleCloudStorageExceptions.getFileNotFoundException(
           resourceId.getBucketName(), resourceId.getObjectName());
@@ -157,7 +223,23 @@ public class InMemoryGoogleCloudStorage
     return bucketLookup
         .get(resourceId.getBucketName())
         .get(resourceId.getObjectName())
-        .getReadChannel();
+        .getReadChannel(readOptions);
+  }
+
+  @Override
+  public List<Future<ByteBuffer>> readVectored(
+      final StorageResourceId resourceId, List<ReadRange> ranges)
+      throws IOException {
+    PrefetchingReadChannel.ChannelFactory channelFactory =
+        new PrefetchingReadChannel.ChannelFactory() {
+          @Override
+          public SeekableReadableByteChannel open()
+              throws IOException {
+            return InMemoryGoogleCloudStorage.this.open(resourceId);
+          }
+        };
+    return new VectoredReader(channelFactory, vectoredReadThreadPool,
+        storageOptions.getReadChannelOptions(), resourceId.toString()).read(ranges);
   }
 
   @Override
@@ -211,6 +293,16 @@ public class InMemoryGoogleCloudStorage
     }
   }
 
+  /**
+   * Objects kept in memory have no generations, so the given generations are ignored.
+   */
+  @Override
+  public synchronized void deleteObjects(
+      List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException {
+    deleteObjects(fullObjectNames);
+  }
+
   @Override
   public synchronized void copy(String srcBucketName, List<String> srcObjectNames,
       String dstBucketName, List<String> dstObjectNames)
@@ -246,6 +338,42 @@ public class InMemoryGoogleCloudStorage
     }
   }
 
+  @Override
+  public synchronized GoogleCloudStorageItemInfo composeObjects(List<StorageResourceId> sources,
+      StorageResourceId destination, CreateObjectOptions options)
+      throws IOException {
+    Preconditions.checkArgument(sources != null && !sources.isEmpty(),
+        "sources must not be null or empty");
+    Preconditions.checkArgument(sources.size() <= CompositeUploadWriteChannel.MAX_COMPOSE_OBJECTS,
+        "Cannot compose more than %s objects at once, got %s",
+        CompositeUploadWriteChannel.MAX_COMPOSE_OBJECTS, sources.size());
+
+    ByteArrayOutputStream contents = new ByteArrayOutputStream();
+    ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+    for (StorageResourceId source : sources) {
+      Preconditions.checkArgument(source.getBucketName().equals(destination.getBucketName()),
+          "Cannot compose %s into %s across buckets", source, destination);
+      if (!getItemInfo(source).exists()) {
+        throw GoogleCloudStorageExceptions.getFileNotFoundException(
+            source.getBucketName(), source.getObjectName());
+      }
+      SeekableReadableByteChannel channel = open(source);
+      try {
+        while (channel.read(readBuffer) >= 0) {
+          contents.write(readBuffer.array(), 0, readBuffer.position());
+          readBuffer.clear();
+        }
+      } finally {
+        channel.close();
+      }
+    }
+
+    WritableByteChannel channel = createEntry(destination, options);
+    channel.write(ByteBuffer.wrap(contents.toByteArray()));
+    channel.close();
+    return getItemInfo(destination);
+  }
+
   @Override
   public synchronized List<String> listBucketNames()
       throws IOException {
@@ -289,6 +417,99 @@ public class InMemoryGoogleCloudStorage
     // Since we're just in memory, we can do the naive implementation of just listing names and
     // then calling getItemInfo for each.
     List<String> listedNames = listObjectNames(bucketName, objectNamePrefix, delimiter);
+    return getItemInfosForNames(bucketName, listedNames);
+  }
+
+  /**
+   * Returns pages of at most maxListItemsPerCall items, in lexicographical order; page tokens are
+   * the last name of the previous page.
+   */
+  @Override
+  public synchronized ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken)
+      throws IOException {
+    return listObjectInfoPage(bucketName, objectNamePrefix, delimiter, pageToken,
+        storageOptions.getMaxListItemsPerCall());
+  }
+
+  @Override
+  public synchronized ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+      String bucketName, String objectNamePrefix, String delimiter, String pageToken,
+      long maxResults)
+      throws IOException {
+    return getPage(bucketName, listPageNames(bucketName, objectNamePrefix, delimiter), delimiter,
+        pageToken, maxResults);
+  }
+
+  /**
+   * Returns pages of the names within the range, like
+   * {@link #listObjectInfoPage(String, String, String, String, long)}.
+   */
+  @Override
+  public synchronized ListPage<GoogleCloudStorageItemInfo> listObjectInfoPageInRange(
+      String bucketName, String objectNamePrefix, String startOffset, String endOffset,
+      String pageToken, long maxResults)
+      throws IOException {
+    List<String> rangeNames = new ArrayList<>();
+    for (String objectName : listPageNames(bucketName, objectNamePrefix, null)) {
+      if ((startOffset == null || objectName.compareTo(startOffset) >= 0)
+          && (endOffset == null || objectName.compareTo(endOffset) < 0)) {
+        rangeNames.add(objectName);
+      }
+    }
+    return getPage(bucketName, rangeNames, null, pageToken, maxResults);
+  }
+
+  /**
+   * Returns the sorted names listed by the pages of a listing.
+   */
+  private List<String> listPageNames(
+      String bucketName, String objectNamePrefix, String delimiter)
+      throws IOException {
+    List<String> listedNames = listObjectNames(bucketName, objectNamePrefix, delimiter);
+    // Like GCS, and unlike listObjectNames() without a delimiter, return the object named by the
+    // prefix itself unless the prefix is a directory name.
+    if (!Strings.isNullOrEmpty(objectNamePrefix)
+        && !objectNamePrefix.endsWith(PATH_DELIMITER)
+        && !listedNames.contains(objectNamePrefix)
+        && getItemInfo(new StorageResourceId(bucketName, objectNamePrefix)).exists()) {
+      listedNames.add(objectNamePrefix);
+    }
+    Collections.sort(listedNames);
+    return listedNames;
+  }
+
+  /**
+   * Returns the page of the sorted {@code listedNames} which starts after {@code pageToken}.
+   */
+  private ListPage<GoogleCloudStorageItemInfo> getPage(String bucketName,
+      List<String> listedNames, String delimiter, String pageToken, long maxResults)
+      throws IOException {
+    int start = 0;
+    if (pageToken != null) {
+      start = Collections.binarySearch(listedNames, pageToken);
+      start = start >= 0 ? start + 1 : -start - 1;
+    }
+    int end = (int) Math.min(
+        listedNames.size(), start + maxResults);
+    List<String> pageNames = listedNames.subList(start, end);
+    String nextPageToken = end < listedNames.size() ? listedNames.get(end - 1) : null;
+    // With a delimiter, every listed name ending with it stands for a prefix, as GCS lists
+    // directory objects under their prefix.
+    List<String> prefixes = new ArrayList<>();
+    if (delimiter != null) {
+      for (String objectName : pageNames) {
+        if (objectName.endsWith(delimiter)) {
+          prefixes.add(objectName);
+        }
+      }
+    }
+    return new ListPage<>(getItemInfosForNames(bucketName, pageNames), nextPageToken, prefixes);
+  }
+
+  private List<GoogleCloudStorageItemInfo> getItemInfosForNames(
+      String bucketName, List<String> listedNames)
+      throws IOException {
     List<GoogleCloudStorageItemInfo> listedInfo = new ArrayList<>();
     for (String objectName : listedNames) {
       GoogleCloudStorageItemInfo itemInfo =
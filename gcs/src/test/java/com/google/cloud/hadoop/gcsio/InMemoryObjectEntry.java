@@ -185,12 +185,23 @@ class InMemoryObjectEntry {
    * the byte contents and make them available for reading.
    */
   public synchronized SeekableReadableByteChannel getReadChannel() throws IOException {
+    return getReadChannel(GoogleCloudStorageReadOptions.DEFAULT);
+  }
+
+  /**
+   * Same as {@link #getReadChannel()}, but the returned channel honors the given read options.
+   */
+  public synchronized SeekableReadableByteChannel getReadChannel(
+      GoogleCloudStorageReadOptions readOptions) throws IOException {
     if (!isCompleted()) {
       throw new IOException(
           String.format("Cannot getReadChannel() before writes have been committed! Object = %s",
               this.getObjectName()));
     }
-    return new InMemoryObjectReadChannel(completedContents);
+    InMemoryObjectReadChannel channel =
+        new InMemoryObjectReadChannel(completedContents, readOptions);
+    channel.setItemInfo(info);
+    return channel;
   }
 
   /**
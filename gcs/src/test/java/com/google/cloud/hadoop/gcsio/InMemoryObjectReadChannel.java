@@ -35,6 +35,16 @@ public class InMemoryObjectReadChannel
    */
   public InMemoryObjectReadChannel(byte[] channelContents)
       throws IOException {
+    this(channelContents, GoogleCloudStorageReadOptions.DEFAULT);
+  }
+
+  /**
+   * Creates a new instance of InMemoryObjectReadChannel with the given read options.
+   */
+  public InMemoryObjectReadChannel(
+      byte[] channelContents, GoogleCloudStorageReadOptions readOptions)
+      throws IOException {
+    super(readOptions);
     Preconditions.checkArgument(channelContents != null);
     this.channelContents = channelContents;
   }
@@ -44,15 +54,18 @@ public class InMemoryObjectReadChannel
    * to size of the byte array.
    *
    * @param newPosition position to seek into the new stream.
+   * @param rangeEnd exclusive end of the range to return, or -1 for the rest of the contents.
    * @throws IOException on IO error
    */
   @Override
-  protected InputStream openStreamAndSetSize(long newPosition)
+  protected InputStream openStreamAndSetSize(long newPosition, long rangeEnd)
       throws IOException {
     validatePosition(newPosition);
     setSize(channelContents.length);
-    InputStream inputStream = new ByteArrayInputStream(channelContents);
-    inputStream.skip(newPosition);
-    return inputStream;
+    int start = (int) Math.min(newPosition, channelContents.length);
+    int end = rangeEnd < 0
+        ? channelContents.length
+        : (int) Math.min(rangeEnd, channelContents.length);
+    return new ByteArrayInputStream(channelContents, start, end - start);
   }
 }
\ No newline at end of file
@@ -19,9 +19,11 @@ import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * An implementation of GoogleCloudStorage that allows injection of lag to list operations
@@ -96,12 +98,32 @@ public class LaggedGoogleCloudStorage implements GoogleCloudStorage  {
     return delegate.open(resourceId);
   }
 
+  @Override
+  public SeekableReadableByteChannel open(
+      StorageResourceId resourceId, GoogleCloudStorageReadOptions readOptions)
+      throws IOException {
+    return delegate.open(resourceId, readOptions);
+  }
+
+  @Override
+  public List<Future<ByteBuffer>> readVectored(
+      StorageResourceId resourceId, List<ReadRange> ranges)
+      throws IOException {
+    return delegate.readVectored(resourceId, ranges);
+  }
+
   @Override
   public void deleteObjects(
       List<StorageResourceId> fullObjectNames) throws IOException {
     delegate.deleteObjects(fullObjectNames);
   }
 
+  @Override
+  public void deleteObjects(List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException {
+    delegate.deleteObjects(fullObjectNames, generations);
+  }
+
   @Override
   public List<GoogleCloudStorageItemInfo> listBucketInfo() throws IOException {
     return delegate.listBucketInfo();
@@ -163,6 +185,12 @@ public class LaggedGoogleCloudStorage implements GoogleCloudStorage  {
     delegate.copy(srcBucketName, srcObjectNames, dstBucketName, dstObjectNames);
   }
 
+  @Override
+  public GoogleCloudStorageItemInfo composeObjects(List<StorageResourceId> sources,
+      StorageResourceId destination, CreateObjectOptions options) throws IOException {
+    return delegate.composeObjects(sources, destination, options);
+  }
+
   @Override
   public List<String> listBucketNames() throws IOException {
     return delegate.listBucketNames();
@@ -198,6 +226,43 @@ public class LaggedGoogleCloudStorage implements GoogleCloudStorage  {
     return result;
   }
 
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(String bucketName,
+      String objectNamePrefix, String delimiter, String pageToken) throws IOException {
+    return filterVisible(
+        delegate.listObjectInfoPage(bucketName, objectNamePrefix, delimiter, pageToken));
+  }
+
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(String bucketName,
+      String objectNamePrefix, String delimiter, String pageToken, long maxResults)
+      throws IOException {
+    return filterVisible(delegate.listObjectInfoPage(
+        bucketName, objectNamePrefix, delimiter, pageToken, maxResults));
+  }
+
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPageInRange(String bucketName,
+      String objectNamePrefix, String startOffset, String endOffset, String pageToken,
+      long maxResults)
+      throws IOException {
+    return filterVisible(delegate.listObjectInfoPageInRange(
+        bucketName, objectNamePrefix, startOffset, endOffset, pageToken, maxResults));
+  }
+
+  private ListPage<GoogleCloudStorageItemInfo> filterVisible(
+      ListPage<GoogleCloudStorageItemInfo> delegatedPage) {
+    List<GoogleCloudStorageItemInfo> result = new ArrayList<>();
+
+    for (GoogleCloudStorageItemInfo info : delegatedPage.getItems()) {
+      if (listVisibilityCalculator.isObjectVisible(clock, info)) {
+        result.add(info);
+      }
+    }
+    return new ListPage<>(
+        result, delegatedPage.getNextPageToken(), delegatedPage.getPrefixes());
+  }
+
   @Override
   public void close() {
     delegate.close();
@@ -15,8 +15,10 @@
 package com.google.cloud.hadoop.gcsio;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * A @{link GoogleCloudStorage} that throws an @{code UnsupportedOperationException} on
@@ -70,6 +72,20 @@ public class ListProhibitedGoogleCloudStorage implements GoogleCloudStorage {
     return delegateGcs.open(resourceId);
   }
 
+  @Override
+  public SeekableReadableByteChannel open(
+      StorageResourceId resourceId, GoogleCloudStorageReadOptions readOptions)
+      throws IOException {
+    return delegateGcs.open(resourceId, readOptions);
+  }
+
+  @Override
+  public List<Future<ByteBuffer>> readVectored(
+      StorageResourceId resourceId, List<ReadRange> ranges)
+      throws IOException {
+    return delegateGcs.readVectored(resourceId, ranges);
+  }
+
   @Override
   public void create(String bucketName) throws IOException {
     delegateGcs.create(bucketName);
@@ -86,12 +102,24 @@ public class ListProhibitedGoogleCloudStorage implements GoogleCloudStorage {
     delegateGcs.deleteObjects(fullObjectNames);
   }
 
+  @Override
+  public void deleteObjects(List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException {
+    delegateGcs.deleteObjects(fullObjectNames, generations);
+  }
+
   @Override
   public void copy(String srcBucketName, List<String> srcObjectNames,
       String dstBucketName, List<String> dstObjectNames) throws IOException {
     delegateGcs.copy(srcBucketName, srcObjectNames, dstBucketName, dstObjectNames);
   }
 
+  @Override
+  public GoogleCloudStorageItemInfo composeObjects(List<StorageResourceId> sources,
+      StorageResourceId destination, CreateObjectOptions options) throws IOException {
+    return delegateGcs.composeObjects(sources, destination, options);
+  }
+
   @Override
   public List<String> listBucketNames() throws IOException {
     throw new UnsupportedOperationException(
@@ -118,6 +146,30 @@ public class ListProhibitedGoogleCloudStorage implements GoogleCloudStorage {
         "Operation not supported in ListProhibitedGoogleCloudStorage.");
   }
 
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(String bucketName,
+      String objectNamePrefix, String delimiter, String pageToken) throws IOException {
+    throw new UnsupportedOperationException(
+        "Operation not supported in ListProhibitedGoogleCloudStorage.");
+  }
+
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(String bucketName,
+      String objectNamePrefix, String delimiter, String pageToken, long maxResults)
+      throws IOException {
+    throw new UnsupportedOperationException(
+        "Operation not supported in ListProhibitedGoogleCloudStorage.");
+  }
+
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPageInRange(String bucketName,
+      String objectNamePrefix, String startOffset, String endOffset, String pageToken,
+      long maxResults)
+      throws IOException {
+    throw new UnsupportedOperationException(
+        "Operation not supported in ListProhibitedGoogleCloudStorage.");
+  }
+
   @Override
   public GoogleCloudStorageItemInfo getItemInfo(
       StorageResourceId resourceId) throws IOException {
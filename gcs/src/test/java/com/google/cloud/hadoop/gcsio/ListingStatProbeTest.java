@@ -0,0 +1,208 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.hadoop.gcsio.GoogleCloudStorageFileSystemOptions.StatProbeStrategy;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * UnitTests for getFileInfo() with StatProbeStrategy.LIST, using InMemoryGoogleCloudStorage in
+ * place of GCS.
+ */
+@RunWith(JUnit4.class)
+public class ListingStatProbeTest {
+  private static final String BUCKET_NAME = "foo-bucket";
+
+  /**
+   * InMemoryGoogleCloudStorage which counts the bounded listings it serves.
+   */
+  private static class CountingGoogleCloudStorage extends InMemoryGoogleCloudStorage {
+    private final AtomicInteger boundedListCount = new AtomicInteger();
+
+    @Override
+    public synchronized ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+        String bucketName, String objectNamePrefix, String delimiter, String pageToken,
+        long maxResults)
+        throws IOException {
+      if (maxResults < GoogleCloudStorageOptions.MAX_LIST_ITEMS_PER_CALL_DEFAULT) {
+        boundedListCount.incrementAndGet();
+      }
+      return super.listObjectInfoPage(
+          bucketName, objectNamePrefix, delimiter, pageToken, maxResults);
+    }
+  }
+
+  private CountingGoogleCloudStorage gcs;
+  private GoogleCloudStorageFileSystem gcsfs;
+
+  @Before
+  public void setUp()
+      throws IOException {
+    gcs = new CountingGoogleCloudStorage();
+    gcs.create(BUCKET_NAME);
+    gcsfs = new GoogleCloudStorageFileSystem(gcs, GoogleCloudStorageFileSystemOptions.newBuilder()
+        .setStatProbeStrategy(StatProbeStrategy.LIST)
+        .build());
+    gcsfs.setUpdateTimestampsExecutor(MoreExecutors.sameThreadExecutor());
+  }
+
+  private void createObjects(String... objectNames)
+      throws IOException {
+    for (String objectName : objectNames) {
+      gcs.createEmptyObject(new StorageResourceId(BUCKET_NAME, objectName));
+    }
+    gcs.boundedListCount.set(0);
+  }
+
+  private FileInfo getFileInfo(String objectName)
+      throws IOException {
+    return gcsfs.getFileInfo(URI.create("gs://foo-bucket/" + objectName));
+  }
+
+  @Test
+  public void testFileIsFoundWithOneListing()
+      throws IOException {
+    createObjects("dir/", "dir/file", "dir/file/");
+
+    FileInfo fileInfo = getFileInfo("dir/file");
+    assertTrue(fileInfo.exists());
+    assertFalse(fileInfo.isDirectory());
+    assertEquals(1, gcs.boundedListCount.get());
+  }
+
+  @Test
+  public void testDirectoryObjectIsFoundWithOneListing()
+      throws IOException {
+    createObjects("dir/", "dir/file");
+
+    for (String objectName : new String[] {"dir", "dir/"}) {
+      FileInfo fileInfo = getFileInfo(objectName);
+      assertTrue(fileInfo.exists());
+      assertTrue(fileInfo.isDirectory());
+      assertFalse(fileInfo.getItemInfo().isInferredDirectory());
+    }
+    assertEquals(2, gcs.boundedListCount.get());
+  }
+
+  @Test
+  public void testImplicitDirectoryIsFound()
+      throws IOException {
+    createObjects("dir/sub/file");
+
+    FileInfo fileInfo = getFileInfo("dir");
+    assertTrue(fileInfo.exists());
+    assertTrue(fileInfo.isDirectory());
+    assertTrue(fileInfo.getItemInfo().isInferredDirectory());
+    assertEquals(URI.create("gs://foo-bucket/dir/"), fileInfo.getPath());
+    assertEquals(1, gcs.boundedListCount.get());
+  }
+
+  @Test
+  public void testMissingPathIsFoundWithOneListing()
+      throws IOException {
+    createObjects("dir/file", "dir2/");
+
+    assertFalse(getFileInfo("dir/missing").exists());
+    assertFalse(getFileInfo("dir/missing/").exists());
+    assertEquals(2, gcs.boundedListCount.get());
+  }
+
+  @Test
+  public void testSiblingsInBetweenFallBackToGets()
+      throws IOException {
+    createObjects("dir-a", "dir.b", "dir/");
+
+    FileInfo fileInfo = getFileInfo("dir");
+    assertTrue(fileInfo.exists());
+    assertTrue(fileInfo.isDirectory());
+    assertFalse(fileInfo.getItemInfo().isInferredDirectory());
+  }
+
+  @Test
+  public void testImplicitDirectoryCanBeRenamedAndDeleted()
+      throws IOException {
+    createObjects("dir/file", "dir/sub/file");
+
+    gcsfs.rename(URI.create("gs://foo-bucket/dir"), URI.create("gs://foo-bucket/dst"));
+    assertFalse(gcsfs.exists(URI.create("gs://foo-bucket/dir/file")));
+    assertTrue(gcsfs.exists(URI.create("gs://foo-bucket/dst/sub/file")));
+
+    // dst/sub is implicit too.
+    gcsfs.delete(URI.create("gs://foo-bucket/dst/sub"), true);
+    assertFalse(gcsfs.exists(URI.create("gs://foo-bucket/dst/sub/file")));
+    assertFalse(gcsfs.exists(URI.create("gs://foo-bucket/dst/sub")));
+    assertTrue(gcsfs.exists(URI.create("gs://foo-bucket/dst/file")));
+  }
+
+  @Test
+  public void testRenameProbesPathsConcurrently()
+      throws IOException {
+    // Each probe waits for the others, so probing the source, the destination and its parent in
+    // turn would time out.
+    final CountDownLatch probesStarted = new CountDownLatch(3);
+    final AtomicBoolean probedInTurn = new AtomicBoolean();
+    CountingGoogleCloudStorage waitingGcs = new CountingGoogleCloudStorage() {
+      @Override
+      public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+          String bucketName, String objectNamePrefix, String delimiter, String pageToken,
+          long maxResults)
+          throws IOException {
+        if (maxResults < GoogleCloudStorageOptions.MAX_LIST_ITEMS_PER_CALL_DEFAULT) {
+          probesStarted.countDown();
+          try {
+            if (!probesStarted.await(5, TimeUnit.SECONDS)) {
+              probedInTurn.set(true);
+            }
+          } catch (InterruptedException ie) {
+            throw new IOException(ie);
+          }
+        }
+        return super.listObjectInfoPage(
+            bucketName, objectNamePrefix, delimiter, pageToken, maxResults);
+      }
+    };
+    waitingGcs.create(BUCKET_NAME);
+    waitingGcs.createEmptyObject(new StorageResourceId(BUCKET_NAME, "dir/file"));
+    waitingGcs.createEmptyObject(new StorageResourceId(BUCKET_NAME, "dst/"));
+    GoogleCloudStorageFileSystem waitingGcsfs = new GoogleCloudStorageFileSystem(
+        waitingGcs, GoogleCloudStorageFileSystemOptions.newBuilder()
+            .setStatProbeStrategy(StatProbeStrategy.LIST)
+            .build());
+    waitingGcsfs.setUpdateTimestampsExecutor(MoreExecutors.sameThreadExecutor());
+
+    waitingGcsfs.rename(
+        URI.create("gs://foo-bucket/dir/file"), URI.create("gs://foo-bucket/dst/file"));
+    assertFalse(probedInTurn.get());
+    assertFalse(waitingGcsfs.exists(URI.create("gs://foo-bucket/dir/file")));
+    assertTrue(waitingGcsfs.exists(URI.create("gs://foo-bucket/dst/file")));
+    waitingGcsfs.close();
+  }
+}
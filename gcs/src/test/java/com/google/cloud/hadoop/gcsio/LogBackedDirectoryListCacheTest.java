@@ -0,0 +1,198 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * UnitTests for LogBackedDirectoryListCache class. Since LogBackedDirectoryListCache is intended to
+ * be shared by multiple processes, several tests use a second instance on the same directory to
+ * stand in for another process.
+ */
+@RunWith(JUnit4.class)
+public class LogBackedDirectoryListCacheTest extends DirectoryListCacheTest {
+  @Rule
+  public TemporaryFolder tempDirectoryProvider = new TemporaryFolder();
+
+  // The temporary basePath of the testInstance.
+  private File basePathFile;
+
+  // Get a reference to the cache impl so we can inspect its log.
+  private LogBackedDirectoryListCache logBackedCache;
+
+  @Override
+  protected DirectoryListCache getTestInstance() throws IOException {
+    basePathFile = tempDirectoryProvider.newFolder("gcs_metadata");
+    // Re-root to a subdir which doesn't exist yet just to make sure it's handled properly.
+    basePathFile = basePathFile.toPath().resolve("subdir").toFile();
+    logBackedCache = new LogBackedDirectoryListCache(basePathFile.toString());
+    return configure(logBackedCache);
+  }
+
+  /**
+   * Applies the test settings to {@code cache}.
+   */
+  private DirectoryListCache configure(DirectoryListCache cache) {
+    cache.getMutableConfig()
+        .setMaxEntryAgeMillis(MAX_ENTRY_AGE)
+        .setMaxInfoAgeMillis(MAX_INFO_AGE);
+    if (mockClock != null) {
+      cache.setClock(mockClock);
+    }
+    return cache;
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    logBackedCache.close();
+  }
+
+  /**
+   * Returns another instance using the same log as the testInstance, as another process would.
+   */
+  private DirectoryListCache createOtherInstance() throws IOException {
+    return configure(new LogBackedDirectoryListCache(basePathFile.toString()));
+  }
+
+  @Test
+  public void testEntriesAndInfosAreSharedThroughLog() throws IOException {
+    DirectoryListCache otherCache = createOtherInstance();
+    cache.putResourceId(objectResourceId).setItemInfo(objectInfo);
+
+    CacheEntry otherEntry = otherCache.getCacheEntry(objectResourceId);
+    assertNotNull(otherEntry);
+    assertEquals(objectInfo, otherEntry.getItemInfo());
+    assertEquals(BASE_TIME, otherEntry.getItemInfoUpdateTimeMillis());
+    assertNotNull(otherCache.getCacheEntry(bucketResourceId));
+
+    List<CacheEntry> listedObjects = otherCache.getObjectList(BUCKET_NAME, "", null, null);
+    assertEquals(1, listedObjects.size());
+    assertEquals(objectInfo, listedObjects.get(0).getItemInfo());
+
+    // Listing after the info expired returns the entry without it.
+    when(mockClock.currentTimeMillis()).thenReturn(BASE_TIME + MAX_INFO_AGE + 1);
+    listedObjects = otherCache.getObjectList(BUCKET_NAME, "", null, null);
+    assertEquals(1, listedObjects.size());
+    assertNull(listedObjects.get(0).getItemInfo());
+
+    otherCache.removeResourceId(objectResourceId);
+    assertNull(cache.getCacheEntry(objectResourceId));
+    assertEquals(0, cache.getInternalNumObjects());
+  }
+
+  @Test
+  public void testEntriesSurviveNewInstance() throws IOException {
+    setupForListTests();
+    cache.getCacheEntry(createId("foo/data2.txt")).setItemInfo(
+        DirectoryListCacheTestUtils.createObjectInfo(BUCKET_NAME, "foo/data2.txt"));
+
+    DirectoryListCache newCache = createOtherInstance();
+    assertEquals(1, newCache.getInternalNumBuckets());
+    assertEquals(5, newCache.getInternalNumObjects());
+    assertEquals(DirectoryListCacheTestUtils.createObjectInfo(BUCKET_NAME, "foo/data2.txt"),
+        newCache.getCacheEntry(createId("foo/data2.txt")).getItemInfo());
+  }
+
+  @Test
+  public void testLogCanBeReopenedAfterClose() throws IOException {
+    setupForListTests();
+    logBackedCache.close();
+    try {
+      cache.getCacheEntry(createId("foo/data2.txt"));
+      fail("Expected IOException");
+    } catch (IOException ioe) {
+      // Expected.
+    }
+    // Closing again is harmless.
+    logBackedCache.close();
+
+    // A new instance of the same log takes the exclusive lock to append and compact.
+    try (LogBackedDirectoryListCache reopenedCache =
+        new LogBackedDirectoryListCache(basePathFile.toString())) {
+      configure(reopenedCache);
+      assertEquals(5, reopenedCache.getInternalNumObjects());
+      reopenedCache.putResourceId(createId("foo/data4.txt"));
+      reopenedCache.compact();
+      assertEquals(6, reopenedCache.getInternalNumObjects());
+    }
+    assertEquals(6, createOtherInstance().getInternalNumObjects());
+  }
+
+  @Test
+  public void testIncompleteRecordIsIgnoredAndOverwritten() throws IOException {
+    cache.putResourceId(createId("foo/"));
+    long logLength = logBackedCache.getLogLength();
+
+    // A process died mid-append, leaving part of a record.
+    Files.write(logBackedCache.getLogPath(), new byte[] {0, 0, 0, 42, 1, 2, 3},
+        StandardOpenOption.APPEND);
+    DirectoryListCache otherCache = createOtherInstance();
+    assertEquals(1, otherCache.getInternalNumObjects());
+
+    cache.putResourceId(createId("foo/bar"));
+    assertEquals(2, otherCache.getInternalNumObjects());
+    assertNotNull(otherCache.getCacheEntry(createId("foo/bar")));
+    assertTrue(logBackedCache.getLogLength() > logLength);
+    assertEquals(2, createOtherInstance().getInternalNumObjects());
+  }
+
+  @Test
+  public void testCompactionKeepsOnlyLiveEntries() throws IOException {
+    DirectoryListCache otherCache = createOtherInstance();
+    setupForListTests();
+    cache.getCacheEntry(createId("foo/bar/")).setItemInfo(
+        DirectoryListCacheTestUtils.createObjectInfo(BUCKET_NAME, "foo/bar/"));
+    cache.removeResourceId(createId("foo/baz/"));
+    assertEquals(4, otherCache.getInternalNumObjects());
+
+    // Expire the objects already added, then add one more.
+    when(mockClock.currentTimeMillis()).thenReturn(BASE_TIME + MAX_ENTRY_AGE / 2);
+    cache.putResourceId(createId("foo/bar/data3.txt"));
+    when(mockClock.currentTimeMillis()).thenReturn(BASE_TIME + MAX_ENTRY_AGE + 1);
+
+    long logLength = logBackedCache.getLogLength();
+    logBackedCache.compact();
+    assertTrue(logBackedCache.getLogLength() < logLength);
+
+    // The other instance replays the compacted log from the start.
+    assertEquals(1, otherCache.getInternalNumBuckets());
+    assertEquals(1, otherCache.getInternalNumObjects());
+    assertNotNull(otherCache.getCacheEntry(createId("foo/bar/data3.txt")));
+    assertNull(otherCache.getCacheEntry(createId("foo/bar/")));
+
+    // Both keep appending to the compacted log.
+    otherCache.putResourceId(createId("foo/data4.txt"));
+    assertEquals(2, cache.getInternalNumObjects());
+    assertEquals(2, createOtherInstance().getInternalNumObjects());
+  }
+}
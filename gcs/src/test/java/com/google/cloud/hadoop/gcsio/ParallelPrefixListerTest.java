@@ -0,0 +1,203 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * UnitTests for ParallelPrefixLister class, using InMemoryGoogleCloudStorage in place of GCS.
+ */
+@RunWith(JUnit4.class)
+public class ParallelPrefixListerTest {
+  private static final String BUCKET_NAME = "foo-bucket";
+
+  private ExecutorService threadPool;
+
+  @Before
+  public void setUp() {
+    threadPool = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    threadPool.shutdownNow();
+  }
+
+  /**
+   * InMemoryGoogleCloudStorage which counts the range listings it serves and can be made to fail
+   * the listings of ranges after the first page which contain a given name.
+   */
+  private static class CountingGoogleCloudStorage extends InMemoryGoogleCloudStorage {
+    private final AtomicInteger rangeListCount = new AtomicInteger();
+    private final AtomicInteger delimiterListCount = new AtomicInteger();
+    private volatile String failingName;
+
+    @Override
+    public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPageInRange(
+        String bucketName, String objectNamePrefix, String startOffset, String endOffset,
+        String pageToken, long maxResults)
+        throws IOException {
+      rangeListCount.incrementAndGet();
+      if (failingName != null && startOffset != null
+          && failingName.compareTo(startOffset) >= 0
+          && (endOffset == null || failingName.compareTo(endOffset) < 0)) {
+        throw new IOException("Failed listing " + failingName);
+      }
+      return super.listObjectInfoPageInRange(
+          bucketName, objectNamePrefix, startOffset, endOffset, pageToken, maxResults);
+    }
+
+    @Override
+    public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(
+        String bucketName, String objectNamePrefix, String delimiter, String pageToken,
+        long maxResults)
+        throws IOException {
+      if (delimiter != null) {
+        delimiterListCount.incrementAndGet();
+      }
+      return super.listObjectInfoPage(
+          bucketName, objectNamePrefix, delimiter, pageToken, maxResults);
+    }
+
+    @Override
+    public List<GoogleCloudStorageItemInfo> listObjectInfo(
+        String bucketName, String objectNamePrefix, String delimiter)
+        throws IOException {
+      if (delimiter != null) {
+        delimiterListCount.incrementAndGet();
+      }
+      return super.listObjectInfo(bucketName, objectNamePrefix, delimiter);
+    }
+  }
+
+  private static CountingGoogleCloudStorage createStorage(List<String> objectNames)
+      throws IOException {
+    return GoogleCloudStorageTestUtils.createBucketWithObjects(
+        new CountingGoogleCloudStorage(), BUCKET_NAME, objectNames);
+  }
+
+  private static List<String> getObjectNames(List<GoogleCloudStorageItemInfo> itemInfos) {
+    List<String> objectNames = new ArrayList<>();
+    for (GoogleCloudStorageItemInfo itemInfo : itemInfos) {
+      objectNames.add(itemInfo.getObjectName());
+    }
+    return objectNames;
+  }
+
+  private static List<String> createFileNames(String prefix, int count) {
+    List<String> objectNames = new ArrayList<>();
+    for (int i = 0; i < count; ++i) {
+      objectNames.add(String.format("%sfile-%03d", prefix, i));
+    }
+    return objectNames;
+  }
+
+  @Test
+  public void testRangesAreListedSeparatelyAndMerged()
+      throws IOException {
+    List<String> objectNames = new ArrayList<>();
+    objectNames.addAll(createFileNames("dir/a/", 40));
+    objectNames.addAll(createFileNames("dir/b/sub/", 40));
+    objectNames.addAll(createFileNames("dir/", 40));
+    objectNames.add("dir/c/");
+    CountingGoogleCloudStorage gcs = createStorage(objectNames);
+    List<String> expectedNames =
+        getObjectNames(gcs.listObjectInfo(BUCKET_NAME, "dir/", null));
+    Collections.sort(expectedNames);
+    gcs.rangeListCount.set(0);
+
+    ParallelPrefixLister lister = new ParallelPrefixLister(gcs, threadPool, 4, 10);
+    List<String> listedNames = getObjectNames(lister.listObjectInfo(BUCKET_NAME, "dir/"));
+
+    // Same result as a sequential listing, without the implicit directories dir/a/, dir/b/ and
+    // dir/b/sub/, which aren't repaired either.
+    assertEquals(expectedNames, listedNames);
+    assertFalse(listedNames.contains("dir/a/"));
+    assertFalse(gcs.getItemInfo(new StorageResourceId(BUCKET_NAME, "dir/b/")).exists());
+    assertEquals(0, gcs.delimiterListCount.get());
+    // More listings than the 13 pages of a sequential listing, since the names were split.
+    assertTrue(gcs.rangeListCount.get() > 13);
+  }
+
+  @Test
+  public void testNamesWithoutDirectoriesAreSplit()
+      throws IOException {
+    List<String> objectNames = createFileNames("dir/", 100);
+    CountingGoogleCloudStorage gcs = createStorage(objectNames);
+
+    ParallelPrefixLister lister = new ParallelPrefixLister(gcs, threadPool, 4, 10);
+    assertEquals(objectNames, getObjectNames(lister.listObjectInfo(BUCKET_NAME, "dir/")));
+  }
+
+  @Test
+  public void testPartialPrefixIsSplit()
+      throws IOException {
+    List<String> objectNames = createFileNames("dir/foo-", 50);
+    objectNames.add("dir/other/file");
+    CountingGoogleCloudStorage gcs = createStorage(objectNames);
+
+    ParallelPrefixLister lister = new ParallelPrefixLister(gcs, threadPool, 2, 5);
+    assertEquals(
+        objectNames.subList(0, 50), getObjectNames(lister.listObjectInfo(BUCKET_NAME, "dir/fo")));
+  }
+
+  @Test
+  public void testSinglePageIsListedWithOneRequest()
+      throws IOException {
+    CountingGoogleCloudStorage gcs = createStorage(ImmutableList.of(
+        "dir/a/file", "dir/file1", "dir/file2"));
+    gcs.rangeListCount.set(0);
+
+    ParallelPrefixLister lister = new ParallelPrefixLister(gcs, threadPool, 4);
+    assertEquals(
+        ImmutableList.of("dir/a/file", "dir/file1", "dir/file2"),
+        getObjectNames(lister.listObjectInfo(BUCKET_NAME, "dir/")));
+    assertEquals(1, gcs.rangeListCount.get());
+  }
+
+  @Test
+  public void testFailedRangeFailsListing()
+      throws IOException {
+    CountingGoogleCloudStorage gcs = createStorage(createFileNames("dir/", 100));
+    gcs.failingName = "dir/file-050";
+
+    ParallelPrefixLister lister = new ParallelPrefixLister(gcs, threadPool, 4, 10);
+    try {
+      lister.listObjectInfo(BUCKET_NAME, "dir/");
+      fail("Expected IOException");
+    } catch (IOException ioe) {
+      assertEquals("Failed listing dir/file-050", ioe.getMessage());
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * UnitTests for PrefetchingReadChannel class.
+ */
+@RunWith(JUnit4.class)
+public class PrefetchingReadChannelTest {
+  @Rule
+  public ExpectedException expectedException = ExpectedException.none();
+
+  private static final int CHUNK_SIZE = 16;
+
+  private ExecutorService executor;
+  private byte[] contents;
+  private AtomicInteger channelsOpened;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newCachedThreadPool();
+    contents = new byte[CHUNK_SIZE * 5 + 3];
+    for (int i = 0; i < contents.length; ++i) {
+      contents[i] = (byte) i;
+    }
+    channelsOpened = new AtomicInteger();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private PrefetchingReadChannel createChannel(byte[] data, int parallelism, long maxMemory) {
+    final byte[] channelData = data;
+    GoogleCloudStorageReadOptions readOptions = GoogleCloudStorageReadOptions.newBuilder()
+        .setPrefetchParallelism(parallelism)
+        .setPrefetchChunkSize(CHUNK_SIZE)
+        .setPrefetchMaxMemory(maxMemory)
+        .build();
+    PrefetchingReadChannel.ChannelFactory channelFactory =
+        new PrefetchingReadChannel.ChannelFactory() {
+          @Override
+          public SeekableReadableByteChannel open()
+              throws IOException {
+            channelsOpened.incrementAndGet();
+            return new InMemoryObjectReadChannel(channelData);
+          }
+        };
+    return new PrefetchingReadChannel(
+        channelFactory, executor, data.length, readOptions, "gs://foo-bucket/bar-object");
+  }
+
+  private byte[] readFully(SeekableReadableByteChannel channel, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        break;
+      }
+    }
+    return Arrays.copyOf(buffer.array(), buffer.position());
+  }
+
+  @Test
+  public void testSequentialReadReturnsAllBytesInOrder()
+      throws IOException {
+    PrefetchingReadChannel channel = createChannel(contents, 3, 1024);
+    assertEquals(contents.length, channel.size());
+
+    // Read in pieces which don't line up with chunk boundaries.
+    byte[] first = readFully(channel, 7);
+    byte[] rest = readFully(channel, contents.length);
+    assertArrayEquals(Arrays.copyOfRange(contents, 0, 7), first);
+    assertArrayEquals(Arrays.copyOfRange(contents, 7, contents.length), rest);
+    assertEquals(contents.length, channel.position());
+    assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+
+    // One channel per chunk.
+    assertEquals(6, channelsOpened.get());
+    channel.close();
+  }
+
+  @Test
+  public void testPrefetchWindowBoundedByMemory()
+      throws IOException {
+    // Parallelism would allow 4 chunks, but memory only allows 2.
+    PrefetchingReadChannel channel = createChannel(contents, 4, CHUNK_SIZE * 2);
+    readFully(channel, 1);
+    // One chunk is being consumed, one more is in flight or buffered.
+    assertEquals(1, channel.getPrefetchedChunkCount());
+    channel.close();
+  }
+
+  @Test
+  public void testSeekWithinAndOutsideWindow()
+      throws IOException {
+    PrefetchingReadChannel channel = createChannel(contents, 3, 1024);
+    readFully(channel, 1);
+
+    // Forward seek into an already requested chunk reuses it.
+    channel.position(CHUNK_SIZE * 2 + 5);
+    assertArrayEquals(
+        Arrays.copyOfRange(contents, CHUNK_SIZE * 2 + 5, CHUNK_SIZE * 2 + 9),
+        readFully(channel, 4));
+
+    // Backward seek restarts prefetching at the new position.
+    channel.position(3);
+    assertArrayEquals(Arrays.copyOfRange(contents, 3, 10), readFully(channel, 7));
+    assertEquals(10, channel.position());
+    channel.close();
+  }
+
+  @Test
+  public void testChunkBuffersAreRecycled()
+      throws IOException {
+    PrefetchingReadChannel channel = createChannel(contents, 2, 1024);
+    assertEquals(0, channel.getFreeBufferCount());
+
+    // Consumed chunks return their buffers, which later fetches reuse.
+    assertArrayEquals(contents, readFully(channel, contents.length));
+    int freeBuffers = channel.getFreeBufferCount();
+    assertTrue(freeBuffers > 0);
+    assertTrue(freeBuffers <= 2);
+
+    // Discarding the window on a backward seek keeps the free list bounded.
+    channel.position(0);
+    assertArrayEquals(Arrays.copyOfRange(contents, 0, 5), readFully(channel, 5));
+    channel.close();
+    assertTrue(channel.getFreeBufferCount() <= 2);
+  }
+
+  @Test
+  public void testEmptyObject()
+      throws IOException {
+    PrefetchingReadChannel channel = createChannel(new byte[0], 2, 1024);
+    assertEquals(0, channel.size());
+    assertEquals(-1, channel.read(ByteBuffer.allocate(10)));
+    assertEquals(0, channelsOpened.get());
+    channel.close();
+  }
+
+  @Test
+  public void testReadAfterCloseThrows()
+      throws IOException {
+    PrefetchingReadChannel channel = createChannel(contents, 2, 1024);
+    assertTrue(channel.isOpen());
+    channel.close();
+    assertFalse(channel.isOpen());
+    expectedException.expect(ClosedChannelException.class);
+    channel.read(ByteBuffer.allocate(1));
+  }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * UnitTests for RenamePipeline class, using InMemoryGoogleCloudStorage in place of GCS.
+ */
+@RunWith(JUnit4.class)
+public class RenamePipelineTest {
+  private static final String BUCKET_NAME = "foo-bucket";
+
+  private ExecutorService threadPool;
+
+  @Before
+  public void setUp() {
+    threadPool = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    threadPool.shutdownNow();
+  }
+
+  private static boolean exists(GoogleCloudStorage gcs, String objectName)
+      throws IOException {
+    return gcs.getItemInfo(new StorageResourceId(BUCKET_NAME, objectName)).exists();
+  }
+
+  @Test
+  public void testObjectsAreMovedInConcurrentBatches()
+      throws IOException {
+    List<String> srcNames = new ArrayList<>();
+    for (int i = 0; i < 25; ++i) {
+      srcNames.add(String.format("src/file-%02d", i));
+    }
+    InMemoryGoogleCloudStorage gcs = GoogleCloudStorageTestUtils.createBucketWithObjects(
+        new InMemoryGoogleCloudStorage(), BUCKET_NAME, srcNames);
+
+    RenamePipeline pipeline =
+        new RenamePipeline(gcs, threadPool, 4, 3, BUCKET_NAME, "src/", BUCKET_NAME, "dst/");
+    pipeline.run(new FileInfoIterator(gcs, BUCKET_NAME, "src/", null));
+
+    for (String srcName : srcNames) {
+      assertFalse(exists(gcs, srcName));
+      assertTrue(exists(gcs, "dst/" + srcName.substring("src/".length())));
+    }
+    assertEquals(25, pipeline.getListedCount());
+    assertEquals(25, pipeline.getCopiedCount());
+    assertEquals(25, pipeline.getDeletedCount());
+    assertEquals(7, pipeline.getCompletedBatchCount());
+  }
+
+  @Test
+  public void testSourcesAreDeletedWithListedGenerations()
+      throws IOException {
+    final AtomicInteger unconditionalDeleteCount = new AtomicInteger();
+    final AtomicInteger conditionalDeleteCount = new AtomicInteger();
+    InMemoryGoogleCloudStorage gcs = new InMemoryGoogleCloudStorage() {
+      // Set while the conditional overload delegates to the unconditional one.
+      private boolean deletingConditionally = false;
+
+      @Override
+      public synchronized void deleteObjects(List<StorageResourceId> fullObjectNames)
+          throws IOException {
+        if (!deletingConditionally) {
+          unconditionalDeleteCount.addAndGet(fullObjectNames.size());
+        }
+        super.deleteObjects(fullObjectNames);
+      }
+
+      @Override
+      public synchronized void deleteObjects(
+          List<StorageResourceId> fullObjectNames, List<Long> generations)
+          throws IOException {
+        assertEquals(fullObjectNames.size(), generations.size());
+        conditionalDeleteCount.addAndGet(fullObjectNames.size());
+        deletingConditionally = true;
+        try {
+          super.deleteObjects(fullObjectNames, generations);
+        } finally {
+          deletingConditionally = false;
+        }
+      }
+    };
+    List<String> srcNames = new ArrayList<>();
+    for (int i = 0; i < 10; ++i) {
+      srcNames.add("src/file-" + i);
+    }
+    srcNames.add("src/dir/");
+    GoogleCloudStorageTestUtils.createBucketWithObjects(gcs, BUCKET_NAME, srcNames);
+
+    RenamePipeline pipeline =
+        new RenamePipeline(gcs, threadPool, 3, 2, BUCKET_NAME, "src/", BUCKET_NAME, "dst/");
+    pipeline.run(new FileInfoIterator(gcs, BUCKET_NAME, "src/", null));
+
+    assertEquals(10, conditionalDeleteCount.get());
+    assertEquals(0, unconditionalDeleteCount.get());
+    assertEquals(ImmutableSet.of("src/dir/"), pipeline.getSourceDirectoryGenerations().keySet());
+  }
+
+  @Test
+  public void testDirectoryObjectsAreCopiedButLeftForCaller()
+      throws IOException {
+    List<String> srcNames = ImmutableList.of(
+        "src/a/", "src/a/b/", "src/a/b/file", "src/a/file", "src/c/file", "src/file");
+    InMemoryGoogleCloudStorage gcs = GoogleCloudStorageTestUtils.createBucketWithObjects(
+        new InMemoryGoogleCloudStorage(), BUCKET_NAME, srcNames);
+
+    RenamePipeline pipeline =
+        new RenamePipeline(gcs, threadPool, 2, 2, BUCKET_NAME, "src/", BUCKET_NAME, "dst/");
+    pipeline.run(new FileInfoIterator(gcs, BUCKET_NAME, "src/", null));
+
+    assertTrue(exists(gcs, "dst/a/"));
+    assertTrue(exists(gcs, "dst/a/b/"));
+    assertTrue(exists(gcs, "dst/a/b/file"));
+    assertFalse(exists(gcs, "src/a/b/file"));
+    assertTrue(exists(gcs, "src/a/"));
+    assertTrue(exists(gcs, "src/a/b/"));
+    assertEquals(4, pipeline.getDeletedCount());
+
+    // Children come before their parents.
+    assertEquals(ImmutableList.of("src/a/b/", "src/a/"), pipeline.getSourceDirectoryNames());
+
+    // dst/a/ and dst/a/b/ were copied; dst/ and the implicit dst/c/ were not.
+    List<String> childPerParent = pipeline.getDestinationChildPerParent();
+    assertEquals(2, childPerParent.size());
+    HashSet<String> parents = new HashSet<>();
+    for (String childName : childPerParent) {
+      parents.add(childName.substring(0, childName.lastIndexOf('/', childName.length() - 2) + 1));
+    }
+    assertEquals(ImmutableSet.of("dst/", "dst/c/"), parents);
+  }
+
+  @Test
+  public void testFailedBatchStopsRename()
+      throws IOException {
+    List<String> srcNames = new ArrayList<>();
+    for (int i = 0; i < 20; ++i) {
+      srcNames.add(String.format("src/file-%02d", i));
+    }
+    InMemoryGoogleCloudStorage gcs = new InMemoryGoogleCloudStorage() {
+      @Override
+      public synchronized void copy(String srcBucketName, List<String> srcObjectNames,
+          String dstBucketName, List<String> dstObjectNames)
+          throws IOException {
+        if (srcObjectNames.contains("src/file-04")) {
+          throw new IOException("Injected failure");
+        }
+        super.copy(srcBucketName, srcObjectNames, dstBucketName, dstObjectNames);
+      }
+    };
+    GoogleCloudStorageTestUtils.createBucketWithObjects(gcs, BUCKET_NAME, srcNames);
+
+    // A single batch in flight makes the point of failure deterministic.
+    RenamePipeline pipeline =
+        new RenamePipeline(gcs, threadPool, 4, 1, BUCKET_NAME, "src/", BUCKET_NAME, "dst/");
+    try {
+      pipeline.run(new FileInfoIterator(gcs, BUCKET_NAME, "src/", null));
+      fail("Expected IOException");
+    } catch (IOException ioe) {
+      assertEquals("Injected failure", ioe.getMessage());
+    }
+
+    // The first batch was moved, the failed one was left alone.
+    assertTrue(exists(gcs, "dst/file-00"));
+    assertFalse(exists(gcs, "src/file-00"));
+    assertTrue(exists(gcs, "src/file-04"));
+    assertFalse(exists(gcs, "dst/file-04"));
+    assertTrue(exists(gcs, "src/file-19"));
+    assertEquals(4, pipeline.getCopiedCount());
+    // At most the batch started while the failure was in flight was attempted after it.
+    assertTrue(pipeline.getListedCount() <= 12);
+  }
+}
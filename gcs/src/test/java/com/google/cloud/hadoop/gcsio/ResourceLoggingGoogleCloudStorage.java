@@ -17,9 +17,11 @@ package com.google.cloud.hadoop.gcsio;
 import com.google.common.collect.ImmutableList;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * An implementation of @{link GoogleCloudStorage} that records when objects and buckets are
@@ -86,6 +88,20 @@ public class ResourceLoggingGoogleCloudStorage implements GoogleCloudStorage {
     return delegateGcs.open(resourceId);
   }
 
+  @Override
+  public SeekableReadableByteChannel open(
+      StorageResourceId resourceId, GoogleCloudStorageReadOptions readOptions)
+      throws IOException {
+    return delegateGcs.open(resourceId, readOptions);
+  }
+
+  @Override
+  public List<Future<ByteBuffer>> readVectored(
+      StorageResourceId resourceId, List<ReadRange> ranges)
+      throws IOException {
+    return delegateGcs.readVectored(resourceId, ranges);
+  }
+
   @Override
   public void create(String bucketName) throws IOException {
     delegateGcs.create(bucketName);
@@ -103,6 +119,12 @@ public class ResourceLoggingGoogleCloudStorage implements GoogleCloudStorage {
     delegateGcs.deleteObjects(fullObjectNames);
   }
 
+  @Override
+  public void deleteObjects(List<StorageResourceId> fullObjectNames, List<Long> generations)
+      throws IOException {
+    delegateGcs.deleteObjects(fullObjectNames, generations);
+  }
+
   @Override
   public void copy(String srcBucketName, List<String> srcObjectNames,
       String dstBucketName, List<String> dstObjectNames) throws IOException {
@@ -112,6 +134,15 @@ public class ResourceLoggingGoogleCloudStorage implements GoogleCloudStorage {
     }
   }
 
+  @Override
+  public GoogleCloudStorageItemInfo composeObjects(List<StorageResourceId> sources,
+      StorageResourceId destination, CreateObjectOptions options) throws IOException {
+    GoogleCloudStorageItemInfo destinationInfo =
+        delegateGcs.composeObjects(sources, destination, options);
+    createdResources.add(destination);
+    return destinationInfo;
+  }
+
   @Override
   public List<String> listBucketNames() throws IOException {
     return delegateGcs.listBucketNames();
@@ -134,6 +165,29 @@ public class ResourceLoggingGoogleCloudStorage implements GoogleCloudStorage {
     return delegateGcs.listObjectInfo(bucketName, objectNamePrefix, delimiter);
   }
 
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(String bucketName,
+      String objectNamePrefix, String delimiter, String pageToken) throws IOException {
+    return delegateGcs.listObjectInfoPage(bucketName, objectNamePrefix, delimiter, pageToken);
+  }
+
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPage(String bucketName,
+      String objectNamePrefix, String delimiter, String pageToken, long maxResults)
+      throws IOException {
+    return delegateGcs.listObjectInfoPage(
+        bucketName, objectNamePrefix, delimiter, pageToken, maxResults);
+  }
+
+  @Override
+  public ListPage<GoogleCloudStorageItemInfo> listObjectInfoPageInRange(String bucketName,
+      String objectNamePrefix, String startOffset, String endOffset, String pageToken,
+      long maxResults)
+      throws IOException {
+    return delegateGcs.listObjectInfoPageInRange(
+        bucketName, objectNamePrefix, startOffset, endOffset, pageToken, maxResults);
+  }
+
   @Override
   public GoogleCloudStorageItemInfo getItemInfo(
       StorageResourceId resourceId) throws IOException {
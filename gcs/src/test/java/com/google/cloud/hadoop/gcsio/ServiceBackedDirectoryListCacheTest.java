@@ -0,0 +1,249 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * UnitTests for ServiceBackedDirectoryListCache class, run against a DirectoryListCacheServer
+ * embedded in the test. Several tests use a second client of the same server to stand in for
+ * another node.
+ */
+@RunWith(JUnit4.class)
+public class ServiceBackedDirectoryListCacheTest extends DirectoryListCacheTest {
+  private static final String SECRET = "test-secret";
+
+  // The cache held by the server.
+  private InMemoryDirectoryListCache backingCache;
+
+  private DirectoryListCacheServer server;
+
+  // Get a reference to the cache impl so we can flush and close it.
+  private ServiceBackedDirectoryListCache serviceBackedCache;
+
+  @Override
+  protected DirectoryListCache getTestInstance() throws IOException {
+    backingCache = new InMemoryDirectoryListCache();
+    backingCache.getMutableConfig()
+        .setMaxEntryAgeMillis(MAX_ENTRY_AGE)
+        .setMaxInfoAgeMillis(MAX_INFO_AGE);
+    server = new DirectoryListCacheServer(backingCache, new InetSocketAddress("localhost", 0),
+        SECRET, DirectoryListCacheServer.DEFAULT_MAX_CONNECTIONS).start();
+    serviceBackedCache = createClient();
+    return serviceBackedCache;
+  }
+
+  /**
+   * Returns a new client of the server, as another node would use.
+   */
+  private ServiceBackedDirectoryListCache createClient() {
+    return new ServiceBackedDirectoryListCache("localhost:" + server.getPort(), SECRET);
+  }
+
+  @Before
+  public void setUpServerClock() {
+    // Expiration is governed by the server's cache.
+    backingCache.setClock(mockClock);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    serviceBackedCache.close();
+    server.close();
+  }
+
+  @Test
+  public void testEntriesAndInfosAreSharedAcrossClients() throws IOException {
+    ServiceBackedDirectoryListCache otherCache = createClient();
+    cache.putResourceId(objectResourceId).setItemInfo(objectInfo);
+    serviceBackedCache.flush();
+
+    CacheEntry otherEntry = otherCache.getCacheEntry(objectResourceId);
+    assertNotNull(otherEntry);
+    assertEquals(objectInfo, otherEntry.getItemInfo());
+    assertEquals(BASE_TIME, otherEntry.getItemInfoUpdateTimeMillis());
+    assertNotNull(otherCache.getCacheEntry(bucketResourceId));
+
+    List<CacheEntry> listedObjects = otherCache.getObjectList(BUCKET_NAME, "", null, null);
+    assertEquals(1, listedObjects.size());
+    assertEquals(objectInfo, listedObjects.get(0).getItemInfo());
+
+    otherCache.removeResourceId(objectResourceId);
+    assertNull(cache.getCacheEntry(objectResourceId));
+    assertEquals(0, cache.getInternalNumObjects());
+    otherCache.close();
+  }
+
+  @Test
+  public void testPendingInfosAreSentBeforeNextRequest() throws IOException {
+    setupForListTests();
+    cache.getCacheEntry(createId("foo/bar/")).setItemInfo(
+        DirectoryListCacheTestUtils.createObjectInfo(BUCKET_NAME, "foo/bar/"));
+    cache.getCacheEntry(createId("foo/data2.txt")).setItemInfo(
+        DirectoryListCacheTestUtils.createObjectInfo(BUCKET_NAME, "foo/data2.txt"));
+
+    // The listing of the same client sees its own infos, whether or not the window has ended.
+    Set<String> prefixes = new HashSet<>();
+    List<CacheEntry> listedObjects = cache.getObjectList(BUCKET_NAME, "foo/", "/", prefixes);
+    assertEquals(3, listedObjects.size());
+    for (CacheEntry entry : listedObjects) {
+      if (!entry.getResourceId().equals(createId("foo/baz/"))) {
+        assertEquals(entry.getResourceId(), entry.getItemInfo().getResourceId());
+      }
+    }
+    assertEquals(1, prefixes.size());
+    assertTrue(prefixes.contains("foo/bar/"));
+  }
+
+  @Test
+  public void testClientReconnectsAfterClose() throws IOException {
+    cache.putResourceId(objectResourceId);
+    serviceBackedCache.close();
+
+    assertNotNull(cache.getCacheEntry(objectResourceId));
+    cache.removeResourceId(objectResourceId);
+    assertEquals(0, backingCache.getInternalNumObjects());
+  }
+
+  @Test
+  public void testClientWithWrongSecretPassesThrough() throws IOException {
+    ServiceBackedDirectoryListCache otherCache =
+        new ServiceBackedDirectoryListCache("localhost:" + server.getPort(), "wrong-secret");
+    assertNotNull(otherCache.putResourceId(objectResourceId));
+    assertEquals(0, backingCache.getInternalNumObjects());
+    assertNull(otherCache.getCacheEntry(objectResourceId));
+    assertTrue(otherCache.getBucketList().isEmpty());
+    otherCache.close();
+  }
+
+  /**
+   * Opens a raw connection to {@code port}, sends the protocol version and reads the challenge.
+   */
+  private static void startHandshake(Socket socket, int port) throws IOException {
+    socket.setSoTimeout(10 * 1000);
+    socket.connect(new InetSocketAddress("localhost", port));
+    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+    out.writeInt(DirectoryListCacheServer.PROTOCOL_VERSION);
+    out.flush();
+    byte[] challengeMessage =
+        DirectoryListCacheServer.readMessage(new DataInputStream(socket.getInputStream()));
+    assertEquals(DirectoryListCacheServer.STATUS_OK, challengeMessage[0]);
+  }
+
+  @Test
+  public void testHandshakeAnswerIsReadAsFixedLength() throws IOException {
+    try (Socket socket = new Socket()) {
+      startHandshake(socket, server.getPort());
+
+      // A length prefix is read as part of the answer rather than allocated.
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      out.writeInt(DirectoryListCacheServer.MAX_MESSAGE_LENGTH);
+      out.write(new byte[DirectoryListCacheServer.HANDSHAKE_MAC_LENGTH - 4]);
+      out.flush();
+      byte[] response =
+          DirectoryListCacheServer.readMessage(new DataInputStream(socket.getInputStream()));
+      assertEquals(DirectoryListCacheServer.STATUS_ERROR, response[0]);
+    }
+    assertEquals(0, backingCache.getInternalNumObjects());
+  }
+
+  @Test
+  public void testConnectionsBeyondLimitAreClosed() throws IOException {
+    try (DirectoryListCacheServer limitedServer = new DirectoryListCacheServer(
+            new InMemoryDirectoryListCache(), new InetSocketAddress("localhost", 0), SECRET, 1)
+            .start();
+        Socket firstSocket = new Socket();
+        Socket secondSocket = new Socket()) {
+      startHandshake(firstSocket, limitedServer.getPort());
+
+      secondSocket.setSoTimeout(10 * 1000);
+      secondSocket.connect(new InetSocketAddress("localhost", limitedServer.getPort()));
+      assertEquals(-1, secondSocket.getInputStream().read());
+
+      // The first connection is still served.
+      DataOutputStream out = new DataOutputStream(firstSocket.getOutputStream());
+      out.write(new byte[DirectoryListCacheServer.HANDSHAKE_MAC_LENGTH]);
+      out.flush();
+      byte[] response =
+          DirectoryListCacheServer.readMessage(new DataInputStream(firstSocket.getInputStream()));
+      assertEquals(DirectoryListCacheServer.STATUS_ERROR, response[0]);
+    }
+  }
+
+  @Test
+  public void testClientPassesThroughWhileServerIsDown() throws IOException {
+    cache.putResourceId(objectResourceId);
+    server.close();
+
+    // Requests neither fail nor find anything.
+    assertNull(cache.getCacheEntry(objectResourceId));
+    assertNull(cache.getObjectList(BUCKET_NAME, "", null, null));
+    cache.removeResourceId(objectResourceId);
+    CacheEntry entry = cache.putResourceId(objectResourceId);
+    assertEquals(objectResourceId, entry.getResourceId());
+    assertEquals(0, cache.getInternalNumObjects());
+  }
+
+  @Test
+  public void testConcurrentRequestsShareConnections() throws Exception {
+    final int numThreads = ServiceBackedDirectoryListCache.MAX_CONNECTIONS * 2;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int i = 0; i < numThreads; ++i) {
+        final StorageResourceId resourceId = createId("object-" + i);
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            for (int j = 0; j < 20; ++j) {
+              cache.putResourceId(resourceId);
+              assertNotNull(cache.getCacheEntry(resourceId));
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(numThreads, backingCache.getInternalNumObjects());
+  }
+}
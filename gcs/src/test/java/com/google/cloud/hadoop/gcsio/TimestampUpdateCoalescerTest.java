@@ -0,0 +1,164 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UnitTests for TimestampUpdateCoalescer class.
+ */
+@RunWith(JUnit4.class)
+public class TimestampUpdateCoalescerTest {
+  private static final URI DIR_A = URI.create("gs://foo-bucket/a/");
+  private static final URI DIR_B = URI.create("gs://foo-bucket/b/");
+
+  // Long enough for a window never to end during a test.
+  private static final long LONG_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  /**
+   * Updater which records the sets of directories it is asked to update.
+   */
+  private static class RecordingUpdater implements TimestampUpdateCoalescer.Updater {
+    private final List<Set<URI>> updates = new CopyOnWriteArrayList<>();
+    private final CountDownLatch updated = new CountDownLatch(1);
+
+    @Override
+    public void updateTimestamps(Set<URI> dirPaths)
+        throws IOException {
+      updates.add(ImmutableSet.copyOf(dirPaths));
+      updated.countDown();
+    }
+  }
+
+  @Test
+  public void testAddsWithinWindowAreUpdatedOnce()
+      throws InterruptedException {
+    RecordingUpdater updater = new RecordingUpdater();
+    TimestampUpdateCoalescer coalescer = new TimestampUpdateCoalescer(updater, 200);
+
+    coalescer.add(ImmutableList.of(DIR_A));
+    coalescer.add(ImmutableList.of(DIR_A, DIR_B));
+    coalescer.add(ImmutableList.of(DIR_B));
+
+    assertTrue(updater.updated.await(10, TimeUnit.SECONDS));
+    assertEquals(ImmutableList.of(ImmutableSet.of(DIR_A, DIR_B)), updater.updates);
+    coalescer.close();
+    assertEquals(1, updater.updates.size());
+  }
+
+  @Test
+  public void testCloseUpdatesPendingDirectories() {
+    RecordingUpdater updater = new RecordingUpdater();
+    TimestampUpdateCoalescer coalescer =
+        new TimestampUpdateCoalescer(updater, LONG_WINDOW_MILLIS);
+
+    coalescer.add(ImmutableList.of(DIR_A, DIR_B));
+    assertTrue(updater.updates.isEmpty());
+
+    coalescer.close();
+    assertEquals(ImmutableList.of(ImmutableSet.of(DIR_A, DIR_B)), updater.updates);
+  }
+
+  @Test
+  public void testCloseWaitsForRunningUpdate()
+      throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<String> events = new CopyOnWriteArrayList<>();
+    TimestampUpdateCoalescer.Updater updater = new TimestampUpdateCoalescer.Updater() {
+      @Override
+      public void updateTimestamps(Set<URI> dirPaths)
+          throws IOException {
+        events.add("start " + dirPaths);
+        if (dirPaths.contains(DIR_A)) {
+          started.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException ie) {
+            throw new IOException(ie);
+          }
+        }
+        events.add("end " + dirPaths);
+      }
+    };
+    TimestampUpdateCoalescer coalescer = new TimestampUpdateCoalescer(updater, 50);
+
+    coalescer.add(ImmutableList.of(DIR_A));
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    coalescer.add(ImmutableList.of(DIR_B));
+    new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException ie) {
+          // Release the update anyway.
+        }
+        release.countDown();
+      }
+    }.start();
+
+    // The final flush must only start once the running update has finished.
+    coalescer.close();
+    assertEquals(
+        ImmutableList.of(
+            "start [" + DIR_A + "]", "end [" + DIR_A + "]",
+            "start [" + DIR_B + "]", "end [" + DIR_B + "]"),
+        events);
+  }
+
+  @Test
+  public void testAddsAfterCloseAreIgnored() {
+    RecordingUpdater updater = new RecordingUpdater();
+    TimestampUpdateCoalescer coalescer =
+        new TimestampUpdateCoalescer(updater, LONG_WINDOW_MILLIS);
+
+    coalescer.close();
+    coalescer.add(ImmutableList.of(DIR_A));
+    coalescer.close();
+    assertTrue(updater.updates.isEmpty());
+  }
+
+  @Test
+  public void testFlushStartsNewWindow()
+      throws IOException {
+    RecordingUpdater updater = new RecordingUpdater();
+    TimestampUpdateCoalescer coalescer =
+        new TimestampUpdateCoalescer(updater, LONG_WINDOW_MILLIS);
+
+    coalescer.add(ImmutableList.of(DIR_A));
+    coalescer.flush();
+    coalescer.add(ImmutableList.of(DIR_A));
+    coalescer.close();
+    assertEquals(
+        ImmutableList.of(ImmutableSet.of(DIR_A), ImmutableSet.of(DIR_A)), updater.updates);
+  }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.gcsio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * UnitTests for VectoredReader class.
+ */
+@RunWith(JUnit4.class)
+public class VectoredReaderTest {
+  private ExecutorService executor;
+  private byte[] contents;
+  private AtomicInteger channelsOpened;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newCachedThreadPool();
+    contents = new byte[1000];
+    for (int i = 0; i < contents.length; ++i) {
+      contents[i] = (byte) i;
+    }
+    channelsOpened = new AtomicInteger();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private VectoredReader createReader(long mergeGap, int maxMergedSize) {
+    GoogleCloudStorageReadOptions readOptions = GoogleCloudStorageReadOptions.newBuilder()
+        .setVectoredReadMergeGap(mergeGap)
+        .setVectoredReadMaxMergedSize(maxMergedSize)
+        .setVectoredReadParallelism(2)
+        .build();
+    PrefetchingReadChannel.ChannelFactory channelFactory =
+        new PrefetchingReadChannel.ChannelFactory() {
+          @Override
+          public SeekableReadableByteChannel open()
+              throws IOException {
+            channelsOpened.incrementAndGet();
+            return new InMemoryObjectReadChannel(contents);
+          }
+        };
+    return new VectoredReader(channelFactory, executor, readOptions, "gs://foo-bucket/bar-object");
+  }
+
+  private byte[] toArray(ByteBuffer buffer) {
+    byte[] array = new byte[buffer.remaining()];
+    buffer.duplicate().get(array);
+    return array;
+  }
+
+  @Test
+  public void testRangesAreReturnedInRequestOrder()
+      throws Exception {
+    VectoredReader reader = createReader(0, 1024);
+    List<ReadRange> ranges = ImmutableList.of(
+        new ReadRange(500, 10), new ReadRange(0, 5), new ReadRange(990, 10));
+    List<Future<ByteBuffer>> results = reader.read(ranges);
+
+    assertEquals(3, results.size());
+    for (int i = 0; i < ranges.size(); ++i) {
+      ReadRange range = ranges.get(i);
+      assertArrayEquals(
+          Arrays.copyOfRange(contents, (int) range.getOffset(), (int) range.getEnd()),
+          toArray(results.get(i).get()));
+    }
+    assertEquals(3, channelsOpened.get());
+  }
+
+  @Test
+  public void testNearbyAndOverlappingRangesAreMerged()
+      throws Exception {
+    VectoredReader reader = createReader(16, 1024);
+    List<ReadRange> ranges = ImmutableList.of(
+        new ReadRange(100, 10), new ReadRange(120, 10), new ReadRange(105, 20),
+        new ReadRange(600, 10));
+    List<Future<ByteBuffer>> results = reader.read(ranges);
+
+    for (int i = 0; i < ranges.size(); ++i) {
+      ReadRange range = ranges.get(i);
+      assertArrayEquals(
+          Arrays.copyOfRange(contents, (int) range.getOffset(), (int) range.getEnd()),
+          toArray(results.get(i).get()));
+    }
+    // [100, 130) is fetched once, [600, 610) separately.
+    assertEquals(2, channelsOpened.get());
+  }
+
+  @Test
+  public void testMergedSizeIsBounded() {
+    VectoredReader reader = createReader(100, 50);
+    @SuppressWarnings("unchecked")
+    Future<ByteBuffer>[] results = new Future[3];
+    List<VectoredReader.MergedRange> mergedRanges = reader.mergeRanges(ImmutableList.of(
+        new ReadRange(0, 20), new ReadRange(30, 20), new ReadRange(60, 20)), results);
+
+    assertEquals(2, mergedRanges.size());
+    assertEquals(0, mergedRanges.get(0).start);
+    assertEquals(50, mergedRanges.get(0).end);
+    assertEquals(60, mergedRanges.get(1).start);
+    assertEquals(80, mergedRanges.get(1).end);
+  }
+
+  @Test
+  public void testEmptyRangeCompletesWithoutRequest()
+      throws Exception {
+    VectoredReader reader = createReader(0, 1024);
+    List<Future<ByteBuffer>> results = reader.read(ImmutableList.of(new ReadRange(10, 0)));
+
+    assertTrue(results.get(0).isDone());
+    assertEquals(0, results.get(0).get().remaining());
+    assertEquals(0, channelsOpened.get());
+  }
+
+  @Test
+  public void testRangePastEndFails()
+      throws Exception {
+    VectoredReader reader = createReader(0, 1024);
+    List<Future<ByteBuffer>> results = reader.read(ImmutableList.of(new ReadRange(995, 10)));
+    try {
+      results.get(0).get();
+      fail("Expected ExecutionException");
+    } catch (ExecutionException ee) {
+      assertTrue(ee.getCause() instanceof EOFException);
+    }
+  }
+}
@@ -23,10 +23,7 @@ import com.google.common.base.Preconditions;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.WritableByteChannel;
 import java.util.concurrent.CountDownLatch;
@@ -98,16 +95,16 @@ public abstract class AbstractGoogleAsyncWriteChannel
   //
   // -- Pipe buffer.
   // size = UPLOAD_PIPE_BUFFER_SIZE_DEFAULT (1 MB)
-  // Increasing size does not have noticeable difference on performance.
+  // Increasing size does not have noticeable difference on performance. Writes of at least this
+  // size bypass it and are handed to the uploader without copying.
   //
   // code.
   // size = UPLOAD_CHUNK_SIZE_DEFAULT (64 MB)
 
   // A pipe that connects write channel used by caller to the input stream used by GCS uploader.
-  // The uploader reads from input stream which blocks till a caller writes some data to the
-  // write channel (pipeSinkChannel below). The pipe is formed by connecting pipeSink to pipeSource
-  private PipedOutputStream pipeSink;
-  private PipedInputStream pipeSource;
+  // The uploader reads from the source end of the pipe which blocks till a caller writes some data
+  // through write().
+  private RingBufferPipe pipe;
   private ExecutorService threadPool;
   private boolean isInitialized = false;
 
@@ -118,12 +115,22 @@ public abstract class AbstractGoogleAsyncWriteChannel
   // Size of buffer used by upload pipe.
   private int pipeBufferSize = UPLOAD_PIPE_BUFFER_SIZE_DEFAULT;
 
-  // A channel wrapper over pipeSink.
-  private WritableByteChannel pipeSinkChannel;
+  // Pool the upload pipe buffer is taken from, or null to allocate a new one per channel.
+  private final BufferPool pipeBufferPool;
+
+  // Pooled buffer backing the upload pipe, or null if it was not taken from pipeBufferPool.
+  private ByteBuffer pipeBuffer;
 
   // Upload operation that takes place on a separate thread.
   private UploadOperation uploadOperation;
 
+  // Budget shared with other channels which the upload's buffers are reserved from, or null.
+  private UploadBudget uploadBudget;
+
+  // Whether initialize() left starting the upload to the first write() or close(), so that
+  // opening a channel never waits for uploadBudget.
+  private boolean uploadPending = false;
+
 
   // If true, we get very high write throughput but writing files larger than UPLOAD_MAX_SIZE
   // will not succeed. Set it to false to allow larger files at lower throughput.
@@ -140,6 +147,9 @@ public abstract class AbstractGoogleAsyncWriteChannel
     this.threadPool = threadPool;
     enableFileSizeLimit250Gb(options.isFileSizeLimitedTo250Gb());
     setUploadBufferSize(options.getUploadBufferSize());
+    this.pipeBufferPool = options.isBufferPoolEnabled()
+        ? BufferPool.getInstance(false, options.getBufferPoolMaxSize())
+        : null;
   }
 
   /**
@@ -174,6 +184,18 @@ public abstract class AbstractGoogleAsyncWriteChannel
     uploadBufferSize = bufferSize;
   }
 
+  /**
+   * Sets the budget shared with other channels from which this channel reserves its upload
+   * buffers. The upload then only starts on the first write() or on close(), which waits while
+   * the budget is exhausted, and fails if the budget is still exhausted after the budget's maximum
+   * wait. The upload may use a smaller upload buffer than configured if the budget is tight.
+   * Uploads reserved from a bounded budget should run on an executor bounded to the same number
+   * of uploads.
+   */
+  public void setUploadBudget(UploadBudget uploadBudget) {
+    this.uploadBudget = uploadBudget;
+  }
+
   /**
    * Enables or disables hard limit of 250GB on size of uploaded files.
    *
@@ -207,10 +229,14 @@ public abstract class AbstractGoogleAsyncWriteChannel
 
     throwIfNotOpen();
 
+    if (uploadPending) {
+      startBudgetedUpload();
+    }
+
     // No point in writing further if upload failed on another thread.
     throwIfUploadFailed();
 
-    return pipeSinkChannel.write(buffer);
+    return pipe.write(buffer);
   }
 
   /**
@@ -220,7 +246,7 @@ public abstract class AbstractGoogleAsyncWriteChannel
    */
   @Override
   public boolean isOpen() {
-    return (pipeSinkChannel != null) && pipeSinkChannel.isOpen();
+    return uploadPending || ((pipe != null) && pipe.isSinkOpen());
   }
 
   /**
@@ -237,14 +263,18 @@ public abstract class AbstractGoogleAsyncWriteChannel
     throwIfNotInitialized();
     throwIfNotOpen();
     try {
-      pipeSinkChannel.close();
+      if (uploadPending) {
+        // Nothing was written; the upload still creates the object.
+        startBudgetedUpload();
+      }
+      pipe.closeSink();
       uploadOperation.waitForCompletion();
       throwIfUploadFailed();
       handleResponse(uploadOperation.getResponse());
     } finally {
-      pipeSinkChannel = null;
-      pipeSink = null;
-      pipeSource = null;
+      uploadPending = false;
+      releasePipeBuffer();
+      pipe = null;
       uploadOperation = null;
     }
   }
@@ -255,11 +285,63 @@ public abstract class AbstractGoogleAsyncWriteChannel
    * @throws IOException
    */
   public void initialize() throws IOException {
+    if (uploadBudget == null) {
+      startUpload(uploadBufferSize, -1);
+    } else if (!uploadBudget.isBounded()) {
+      // Reserving from a budget without limits never waits.
+      startBudgetedUpload();
+    } else {
+      // Reserve the memory of the upload only once data arrives, so that a thread which opens
+      // many channels before writing to them doesn't wait here for uploads it has yet to finish.
+      uploadPending = true;
+    }
+    isInitialized = true;
+  }
+
+  /**
+   * Reserves the memory of the upload from uploadBudget, then starts the upload.
+   *
+   * @throws IOException if the budget can't be reserved in time, which the upload never bypasses
+   */
+  private void startBudgetedUpload() throws IOException {
+    int chunkSize = uploadBufferSize;
+    long desiredBytes = (long) uploadBufferSize + pipeBufferSize;
+    long minBytes = Math.min(
+        desiredBytes, (long) MediaHttpUploader.MINIMUM_CHUNK_SIZE + pipeBufferSize);
+    long reservedBytes = uploadBudget.tryAcquire(desiredBytes, minBytes);
+    if (reservedBytes < 0) {
+      throw new IOException(String.format(
+          "Timed out waiting for %d bytes of upload budget: %s", minBytes, uploadBudget));
+    }
+    if (reservedBytes < desiredBytes) {
+      long reducedChunkSize = reservedBytes - pipeBufferSize;
+      chunkSize = (int) Math.max(MediaHttpUploader.MINIMUM_CHUNK_SIZE,
+          reducedChunkSize - reducedChunkSize % MediaHttpUploader.MINIMUM_CHUNK_SIZE);
+      log.debug("Upload budget is low, using chunk size %d instead of %d: %s",
+          chunkSize, uploadBufferSize, uploadBudget);
+    }
+    try {
+      startUpload(chunkSize, reservedBytes);
+    } catch (IOException | RuntimeException e) {
+      uploadBudget.release(reservedBytes);
+      throw e;
+    }
+    uploadPending = false;
+  }
+
+  /**
+   * Creates the pipe and starts the upload operation reading from it.
+   */
+  private void startUpload(int chunkSize, long reservedBytes) throws IOException {
     // Create a pipe such that its one end is connected to the input stream used by
     // the uploader and the other end is the write channel used by the caller.
-    pipeSource = new PipedInputStream(pipeBufferSize);
-    pipeSink = new PipedOutputStream(pipeSource);
-    pipeSinkChannel = Channels.newChannel(pipeSink);
+    if (pipeBufferPool != null) {
+      pipeBuffer = pipeBufferPool.acquire(pipeBufferSize);
+      pipe = new RingBufferPipe(pipeBuffer.array());
+    } else {
+      pipe = new RingBufferPipe(new byte[pipeBufferSize]);
+    }
+    InputStream pipeSource = pipe.getSource();
 
     // Connect pipe-source to the stream used by uploader.
     InputStreamContent objectContentStream =
@@ -275,19 +357,17 @@ public abstract class AbstractGoogleAsyncWriteChannel
     if (limitFileSizeTo250Gb) {
       HttpHeaders headers = clientRequestHelper.getRequestHeaders(request);
       headers.set("X-Goog-Upload-Desired-Chunk-Granularity",
-          Math.min(GCS_UPLOAD_GRANULARITY, uploadBufferSize));
+          Math.min(GCS_UPLOAD_GRANULARITY, chunkSize));
       headers.set("X-Goog-Upload-Max-Raw-Size", UPLOAD_MAX_SIZE);
     }
 
     // Change chunk size from default value (10MB) to one that yields higher performance.
-    clientRequestHelper.setChunkSize(request, uploadBufferSize);
+    clientRequestHelper.setChunkSize(request, chunkSize);
 
     // Given that the two ends of the pipe must operate asynchronous relative
     // to each other, we need to start the upload operation on a separate thread.
-    uploadOperation = new UploadOperation(request, pipeSource);
+    uploadOperation = new UploadOperation(request, pipeSource, reservedBytes);
     threadPool.execute(uploadOperation);
-
-    isInitialized = true;
   }
 
   class UploadOperation implements Runnable {
@@ -304,12 +384,16 @@ public abstract class AbstractGoogleAsyncWriteChannel
     // Read end of the pipe. This object declared final for safe object publishing.
     private final InputStream pipeSource;
 
+    // Bytes reserved from uploadBudget for this upload, or -1 if none were.
+    private final long reservedBytes;
+
     /**
      * Constructs an instance of UploadOperation.
      */
-    public UploadOperation(T uploadObject, InputStream pipeSource) {
+    public UploadOperation(T uploadObject, InputStream pipeSource, long reservedBytes) {
       this.uploadObject = uploadObject;
       this.pipeSource = pipeSource;
+      this.reservedBytes = reservedBytes;
     }
 
     /**
@@ -327,6 +411,9 @@ public abstract class AbstractGoogleAsyncWriteChannel
         exception = t;
         log.error(t);
       } finally {
+        if (reservedBytes >= 0) {
+          uploadBudget.release(reservedBytes);
+        }
         uploadDone.countDown();
         try {
           // Close this end of the pipe so that the writer at the other end
@@ -359,6 +446,21 @@ public abstract class AbstractGoogleAsyncWriteChannel
 
   }
 
+  /**
+   * Returns the pooled pipe buffer, if any, to its pool. The buffer is only handed back once
+   * the upload thread is done with the read end of the pipe; otherwise it is left to the
+   * garbage collector.
+   */
+  private void releasePipeBuffer() {
+    if (pipeBuffer == null) {
+      return;
+    }
+    if (uploadOperation != null && uploadOperation.uploadDone.getCount() == 0) {
+      pipeBufferPool.release(pipeBuffer);
+    }
+    pipeBuffer = null;
+  }
+
   /**
    * Throws if this channel is not currently open.
    *
@@ -28,6 +28,24 @@ public class AsyncWriteChannelOptions {
    * Default upload buffer size.
    */
   public static final int UPLOAD_BUFFER_SIZE_DEFAULT = 64 * 1024 * 1024;
+  /**
+   * Default of whether upload pipe buffers are taken from the shared {@link BufferPool}.
+   */
+  public static final boolean BUFFER_POOL_ENABLED_DEFAULT = false;
+  /**
+   * Default maximum number of idle bytes retained by the shared {@link BufferPool}.
+   */
+  public static final long BUFFER_POOL_MAX_SIZE_DEFAULT = 128 * 1024 * 1024;
+  /**
+   * Default maximum number of bytes reserved by concurrent uploads sharing an
+   * {@link UploadBudget}; 0 means no limit.
+   */
+  public static final long UPLOAD_MAX_MEMORY_DEFAULT = 0;
+  /**
+   * Default maximum number of concurrent uploads sharing an {@link UploadBudget}; 0 means no
+   * limit.
+   */
+  public static final int MAX_CONCURRENT_UPLOADS_DEFAULT = 0;
 
   /**
    * Mutable builder for the GoogleCloudStorageWriteChannelOptions class.
@@ -35,6 +53,10 @@ public class AsyncWriteChannelOptions {
   public static class Builder {
     private boolean fileSizeLimitedTo250Gb = LIMIT_FILESIZE_TO_250GB_DEFAULT;
     private int uploadBufferSize = UPLOAD_BUFFER_SIZE_DEFAULT;
+    private boolean bufferPoolEnabled = BUFFER_POOL_ENABLED_DEFAULT;
+    private long bufferPoolMaxSize = BUFFER_POOL_MAX_SIZE_DEFAULT;
+    private long uploadMaxMemory = UPLOAD_MAX_MEMORY_DEFAULT;
+    private int maxConcurrentUploads = MAX_CONCURRENT_UPLOADS_DEFAULT;
 
     public Builder setFileSizeLimitedTo250Gb(boolean fileSizeLimitedTo250Gb) {
       this.fileSizeLimitedTo250Gb = fileSizeLimitedTo250Gb;
@@ -46,8 +68,29 @@ public class AsyncWriteChannelOptions {
       return this;
     }
 
+    public Builder setBufferPoolEnabled(boolean bufferPoolEnabled) {
+      this.bufferPoolEnabled = bufferPoolEnabled;
+      return this;
+    }
+
+    public Builder setBufferPoolMaxSize(long bufferPoolMaxSize) {
+      this.bufferPoolMaxSize = bufferPoolMaxSize;
+      return this;
+    }
+
+    public Builder setUploadMaxMemory(long uploadMaxMemory) {
+      this.uploadMaxMemory = uploadMaxMemory;
+      return this;
+    }
+
+    public Builder setMaxConcurrentUploads(int maxConcurrentUploads) {
+      this.maxConcurrentUploads = maxConcurrentUploads;
+      return this;
+    }
+
     public AsyncWriteChannelOptions build() {
-      return new AsyncWriteChannelOptions(fileSizeLimitedTo250Gb, uploadBufferSize);
+      return new AsyncWriteChannelOptions(fileSizeLimitedTo250Gb, uploadBufferSize,
+          bufferPoolEnabled, bufferPoolMaxSize, uploadMaxMemory, maxConcurrentUploads);
     }
   }
 
@@ -61,11 +104,26 @@ public class AsyncWriteChannelOptions {
 
   private final boolean fileSizeLimitedTo250Gb;
   private final int uploadBufferSize;
+  private final boolean bufferPoolEnabled;
+  private final long bufferPoolMaxSize;
+  private final long uploadMaxMemory;
+  private final int maxConcurrentUploads;
 
   public AsyncWriteChannelOptions(boolean fileSizeLimitedTo250Gb,
       int uploadBufferSize) {
+    this(fileSizeLimitedTo250Gb, uploadBufferSize, BUFFER_POOL_ENABLED_DEFAULT,
+        BUFFER_POOL_MAX_SIZE_DEFAULT, UPLOAD_MAX_MEMORY_DEFAULT, MAX_CONCURRENT_UPLOADS_DEFAULT);
+  }
+
+  private AsyncWriteChannelOptions(boolean fileSizeLimitedTo250Gb,
+      int uploadBufferSize, boolean bufferPoolEnabled, long bufferPoolMaxSize,
+      long uploadMaxMemory, int maxConcurrentUploads) {
     this.fileSizeLimitedTo250Gb = fileSizeLimitedTo250Gb;
     this.uploadBufferSize = uploadBufferSize;
+    this.bufferPoolEnabled = bufferPoolEnabled;
+    this.bufferPoolMaxSize = bufferPoolMaxSize;
+    this.uploadMaxMemory = uploadMaxMemory;
+    this.maxConcurrentUploads = maxConcurrentUploads;
   }
 
   public boolean isFileSizeLimitedTo250Gb() {
@@ -74,4 +132,21 @@ public class AsyncWriteChannelOptions {
 
   public int getUploadBufferSize() {
     return uploadBufferSize;
-  }}
+  }
+
+  public boolean isBufferPoolEnabled() {
+    return bufferPoolEnabled;
+  }
+
+  public long getBufferPoolMaxSize() {
+    return bufferPoolMaxSize;
+  }
+
+  public long getUploadMaxMemory() {
+    return uploadMaxMemory;
+  }
+
+  public int getMaxConcurrentUploads() {
+    return maxConcurrentUploads;
+  }
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe pool of reusable ByteBuffers, so that processes which open many short-lived
+ * streams don't allocate (and garbage collect) a large buffer per stream.
+ *
+ * Buffers are grouped in power-of-two size classes between {@link #MIN_BUFFER_SIZE} and
+ * {@link #MAX_BUFFER_SIZE}: {@link #acquire(int)} returns a buffer whose capacity is the
+ * requested size rounded up to its size class. Requests larger than MAX_BUFFER_SIZE are served
+ * with a fresh allocation and never pooled. Idle buffers are retained only up to a configured
+ * total number of bytes; buffers released beyond that are left to the garbage collector.
+ *
+ * A pool hands out either heap buffers, which are backed by an accessible array, or direct
+ * (off-heap) buffers. One instance of each kind is shared by all users in the JVM, see
+ * {@link #getInstance(boolean, long)}.
+ */
+public class BufferPool {
+
+  // Logging helper.
+  private static final LogUtil log = new LogUtil(BufferPool.class);
+
+  /**
+   * Capacity of the smallest size class; smaller requests are rounded up to it.
+   */
+  public static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+  /**
+   * Capacity of the largest size class; larger buffers are not pooled.
+   */
+  public static final int MAX_BUFFER_SIZE = 128 * 1024 * 1024;
+
+  // log2(MIN_BUFFER_SIZE), the shift of the first size class.
+  private static final int MIN_SIZE_CLASS_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+
+  // Number of size classes.
+  private static final int NUM_SIZE_CLASSES =
+      Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - MIN_SIZE_CLASS_SHIFT + 1;
+
+  // The per-JVM instances, created by the first user of each kind.
+  private static BufferPool heapInstance;
+  private static BufferPool directInstance;
+
+  // True if this pool hands out direct buffers, false for heap buffers.
+  private final boolean direct;
+
+  // Maximum total capacity of the idle buffers retained by this pool.
+  private final long maxPooledBytes;
+
+  // Idle buffers, indexed by size class.
+  private final List<Queue<ByteBuffer>> idleBuffers;
+
+  // Total capacity and number of idle buffers currently retained.
+  private final AtomicLong pooledBytes = new AtomicLong();
+  private final AtomicLong pooledBufferCount = new AtomicLong();
+
+  // Number of acquire() calls served by an idle buffer.
+  private final AtomicLong hitCount = new AtomicLong();
+
+  // Number of acquire() calls which had to allocate a new buffer.
+  private final AtomicLong missCount = new AtomicLong();
+
+  // Number of released buffers dropped because the pool was full or could not hold them.
+  private final AtomicLong discardCount = new AtomicLong();
+
+  /**
+   * Returns the per-JVM pool of the given kind, creating it with the given capacity if it does
+   * not exist yet. The capacity of an existing instance is not changed.
+   *
+   * @param direct true for a pool of direct buffers, false for heap buffers
+   * @param maxPooledBytes maximum total capacity of idle buffers retained by a new pool
+   */
+  public static synchronized BufferPool getInstance(boolean direct, long maxPooledBytes) {
+    BufferPool instance = direct ? directInstance : heapInstance;
+    if (instance == null) {
+      log.debug("Creating %s BufferPool retaining up to %d bytes",
+          direct ? "direct" : "heap", maxPooledBytes);
+      instance = new BufferPool(direct, maxPooledBytes);
+      if (direct) {
+        directInstance = instance;
+      } else {
+        heapInstance = instance;
+      }
+    } else if (instance.maxPooledBytes != maxPooledBytes) {
+      log.debug("%s BufferPool already exists retaining up to %d bytes; ignoring requested %d",
+          direct ? "Direct" : "Heap", instance.maxPooledBytes, maxPooledBytes);
+    }
+    return instance;
+  }
+
+  @VisibleForTesting
+  BufferPool(boolean direct, long maxPooledBytes) {
+    Preconditions.checkArgument(maxPooledBytes >= 0,
+        "maxPooledBytes must not be negative: %s", maxPooledBytes);
+    this.direct = direct;
+    this.maxPooledBytes = maxPooledBytes;
+    this.idleBuffers = new ArrayList<>(NUM_SIZE_CLASSES);
+    for (int i = 0; i < NUM_SIZE_CLASSES; ++i) {
+      idleBuffers.add(new ConcurrentLinkedQueue<ByteBuffer>());
+    }
+  }
+
+  /**
+   * Returns a cleared buffer with a capacity of at least {@code size} bytes, reusing an idle
+   * buffer of the same size class if there is one. Callers should hand the buffer back with
+   * {@link #release(ByteBuffer)} once they no longer use it, and must not touch it afterwards.
+   */
+  public ByteBuffer acquire(int size) {
+    Preconditions.checkArgument(size >= 0, "size must not be negative: %s", size);
+    if (size > MAX_BUFFER_SIZE) {
+      missCount.incrementAndGet();
+      return allocate(size);
+    }
+
+    int sizeClass = sizeClassOf(size);
+    ByteBuffer buffer = idleBuffers.get(sizeClass).poll();
+    if (buffer != null) {
+      pooledBytes.addAndGet(-buffer.capacity());
+      pooledBufferCount.decrementAndGet();
+      hitCount.incrementAndGet();
+      buffer.clear();
+      return buffer;
+    }
+    missCount.incrementAndGet();
+    return allocate(capacityOf(sizeClass));
+  }
+
+  /**
+   * Returns a buffer obtained from {@link #acquire(int)} to the pool. Buffers which the pool
+   * cannot hold, e.g. because they are too large or the pool is full, are dropped.
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer == null) {
+      return;
+    }
+    int capacity = buffer.capacity();
+    if (buffer.isDirect() != direct
+        || buffer.isReadOnly()
+        || capacity < MIN_BUFFER_SIZE
+        || capacity > MAX_BUFFER_SIZE
+        || Integer.bitCount(capacity) != 1) {
+      discardCount.incrementAndGet();
+      return;
+    }
+
+    if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+      pooledBytes.addAndGet(-capacity);
+      discardCount.incrementAndGet();
+      return;
+    }
+    buffer.clear();
+    pooledBufferCount.incrementAndGet();
+    idleBuffers.get(sizeClassOf(capacity)).offer(buffer);
+  }
+
+  /**
+   * Returns true if this pool hands out direct buffers.
+   */
+  public boolean isDirect() {
+    return direct;
+  }
+
+  /**
+   * Returns the total capacity of the idle buffers currently retained.
+   */
+  public long getPooledBytes() {
+    return pooledBytes.get();
+  }
+
+  /**
+   * Returns the number of idle buffers currently retained.
+   */
+  public long getPooledBufferCount() {
+    return pooledBufferCount.get();
+  }
+
+  /**
+   * Returns the number of acquire() calls served by an idle buffer.
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns the number of acquire() calls which had to allocate a new buffer.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Returns the number of released buffers which were dropped instead of being retained.
+   */
+  public long getDiscardCount() {
+    return discardCount.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "BufferPool{direct=%s, pooledBytes=%d/%d, pooledBuffers=%d, hits=%d, misses=%d, "
+        + "discards=%d}",
+        direct, getPooledBytes(), maxPooledBytes, getPooledBufferCount(), getHitCount(),
+        getMissCount(), getDiscardCount());
+  }
+
+  private ByteBuffer allocate(int capacity) {
+    return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+  }
+
+  /**
+   * Returns the index of the smallest size class holding at least {@code size} bytes.
+   */
+  private static int sizeClassOf(int size) {
+    if (size <= MIN_BUFFER_SIZE) {
+      return 0;
+    }
+    // Number of bits needed to represent size - 1 is log2 of size rounded up.
+    return (32 - Integer.numberOfLeadingZeros(size - 1)) - MIN_SIZE_CLASS_SHIFT;
+  }
+
+  private static int capacityOf(int sizeClass) {
+    return 1 << (sizeClass + MIN_SIZE_CLASS_SHIFT);
+  }
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.util;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands bytes from a single writer thread to a single reader thread through a fixed-size ring
+ * buffer, replacing the PipedOutputStream/PipedInputStream pair previously used by
+ * AbstractGoogleAsyncWriteChannel.
+ *
+ * The two ends coordinate through volatile read and write cursors only; no locks are taken and
+ * a thread parks only while the ring is full (writer) or empty (reader), and is unparked as soon
+ * as the other end makes progress rather than polling. Writes of at least the ring capacity are
+ * handed to the reader without copying: the writer publishes the caller's buffer and waits for
+ * the reader to drain it before returning, as WritableByteChannel callers may reuse their buffer
+ * once write() returns.
+ */
+class RingBufferPipe {
+
+  // Ring storage; bytes [readPosition, writePosition) modulo its length are readable.
+  private final byte[] ring;
+
+  // Total number of bytes ever written into / read out of the ring. Each cursor is only advanced
+  // by its own end; the volatile write publishes the ring contents to the other end.
+  private volatile long writePosition;
+  private volatile long readPosition;
+
+  // A caller buffer handed off without copying, or null. Set by the writer, drained and cleared
+  // by the reader.
+  private volatile ByteBuffer handoff;
+
+  // Set once the corresponding end has been closed.
+  private volatile boolean sinkClosed;
+  private volatile boolean sourceClosed;
+
+  // Threads parked waiting for the other end, or null.
+  private volatile Thread waitingWriter;
+  private volatile Thread waitingReader;
+
+  // The read end, as consumed by the uploader.
+  private final InputStream source = new InputStream() {
+    @Override
+    public int read()
+        throws IOException {
+      byte[] singleByte = new byte[1];
+      int numRead = read(singleByte, 0, 1);
+      return numRead < 0 ? -1 : singleByte[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length)
+        throws IOException {
+      return RingBufferPipe.this.read(buffer, offset, length);
+    }
+
+    @Override
+    public int available() {
+      ByteBuffer pending = handoff;
+      long available = writePosition - readPosition;
+      if (available == 0 && pending != null) {
+        available = pending.remaining();
+      }
+      return (int) Math.min(available, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close() {
+      closeSource();
+    }
+  };
+
+  /**
+   * Creates a pipe buffering up to {@code ring.length} bytes in the given array.
+   */
+  RingBufferPipe(byte[] ring) {
+    Preconditions.checkArgument(ring != null && ring.length > 0, "ring must not be empty");
+    this.ring = ring;
+  }
+
+  /**
+   * Returns the read end of this pipe. Closing it makes further writes fail.
+   */
+  InputStream getSource() {
+    return source;
+  }
+
+  /**
+   * Returns false once {@link #closeSink()} has been called.
+   */
+  boolean isSinkOpen() {
+    return !sinkClosed;
+  }
+
+  /**
+   * Writes all remaining bytes of the given buffer into the pipe, blocking while the ring is
+   * full. Must only be called by the writer thread.
+   *
+   * @return the number of bytes written
+   * @throws IOException if the read end has been closed, or the writer is interrupted
+   */
+  int write(ByteBuffer buffer)
+      throws IOException {
+    if (sinkClosed) {
+      throw new ClosedChannelException();
+    }
+    int numBytes = buffer.remaining();
+    if (numBytes >= ring.length) {
+      handOff(buffer);
+      return numBytes;
+    }
+
+    long position = writePosition;
+    while (buffer.hasRemaining()) {
+      int free;
+      while ((free = (int) (ring.length - (position - readPosition))) == 0) {
+        throwIfSourceClosed();
+        waitingWriter = Thread.currentThread();
+        if (position - readPosition == ring.length && !sourceClosed) {
+          LockSupport.park(this);
+        }
+        waitingWriter = null;
+        throwIfInterrupted();
+      }
+      throwIfSourceClosed();
+
+      int index = (int) (position % ring.length);
+      int toCopy = Math.min(free, buffer.remaining());
+      int firstPart = Math.min(toCopy, ring.length - index);
+      buffer.get(ring, index, firstPart);
+      if (toCopy > firstPart) {
+        buffer.get(ring, 0, toCopy - firstPart);
+      }
+      position += toCopy;
+      writePosition = position;
+      unpark(waitingReader);
+    }
+    return numBytes;
+  }
+
+  /**
+   * Signals the reader that no more bytes will be written. Must only be called by the writer
+   * thread.
+   */
+  void closeSink() {
+    sinkClosed = true;
+    unpark(waitingReader);
+  }
+
+  /**
+   * Closes the read end; pending and further writes fail.
+   */
+  void closeSource() {
+    sourceClosed = true;
+    unpark(waitingWriter);
+  }
+
+  /**
+   * Publishes the caller's buffer to the reader and waits for it to be drained.
+   */
+  private void handOff(ByteBuffer buffer)
+      throws IOException {
+    throwIfSourceClosed();
+    handoff = buffer.duplicate();
+    unpark(waitingReader);
+    while (handoff != null) {
+      throwIfSourceClosed();
+      waitingWriter = Thread.currentThread();
+      if (handoff != null && !sourceClosed) {
+        LockSupport.park(this);
+      }
+      waitingWriter = null;
+      throwIfInterrupted();
+    }
+    buffer.position(buffer.limit());
+  }
+
+  /**
+   * Reads up to {@code length} bytes, blocking until at least one byte is available or the write
+   * end has been closed. Must only be called by the reader thread.
+   */
+  private int read(byte[] buffer, int offset, int length)
+      throws IOException {
+    Preconditions.checkNotNull(buffer, "buffer must not be null");
+    if (offset < 0 || length < 0 || length > buffer.length - offset) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (sourceClosed) {
+      throw new IOException("Pipe closed");
+    }
+    if (length == 0) {
+      return 0;
+    }
+
+    long position = readPosition;
+    while (true) {
+      // Read the flags before the data they guard: the writer publishes ring bytes before a
+      // handoff, and everything before closing the sink.
+      boolean closed = sinkClosed;
+      ByteBuffer pending = handoff;
+      long available = writePosition - position;
+
+      if (available > 0) {
+        int index = (int) (position % ring.length);
+        int toCopy = (int) Math.min(available, length);
+        int firstPart = Math.min(toCopy, ring.length - index);
+        System.arraycopy(ring, index, buffer, offset, firstPart);
+        if (toCopy > firstPart) {
+          System.arraycopy(ring, 0, buffer, offset + firstPart, toCopy - firstPart);
+        }
+        readPosition = position + toCopy;
+        unpark(waitingWriter);
+        return toCopy;
+      }
+      if (pending != null) {
+        int toCopy = Math.min(pending.remaining(), length);
+        pending.get(buffer, offset, toCopy);
+        if (!pending.hasRemaining()) {
+          handoff = null;
+          unpark(waitingWriter);
+        }
+        return toCopy;
+      }
+      if (closed) {
+        return -1;
+      }
+
+      waitingReader = Thread.currentThread();
+      if (!sinkClosed && handoff == null && writePosition == position) {
+        LockSupport.park(this);
+      }
+      waitingReader = null;
+      throwIfInterrupted();
+    }
+  }
+
+  private void throwIfSourceClosed()
+      throws IOException {
+    if (sourceClosed) {
+      throw new IOException("Pipe closed");
+    }
+  }
+
+  private static void throwIfInterrupted()
+      throws InterruptedIOException {
+    if (Thread.interrupted()) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting on pipe");
+    }
+  }
+
+  private static void unpark(Thread thread) {
+    if (thread != null) {
+      LockSupport.unpark(thread);
+    }
+  }
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.util;
+
+import com.google.common.base.Preconditions;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the memory used by, and the number of, concurrent uploads of
+ * AbstractGoogleAsyncWriteChannels sharing an instance, e.g. all output streams of a file system.
+ * Each part of a parallel composite upload counts as an upload of its own.
+ *
+ * Before starting its upload, a channel calls {@link #tryAcquire(long, long)} with the number of
+ * bytes it would like to buffer and the least it can work with. If the full amount is not
+ * available the channel is granted less, down to the minimum; if not even the minimum is
+ * available, or the maximum number of uploads is running, the caller waits until other uploads
+ * {@link #release(long)} their share. One upload is always admitted when none is running, so a
+ * single upload larger than the whole budget does not wait forever.
+ *
+ * A thread may itself hold the uploads it would wait for, e.g. when it writes to many open
+ * streams in turn, so waiting is bounded by {@code maxWaitMillis}. Once it elapses, the caller
+ * fails its upload rather than deadlock or exceed the budget. Since the budget bounds the number
+ * of running uploads, a bounded budget's uploads can share an executor with as many threads.
+ */
+public class UploadBudget {
+
+  // Logging helper.
+  private static final LogUtil log = new LogUtil(UploadBudget.class);
+
+  /**
+   * Default maximum time that {@link #tryAcquire(long, long)} waits for the budget.
+   */
+  public static final long MAX_WAIT_MILLIS_DEFAULT = 10 * 1000;
+
+  // Maximum number of bytes reserved by running uploads, or 0 for no limit.
+  private final long maxBytes;
+
+  // Maximum number of running uploads, or 0 for no limit.
+  private final int maxUploads;
+
+  // Maximum time tryAcquire() waits for the budget.
+  private final long maxWaitMillis;
+
+  // Bytes reserved by, and number of, running uploads.
+  private long inFlightBytes = 0;
+  private int inFlightUploads = 0;
+
+  // Bytes requested by, and number of, callers blocked in acquire().
+  private long queuedBytes = 0;
+  private int queuedUploads = 0;
+
+  // Number of uploads granted less than they requested.
+  private long reducedUploadCount = 0;
+
+  // Number of callers of tryAcquire() which gave up waiting.
+  private long timedOutUploadCount = 0;
+
+  /**
+   * Constructs an instance of UploadBudget which waits at most MAX_WAIT_MILLIS_DEFAULT.
+   *
+   * @param maxBytes maximum number of bytes reserved by running uploads, or 0 for no limit
+   * @param maxUploads maximum number of running uploads, or 0 for no limit
+   */
+  public UploadBudget(long maxBytes, int maxUploads) {
+    this(maxBytes, maxUploads, MAX_WAIT_MILLIS_DEFAULT);
+  }
+
+  /**
+   * Constructs an instance of UploadBudget.
+   *
+   * @param maxBytes maximum number of bytes reserved by running uploads, or 0 for no limit
+   * @param maxUploads maximum number of running uploads, or 0 for no limit
+   * @param maxWaitMillis maximum time that {@link #tryAcquire(long, long)} waits for the budget
+   */
+  public UploadBudget(long maxBytes, int maxUploads, long maxWaitMillis) {
+    Preconditions.checkArgument(maxBytes >= 0, "maxBytes must not be negative: %s", maxBytes);
+    Preconditions.checkArgument(maxUploads >= 0,
+        "maxUploads must not be negative: %s", maxUploads);
+    Preconditions.checkArgument(maxWaitMillis >= 0,
+        "maxWaitMillis must not be negative: %s", maxWaitMillis);
+    this.maxBytes = maxBytes;
+    this.maxUploads = maxUploads;
+    this.maxWaitMillis = maxWaitMillis;
+  }
+
+  /**
+   * Reserves between {@code minBytes} and {@code desiredBytes} bytes for a new upload, blocking
+   * while not even {@code minBytes} can be reserved or the maximum number of uploads is running.
+   * The returned amount must be handed back with {@link #release(long)} once the upload is done.
+   *
+   * @return the number of bytes reserved
+   * @throws InterruptedIOException if interrupted while waiting
+   */
+  public synchronized long acquire(long desiredBytes, long minBytes)
+      throws InterruptedIOException {
+    return acquire(desiredBytes, minBytes, false);
+  }
+
+  /**
+   * Like {@link #acquire(long, long)}, but waits at most {@code maxWaitMillis} for the budget.
+   *
+   * @return the number of bytes reserved, or -1 if none were reserved in time, in which case
+   *     there is nothing to release
+   * @throws InterruptedIOException if interrupted while waiting
+   */
+  public synchronized long tryAcquire(long desiredBytes, long minBytes)
+      throws InterruptedIOException {
+    return acquire(desiredBytes, minBytes, true);
+  }
+
+  private long acquire(long desiredBytes, long minBytes, boolean timed)
+      throws InterruptedIOException {
+    Preconditions.checkArgument(minBytes >= 0 && minBytes <= desiredBytes,
+        "Expected 0 <= minBytes <= desiredBytes, got %s and %s", minBytes, desiredBytes);
+    if (!canAdmit(minBytes)) {
+      log.debug("Waiting for %d bytes of upload budget: %s", minBytes, this);
+      queuedBytes += desiredBytes;
+      ++queuedUploads;
+      long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+      try {
+        while (!canAdmit(minBytes)) {
+          if (!timed) {
+            wait();
+            continue;
+          }
+          long remainingNanos = deadlineNanos - System.nanoTime();
+          if (remainingNanos <= 0) {
+            ++timedOutUploadCount;
+            log.warn("Gave up waiting %d ms for upload budget: %s", maxWaitMillis, this);
+            return -1;
+          }
+          TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+        }
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for upload budget");
+      } finally {
+        queuedBytes -= desiredBytes;
+        --queuedUploads;
+      }
+    }
+
+    long grantedBytes = desiredBytes;
+    if (maxBytes > 0) {
+      grantedBytes = Math.max(minBytes, Math.min(desiredBytes, maxBytes - inFlightBytes));
+    }
+    if (grantedBytes < desiredBytes) {
+      ++reducedUploadCount;
+    }
+    inFlightBytes += grantedBytes;
+    ++inFlightUploads;
+    return grantedBytes;
+  }
+
+  /**
+   * Hands back bytes reserved by {@link #acquire(long, long)} once their upload is done.
+   */
+  public synchronized void release(long bytes) {
+    Preconditions.checkState(inFlightUploads > 0, "release() without matching acquire()");
+    inFlightBytes -= bytes;
+    --inFlightUploads;
+    notifyAll();
+  }
+
+  /**
+   * Returns whether this budget limits either the memory or the number of uploads, i.e. whether
+   * acquiring from it can ever wait.
+   */
+  public boolean isBounded() {
+    return maxBytes > 0 || maxUploads > 0;
+  }
+
+  /**
+   * Returns the number of bytes reserved by running uploads.
+   */
+  public synchronized long getInFlightBytes() {
+    return inFlightBytes;
+  }
+
+  /**
+   * Returns the number of running uploads.
+   */
+  public synchronized int getInFlightUploads() {
+    return inFlightUploads;
+  }
+
+  /**
+   * Returns the number of bytes requested by uploads waiting to start.
+   */
+  public synchronized long getQueuedBytes() {
+    return queuedBytes;
+  }
+
+  /**
+   * Returns the number of uploads waiting to start.
+   */
+  public synchronized int getQueuedUploads() {
+    return queuedUploads;
+  }
+
+  /**
+   * Returns the number of uploads which were granted fewer bytes than they requested.
+   */
+  public synchronized long getReducedUploadCount() {
+    return reducedUploadCount;
+  }
+
+  /**
+   * Returns the number of uploads which gave up waiting in {@link #tryAcquire(long, long)}.
+   */
+  public synchronized long getTimedOutUploadCount() {
+    return timedOutUploadCount;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "UploadBudget{inFlightBytes=%d/%s, inFlightUploads=%d/%s, queuedBytes=%d, "
+        + "queuedUploads=%d, reducedUploads=%d, timedOutUploads=%d}",
+        inFlightBytes, maxBytes > 0 ? maxBytes : "unbounded",
+        inFlightUploads, maxUploads > 0 ? maxUploads : "unbounded",
+        queuedBytes, queuedUploads, reducedUploadCount, timedOutUploadCount);
+  }
+
+  private boolean canAdmit(long minBytes) {
+    if (inFlightUploads == 0) {
+      return true;
+    }
+    if (maxUploads > 0 && inFlightUploads >= maxUploads) {
+      return false;
+    }
+    return maxBytes == 0 || maxBytes - inFlightBytes >= minBytes;
+  }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of the upload pipe of AbstractGoogleAsyncWriteChannel, a
+ * RingBufferPipe, against the PipedOutputStream/PipedInputStream pair it replaced. Each operation
+ * passes a single write() of writeSizeMb through a pipe with the default pipe buffer size to a
+ * reader draining it in upload-sized reads on another thread.
+ *
+ * This is not run as part of the unit tests; run it with:
+ *
+ *   java -cp <test classpath> org.openjdk.jmh.Main AsyncWritePipeBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class AsyncWritePipeBenchmark {
+
+  // Size of the reads issued by the reader, matching the buffer MediaHttpUploader reads into.
+  private static final int READ_SIZE = 64 * 1024;
+
+  // Buffer size of both pipes.
+  private static final int PIPE_BUFFER_SIZE =
+      AbstractGoogleAsyncWriteChannel.UPLOAD_PIPE_BUFFER_SIZE_DEFAULT;
+
+  @Param({"1", "8", "64"})
+  public int writeSizeMb;
+
+  private ByteBuffer data;
+  private ExecutorService readerThread;
+
+  @Setup
+  public void setUp() {
+    data = ByteBuffer.allocate(writeSizeMb * 1024 * 1024);
+    readerThread = Executors.newSingleThreadExecutor();
+  }
+
+  @TearDown
+  public void tearDown() {
+    readerThread.shutdownNow();
+  }
+
+  /**
+   * Starts draining the given stream on the reader thread; the returned future completes with
+   * the number of bytes read.
+   */
+  private Future<Long> drain(final InputStream source) {
+    return readerThread.submit(new Callable<Long>() {
+      @Override
+      public Long call()
+          throws IOException {
+        byte[] buffer = new byte[READ_SIZE];
+        long totalRead = 0;
+        int numRead;
+        while ((numRead = source.read(buffer, 0, buffer.length)) >= 0) {
+          totalRead += numRead;
+        }
+        return totalRead;
+      }
+    });
+  }
+
+  @Benchmark
+  public long pipedStreams()
+      throws Exception {
+    PipedInputStream source = new PipedInputStream(PIPE_BUFFER_SIZE);
+    PipedOutputStream sink = new PipedOutputStream(source);
+    WritableByteChannel sinkChannel = Channels.newChannel(sink);
+    Future<Long> totalRead = drain(source);
+    sinkChannel.write(data.duplicate());
+    sinkChannel.close();
+    return totalRead.get();
+  }
+
+  @Benchmark
+  public long ringBufferPipe()
+      throws Exception {
+    RingBufferPipe pipe = new RingBufferPipe(new byte[PIPE_BUFFER_SIZE]);
+    Future<Long> totalRead = drain(pipe.getSource());
+    pipe.write(data.duplicate());
+    pipe.closeSink();
+    return totalRead.get();
+  }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Unit tests for BufferPool class.
+ */
+@RunWith(JUnit4.class)
+public class BufferPoolTest {
+
+  @Test
+  public void testSizesAreRoundedUpToSizeClass() {
+    BufferPool pool = new BufferPool(false, 1024 * 1024);
+    assertEquals(BufferPool.MIN_BUFFER_SIZE, pool.acquire(0).capacity());
+    assertEquals(BufferPool.MIN_BUFFER_SIZE, pool.acquire(100).capacity());
+    assertEquals(8192, pool.acquire(4097).capacity());
+    assertEquals(8192, pool.acquire(8192).capacity());
+    assertEquals(4, pool.getMissCount());
+  }
+
+  @Test
+  public void testReleasedBufferIsReused() {
+    BufferPool pool = new BufferPool(false, 1024 * 1024);
+    ByteBuffer buffer = pool.acquire(10000);
+    buffer.put((byte) 1);
+    buffer.flip();
+    pool.release(buffer);
+    assertEquals(1, pool.getPooledBufferCount());
+    assertEquals(16384, pool.getPooledBytes());
+
+    // A request in the same size class gets the same buffer back, cleared.
+    ByteBuffer reused = pool.acquire(9000);
+    assertSame(buffer, reused);
+    assertEquals(0, reused.position());
+    assertEquals(reused.capacity(), reused.limit());
+    assertEquals(0, pool.getPooledBufferCount());
+    assertEquals(0, pool.getPooledBytes());
+    assertEquals(1, pool.getHitCount());
+    assertEquals(1, pool.getMissCount());
+
+    // A request in a different size class doesn't.
+    pool.release(reused);
+    assertNotSame(reused, pool.acquire(100));
+    assertEquals(2, pool.getMissCount());
+  }
+
+  @Test
+  public void testPoolIsBoundedByMaxPooledBytes() {
+    BufferPool pool = new BufferPool(false, 2 * BufferPool.MIN_BUFFER_SIZE);
+    for (int i = 0; i < 3; ++i) {
+      pool.release(ByteBuffer.allocate(BufferPool.MIN_BUFFER_SIZE));
+    }
+    assertEquals(2, pool.getPooledBufferCount());
+    assertEquals(2 * BufferPool.MIN_BUFFER_SIZE, pool.getPooledBytes());
+    assertEquals(1, pool.getDiscardCount());
+  }
+
+  @Test
+  public void testForeignBuffersAreDiscarded() {
+    BufferPool pool = new BufferPool(false, 1024 * 1024);
+    pool.release(ByteBuffer.allocate(5000));
+    pool.release(ByteBuffer.allocateDirect(BufferPool.MIN_BUFFER_SIZE));
+    pool.release(ByteBuffer.allocate(BufferPool.MIN_BUFFER_SIZE).asReadOnlyBuffer());
+    assertEquals(0, pool.getPooledBufferCount());
+    assertEquals(3, pool.getDiscardCount());
+  }
+
+  @Test
+  public void testDirectPoolHandsOutDirectBuffers() {
+    BufferPool pool = new BufferPool(true, 1024 * 1024);
+    assertTrue(pool.isDirect());
+    assertTrue(pool.acquire(100).isDirect());
+    assertFalse(new BufferPool(false, 0).acquire(100).isDirect());
+  }
+
+  @Test
+  public void testGetInstanceReturnsSharedInstancePerKind() {
+    assertSame(BufferPool.getInstance(false, 1024), BufferPool.getInstance(false, 2048));
+    assertSame(BufferPool.getInstance(true, 1024), BufferPool.getInstance(true, 2048));
+    assertNotSame(BufferPool.getInstance(false, 1024), BufferPool.getInstance(true, 1024));
+  }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for RingBufferPipe class.
+ */
+@RunWith(JUnit4.class)
+public class RingBufferPipeTest {
+  // Reads and writes of the pipe block, so a regression would otherwise hang rather than fail.
+  @Rule
+  public Timeout timeout = new Timeout(30 * 1000);
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Returns a future which drains the source end of the given pipe until end of stream.
+   */
+  private Future<byte[]> drain(final RingBufferPipe pipe, final int readSize) {
+    return executor.submit(new Callable<byte[]>() {
+      @Override
+      public byte[] call()
+          throws IOException {
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        byte[] buffer = new byte[readSize];
+        int numRead;
+        while ((numRead = pipe.getSource().read(buffer, 0, readSize)) >= 0) {
+          contents.write(buffer, 0, numRead);
+        }
+        return contents.toByteArray();
+      }
+    });
+  }
+
+  @Test
+  public void testSmallWritesAreReadableImmediately()
+      throws IOException {
+    RingBufferPipe pipe = new RingBufferPipe(new byte[16]);
+    pipe.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+
+    InputStream source = pipe.getSource();
+    assertEquals(3, source.available());
+    byte[] buffer = new byte[10];
+    assertEquals(3, source.read(buffer, 0, 10));
+    assertEquals(3, buffer[2]);
+
+    pipe.closeSink();
+    assertFalse(pipe.isSinkOpen());
+    assertEquals(-1, source.read());
+  }
+
+  @Test
+  public void testWritesWrapAroundTheRing()
+      throws Exception {
+    RingBufferPipe pipe = new RingBufferPipe(new byte[7]);
+    Future<byte[]> contents = drain(pipe, 3);
+
+    byte[] data = new byte[1000];
+    new Random(0).nextBytes(data);
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    while (buffer.hasRemaining()) {
+      ByteBuffer slice = buffer.duplicate();
+      slice.limit(Math.min(buffer.limit(), buffer.position() + 5));
+      assertEquals(slice.remaining(), pipe.write(slice));
+      buffer.position(slice.position());
+    }
+    pipe.closeSink();
+
+    assertArrayEquals(data, contents.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testLargeWritesAreHandedOff()
+      throws Exception {
+    RingBufferPipe pipe = new RingBufferPipe(new byte[8]);
+    Future<byte[]> contents = drain(pipe, 13);
+
+    Random random = new Random(0);
+    byte[] small = new byte[5];
+    random.nextBytes(small);
+    byte[] large = new byte[100];
+    random.nextBytes(large);
+    pipe.write(ByteBuffer.wrap(small));
+    ByteBuffer largeBuffer = ByteBuffer.wrap(large);
+    assertEquals(100, pipe.write(largeBuffer));
+    // The caller's buffer is consumed once write() returns.
+    assertFalse(largeBuffer.hasRemaining());
+    pipe.write(ByteBuffer.wrap(small));
+    pipe.closeSink();
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expected.write(small);
+    expected.write(large);
+    expected.write(small);
+    assertArrayEquals(expected.toByteArray(), contents.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testWriteFailsOnceSourceIsClosed()
+      throws IOException {
+    RingBufferPipe pipe = new RingBufferPipe(new byte[4]);
+    // Smaller than the ring, so it is copied in rather than handed off to a reader.
+    pipe.write(ByteBuffer.wrap(new byte[3]));
+    pipe.getSource().close();
+    try {
+      pipe.write(ByteBuffer.wrap(new byte[1]));
+      fail("Expected IOException");
+    } catch (IOException ioe) {
+      assertEquals("Pipe closed", ioe.getMessage());
+    }
+  }
+
+  @Test
+  public void testWriteFailsOnceSinkIsClosed()
+      throws IOException {
+    RingBufferPipe pipe = new RingBufferPipe(new byte[4]);
+    pipe.closeSink();
+    try {
+      pipe.write(ByteBuffer.wrap(new byte[1]));
+      fail("Expected ClosedChannelException");
+    } catch (ClosedChannelException cce) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.hadoop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Unit tests for UploadBudget class.
+ */
+@RunWith(JUnit4.class)
+public class UploadBudgetTest {
+
+  /**
+   * Starts acquire(desiredBytes, minBytes) on the given executor.
+   */
+  private static Future<Long> acquireAsync(ExecutorService executor, final UploadBudget budget,
+      final long desiredBytes, final long minBytes) {
+    return executor.submit(new Callable<Long>() {
+      @Override
+      public Long call()
+          throws InterruptedIOException {
+        return budget.acquire(desiredBytes, minBytes);
+      }
+    });
+  }
+
+  /**
+   * Waits until the given number of callers are blocked in acquire().
+   */
+  private static void waitForQueuedUploads(UploadBudget budget, int queuedUploads)
+      throws InterruptedException {
+    while (budget.getQueuedUploads() < queuedUploads) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testUnboundedBudgetGrantsEverything()
+      throws Exception {
+    UploadBudget budget = new UploadBudget(0, 0);
+    assertEquals(100, budget.acquire(100, 10));
+    assertEquals(1000, budget.acquire(1000, 10));
+    assertEquals(1100, budget.getInFlightBytes());
+    assertEquals(2, budget.getInFlightUploads());
+    assertEquals(0, budget.getReducedUploadCount());
+
+    budget.release(100);
+    budget.release(1000);
+    assertEquals(0, budget.getInFlightBytes());
+    assertEquals(0, budget.getInFlightUploads());
+  }
+
+  @Test
+  public void testGrantIsReducedToWhatIsLeft()
+      throws Exception {
+    UploadBudget budget = new UploadBudget(250, 0);
+    assertEquals(100, budget.acquire(100, 10));
+    assertEquals(100, budget.acquire(100, 10));
+    assertEquals(50, budget.acquire(100, 10));
+    assertEquals(250, budget.getInFlightBytes());
+    assertEquals(1, budget.getReducedUploadCount());
+  }
+
+  @Test
+  public void testFirstUploadIsAdmittedEvenIfLargerThanBudget()
+      throws Exception {
+    UploadBudget budget = new UploadBudget(100, 0);
+    assertEquals(100, budget.acquire(1000, 10));
+    budget.release(100);
+
+    // Even the minimum doesn't fit, but nothing else is running.
+    assertEquals(500, budget.acquire(1000, 500));
+  }
+
+  @Test
+  public void testAcquireBlocksUntilMinimumIsReleased()
+      throws Exception {
+    UploadBudget budget = new UploadBudget(100, 0);
+    assertEquals(95, budget.acquire(95, 10));
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Long> blocked = acquireAsync(executor, budget, 50, 10);
+      waitForQueuedUploads(budget, 1);
+      assertEquals(50, budget.getQueuedBytes());
+      assertFalse(blocked.isDone());
+
+      budget.release(95);
+      assertEquals(50, (long) blocked.get(10, TimeUnit.SECONDS));
+      assertEquals(0, budget.getQueuedUploads());
+      assertEquals(0, budget.getQueuedBytes());
+      assertEquals(50, budget.getInFlightBytes());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testAcquireBlocksAtMaxUploads()
+      throws Exception {
+    UploadBudget budget = new UploadBudget(0, 2);
+    budget.acquire(10, 10);
+    budget.acquire(10, 10);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Long> blocked = acquireAsync(executor, budget, 10, 10);
+      waitForQueuedUploads(budget, 1);
+      try {
+        blocked.get(100, TimeUnit.MILLISECONDS);
+        fail("Expected TimeoutException");
+      } catch (TimeoutException te) {
+        // Expected.
+      }
+
+      budget.release(10);
+      assertEquals(10, (long) blocked.get(10, TimeUnit.SECONDS));
+      assertEquals(2, budget.getInFlightUploads());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testTryAcquireGivesUpAfterMaxWait()
+      throws Exception {
+    UploadBudget budget = new UploadBudget(0, 1, 50);
+    assertEquals(100, budget.tryAcquire(100, 10));
+
+    // The only upload slot is taken, possibly by the caller itself.
+    assertEquals(-1, budget.tryAcquire(100, 10));
+    assertEquals(1, budget.getTimedOutUploadCount());
+    assertEquals(1, budget.getInFlightUploads());
+    assertEquals(0, budget.getQueuedUploads());
+
+    budget.release(100);
+    assertEquals(100, budget.tryAcquire(100, 10));
+  }
+
+  @Test
+  public void testReleaseWithoutAcquireFails() {
+    UploadBudget budget = new UploadBudget(100, 0);
+    try {
+      budget.release(10);
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException ise) {
+      // Expected.
+    }
+  }
+}